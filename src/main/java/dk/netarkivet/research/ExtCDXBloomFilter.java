@@ -0,0 +1,62 @@
+package dk.netarkivet.research;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXBloomFilter;
+import dk.netarkivet.research.utils.FileUtils;
+
+/**
+ * Builds a bloom filter of the URLs in CDX files, and writes it to a file.
+ *
+ * The filter can be given to the link analyser, which then only looks up the links in the CDX server,
+ * when they might be in the archive.
+ */
+public class ExtCDXBloomFilter {
+	/** Logging mechanism. */
+	private static Logger logger = LoggerFactory.getLogger(ExtCDXBloomFilter.class);
+
+	/** The system property for the expected rate of false positives of the filter.*/
+	public static final String FALSE_POSITIVE_RATE_PROPERTY = "dk.netarkivet.research.cdx.bloomFalsePositiveRate";
+
+	/**
+	 * Main method.
+	 * @param args The list of arguments.
+	 */
+	public static void main(String ... args) {
+		if(args.length < 2) {
+			System.err.println("Not enough arguments. Requires the following arguments:");
+			System.err.println(" 1. The output file for the bloom filter.");
+			System.err.println(" 2+. The CDX files, or directories with CDX files.");
+			System.err.println("The expected rate of false positives (default " 
+					+ CDXBloomFilter.DEFAULT_FALSE_POSITIVE_RATE + ") can be given with the system property '" 
+					+ FALSE_POSITIVE_RATE_PROPERTY + "'.");
+			throw new IllegalArgumentException("Not enough arguments.");
+		}
+
+		File outputFile = new File(args[0]);
+		if(outputFile.exists()) {
+			FileUtils.deprecateFile(outputFile);
+		}
+
+		List<File> inputFiles = new ArrayList<File>();
+		for(int i = 1; i < args.length; i++) {
+			inputFiles.addAll(ExtCDXSorter.extractInputFiles(new File(args[i])));
+		}
+
+		double falsePositiveRate = Double.parseDouble(System.getProperty(FALSE_POSITIVE_RATE_PROPERTY, 
+				String.valueOf(CDXBloomFilter.DEFAULT_FALSE_POSITIVE_RATE)));
+		CDXBloomFilter filter = CDXBloomFilter.createFromCDXFiles(inputFiles, falsePositiveRate);
+		filter.writeToFile(outputFile);
+
+		String summary = "Wrote a bloom filter with " + filter.getNumberOfKeys() + " URLs in " 
+				+ (filter.getNumberOfBits() / 8L) + " bytes to '" + outputFile.getAbsolutePath() 
+				+ "'. Expected false positive rate: " + filter.getExpectedFalsePositiveRate();
+		logger.info(summary);
+		System.out.println(summary);
+	}
+}
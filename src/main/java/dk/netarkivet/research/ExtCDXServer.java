@@ -0,0 +1,89 @@
+package dk.netarkivet.research;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.LocalCDXExtractor;
+import dk.netarkivet.research.cdx.server.LocalCDXServer;
+
+/**
+ * Runs a local CDX server on sorted CDX files, with both the DAB and the pywb protocol.
+ * It can be used instead of the production CDX servers, when testing or load-testing the CDX extractors.
+ *
+ * The server runs until the process is stopped.
+ */
+public class ExtCDXServer {
+	/** Logging mechanism. */
+	private static Logger logger = LoggerFactory.getLogger(ExtCDXServer.class);
+
+	/** The system property for the artificial latency of the requests in milliseconds, either 'min' or 'min-max'.*/
+	public static final String LATENCY_MS_PROPERTY = "dk.netarkivet.research.cdx.server.latencyMs";
+	/** The system property for the fraction of the requests, which are answered with an error.*/
+	public static final String ERROR_RATE_PROPERTY = "dk.netarkivet.research.cdx.server.errorRate";
+	/** The system property for the number of threads handling the requests.*/
+	public static final String THREADS_PROPERTY = "dk.netarkivet.research.cdx.server.threads";
+	/** The system property for the number of CDX entries on a page of the pywb paged API.*/
+	public static final String PAGE_SIZE_PROPERTY = "dk.netarkivet.research.cdx.server.pageSize";
+
+	/**
+	 * Main method.
+	 * @param args The list of arguments.
+	 */
+	public static void main(String ... args) {
+		if(args.length < 2) {
+			System.err.println("Not enough arguments. Requires the following arguments:");
+			System.err.println(" 1. The port of the server (0 for any free port).");
+			System.err.println(" 2+. The sorted CDX files, or directories with sorted CDX files.");
+			System.err.println("The latency (in ms, either 'min' or 'min-max'), the error rate (between 0 and 1), "
+					+ "the number of threads and the page size can be given with the system properties '" 
+					+ LATENCY_MS_PROPERTY + "', '" + ERROR_RATE_PROPERTY + "', '" + THREADS_PROPERTY + "' and '" 
+					+ PAGE_SIZE_PROPERTY + "'.");
+			throw new IllegalArgumentException("Not enough arguments.");
+		}
+
+		int port;
+		try {
+			port = Integer.parseInt(args[0]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The port must be a number, but was: " + args[0], e);
+		}
+
+		List<File> cdxFiles = new ArrayList<File>();
+		for(int i = 1; i < args.length; i++) {
+			cdxFiles.addAll(ExtCDXSorter.extractInputFiles(new File(args[i])));
+		}
+		if(cdxFiles.isEmpty()) {
+			throw new IllegalArgumentException("No CDX files found.");
+		}
+
+		final LocalCDXExtractor extractor = new LocalCDXExtractor(cdxFiles);
+		final LocalCDXServer server = new LocalCDXServer(extractor, port);
+		server.setThreads(Integer.getInteger(THREADS_PROPERTY, LocalCDXServer.DEFAULT_THREADS));
+		server.setPageSize(Integer.getInteger(PAGE_SIZE_PROPERTY, LocalCDXServer.DEFAULT_PAGE_SIZE));
+		server.setErrorRate(Double.parseDouble(System.getProperty(ERROR_RATE_PROPERTY, "0")));
+		String latency = System.getProperty(LATENCY_MS_PROPERTY);
+		if(latency != null && !latency.isEmpty()) {
+			String[] minMax = latency.split("-");
+			long min = Long.parseLong(minMax[0].trim());
+			long max = minMax.length > 1 ? Long.parseLong(minMax[1].trim()) : min;
+			server.setLatency(min, max);
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.close();
+				extractor.close();
+			}
+		});
+		server.start();
+		logger.info("Serving " + cdxFiles.size() + " CDX files at '" + server.getDabUrl() + "' and '" 
+				+ server.getPywbUrl() + "'.");
+		System.out.println("DAB CDX server: " + server.getDabUrl());
+		System.out.println("PYWB CDX server: " + server.getPywbUrl());
+	}
+}
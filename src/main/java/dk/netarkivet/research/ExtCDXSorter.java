@@ -0,0 +1,108 @@
+package dk.netarkivet.research;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXFileSorter;
+import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.utils.FileUtils;
+
+/**
+ * Sorts or merges CDX files into one sorted CDX file.
+ *
+ * The sorted file has the CDX format of the CDX server, which starts with the canonized URL and the date,
+ * so the lines are sorted by canonical key and date, and the file can be used by the LocalCDXExtractor.
+ *
+ * Sorting can handle CDX files larger than the memory, since the sorted runs are spilled to temporary files.
+ * Merging requires the input files to already be sorted, and is done in a single streaming pass.
+ */
+public class ExtCDXSorter {
+	/** Logging mechanism. */
+	private static Logger logger = LoggerFactory.getLogger(ExtCDXSorter.class);
+
+	/** The system property for the memory budget of the sorting, in MB.*/
+	public static final String MEMORY_MB_PROPERTY = "dk.netarkivet.research.cdx.sortMemoryMb";
+	/** The system property for the directory of the temporary files of the sorting.*/
+	public static final String TEMP_DIR_PROPERTY = "dk.netarkivet.research.cdx.sortTempDir";
+	/** The suffix of the CDX files in an input directory.*/
+	protected static final String CDX_SUFFIX = ".cdx";
+	/** The number of bytes in a MB.*/
+	protected static final long BYTES_PER_MB = 1024L * 1024L;
+
+	/**
+	 * Main method.
+	 * @param args The list of arguments.
+	 */
+	public static void main(String ... args) {
+		if(args.length < 3) {
+			System.err.println("Not enough arguments. Requires the following arguments:");
+			System.err.println(" 1. The mode: 'sort' for CDX files in any order, or 'merge' for already sorted "
+					+ "CDX files.");
+			System.err.println(" 2. The output file for the sorted CDX.");
+			System.err.println(" 3+. The CDX files, or directories with '" + CDX_SUFFIX + "' files.");
+			System.err.println("The memory budget (in MB) and the directory for temporary files can be given with "
+					+ "the system properties '" + MEMORY_MB_PROPERTY + "' and '" + TEMP_DIR_PROPERTY + "'.");
+			throw new IllegalArgumentException("Not enough arguments.");
+		}
+
+		String mode = args[0].toLowerCase();
+		if(!mode.equals("sort") && !mode.equals("merge")) {
+			throw new IllegalArgumentException("The mode must be either 'sort' or 'merge', but was: " + args[0]);
+		}
+
+		File outputFile = new File(args[1]);
+		if(outputFile.exists()) {
+			FileUtils.deprecateFile(outputFile);
+		}
+
+		List<File> inputFiles = new ArrayList<File>();
+		for(int i = 2; i < args.length; i++) {
+			inputFiles.addAll(extractInputFiles(new File(args[i])));
+		}
+
+		long memoryBudget = Long.getLong(MEMORY_MB_PROPERTY, CDXFileSorter.DEFAULT_MEMORY_BUDGET / BYTES_PER_MB)
+				* BYTES_PER_MB;
+		File tempDir = new File(System.getProperty(TEMP_DIR_PROPERTY, System.getProperty("java.io.tmpdir")));
+		if(!tempDir.isDirectory()) {
+			throw new IllegalArgumentException("The directory for temporary files '" + tempDir.getAbsolutePath()
+					+ "' is not a proper directory.");
+		}
+
+		CDXFileSorter sorter = new CDXFileSorter(DabCDXExtractor.getDefaultCDXFormat(), memoryBudget, tempDir);
+		long lines;
+		if(mode.equals("sort")) {
+			lines = sorter.sort(inputFiles, outputFile);
+		} else {
+			lines = sorter.merge(inputFiles, outputFile);
+		}
+		logger.info("Wrote " + lines + " CDX lines to '" + outputFile.getAbsolutePath() + "'.");
+		System.out.println("Wrote " + lines + " CDX lines to '" + outputFile.getAbsolutePath() + "'.");
+	}
+
+	/**
+	 * Extracts the input files from an argument, which is either a file or a directory with CDX files.
+	 * @param input The file or directory.
+	 * @return The input files.
+	 */
+	protected static List<File> extractInputFiles(File input) {
+		List<File> res = new ArrayList<File>();
+		if(input.isFile()) {
+			res.add(input);
+		} else if(input.isDirectory()) {
+			for(String filename : FileUtils.getSortedListOfFilenames(input)) {
+				File file = new File(input, filename);
+				if(file.isFile() && filename.endsWith(CDX_SUFFIX)) {
+					res.add(file);
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("The input '" + input.getAbsolutePath() + "' is neither a file nor "
+					+ "a directory.");
+		}
+		return res;
+	}
+}
@@ -0,0 +1,62 @@
+package dk.netarkivet.research;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXStatistics;
+import dk.netarkivet.research.cdx.CDXStatisticsAggregator;
+
+/**
+ * Counts the captures in local CDX files by mimetype, status code, year, host and harvest job, and writes the
+ * statistics as CSV files to an output directory.
+ *
+ * It gives the same breakdown as running the MimetypeWarcBatchJob on the bitarchive, but only reads the CDX.
+ * The CDX files are split into chunks by byte ranges, which are counted on all the cores.
+ */
+public class ExtCDXStatistics {
+	/** Logging mechanism. */
+	private static Logger logger = LoggerFactory.getLogger(ExtCDXStatistics.class);
+
+	/** The system property for the number of threads.*/
+	public static final String THREADS_PROPERTY = "dk.netarkivet.research.cdx.statisticsThreads";
+
+	/**
+	 * Main method.
+	 * @param args The list of arguments.
+	 */
+	public static void main(String ... args) {
+		if(args.length < 2) {
+			System.err.println("Not enough arguments. Requires the following arguments:");
+			System.err.println(" 1. The output directory for the statistics.");
+			System.err.println(" 2+. The CDX files, or directories with CDX files.");
+			System.err.println("The number of threads (default the number of processors) can be given with the "
+					+ "system property '" + THREADS_PROPERTY + "'.");
+			throw new IllegalArgumentException("Not enough arguments.");
+		}
+
+		File outputDir = new File(args[0]);
+		if(outputDir.exists() && !outputDir.isDirectory()) {
+			throw new IllegalArgumentException("The output '" + outputDir.getAbsolutePath() + "' is not a "
+					+ "directory.");
+		}
+
+		List<File> inputFiles = new ArrayList<File>();
+		for(int i = 1; i < args.length; i++) {
+			inputFiles.addAll(ExtCDXSorter.extractInputFiles(new File(args[i])));
+		}
+
+		int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+		CDXStatisticsAggregator aggregator = new CDXStatisticsAggregator(threads);
+		CDXStatistics statistics = aggregator.aggregate(inputFiles);
+		statistics.writeToDirectory(outputDir);
+
+		String summary = "Wrote the statistics of " + statistics.getTotalCount() + " CDX entries from " 
+				+ inputFiles.size() + " CDX files to '" + outputDir.getAbsolutePath() + "'.";
+		logger.info(summary);
+		System.out.println(summary);
+	}
+}
@@ -0,0 +1,122 @@
+package dk.netarkivet.research;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXFileSorter;
+import dk.netarkivet.research.cdx.CDXQueryIterator;
+import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.IncrementalCDXExtractor;
+
+/**
+ * Ingests new CDX files into an incremental local CDX store, or merges the segments of the store.
+ *
+ * Each ingest sorts the new CDX files into a new segment of the store, so the whole index does not have to be 
+ * sorted again for each new harvest. The directory of the store can be used as a directory of sorted CDX files,
+ * e.g. by the ExtractMetadata and the ExtCDXServer.
+ * 
+ * If the store has secondary indexes, then the CDX lines of all the captures with a payload digest, or of all the 
+ * captures of a harvest job, can be printed.
+ */
+public class ExtCDXStore {
+	/** Logging mechanism. */
+	private static Logger logger = LoggerFactory.getLogger(ExtCDXStore.class);
+
+	/** The system property for the maximum number of segments before they are merged.*/
+	public static final String MAX_SEGMENTS_PROPERTY = "dk.netarkivet.research.cdx.storeMaxSegments";
+	/** The system property for whether the store has secondary indexes by payload digest and harvest job.*/
+	public static final String INDEXES_PROPERTY = "dk.netarkivet.research.cdx.storeIndexes";
+
+	/**
+	 * Main method.
+	 * @param args The list of arguments.
+	 */
+	public static void main(String ... args) {
+		if(args.length < 2) {
+			System.err.println("Not enough arguments. Requires the following arguments:");
+			System.err.println(" 1. The mode: 'ingest' for adding CDX files to the store, 'compact' for merging "
+					+ "all the segments of the store into one, 'digest' for printing the captures with a payload "
+					+ "digest, or 'job' for printing the captures of a harvest job.");
+			System.err.println(" 2. The directory of the store. It is created, if it does not exist.");
+			System.err.println(" 3+. For 'ingest': the CDX files, or directories with CDX files.");
+			System.err.println("    For 'digest': the payload digest. For 'job': the ID of the harvest job.");
+			System.err.println("The maximum number of segments (default " 
+					+ IncrementalCDXExtractor.DEFAULT_MAX_SEGMENTS + ") can be given with the system property '"
+					+ MAX_SEGMENTS_PROPERTY + "', and the memory budget for sorting (in MB) with the system "
+					+ "property '" + ExtCDXSorter.MEMORY_MB_PROPERTY + "'. The store has secondary indexes by "
+					+ "payload digest and harvest job, which are required for 'digest' and 'job', if the system "
+					+ "property '" + INDEXES_PROPERTY + "' is 'true'.");
+			throw new IllegalArgumentException("Not enough arguments.");
+		}
+
+		String mode = args[0].toLowerCase();
+		if(!mode.equals("ingest") && !mode.equals("compact") && !mode.equals("digest") && !mode.equals("job")) {
+			throw new IllegalArgumentException("The mode must be either 'ingest', 'compact', 'digest' or 'job', "
+					+ "but was: " + args[0]);
+		}
+		if((mode.equals("digest") || mode.equals("job")) && args.length < 3) {
+			throw new IllegalArgumentException("The mode '" + mode + "' requires a third argument.");
+		}
+
+		List<File> inputFiles = new ArrayList<File>();
+		if(mode.equals("ingest")) {
+			for(int i = 2; i < args.length; i++) {
+				inputFiles.addAll(ExtCDXSorter.extractInputFiles(new File(args[i])));
+			}
+			if(inputFiles.isEmpty()) {
+				throw new IllegalArgumentException("No CDX files to ingest.");
+			}
+		}
+
+		int maxSegments = Integer.getInteger(MAX_SEGMENTS_PROPERTY, IncrementalCDXExtractor.DEFAULT_MAX_SEGMENTS);
+		long memoryBudget = Long.getLong(ExtCDXSorter.MEMORY_MB_PROPERTY, 
+				CDXFileSorter.DEFAULT_MEMORY_BUDGET / ExtCDXSorter.BYTES_PER_MB) * ExtCDXSorter.BYTES_PER_MB;
+		boolean indexes = Boolean.getBoolean(INDEXES_PROPERTY);
+		File directory = new File(args[1]);
+		String summary;
+		try (IncrementalCDXExtractor store = new IncrementalCDXExtractor(directory, maxSegments, memoryBudget, 
+				indexes)) {
+			if(mode.equals("ingest")) {
+				long lines = store.ingest(inputFiles);
+				store.compact();
+				summary = "Ingested " + lines + " CDX lines from " + inputFiles.size() + " files.";
+			} else if(mode.equals("compact")) {
+				store.compactAll();
+				summary = "Merged the segments of the store.";
+			} else if(mode.equals("digest")) {
+				long count = 0L;
+				for(CDXEntry entry : store.retrieveCDXForDigest(args[2])) {
+					printEntry(entry);
+					count++;
+				}
+				summary = "Found " + count + " captures with the digest '" + args[2] + "'.";
+			} else {
+				long count = 0L;
+				try (CDXQueryIterator iterator = store.queryCDXForJob(Long.parseLong(args[2]))) {
+					while(iterator.hasNext()) {
+						printEntry(iterator.next());
+						count++;
+					}
+				}
+				summary = "Found " + count + " captures of the harvest job '" + args[2] + "'.";
+			}
+			summary += " The store '" + directory.getAbsolutePath() + "' has " + store.getSegmentFiles().size() 
+					+ " segments.";
+		}
+		logger.info(summary);
+		System.err.println(summary);
+	}
+
+	/**
+	 * Prints the CDX entry in the CDX format of the store.
+	 * @param entry The CDX entry.
+	 */
+	protected static void printEntry(CDXEntry entry) {
+		System.out.println(entry.extractCDXAsLine(DabCDXExtractor.getDefaultCDXFormat()).trim());
+	}
+}
@@ -18,7 +18,10 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
+import dk.netarkivet.research.cdx.CDXMatchType;
 import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.LocalCDXExtractor;
+import dk.netarkivet.research.cdx.cache.CDXCacheFactory;
 import dk.netarkivet.research.duplicates.DuplicateExtractor;
 import dk.netarkivet.research.duplicates.DuplicateMap;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
@@ -49,7 +52,10 @@ public class ExtDuplicateFinder {
 		if(args.length < 2) {
 			System.err.println("Not enough arguments. Requires the following arguments:");
 			System.err.println(" 1. Input file, containing lines where the first element is the URL to search for");
-			System.err.println(" 2. the base URL to the CDX-server.");
+			System.err.println("  - The URL may have a wildcard for all the URLs with a prefix ('example.dk/*') or "
+					+ "all the URLs of a domain ('*.example.dk'), which gives a result file for each URL.");
+			System.err.println(" 2. the base URL to the CDX-server, or the path to a sorted local CDX file "
+					+ "(or a directory of sorted '.cdx' files).");
 			System.err.println(" 3. (OPTIONAL) output directory, otherwise it is printed.");
 			System.err.println(" 4. (OPTIONAL) whether or not to use the actual job database.");
 			throw new IllegalArgumentException();
@@ -62,10 +68,17 @@ public class ExtDuplicateFinder {
 		}
 
 		String cdxServerBaseUrl = args[1];
-		try {
-			new URL(cdxServerBaseUrl);
-		} catch (IOException e) {
-			throw new IllegalArgumentException("The CSX Server url '" + cdxServerBaseUrl + "' is invalid.", e);
+		CDXExtractor cdxExtractor;
+		if(new File(cdxServerBaseUrl).exists()) {
+			cdxExtractor = LocalCDXExtractor.createFromPath(new File(cdxServerBaseUrl));
+		} else {
+			try {
+				new URL(cdxServerBaseUrl);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("The CSX Server url '" + cdxServerBaseUrl + "' is invalid.", e);
+			}
+			cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, new HttpRetriever(),
+					CDXCacheFactory.createCache());
 		}
 
 		File outDir;
@@ -78,7 +91,6 @@ public class ExtDuplicateFinder {
 			jobExtractor = new NasHarvestJobExtractor();
 		}
 		
-		CDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, new HttpRetriever());
 		DuplicateExtractor duplicateExtractor = new DuplicateExtractor(cdxExtractor, jobExtractor);
 
 		ExtDuplicateFinder findDuplicates = new ExtDuplicateFinder(duplicateExtractor, inputFile, outDir);
@@ -146,6 +158,16 @@ public class ExtDuplicateFinder {
 			}
 		}
 
+		CDXMatchType matchType = CDXMatchType.extractMatchType(url);
+		if(matchType != CDXMatchType.EXACT) {
+			UrlInterval urlInterval = new UrlInterval(CDXMatchType.stripWildcard(url), earliestDate, latestDate);
+			for(Map.Entry<String, DuplicateMap> entry : extractor.makeDuplicateMaps(urlInterval, matchType)
+					.entrySet()) {
+				createMapResultFile(entry.getValue(), UrlUtils.fileEncodeUrl(entry.getKey()), entry.getKey());
+			}
+			return;
+		}
+
 		DuplicateMap map = extractor.makeDuplicateMap(new UrlInterval(url, earliestDate, latestDate));
 		String urlFilename = UrlUtils.fileEncodeUrl(url);
 		
@@ -11,8 +11,10 @@ import java.util.Collection;
 
 import org.jwat.warc.WarcRecord;
 
+import dk.netarkivet.research.cdx.CDXBloomFilter;
 import dk.netarkivet.research.cdx.CDXExtractor;
 import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.cache.CDXCacheFactory;
 import dk.netarkivet.research.http.HttpRetriever;
 import dk.netarkivet.research.links.CDXLinksLocator;
 import dk.netarkivet.research.links.HtmlLinkExtractor;
@@ -39,6 +41,9 @@ import dk.netarkivet.research.warc.WarcExtractor;
  * Closest date for the Link URL - 
  */
 public class ExtLinkAnalyser {
+	/** The system property for the file with the bloom filter of the URLs in the archive.*/
+	public static final String BLOOM_FILTER_PROPERTY = "dk.netarkivet.research.links.bloomFilter";
+
 	/**
 	 * Main method.
 	 * @param args Arguments. Must have the WARC file as first argument, the second argument
@@ -52,6 +57,8 @@ public class ExtLinkAnalyser {
 			System.err.println(" 1. WARC file");
 			System.err.println(" 2. URL for the DAB CDX server, or 'n'/'no' to check the live net instead.");
 			System.err.println(" 3. (OPTIONAL) output file location. Otherwise it will be named after the WARC file");
+			System.err.println("A bloom filter of the URLs in the archive can be given with the system property '" 
+					+ BLOOM_FILTER_PROPERTY + "', so the links which are not archived are not looked up.");
 			System.exit(-1);
 		}
 
@@ -82,6 +89,13 @@ public class ExtLinkAnalyser {
 		
 		ExtLinkAnalyser wtf = new ExtLinkAnalyser(linkLocator);
 		wtf.analyseWarcFile(warcFile, outFile);
+		
+		if(linkLocator instanceof CDXLinksLocator) {
+			CDXLinksLocator cdxLinksLocator = (CDXLinksLocator) linkLocator;
+			System.out.println("Looked up " + cdxLinksLocator.getLookups() + " links in the CDX server, and "
+					+ cdxLinksLocator.getFilteredLookups() + " links were found not to be archived by the bloom "
+					+ "filter.");
+		}
 
 		System.out.println("Finished");
 		System.exit(0);
@@ -123,9 +137,16 @@ public class ExtLinkAnalyser {
 				e.printStackTrace(System.err);
 				System.exit(-1);
 			}
-			CDXExtractor cdxExtractor = new DabCDXExtractor(cdxBaseUrl, new HttpRetriever());
+			CDXExtractor cdxExtractor = new DabCDXExtractor(cdxBaseUrl, new HttpRetriever(),
+					CDXCacheFactory.createCache());
+			
+			CDXBloomFilter bloomFilter = null;
+			String bloomFilterPath = System.getProperty(BLOOM_FILTER_PROPERTY);
+			if(bloomFilterPath != null && !bloomFilterPath.isEmpty()) {
+				bloomFilter = CDXBloomFilter.load(new File(bloomFilterPath));
+			}
 
-			return new CDXLinksLocator(linkExtractor, cdxExtractor);
+			return new CDXLinksLocator(linkExtractor, cdxExtractor, bloomFilter);
 		}
 	}
 
@@ -7,16 +7,26 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.AbstractCDXExtractor;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
 import dk.netarkivet.research.cdx.CDXFileWriter;
+import dk.netarkivet.research.cdx.CDXFuture;
+import dk.netarkivet.research.cdx.CDXMatchType;
+import dk.netarkivet.research.cdx.CDXQueryIterator;
 import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.FederatedCDXExtractor;
+import dk.netarkivet.research.cdx.LocalCDXExtractor;
+import dk.netarkivet.research.cdx.PackedCDXEntries;
+import dk.netarkivet.research.cdx.PooledAsyncCDXExtractor;
+import dk.netarkivet.research.cdx.cache.CDXCacheFactory;
 import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
@@ -45,6 +55,17 @@ public class ExtractMetadata {
 	/** The log.*/
 	private static Logger logger = LoggerFactory.getLogger(ExtractMetadata.class);
 	
+	/** The system property for the number of threads for resolving the WIDs.*/
+	public static final String CONCURRENCY_PROPERTY = "dk.netarkivet.research.cdx.concurrency";
+	/** The system property for the maximum number of WIDs being resolved at the same time.*/
+	public static final String MAX_IN_FLIGHT_PROPERTY = "dk.netarkivet.research.cdx.maxInFlight";
+	/** The system property for the percentile of the latencies, after which a lookup is hedged to another replica.*/
+	public static final String HEDGE_PERCENTILE_PROPERTY = "dk.netarkivet.research.cdx.hedgePercentile";
+	/** The separator between the URLs of the replicas of the CDX server.*/
+	public static final String REPLICA_SEPARATOR = ",";
+	/** The suffix of an output file, which makes the CDX format be written in compressed blocks with an index.*/
+	public static final String COMPRESSED_SUFFIX = ".gz";
+	
 	/**
 	 * Main method.
 	 * @param args The list of arguments.
@@ -54,9 +75,19 @@ public class ExtractMetadata {
     		System.err.println("Not enough arguments. Requires the following arguments:");
     		System.err.println(" 1. the CSV file in either the NAS WID format, or the URL interval format.");
     		System.err.println("  - NAS WID format has coloumns: 'W/X';#;url;date;location;filename");
-    		System.err.println("  - URL interval format has coloumns: 'W';url;earliest date;latest date");
+    		System.err.println("  - URL interval format has coloumns: 'W';url;earliest date;latest date;sampling");
+    		System.err.println("    The sampling is optional, and is either 'year', 'month', 'day' or 'hour' for "
+    				+ "only the first capture of the URL within each period.");
+    		System.err.println("    The url may have a wildcard for all the URLs with a prefix ('example.dk/*') "
+    				+ "or all the URLs of a domain ('*.example.dk').");
     		System.err.println(" 2. Format for CSV file: either 'WID' or 'URL'");
-    		System.err.println(" 3. the base URL to the CDX-server.");
+    		System.err.println(" 3. the base URL to the CDX-server, or the path to a sorted local CDX file "
+    				+ "(or a directory of sorted '.cdx' files).");
+    		System.err.println(" - Several replicas of the CDX server can be given as comma-separated URLs. "
+    				+ "Each lookup is then sent to the fastest replica, and hedged to another replica if it is slower than the "
+    				+ "percentile of the latencies in '" + HEDGE_PERCENTILE_PROPERTY + "' (default "
+    				+ FederatedCDXExtractor.DEFAULT_HEDGE_PERCENTILE + "). This can be set by the script using the "
+    				+ "environment variable CDX_HEDGE_PERCENTILE.");
     		System.err.println(" 4. Whether or not to extract harvest job info, either 'y'/'yes' or 'n'/'no'.");
     		System.err.println(" - If this option is set to true, then it requires one of the following "
     				+ "environemnt variables: ");
@@ -70,6 +101,17 @@ public class ExtractMetadata {
     		System.err.println(" - The CDX format will be a classical NAS CDX file.");
     		System.err.println(" - Default is 'CSV'.");
     		System.err.println(" 6. (OPTIONAL) the location for the output metadata file.");
+    		System.err.println(" - If the output is in CDX format and the file ends with '" + COMPRESSED_SUFFIX 
+    				+ "', then the CDX entries are sorted and written in gzip blocks along with a summary index (ZipNum).");
+    		System.err.println(" - The lines then start with the SURT of the URL, so pywb can search the blocks.");
+    		System.err.println("The WIDs and URLs are resolved in parallel, if the system property '" + CONCURRENCY_PROPERTY
+    				+ "' is set to more than 1 thread. The maximum number of concurrent requests can be set with '"
+    				+ MAX_IN_FLIGHT_PROPERTY + "' (default twice the number of threads). These can be set by the "
+    				+ "script using the environment variables CDX_CONCURRENCY and CDX_MAX_IN_FLIGHT.");
+    		System.err.println("The CDX entries are cached on disk between runs, if the system property '"
+    				+ CDXCacheFactory.CACHE_DIR_PROPERTY + "' is set to a directory. They are kept for the number of "
+    				+ "hours in '" + CDXCacheFactory.CACHE_TTL_HOURS_PROPERTY + "'. These can be set by the script "
+    				+ "using the environment variables CDX_CACHE_DIR and CDX_CACHE_TTL_HOURS.");
     		
     		throw new IllegalArgumentException("Not enough arguments");
     	}
@@ -83,12 +125,35 @@ public class ExtractMetadata {
     	InputFormat inputFormat = extractInputFormat(args[1]);
     	
     	String cdxServerBaseUrl = args[2];
-    	try {
-    		new URL(cdxServerBaseUrl);
-    	} catch (IOException e) {
-    		throw new IllegalArgumentException("The CSX Server url '" + cdxServerBaseUrl + "' is invalid.", e);
+    	CDXExtractor cdxExtractor;
+    	if(new File(cdxServerBaseUrl).exists()) {
+    		logger.info("Using the local CDX files at '" + cdxServerBaseUrl + "'.");
+    		cdxExtractor = LocalCDXExtractor.createFromPath(new File(cdxServerBaseUrl));
+    	} else {
+    		List<String> cdxServerUrls = Arrays.asList(cdxServerBaseUrl.split(REPLICA_SEPARATOR));
+    		for(String cdxServerUrl : cdxServerUrls) {
+    			try {
+    				new URL(cdxServerUrl);
+    			} catch (IOException e) {
+    				throw new IllegalArgumentException("The CSX Server url '" + cdxServerUrl + "' is invalid.", e);
+    			}
+    		}
+    		int concurrency = Integer.getInteger(CONCURRENCY_PROPERTY, 1);
+    		HttpRetriever httpRetriever = concurrency > 1 ? new HttpRetriever(concurrency) : new HttpRetriever();
+    		if(cdxServerUrls.size() > 1) {
+    			logger.info("Federating the lookups over the " + cdxServerUrls.size() + " CDX servers.");
+    			FederatedCDXExtractor federatedExtractor = FederatedCDXExtractor.createForDabServers(cdxServerUrls,
+    					httpRetriever, CDXCacheFactory.createCache());
+    			String hedgePercentile = System.getProperty(HEDGE_PERCENTILE_PROPERTY);
+    			if(hedgePercentile != null) {
+    				federatedExtractor.setHedging(Double.parseDouble(hedgePercentile), 1);
+    			}
+    			cdxExtractor = federatedExtractor;
+    		} else {
+    			cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, httpRetriever, CDXCacheFactory.createCache());
+    		}
     	}
-    	DabCDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerBaseUrl, new HttpRetriever());
+    	configureConcurrency(cdxExtractor);
     	
     	HarvestJobExtractor jobExtractor = null;
     	if(extractWhetherToUseHarvestDb(args[3])) {
@@ -154,11 +219,28 @@ public class ExtractMetadata {
     		e.printStackTrace(System.err);
     		throw new IllegalStateException("Failed to extract the metadata", e);
     	}
+    	if(cdxExtractor instanceof FederatedCDXExtractor) {
+    		((FederatedCDXExtractor) cdxExtractor).logStatistics();
+    	}
     	
     	System.out.println("Finished");
     	System.exit(0);
     }
     
+    /**
+     * Configures the CDX extractor to resolve the WIDs in parallel, if the concurrency system property is set.
+     * @param cdxExtractor The CDX extractor.
+     */
+    protected static void configureConcurrency(CDXExtractor cdxExtractor) {
+    	int concurrency = Integer.getInteger(CONCURRENCY_PROPERTY, 1);
+    	if(concurrency > 1 && cdxExtractor instanceof AbstractCDXExtractor) {
+    		int maxInFlight = Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, 2 * concurrency);
+    		logger.info("Resolving the WIDs with " + concurrency + " threads and at most " + maxInFlight 
+    				+ " requests in flight.");
+    		((AbstractCDXExtractor) cdxExtractor).setConcurrency(concurrency, maxInFlight);
+    	}
+    }
+    
     /**
      * Extracts the argument for whether or not to extract the job info from the NAS HarvestDb.
      * Throws an exception, if it is not a valid argument.
@@ -270,12 +352,18 @@ public class ExtractMetadata {
     	} else {
     		logger.info("Printing all metadata to CSV");
     		CDXFileWriter outputWriter = new CDXFileWriter(outFile);
-    		outputWriter.writeCDXEntries(cdxEntries, DabCDXExtractor.getDefaultCDXFormat());
+    		if(outFile.getName().endsWith(COMPRESSED_SUFFIX)) {
+    			outputWriter.writeCompressedCDXEntries(cdxEntries, DabCDXExtractor.getDefaultCDXFormat(), 
+    					CDXFileWriter.DEFAULT_LINES_PER_BLOCK);
+    		} else {
+    			outputWriter.writeCDXEntries(cdxEntries, DabCDXExtractor.getDefaultCDXFormat());
+    		}
     	}
     }
     
     /**
      * Extracts the CDX entries for the file of the given type.
+     * The entries are kept packed, since there can be very many of them.
      * @param inputFormat The type of file. Either WID or URL interval.
      * @return The CDX entries for the file.
      */
@@ -283,18 +371,103 @@ public class ExtractMetadata {
     	if(inputFormat == InputFormat.INPUT_FORMAT_WID) {
     		CsvWidReader reader = new CsvWidReader(inputFile);
     		Collection<WID> wids = reader.extractAllWIDs();
-    		return cdxExtractor.retrieveCDXentries(wids);
+    		return new PackedCDXEntries(cdxExtractor.retrieveCDXentries(wids));
     	} else {
     		CsvUrlIntervalReader reader = new CsvUrlIntervalReader(inputFile);
     		Collection<UrlInterval> intervals = reader.extractAllUrlIntervals();
-    		List<CDXEntry> res = new ArrayList<CDXEntry>(intervals.size());
+    		if(getConcurrency() > 1) {
+    			return extractCdxForIntervalsAsync(intervals);
+    		}
+    		PackedCDXEntries res = new PackedCDXEntries(intervals.size());
     		for(UrlInterval ui : intervals) {
-        		res.addAll(cdxExtractor.retrieveCDXForInterval(ui));
+    			CDXMatchType matchType = CDXMatchType.extractMatchType(ui.getUrl());
+    			if(matchType == CDXMatchType.EXACT) {
+    				addEntries(cdxExtractor.retrieveCDXForInterval(ui), ui, res);
+    			} else {
+    				queryCdxForInterval(ui, matchType, res);
+    			}
     		}
     		return res;
     	}
     }
     
+    /**
+     * @return The number of threads of the CDX extractor, or 1 if it has no threads.
+     */
+    protected int getConcurrency() {
+    	if(cdxExtractor instanceof AbstractCDXExtractor) {
+    		return ((AbstractCDXExtractor) cdxExtractor).getConcurrency();
+    	}
+    	return 1;
+    }
+    
+    /**
+     * Extracts the CDX entries for the URL intervals, where the lookups for the URLs without wildcards are all 
+     * queued at once with an asynchronous CDX extractor, which makes them with the threads of the CDX extractor.
+     * The URL patterns with a wildcard are streamed meanwhile.
+     * The CDX entries are kept in the order of the URL intervals.
+     * @param intervals The URL intervals.
+     * @return The CDX entries for the URL intervals.
+     */
+    protected Collection<CDXEntry> extractCdxForIntervalsAsync(Collection<UrlInterval> intervals) {
+    	PackedCDXEntries res = new PackedCDXEntries(intervals.size());
+    	try (PooledAsyncCDXExtractor asyncExtractor = new PooledAsyncCDXExtractor(cdxExtractor, getConcurrency())) {
+    		List<CDXFuture<Collection<CDXEntry>>> lookups = new ArrayList<CDXFuture<Collection<CDXEntry>>>();
+    		for(UrlInterval ui : intervals) {
+    			if(CDXMatchType.extractMatchType(ui.getUrl()) == CDXMatchType.EXACT) {
+    				lookups.add(asyncExtractor.retrieveCDXForIntervalAsync(ui));
+    			} else {
+    				lookups.add(null);
+    			}
+    		}
+    		
+    		int index = 0;
+    		for(UrlInterval ui : intervals) {
+    			CDXFuture<Collection<CDXEntry>> lookup = lookups.get(index++);
+    			if(lookup != null) {
+    				addEntries(lookup.join(), ui, res);
+    			} else {
+    				queryCdxForInterval(ui, CDXMatchType.extractMatchType(ui.getUrl()), res);
+    			}
+    		}
+    	}
+    	return res;
+    }
+
+    /**
+     * Adds the CDX entries for a URL interval to the results.
+     * @param entries The CDX entries for the URL interval, or null if they could not be retrieved.
+     * @param urlInterval The URL interval.
+     * @param res The CDX entries, where the CDX entries are added.
+     */
+    protected void addEntries(Collection<CDXEntry> entries, UrlInterval urlInterval, PackedCDXEntries res) {
+    	if(entries == null) {
+    		logger.warn("Could not retrieve the CDX entries for the URL '" + urlInterval.getUrl() + "'.");
+    		return;
+    	}
+    	res.addAll(entries);
+    }
+
+    /**
+     * Queries the CDX entries for a URL pattern with a wildcard (e.g. 'example.dk/*' or '*.example.dk'), 
+     * within the interval and its sampling. 
+     * All the URLs of the pattern are thereby retrieved with a single streamed query.
+     * @param urlInterval The URL pattern and the interval.
+     * @param matchType The match type of the URL pattern.
+     * @param res The CDX entries, where the CDX entries within the interval are added.
+     */
+    protected void queryCdxForInterval(UrlInterval urlInterval, CDXMatchType matchType, PackedCDXEntries res) {
+    	String url = CDXMatchType.stripWildcard(urlInterval.getUrl());
+    	logger.info("Querying all the CDX entries for the " + matchType + " '" + url + "'.");
+    	UrlInterval query = new UrlInterval(url, urlInterval.getEarliestDate(), urlInterval.getLatestDate(), 
+    			urlInterval.getSampling());
+    	try (CDXQueryIterator iterator = cdxExtractor.queryCDXForInterval(query, matchType)) {
+    		while(iterator.hasNext()) {
+    			res.add(iterator.next());
+    		}
+    	}
+    }
+    
     /**
      * Extracts the CDX entries to the CSV metadata format, including extracting the job info.
      * @param cdxEntries The CDX entries.
@@ -2,11 +2,10 @@ package dk.netarkivet.research;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
 
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
-import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXEntryIterator;
 import dk.netarkivet.research.cdx.CDXFileReader;
 import dk.netarkivet.research.warc.ArchiveExtractor;
 import dk.netarkivet.research.warc.NASArchiveExtractor;
@@ -48,10 +47,8 @@ public class NarkWarcExtract {
     		System.exit(-1);
     	}
     	
-    	try {
-    		CDXFileReader cdxReader = new CDXFileReader();
-    		Collection<CDXEntry> cdxEntries = cdxReader.extractCDXFromFile(cdxFile);
-    		
+    	CDXFileReader cdxReader = new CDXFileReader();
+    	try (CDXEntryIterator cdxEntries = cdxReader.iterateCDXFromFile(cdxFile)) {
             ViewerArcRepositoryClient arcRepositoryClient = ArcRepositoryClientFactory.getViewerInstance();
             ArchiveExtractor extractor = new NASArchiveExtractor(arcRepositoryClient);
             WarcPacker warcPacker = new WarcPacker(extractor);
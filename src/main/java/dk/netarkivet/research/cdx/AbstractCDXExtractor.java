@@ -1,15 +1,35 @@
 package dk.netarkivet.research.cdx;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.http.ResponseLineHandler;
 import dk.netarkivet.research.interval.UrlInterval;
 import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.utils.SurtUtils;
 import dk.netarkivet.research.wid.WID;
 import dk.netarkivet.research.wid.WPID;
 import dk.netarkivet.research.wid.WaybackWID;
@@ -21,50 +41,548 @@ import dk.netarkivet.research.wid.WaybackWID;
 public abstract class AbstractCDXExtractor implements CDXExtractor {
 	/** The log.*/
 	private static Logger logger = LoggerFactory.getLogger(AbstractCDXExtractor.class);
+	
+	/** The number of threads for resolving WIDs. If it is 1, then they are resolved on the calling thread.*/
+	protected int concurrency = 1;
+	/** The maximum number of URLs, whose WIDs are being resolved (or queued for resolving) at the same time.*/
+	protected int maxInFlight = 1;
+	
+	/** The separator between the server and the URL key in the cache keys. URLs cannot contain spaces.*/
+	protected static final String CACHE_KEY_SEPARATOR = " ";
+	/** The maximum number of timelines kept for the URLs, when the extractor caches the CDX entries.*/
+	protected static final int MAX_TIMELINES = 64;
+	/** 
+	 * The timelines of the latest URLs. Only used, when the extractor caches the CDX entries, since a timeline is
+	 * only reused while it is made from the same (cached) collection of CDX entries.
+	 */
+	protected final Map<String, CDXTimeline> timelines = Collections.synchronizedMap(
+			new LruTimelineMap(MAX_TIMELINES));
+	/** The requests for all the CDX entries of a URL, which are in flight, by the key of the URL.*/
+	protected final ConcurrentMap<String, FutureTask<Collection<CDXEntry>>> requestsInFlight = 
+			new ConcurrentHashMap<String, FutureTask<Collection<CDXEntry>>>();
 
 	@Override
 	public CDXEntry retrieveCDX(WaybackWID wid) {
-		Collection<CDXEntry> allCDXforUrl = retrieveAllCDX(wid.getUrl());
-		CDXEntry res = findCDXwithFile(allCDXforUrl, wid.getFilename());
-		if(res == null) {
-			res = retrieveCDXclosestToDate(allCDXforUrl, wid.getDate());
+		if(isCachingEntries()) {
+			CDXTimeline timeline = retrieveTimeline(wid.getUrl());
+			if(timeline == null) {
+				return null;
+			}
+			CDXEntry res = timeline.findFilename(wid.getFilename());
+			return res != null ? res : timeline.findClosest(wid.getDate());
 		}
-		return res;
+		FileOrClosestToDateFinder finder = new FileOrClosestToDateFinder(wid.getFilename(), wid.getDate());
+		streamAllCDX(wid.getUrl(), finder);
+		return finder.getResult();
 	}
 	
 	@Override
 	public Collection<CDXEntry> retrieveCDXForInterval(UrlInterval urlInterval) {
-		Collection<CDXEntry> entries = retrieveAllCDX(urlInterval.getUrl());
-		if(urlInterval.getEarliestDate() == null && urlInterval.getLatestDate() == null) {
-			return entries;
+		if(urlInterval.getEarliestDate() == null && urlInterval.getLatestDate() == null 
+				&& urlInterval.getSampling() == null) {
+			return retrieveAllCDX(urlInterval.getUrl());
+		}
+		if(isCachingEntries()) {
+			CDXTimeline timeline = retrieveTimeline(urlInterval.getUrl());
+			if(timeline == null) {
+				return new ArrayList<CDXEntry>();
+			}
+			return CDXSampler.sample(timeline.findInterval(urlInterval.getEarliestDate(), 
+					urlInterval.getLatestDate()), urlInterval.getSampling());
 		}
 		
-		List<CDXEntry> res = new ArrayList<CDXEntry>();
-		for(CDXEntry entry : entries) {
-			if(DateUtils.checkDateInterval(entry, urlInterval.getEarliestDate(), urlInterval.getLatestDate())) {
+		final PackedCDXEntries res = new PackedCDXEntries();
+		streamAllCDX(urlInterval.getUrl(), createIntervalHandler(urlInterval, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
 				res.add(entry);
 			}
+		}));
+		res.trimToSize();
+		return res;
+	}
+	
+	/**
+	 * Creates the handler, which only passes the CDX entries within the dates of the interval on to the handler, 
+	 * and samples them if the interval has a sampling. 
+	 * @param urlInterval The interval.
+	 * @param handler The handler of the CDX entries of the interval.
+	 * @return The handler for all the CDX entries.
+	 */
+	protected CDXEntryHandler createIntervalHandler(UrlInterval urlInterval, CDXEntryHandler handler) {
+		final CDXEntryHandler sampledHandler = urlInterval.getSampling() == null ? handler 
+				: new CDXSampler(urlInterval.getSampling(), handler);
+		final Date earliestDate = urlInterval.getEarliestDate();
+		final Date latestDate = urlInterval.getLatestDate();
+		if(earliestDate == null && latestDate == null) {
+			return sampledHandler;
 		}
+		return new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				if(DateUtils.checkDateInterval(entry, earliestDate, latestDate)) {
+					sampledHandler.handleEntry(entry);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Streams the CDX entries for the URL through the handler.
+	 * This default implementation retrieves all the CDX entries with {@link #retrieveAllCDX(String)} first.
+	 * Extractors, which can deliver the entries while they are read from the server, should override it.
+	 * @param url The url to retrieve all the CDX indices for.
+	 * @param handler The handler of the CDX entries.
+	 * @return Whether the CDX entries could be retrieved.
+	 */
+	@Override
+	public boolean streamAllCDX(String url, CDXEntryHandler handler) {
+		Collection<CDXEntry> entries = retrieveAllCDX(url);
+		if(entries == null) {
+			return false;
+		}
+		for(CDXEntry entry : entries) {
+			handler.handleEntry(entry);
+		}
+		return true;
+	}
+	
+	@Override
+	public CDXQueryIterator queryCDX(String url, CDXMatchType matchType) {
+		return queryCDX(url, matchType, null);
+	}
+	
+	@Override
+	public CDXQueryIterator queryCDX(final String url, final CDXMatchType matchType, Collection<Character> fields) {
+		ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+		ArgumentCheck.checkNotNull(matchType, "CDXMatchType matchType");
+		checkMatchType(url, matchType);
+		final Collection<Character> projection = addRequiredFields(fields);
+		logger.debug("Querying the CDX entries for '" + url + "' with the match type " + matchType 
+				+ (projection == null ? "" : " for the fields " + projection) + ".");
+		return new CDXQueryIterator(CDXQueryIterator.DEFAULT_CAPACITY) {
+			@Override
+			protected boolean stream(CDXEntryHandler handler) {
+				return streamQuery(url, matchType, projection, handler);
+			}
+		}.start();
+	}
+	
+	/**
+	 * The closest CDX entry is found in a fold over a query for the needed fields. 
+	 * If the extractor caches the CDX entries, then the timeline of the cached entries is used instead.
+	 */
+	@Override
+	public CDXEntry retrieveCDX(WaybackWID wid, Collection<Character> fields) {
+		if(fields == null || isCachingEntries()) {
+			return retrieveCDX(wid);
+		}
+		Collection<Character> projection = addRequiredFields(fields);
+		if(wid.getFilename() != null) {
+			projection.add(CDXConstants.CDX_CHAR_FILE_NAME);
+		}
+		FileOrClosestToDateFinder finder = new FileOrClosestToDateFinder(wid.getFilename(), wid.getDate());
+		streamQuery(wid.getUrl(), CDXMatchType.EXACT, projection, finder);
+		return finder.getResult();
+	}
+	
+	/**
+	 * Adds the URL and the date to a projection of the CDX fields, since the CDX entries are ordered, sampled and 
+	 * looked up by them.
+	 * @param fields The CDX format elements of the needed fields. May be null.
+	 * @return The CDX format elements of the projection, or null if all the fields are needed.
+	 */
+	protected static Collection<Character> addRequiredFields(Collection<Character> fields) {
+		if(fields == null) {
+			return null;
+		}
+		Set<Character> res = new LinkedHashSet<Character>();
+		res.add(CDXConstants.CDX_CHAR_ORIGINAL_URL);
+		res.add(CDXConstants.CDX_CHAR_DATE);
+		res.addAll(fields);
 		return res;
 	}
 	
+	@Override
+	public CDXQueryIterator queryCDXForInterval(final UrlInterval urlInterval, final CDXMatchType matchType) {
+		ArgumentCheck.checkNotNull(urlInterval, "UrlInterval urlInterval");
+		ArgumentCheck.checkNotNullOrEmpty(urlInterval.getUrl(), "String url");
+		ArgumentCheck.checkNotNull(matchType, "CDXMatchType matchType");
+		checkMatchType(urlInterval.getUrl(), matchType);
+		logger.debug("Querying the CDX entries for '" + urlInterval.getUrl() + "' with the match type " + matchType 
+				+ " within an interval with the sampling " + urlInterval.getSampling() + ".");
+		return new CDXQueryIterator(CDXQueryIterator.DEFAULT_CAPACITY) {
+			@Override
+			protected boolean stream(CDXEntryHandler handler) {
+				return streamQueryForInterval(urlInterval, matchType, handler);
+			}
+		}.start();
+	}
+	
+	/**
+	 * Checks whether the extractor can make a query with the match type for the URL.
+	 * This default implementation only supports exact queries.
+	 * @param url The URL of the query.
+	 * @param matchType The match type.
+	 * @throws IllegalArgumentException If the query is not supported.
+	 */
+	protected void checkMatchType(String url, CDXMatchType matchType) {
+		if(matchType != CDXMatchType.EXACT) {
+			throw new IllegalArgumentException("The CDX extractor does not support queries with the match type "
+					+ matchType + ".");
+		}
+	}
+	
+	/**
+	 * Streams the CDX entries of a query through the handler.
+	 * This default implementation only supports exact queries, which are streamed with 
+	 * {@link #streamAllCDX(String, CDXEntryHandler)}.
+	 * @param url The URL of the query.
+	 * @param matchType The match type.
+	 * @param handler The handler of the CDX entries.
+	 * @return Whether the CDX entries could be retrieved.
+	 */
+	protected boolean streamQuery(String url, CDXMatchType matchType, CDXEntryHandler handler) {
+		return streamAllCDX(url, handler);
+	}
+	
+	/**
+	 * Streams the CDX entries of a query through the handler, where only the given fields are needed.
+	 * This default implementation ignores the projection, and streams the whole CDX entries with
+	 * {@link #streamQuery(String, CDXMatchType, CDXEntryHandler)}.
+	 * Extractors, which can avoid transferring or decoding the other fields, should override it.
+	 * @param url The URL of the query.
+	 * @param matchType The match type.
+	 * @param fields The CDX format elements of the needed fields, including the URL and the date. 
+	 * Null if all the fields are needed.
+	 * @param handler The handler of the CDX entries.
+	 * @return Whether the CDX entries could be retrieved.
+	 */
+	protected boolean streamQuery(String url, CDXMatchType matchType, Collection<Character> fields, 
+			CDXEntryHandler handler) {
+		return streamQuery(url, matchType, handler);
+	}
+	
+	/**
+	 * Streams the CDX entries of a query within an interval through the handler.
+	 * This default implementation streams all the CDX entries of the query with 
+	 * {@link #streamQuery(String, CDXMatchType, CDXEntryHandler)}, and leaves out those outside the interval
+	 * or the sample in a streaming fold.
+	 * @param urlInterval The URL of the query with the interval and the sampling.
+	 * @param matchType The match type.
+	 * @param handler The handler of the CDX entries.
+	 * @return Whether the CDX entries could be retrieved.
+	 */
+	protected boolean streamQueryForInterval(UrlInterval urlInterval, CDXMatchType matchType, 
+			CDXEntryHandler handler) {
+		return streamQuery(urlInterval.getUrl(), matchType, createIntervalHandler(urlInterval, handler));
+	}
+	
+	/**
+	 * Retrieves the CDX entry for the URL, which is closest to the date, without keeping all the CDX entries
+	 * for the URL in memory, unless the extractor caches them.
+	 * @param url The URL.
+	 * @param date The date.
+	 * @return The CDX entry closest to the date, or null if there are no CDX entries or no date.
+	 */
+	protected CDXEntry retrieveCDXclosestToDate(String url, Date date) {
+		if(date == null) {
+			logger.info("No date. Returning null.");
+			return null;
+		}
+		if(isCachingEntries()) {
+			CDXTimeline timeline = retrieveTimeline(url);
+			return timeline == null ? null : timeline.findClosest(date);
+		}
+		FileOrClosestToDateFinder finder = new FileOrClosestToDateFinder(null, date);
+		streamAllCDX(url, finder);
+		return finder.getResult();
+	}
+	
+	/**
+	 * Whether the extractor caches the CDX entries for the URLs, so {@link #retrieveAllCDX(String)} returns the 
+	 * same collection each time. In that case the timeline for the URL is kept and reused for the lookups, 
+	 * otherwise the lookups fold over the streamed CDX entries.
+	 * @return Whether the CDX entries are cached. This default implementation returns false.
+	 */
+	protected boolean isCachingEntries() {
+		return false;
+	}
+	
+	/**
+	 * Retrieves the timeline for the CDX entries of the URL.
+	 * The timeline is reused, as long as the CDX entries for the URL are the same collection.
+	 * @param url The URL.
+	 * @return The timeline, or null if the CDX entries could not be retrieved.
+	 */
+	protected CDXTimeline retrieveTimeline(String url) {
+		Collection<CDXEntry> entries = retrieveAllCDXShared(url);
+		if(entries == null) {
+			return null;
+		}
+		return getTimeline(url, entries);
+	}
+	
+	/**
+	 * Retrieves the timeline for the CDX entries of the URL, and reuses it if it was made from the same collection.
+	 * @param url The URL.
+	 * @param entries The CDX entries for the URL.
+	 * @return The timeline.
+	 */
+	protected CDXTimeline getTimeline(String url, Collection<CDXEntry> entries) {
+		String key = getUrlKey(url);
+		CDXTimeline res = timelines.get(key);
+		if(res == null || !res.isTimelineOf(entries)) {
+			res = new CDXTimeline(entries);
+			timelines.put(key, res);
+		}
+		return res;
+	}
+	
+	/**
+	 * Sets the number of threads for resolving WIDs in {@link #retrieveCDXentries(Collection)}.
+	 * @param concurrency The number of threads. If it is 1, then the WIDs are resolved sequentially on the calling
+	 * thread.
+	 * @param maxInFlight The maximum number of URLs, whose WIDs are being resolved or are queued for resolving
+	 * at the same time.
+	 */
+	public void setConcurrency(int concurrency, int maxInFlight) {
+		ArgumentCheck.checkIsTrue(concurrency > 0, "The concurrency must be positive");
+		ArgumentCheck.checkIsTrue(maxInFlight > 0, "The maximum number of requests in flight must be positive");
+		this.concurrency = concurrency;
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * @return The number of threads for resolving WIDs.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+	
+	/**
+	 * The WIDs are grouped by the key of their URL, and the CDX entries for a URL are only retrieved once for 
+	 * all the WIDs of the URL in the group.
+	 */
 	@Override
 	public Collection<CDXEntry> retrieveCDXentries(Collection<WID> wids) {
-		List<CDXEntry> res = new ArrayList<CDXEntry>(wids.size());
+		CDXEntry[] res = new CDXEntry[wids.size()];
+		List<WIDGroup> groups = groupWIDsByUrl(wids);
+		if(concurrency > 1 && groups.size() > 1) {
+			resolveGroupsConcurrently(groups, res);
+		} else {
+			for(WIDGroup group : groups) {
+				resolveGroup(group, res);
+			}
+		}
+		return new ArrayList<CDXEntry>(Arrays.asList(res));
+	}
+	
+	/**
+	 * Groups the WIDs by the key of their URL, in the order of the first WID of each URL.
+	 * WIDs of unknown types are not grouped, since they have no CDX entry.
+	 * @param wids The WIDs.
+	 * @return The groups of WIDs.
+	 */
+	protected List<WIDGroup> groupWIDsByUrl(Collection<WID> wids) {
+		Map<String, WIDGroup> groups = new LinkedHashMap<String, WIDGroup>();
+		int index = 0;
 		for(WID wid : wids) {
-    		if(wid instanceof WPID) {
-    			res.add(retrieveCDX((WPID) wid));
-    		} else if (wid instanceof WaybackWID){
-    			res.add(retrieveCDX((WaybackWID) wid));
-    		} else {
-    			res.add(null);
-    		}
+			int resultIndex = index++;
+			String url = getUrl(wid);
+			if(url == null) {
+				continue;
+			}
+			String key = getUrlKey(url);
+			WIDGroup group = groups.get(key);
+			if(group == null) {
+				group = new WIDGroup(url);
+				groups.put(key, group);
+			}
+			group.add(wid, resultIndex);
+		}
+		return new ArrayList<WIDGroup>(groups.values());
+	}
+	
+	/**
+	 * Resolves the WIDs of a group, and puts the CDX entries at their indices in the results.
+	 * A single WID is resolved on its own, so it can use the cheapest request for the extractor. 
+	 * Otherwise all the CDX entries for the URL are retrieved once, and the WIDs are found in their timeline.
+	 * @param group The group of WIDs for the same URL.
+	 * @param res The array of results.
+	 */
+	protected void resolveGroup(WIDGroup group, CDXEntry[] res) {
+		if(group.wids.size() == 1) {
+			res[group.indices.get(0)] = retrieveCDXForWID(group.wids.get(0));
+			return;
+		}
+		
+		Collection<CDXEntry> entries = retrieveAllCDXShared(group.url);
+		if(entries == null) {
+			logger.info("No CDX entries for the " + group.wids.size() + " WIDs for the URL '" + group.url + "'.");
+			return;
+		}
+		CDXTimeline timeline = isCachingEntries() ? getTimeline(group.url, entries) : new CDXTimeline(entries);
+		for(int i = 0; i < group.wids.size(); i++) {
+			res[group.indices.get(i)] = findInTimeline(timeline, group.wids.get(i));
 		}
-		return res;
+	}
+	
+	/**
+	 * Resolves the groups of WIDs with a pool of threads.
+	 * Only a bounded number of groups are in flight at the time.
+	 * @param groups The groups of WIDs.
+	 * @param res The array of results, where the CDX entries are put at the indices of their WIDs.
+	 */
+	protected void resolveGroupsConcurrently(List<WIDGroup> groups, final CDXEntry[] res) {
+		logger.debug("Resolving " + res.length + " WIDs for " + groups.size() + " URLs with " + concurrency 
+				+ " threads and at most " + maxInFlight + " in flight.");
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ResolverThreadFactory());
+		try {
+			for(final WIDGroup group : groups) {
+				if(failure.get() != null) {
+					break;
+				}
+				inFlight.acquire();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							resolveGroup(group, res);
+						} catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			}
+			// All the permits are back, when all the submitted groups have been resolved.
+			inFlight.acquire(maxInFlight);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while resolving the WIDs.", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		if(failure.get() != null) {
+			throw new IllegalStateException("Failed to resolve the WIDs.", failure.get());
+		}
+	}
+	
+	/**
+	 * Retrieves all the CDX entries for the URL, where concurrent calls for the same URL key share the same 
+	 * request, instead of each making their own.
+	 * @param url The URL.
+	 * @return The CDX entries for the URL, or null if they could not be retrieved.
+	 */
+	protected Collection<CDXEntry> retrieveAllCDXShared(final String url) {
+		String key = getUrlKey(url);
+		FutureTask<Collection<CDXEntry>> task = new FutureTask<Collection<CDXEntry>>(
+				new Callable<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> call() {
+				return retrieveAllCDX(url);
+			}
+		});
+		FutureTask<Collection<CDXEntry>> running = requestsInFlight.putIfAbsent(key, task);
+		if(running == null) {
+			try {
+				task.run();
+			} finally {
+				requestsInFlight.remove(key, task);
+			}
+			running = task;
+		} else {
+			logger.debug("Sharing the request in flight for the URL '" + url + "'.");
+		}
+		
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while retrieving the CDX entries for '" + url + "'.", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if(e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException("Failed to retrieve the CDX entries for '" + url + "'.", e.getCause());
+		}
+	}
+	
+	/**
+	 * Creates the key for the URL, which URLs for the same web-resource have in common.
+	 * The SURT of the URL is used, so the URLs are also the same, when they only differ in e.g. the port or the
+	 * order of the query arguments, as for the CDX servers which canonize the URL to its SURT (e.g. pywb).
+	 * Extractors, whose CDX server does not canonize the URL that way, must override it.
+	 * @param url The URL.
+	 * @return The key for the URL.
+	 */
+	protected String getUrlKey(String url) {
+		return SurtUtils.toSurt(url);
+	}
+	
+	/**
+	 * Creates the key for caching the CDX entries of the URL from a CDX server.
+	 * @param serverUrl The URL of the CDX server, so a cache can be used for several servers.
+	 * @param url The URL.
+	 * @return The cache key.
+	 */
+	protected String getCacheKey(String serverUrl, String url) {
+		return serverUrl + CACHE_KEY_SEPARATOR + getUrlKey(url);
+	}
+	
+	/**
+	 * Finds the CDX entry for a WID in the timeline of its URL.
+	 * @param timeline The timeline for the URL of the WID.
+	 * @param wid The WID.
+	 * @return The CDX entry for the WID, or null if none was found or the type of WID is unknown.
+	 */
+	protected CDXEntry findInTimeline(CDXTimeline timeline, WID wid) {
+		if(wid instanceof WPID) {
+			return timeline.findClosest(((WPID) wid).getDate());
+		} else if (wid instanceof WaybackWID) {
+			WaybackWID waybackWid = (WaybackWID) wid;
+			CDXEntry res = timeline.findFilename(waybackWid.getFilename());
+			return res != null ? res : timeline.findClosest(waybackWid.getDate());
+		}
+		return null;
+	}
+	
+	/**
+	 * @param wid The WID.
+	 * @return The URL of the WID, or null if the type of WID is unknown.
+	 */
+	protected String getUrl(WID wid) {
+		if(wid instanceof WPID) {
+			return ((WPID) wid).getUrl();
+		} else if (wid instanceof WaybackWID){
+			return ((WaybackWID) wid).getUrl();
+		}
+		return null;
+	}
+	
+	/**
+	 * Retrieves the CDX entry for a WID of any known type.
+	 * @param wid The WID.
+	 * @return The CDX entry, or null if there is no CDX entry for the WID, or the type of WID is unknown.
+	 */
+	protected CDXEntry retrieveCDXForWID(WID wid) {
+		if(wid instanceof WPID) {
+			return retrieveCDX((WPID) wid);
+		} else if (wid instanceof WaybackWID){
+			return retrieveCDX((WaybackWID) wid);
+		}
+		return null;
 	}
 	
 	/**
 	 * Retrieves the CDX index closest to the date.
+	 * The result is a standalone entry, so it does not keep the collection of CDX entries in memory.
 	 * @param allCDXforUrl The list of all extracted CDX entries.
 	 * @param date The date.
 	 * @return The CDX entry closest to the date.
@@ -79,18 +597,11 @@ public abstract class AbstractCDXExtractor implements CDXExtractor {
 			return null;
 		}
 		
-		long closestDate = Long.MAX_VALUE;
-		CDXEntry res = null;
-		
+		FileOrClosestToDateFinder finder = new FileOrClosestToDateFinder(null, date);
 		for(CDXEntry entry : allCDXforUrl) {
-			Long timeDiff = Math.abs(entry.getDateAsLong() - date.getTime());
-			if(timeDiff < closestDate) {
-				closestDate = timeDiff;
-				res = entry;
-			}
+			finder.handleEntry(entry);
 		}
-		
-		return res;
+		return finder.getResult();
 	}
 	
 	/**
@@ -105,9 +616,172 @@ public abstract class AbstractCDXExtractor implements CDXExtractor {
 		}
 		for(CDXEntry entry : allCDXforUrl) {
 			if(filename.equalsIgnoreCase(entry.getFilename())) {
-				return entry;
+				return entry.toStandaloneEntry();
 			}
 		}
 		return null;
-	}	
+	}
+	
+	/**
+	 * Fold over CDX entries, which finds the entry with a given filename, or otherwise the entry closest to a date.
+	 * Only the best entry so far is kept, and the result is a standalone entry.
+	 */
+	protected static class FileOrClosestToDateFinder implements CDXEntryHandler {
+		/** The filename to look for. May be null.*/
+		protected final String filename;
+		/** The date in millis, or null if no closest entry should be found.*/
+		protected final Long date;
+		/** The first entry with the filename.*/
+		protected CDXEntry fileEntry = null;
+		/** The entry closest to the date.*/
+		protected CDXEntry closestEntry = null;
+		/** The difference between the date and the date of the closest entry.*/
+		protected long closestDiff = Long.MAX_VALUE;
+		
+		/**
+		 * Constructor.
+		 * @param filename The filename to look for. May be null.
+		 * @param date The date, used if no entry has the filename. May be null.
+		 */
+		protected FileOrClosestToDateFinder(String filename, Date date) {
+			this.filename = filename;
+			this.date = date == null ? null : date.getTime();
+		}
+		
+		@Override
+		public void handleEntry(CDXEntry entry) {
+			if(fileEntry != null) {
+				return;
+			}
+			if(filename != null && filename.equalsIgnoreCase(entry.getFilename())) {
+				fileEntry = entry.toStandaloneEntry();
+				closestEntry = null;
+				return;
+			}
+			if(date != null) {
+				long timeDiff = Math.abs(entry.getDateAsLong() - date);
+				if(timeDiff < closestDiff) {
+					closestDiff = timeDiff;
+					closestEntry = entry.toStandaloneEntry();
+				}
+			}
+		}
+		
+		/**
+		 * @return The entry with the filename, or otherwise the entry closest to the date. Null if neither was found.
+		 */
+		protected CDXEntry getResult() {
+			return fileEntry != null ? fileEntry : closestEntry;
+		}
+	}
+	
+	/**
+	 * Handler of the lines of a CDX server response, which parses each line and delivers the CDX entry to an 
+	 * entry handler. Lines which cannot be parsed are skipped.
+	 */
+	protected static class CDXResponseLineHandler implements ResponseLineHandler {
+		/** The parser of the lines.*/
+		protected final CDXLineParser parser;
+		/** The handler of the CDX entries.*/
+		protected final CDXEntryHandler handler;
+		/** The number of lines in the response.*/
+		protected long lines = 0L;
+		
+		/**
+		 * Constructor.
+		 * @param parser The parser of the lines.
+		 * @param handler The handler of the CDX entries.
+		 */
+		protected CDXResponseLineHandler(CDXLineParser parser, CDXEntryHandler handler) {
+			this.parser = parser;
+			this.handler = handler;
+		}
+		
+		@Override
+		public void handleLine(String line) {
+			lines++;
+			CDXEntry entry = parser.parse(line);
+			if(entry != null) {
+				handler.handleEntry(entry);
+			}
+		}
+		
+		/**
+		 * @return The number of lines in the response, including the lines which could not be parsed.
+		 */
+		protected long getNumberOfLines() {
+			return lines;
+		}
+	}
+	
+	/**
+	 * The WIDs for the same URL, and their indices in the collection of WIDs.
+	 */
+	protected static class WIDGroup {
+		/** The URL of the first WID in the group.*/
+		protected final String url;
+		/** The WIDs.*/
+		protected final List<WID> wids = new ArrayList<WID>();
+		/** The indices of the WIDs.*/
+		protected final List<Integer> indices = new ArrayList<Integer>();
+		
+		/**
+		 * Constructor.
+		 * @param url The URL of the first WID in the group.
+		 */
+		protected WIDGroup(String url) {
+			this.url = url;
+		}
+		
+		/**
+		 * Adds a WID to the group.
+		 * @param wid The WID.
+		 * @param index The index of the WID.
+		 */
+		protected void add(WID wid, int index) {
+			wids.add(wid);
+			indices.add(index);
+		}
+	}
+	
+	/**
+	 * Thread factory for the threads resolving the WIDs.
+	 * The threads are daemon threads, so they never keep the JVM alive.
+	 */
+	protected static class ResolverThreadFactory implements ThreadFactory {
+		/** The number of threads created, used for naming the threads.*/
+		protected final AtomicInteger threadCount = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread res = new Thread(r, "cdx-resolver-" + threadCount.incrementAndGet());
+			res.setDaemon(true);
+			return res;
+		}
+	}
+	
+	/**
+	 * Map of the timelines of the latest URLs, which removes the least recently used timeline, when it has more
+	 * than the maximum number of timelines.
+	 */
+	protected static class LruTimelineMap extends LinkedHashMap<String, CDXTimeline> {
+		/** The serial version UID.*/
+		private static final long serialVersionUID = 1L;
+		/** The maximum number of timelines.*/
+		protected final int maxTimelines;
+		
+		/**
+		 * Constructor.
+		 * @param maxTimelines The maximum number of timelines.
+		 */
+		protected LruTimelineMap(int maxTimelines) {
+			super(16, 0.75f, true);
+			this.maxTimelines = maxTimelines;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CDXTimeline> eldest) {
+			return size() > maxTimelines;
+		}
+	}
 }
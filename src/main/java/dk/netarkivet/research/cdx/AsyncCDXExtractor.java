@@ -0,0 +1,42 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.Collection;
+
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
+
+/**
+ * Asynchronous companion to the {@link CDXExtractor}.
+ * The lookups return right away with a future for the result, so the caller is not blocked while the lookups are
+ * in flight, and the lookups can be composed through the callbacks of the futures.
+ */
+public interface AsyncCDXExtractor {
+	/**
+	 * Retrieves a CDX entry from a WPID.
+	 * @param wpid The WPID to use for extracting the CDX.
+	 * @return The future CDX entry for the WPID, which is null if no CDX entry matched the WPID.
+	 */
+	CDXFuture<CDXEntry> retrieveCDXAsync(WPID wpid);
+	
+	/**
+	 * Retrieves the CDX for a Wayback WID.
+	 * @param wid The Wayback web identifier.
+	 * @return The future CDX entry for the Wayback WID.
+	 */
+	CDXFuture<CDXEntry> retrieveCDXAsync(WaybackWID wid);
+	
+	/**
+	 * Retrieves all the CDX indices for the given URL.
+	 * @param url The url to retrieve all the CDX indices for.
+	 * @return The future collection of CDX indices for the URL.
+	 */
+	CDXFuture<Collection<CDXEntry>> retrieveAllCDXAsync(String url);
+	
+	/**
+	 * Retrieves all the CDX entries for the given URL in a given date interval.
+	 * @param urlInterval The URL with the interval for those CDX indices which should be retrieved.
+	 * @return The future collection of CDX indices for the given interval.
+	 */
+	CDXFuture<Collection<CDXEntry>> retrieveCDXForIntervalAsync(UrlInterval urlInterval);
+}
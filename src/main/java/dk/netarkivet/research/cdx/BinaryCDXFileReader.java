@@ -0,0 +1,512 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Reader of a binary CDX file, which has been written by the {@link BinaryCDXFileWriter}.
+ *
+ * Only the dictionaries and the sparse block index are kept in memory. The blocks, which can contain the wanted
+ * keys, are found with binary search in the block index, and only those blocks are read and decoded.
+ * Decoding a block only involves varints and copying the strings, so it is faster than parsing the CDX lines.
+ *
+ * The blocks are read with positional reads, so the reader can be used by several threads at the same time.
+ */
+public class BinaryCDXFileReader implements Closeable {
+    /** Logging mechanism. */
+    private static Logger logger = LoggerFactory.getLogger(BinaryCDXFileReader.class);
+
+	/** The binary CDX file.*/
+	protected final File cdxFile;
+	/** The channel for reading the file.*/
+	protected final FileChannel channel;
+	/** The filenames in the order of their ids.*/
+	protected final String[] filenames;
+	/** The content types in the order of their ids.*/
+	protected final String[] contentTypes;
+	/** The status codes in the order of their ids.*/
+	protected final int[] statusCodes;
+	/** The first key of each block.*/
+	protected final String[] blockKeys;
+	/** The position of each block.*/
+	protected final long[] blockPositions;
+	/** The length of each block.*/
+	protected final int[] blockLengths;
+	/** The number of entries in each block.*/
+	protected final int[] blockEntries;
+	/** The number of entries in the file.*/
+	protected final long numberOfEntries;
+
+	/**
+	 * Constructor, which reads the dictionaries and the block index of the file.
+	 * @param cdxFile The binary CDX file.
+	 * @throws IOException If the file cannot be read, or it is not a binary CDX file.
+	 */
+	public BinaryCDXFileReader(File cdxFile) throws IOException {
+		ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+		this.cdxFile = cdxFile;
+		this.channel = new RandomAccessFile(cdxFile, "r").getChannel();
+		try {
+			long size = channel.size();
+			if(size < BinaryCDXFileWriter.HEADER_SIZE + BinaryCDXFileWriter.TRAILER_SIZE) {
+				throw new IOException("The file '" + cdxFile.getAbsolutePath() + "' is too small to be a binary "
+						+ "CDX file.");
+			}
+			byte[] header = readBytes(0L, BinaryCDXFileWriter.HEADER_SIZE);
+			byte[] trailer = readBytes(size - BinaryCDXFileWriter.TRAILER_SIZE, BinaryCDXFileWriter.TRAILER_SIZE);
+			if(!hasMagic(header, 0) || !hasMagic(trailer, 8)) {
+				throw new IOException("The file '" + cdxFile.getAbsolutePath() + "' is not a binary CDX file.");
+			}
+			if(header[BinaryCDXFileWriter.MAGIC.length] != BinaryCDXFileWriter.VERSION) {
+				throw new IOException("The binary CDX file '" + cdxFile.getAbsolutePath() + "' has the unsupported "
+						+ "version " + header[BinaryCDXFileWriter.MAGIC.length] + ".");
+			}
+			long footerPosition = 0L;
+			for(int i = 0; i < 8; i++) {
+				footerPosition = (footerPosition << 8) | (trailer[i] & 0xFF);
+			}
+			long footerLength = size - BinaryCDXFileWriter.TRAILER_SIZE - footerPosition;
+			if(footerPosition < BinaryCDXFileWriter.HEADER_SIZE || footerLength < 0
+					|| footerLength > Integer.MAX_VALUE) {
+				throw new IOException("The binary CDX file '" + cdxFile.getAbsolutePath() + "' is corrupt.");
+			}
+
+			Decoder footer = new Decoder(readBytes(footerPosition, (int) footerLength));
+			filenames = new String[footer.readCount()];
+			for(int i = 0; i < filenames.length; i++) {
+				filenames[i] = footer.readString();
+			}
+			contentTypes = new String[footer.readCount()];
+			for(int i = 0; i < contentTypes.length; i++) {
+				contentTypes[i] = footer.readString();
+			}
+			statusCodes = new int[footer.readCount()];
+			for(int i = 0; i < statusCodes.length; i++) {
+				statusCodes[i] = (int) footer.readSignedVarLong();
+			}
+			int numberOfBlocks = footer.readCount();
+			blockKeys = new String[numberOfBlocks];
+			blockPositions = new long[numberOfBlocks];
+			blockLengths = new int[numberOfBlocks];
+			blockEntries = new int[numberOfBlocks];
+			String previousBlockKey = "";
+			long previousPosition = 0L;
+			long entries = 0L;
+			for(int i = 0; i < numberOfBlocks; i++) {
+				blockKeys[i] = footer.readFrontCoded(previousBlockKey);
+				blockPositions[i] = previousPosition + footer.readVarLong();
+				blockLengths[i] = footer.readCount();
+				blockEntries[i] = footer.readCount();
+				previousBlockKey = blockKeys[i];
+				previousPosition = blockPositions[i];
+				entries += blockEntries[i];
+			}
+			numberOfEntries = entries;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		logger.debug("Opened the binary CDX file '" + cdxFile.getAbsolutePath() + "' with " + numberOfEntries
+				+ " entries in " + blockKeys.length + " blocks.");
+	}
+
+	/**
+	 * Checks whether a file is a binary CDX file, by looking at the magic bytes at its start.
+	 * @param file The file.
+	 * @return Whether the file is a binary CDX file.
+	 */
+	public static boolean isBinaryCDXFile(File file) {
+		if(!file.isFile()) {
+			return false;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			byte[] magic = new byte[BinaryCDXFileWriter.MAGIC.length];
+			raf.readFully(magic);
+			return Arrays.equals(magic, BinaryCDXFileWriter.MAGIC);
+		} catch (IOException e) {
+			logger.debug("Could not read the start of the file '" + file.getAbsolutePath() + "'.", e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return The binary CDX file.
+	 */
+	public File getFile() {
+		return cdxFile;
+	}
+
+	/**
+	 * @return The number of CDX entries in the file.
+	 */
+	public long getNumberOfEntries() {
+		return numberOfEntries;
+	}
+
+	/**
+	 * @return The number of blocks in the file.
+	 */
+	public int getNumberOfBlocks() {
+		return blockKeys.length;
+	}
+
+	/**
+	 * Finds the CDX entries, which have the given key (canonized URL).
+	 * @param key The key to search for.
+	 * @return The CDX entries with the key, in the order of the file.
+	 */
+	public List<CDXEntry> findEntries(String key) {
+		ArgumentCheck.checkNotNull(key, "String key");
+		final List<CDXEntry> res = new ArrayList<CDXEntry>();
+		streamEntries(key, true, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				res.add(entry);
+			}
+		});
+		return res;
+	}
+
+	/**
+	 * Delivers the CDX entries, whose key starts with the given prefix, to the handler.
+	 * Only a single block is decoded at the time, so any number of entries can be delivered.
+	 * @param keyPrefix The prefix of the keys.
+	 * @param handler The handler of the CDX entries, which are delivered in the order of the file.
+	 * @return The number of CDX entries delivered.
+	 */
+	public long streamEntriesWithPrefix(String keyPrefix, CDXEntryHandler handler) {
+		ArgumentCheck.checkNotNull(keyPrefix, "String keyPrefix");
+		ArgumentCheck.checkNotNull(handler, "CDXEntryHandler handler");
+		return streamEntries(keyPrefix, false, handler);
+	}
+
+	/**
+	 * Delivers all the CDX entries of the file to the handler.
+	 * @param handler The handler of the CDX entries, which are delivered in the order of the file.
+	 * @return The number of CDX entries delivered.
+	 */
+	public long streamAllEntries(CDXEntryHandler handler) {
+		return streamEntriesWithPrefix("", handler);
+	}
+
+	/**
+	 * Delivers the CDX entries with the key or the prefix of the key to the handler.
+	 * The first block to read is the last block, which starts before the key, since the entries with the key
+	 * may begin in that block.
+	 * @param key The key or the prefix of the key.
+	 * @param exact Whether the keys must be the same, instead of starting with the key.
+	 * @param handler The handler of the CDX entries.
+	 * @return The number of CDX entries delivered.
+	 */
+	protected long streamEntries(String key, boolean exact, CDXEntryHandler handler) {
+		long res = 0L;
+		for(int block = findFirstBlock(key); block < blockKeys.length; block++) {
+			Decoder decoder = new Decoder(readBlock(block));
+			BlockState state = new BlockState();
+			for(int i = 0; i < blockEntries[block]; i++) {
+				CDXEntry entry = decodeEntry(decoder, state);
+				int comparison = state.key.compareTo(key);
+				if(comparison < 0) {
+					continue;
+				}
+				if(exact ? comparison > 0 : !state.key.startsWith(key)) {
+					return res;
+				}
+				handler.handleEntry(entry);
+				res++;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Binary search for the first block, which can contain the key.
+	 * @param key The key.
+	 * @return The index of the last block, whose first key is smaller than the key. Or 0, if there are none.
+	 */
+	protected int findFirstBlock(String key) {
+		int low = 0;
+		int high = blockKeys.length - 1;
+		int res = 0;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(blockKeys[mid].compareTo(key) < 0) {
+				res = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Decodes the next CDX entry of a block.
+	 * @param decoder The decoder of the block.
+	 * @param state The state of the previous entries in the block.
+	 * @return The CDX entry.
+	 */
+	protected CDXEntry decodeEntry(Decoder decoder, BlockState state) {
+		CDXEntry res = new CDXEntry();
+		int fields = (int) decoder.readVarLong();
+		if((fields & BinaryCDXFileWriter.FIELD_KEY) != 0) {
+			state.key = decoder.readFrontCoded(state.key);
+			res.urlNorm = state.key;
+		} else {
+			state.key = "";
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_DATE) != 0) {
+			state.seconds += decoder.readSignedVarLong();
+			res.date = state.seconds * BinaryCDXFileWriter.MILLIS_PER_SECOND;
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_URL) != 0) {
+			state.url = decoder.readFrontCoded(state.url);
+			res.url = state.url;
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_CONTENT_TYPE) != 0) {
+			res.contentType = contentTypes[decoder.readCount()];
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_STATUS_CODE) != 0) {
+			res.statusCode = statusCodes[decoder.readCount()];
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_DIGEST) != 0) {
+			res.digest = decoder.readDigest();
+		}
+		int filenameId = -1;
+		if((fields & BinaryCDXFileWriter.FIELD_FILENAME) != 0) {
+			filenameId = decoder.readCount();
+			res.filename = filenames[filenameId];
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_OFFSET) != 0) {
+			res.offset = state.getPreviousOffset(filenameId) + decoder.readSignedVarLong();
+			state.setPreviousOffset(filenameId, res.offset);
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_LENGTH) != 0) {
+			res.length = decoder.readSignedVarLong();
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_IP) != 0) {
+			res.ip = decoder.readString();
+		}
+		if((fields & BinaryCDXFileWriter.FIELD_REDIRECT) != 0) {
+			res.redirect = decoder.readString();
+		}
+		return res;
+	}
+
+	/**
+	 * Reads a block of the file.
+	 * @param block The index of the block.
+	 * @return The bytes of the block.
+	 */
+	protected byte[] readBlock(int block) {
+		try {
+			return readBytes(blockPositions[block], blockLengths[block]);
+		} catch (IOException e) {
+			String errMsg = "Issue reading block " + block + " of the binary CDX file '" + cdxFile.getAbsolutePath()
+					+ "'";
+			logger.error(errMsg, e);
+			throw new IllegalStateException(errMsg, e);
+		}
+	}
+
+	/**
+	 * Reads bytes from the file with positional reads.
+	 * @param position The position of the first byte.
+	 * @param length The number of bytes.
+	 * @return The bytes.
+	 * @throws IOException If the bytes cannot be read.
+	 */
+	protected byte[] readBytes(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of the file '" + cdxFile.getAbsolutePath() + "'.");
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * @param bytes The bytes.
+	 * @param start The index of the magic bytes.
+	 * @return Whether the bytes have the magic bytes of the binary CDX format at the index.
+	 */
+	protected static boolean hasMagic(byte[] bytes, int start) {
+		for(int i = 0; i < BinaryCDXFileWriter.MAGIC.length; i++) {
+			if(bytes[start + i] != BinaryCDXFileWriter.MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Issue closing the binary CDX file '" + cdxFile.getAbsolutePath() + "'.", e);
+		}
+	}
+
+	/**
+	 * The values of the previous entries in a block, which the entries are encoded against.
+	 */
+	protected static class BlockState {
+		/** The key of the previous entry.*/
+		protected String key = "";
+		/** The original URL of the previous entry with one.*/
+		protected String url = "";
+		/** The date in seconds of the previous entry with one.*/
+		protected long seconds = 0L;
+		/** The filename ids with a previous offset.*/
+		protected int[] offsetFilenames = new int[8];
+		/** The previous offset for each of the filename ids.*/
+		protected long[] offsets = new long[8];
+		/** The number of filename ids with a previous offset.*/
+		protected int numberOfOffsets = 0;
+
+		/**
+		 * @param filenameId The filename id, or -1 for entries without a filename.
+		 * @return The previous offset in the block for the filename id, or 0 if there is none.
+		 */
+		protected long getPreviousOffset(int filenameId) {
+			for(int i = numberOfOffsets - 1; i >= 0; i--) {
+				if(offsetFilenames[i] == filenameId) {
+					return offsets[i];
+				}
+			}
+			return 0L;
+		}
+
+		/**
+		 * @param filenameId The filename id, or -1 for entries without a filename.
+		 * @param offset The latest offset for the filename id.
+		 */
+		protected void setPreviousOffset(int filenameId, long offset) {
+			for(int i = numberOfOffsets - 1; i >= 0; i--) {
+				if(offsetFilenames[i] == filenameId) {
+					offsets[i] = offset;
+					return;
+				}
+			}
+			if(numberOfOffsets == offsets.length) {
+				offsetFilenames = Arrays.copyOf(offsetFilenames, numberOfOffsets * 2);
+				offsets = Arrays.copyOf(offsets, numberOfOffsets * 2);
+			}
+			offsetFilenames[numberOfOffsets] = filenameId;
+			offsets[numberOfOffsets] = offset;
+			numberOfOffsets++;
+		}
+	}
+
+	/**
+	 * Decoder of the varints, strings and digests of the binary CDX format.
+	 */
+	protected static class Decoder {
+		/** The bytes.*/
+		protected final byte[] bytes;
+		/** The position of the next byte.*/
+		protected int position = 0;
+
+		/**
+		 * Constructor.
+		 * @param bytes The bytes to decode.
+		 */
+		protected Decoder(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return The next varint.
+		 */
+		protected long readVarLong() {
+			long res = 0L;
+			for(int shift = 0; shift < 64; shift += 7) {
+				byte b = bytes[position++];
+				res |= (long) (b & 0x7F) << shift;
+				if((b & 0x80) == 0) {
+					return res;
+				}
+			}
+			throw new IllegalStateException("Malformed varint in the binary CDX file.");
+		}
+
+		/**
+		 * @return The next varint as a count or an index, which must fit in an int.
+		 */
+		protected int readCount() {
+			long res = readVarLong();
+			if(res < 0 || res > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Malformed count in the binary CDX file: " + res);
+			}
+			return (int) res;
+		}
+
+		/**
+		 * @return The next zig-zag encoded varint.
+		 */
+		protected long readSignedVarLong() {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1L);
+		}
+
+		/**
+		 * @return The next string.
+		 */
+		protected String readString() {
+			int length = readCount();
+			String res = new String(bytes, position, length, BinaryCDXFileWriter.CHARSET);
+			position += length;
+			return res;
+		}
+
+		/**
+		 * @param previous The previous string, which the string is front-coded against.
+		 * @return The next front-coded string.
+		 */
+		protected String readFrontCoded(String previous) {
+			int shared = readCount();
+			String suffix = readString();
+			return shared == 0 ? suffix : previous.substring(0, shared) + suffix;
+		}
+
+		/**
+		 * @return The next digest.
+		 */
+		protected String readDigest() {
+			int tag = readCount();
+			if(tag != BinaryCDXFileWriter.DIGEST_TAG_BASE32) {
+				String res = new String(bytes, position, tag - 1, BinaryCDXFileWriter.CHARSET);
+				position += tag - 1;
+				return res;
+			}
+			char[] res = new char[BinaryCDXFileWriter.BASE32_DIGEST_CHARS];
+			int buffer = 0;
+			int bits = 0;
+			int index = 0;
+			for(int i = 0; i < BinaryCDXFileWriter.BASE32_DIGEST_BYTES; i++) {
+				buffer = (buffer << 8) | (bytes[position++] & 0xFF);
+				bits += 8;
+				while(bits >= 5) {
+					bits -= 5;
+					res[index++] = BinaryCDXFileWriter.BASE32_ALPHABET.charAt((buffer >>> bits) & 0x1F);
+				}
+			}
+			return new String(res);
+		}
+	}
+}
@@ -0,0 +1,528 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Class for writing CDX entries to a binary CDX file, which is a compact alternative to the text CDX files.
+ * The file is read with the {@link BinaryCDXFileReader}.
+ *
+ * The entries are written in blocks, which are encoded independently of each other:
+ * <ul>
+ * <li>The keys (the canonized URLs) and the original URLs are front-coded, so only the part after the prefix
+ * shared with the previous entry is stored.</li>
+ * <li>The dates are stored in seconds as the varint-encoded difference to the date of the previous entry,
+ * and the offsets as the difference to the previous offset in the same file.</li>
+ * <li>The filenames, mimetypes and status codes are dictionary-encoded, where the dictionaries are stored once
+ * for the whole file.</li>
+ * <li>Base32 digests (e.g. SHA-1) are stored as their raw bytes.</li>
+ * </ul>
+ * After the blocks follow the dictionaries and the sparse block index, with the first key, the position,
+ * the length and the number of entries of each block. The file ends with the position of the dictionaries
+ * and the magic bytes.
+ *
+ * The entries must be in the order of their keys, e.g. from a sorted CDX file, so the blocks of a key can be
+ * found with binary search in the block index.
+ * Dates are stored with the precision of the CDX format, which is whole seconds.
+ */
+public class BinaryCDXFileWriter {
+    /** Logging mechanism. */
+    private static Logger logger = LoggerFactory.getLogger(BinaryCDXFileWriter.class);
+
+	/** The default number of CDX entries in each block.*/
+	public static final int DEFAULT_ENTRIES_PER_BLOCK = 1024;
+	/** The magic bytes at the start and at the end of a binary CDX file.*/
+	protected static final byte[] MAGIC = {'B', 'C', 'D', 'X'};
+	/** The version of the binary CDX format.*/
+	protected static final byte VERSION = 1;
+	/** The size of the header: the magic bytes and the version.*/
+	protected static final int HEADER_SIZE = MAGIC.length + 1;
+	/** The size of the trailer: the position of the footer and the magic bytes.*/
+	protected static final int TRAILER_SIZE = 8 + MAGIC.length;
+	/** The charset of the strings.*/
+	protected static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/** Flag for the key of the entry (the canonized URL).*/
+	protected static final int FIELD_KEY = 1;
+	/** Flag for the date of the entry.*/
+	protected static final int FIELD_DATE = 1 << 1;
+	/** Flag for the original URL of the entry.*/
+	protected static final int FIELD_URL = 1 << 2;
+	/** Flag for the content type of the entry.*/
+	protected static final int FIELD_CONTENT_TYPE = 1 << 3;
+	/** Flag for the status code of the entry.*/
+	protected static final int FIELD_STATUS_CODE = 1 << 4;
+	/** Flag for the digest of the entry.*/
+	protected static final int FIELD_DIGEST = 1 << 5;
+	/** Flag for the filename of the entry.*/
+	protected static final int FIELD_FILENAME = 1 << 6;
+	/** Flag for the offset of the entry.*/
+	protected static final int FIELD_OFFSET = 1 << 7;
+	/** Flag for the length of the entry.*/
+	protected static final int FIELD_LENGTH = 1 << 8;
+	/** Flag for the IP of the entry.*/
+	protected static final int FIELD_IP = 1 << 9;
+	/** Flag for the redirect of the entry.*/
+	protected static final int FIELD_REDIRECT = 1 << 10;
+
+	/** The alphabet of base32 digests.*/
+	protected static final String BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+	/** The number of characters of the base32 digests, which are stored as raw bytes.*/
+	protected static final int BASE32_DIGEST_CHARS = 32;
+	/** The number of raw bytes of the base32 digests.*/
+	protected static final int BASE32_DIGEST_BYTES = 20;
+	/** The tag of a digest stored as raw bytes. Other digests are tagged with their length plus one.*/
+	protected static final int DIGEST_TAG_BASE32 = 0;
+	/** The number of milliseconds in a second.*/
+	protected static final long MILLIS_PER_SECOND = 1000L;
+
+	/** The file where the output should be written.*/
+	protected final File outputFile;
+	/** The number of CDX entries in each block.*/
+	protected final int entriesPerBlock;
+
+	/**
+	 * Constructor, with the default number of entries in each block.
+	 * @param outputFile The file to write the CDX entries to.
+	 */
+	public BinaryCDXFileWriter(File outputFile) {
+		this(outputFile, DEFAULT_ENTRIES_PER_BLOCK);
+	}
+
+	/**
+	 * Constructor.
+	 * @param outputFile The file to write the CDX entries to.
+	 * @param entriesPerBlock The number of CDX entries in each block. Fewer entries per block give faster
+	 * lookups, and more entries per block give a smaller block index.
+	 */
+	public BinaryCDXFileWriter(File outputFile, int entriesPerBlock) {
+		ArgumentCheck.checkNotNull(outputFile, "File outputFile");
+		ArgumentCheck.checkIsTrue(entriesPerBlock > 0, "The number of entries per block must be positive");
+		this.outputFile = outputFile;
+		this.entriesPerBlock = entriesPerBlock;
+	}
+
+	/**
+	 * Writes the CDX entries to the output file, after sorting them by their keys and dates.
+	 * Null entries (e.g. for WIDs without a CDX entry) are skipped.
+	 * @param entries The CDX entries. They can also be views of packed CDX entries (see {@link PackedCDXEntries}).
+	 * @return The number of CDX entries written.
+	 */
+	public long writeCDXEntries(Collection<CDXEntry> entries) {
+		List<CDXEntry> sorted = new ArrayList<CDXEntry>(entries.size());
+		for(CDXEntry entry : entries) {
+			if(entry != null) {
+				sorted.add(entry.toStandaloneEntry());
+			}
+		}
+		Collections.sort(sorted, new Comparator<CDXEntry>() {
+			@Override
+			public int compare(CDXEntry o1, CDXEntry o2) {
+				int res = getKey(o1).compareTo(getKey(o2));
+				return res != 0 ? res : Long.compare(o1.getDateAsLong(), o2.getDateAsLong());
+			}
+		});
+		return writeSortedCDXEntries(sorted.iterator());
+	}
+
+	/**
+	 * Converts a sorted text CDX file into the binary CDX output file.
+	 * The CDX entries are read and written one at the time, so files of any size can be converted.
+	 * @param cdxFile The CDX file, which must be sorted by its first element (the canonized URL).
+	 * @return The number of CDX entries written.
+	 * @throws IllegalArgumentException If the CDX file is not sorted.
+	 */
+	public long writeCDXFile(File cdxFile) {
+		ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+		try (CDXEntryIterator iterator = new CDXFileReader().iterateCDXFromFile(cdxFile)) {
+			return writeSortedCDXEntries(iterator);
+		} catch (IOException e) {
+			String errMsg = "Issue reading the CDX file '" + cdxFile.getAbsolutePath() + "'";
+			logger.error(errMsg, e);
+			throw new IllegalStateException(errMsg, e);
+		}
+	}
+
+	/**
+	 * Writes CDX entries, which are in the order of their keys, to the output file.
+	 * @param entries The iterator of the CDX entries.
+	 * @return The number of CDX entries written.
+	 * @throws IllegalArgumentException If the CDX entries are not in the order of their keys.
+	 */
+	public long writeSortedCDXEntries(Iterator<CDXEntry> entries) {
+		logger.debug("Writing binary CDX indices in blocks of " + entriesPerBlock + " entries to file '"
+				+ outputFile.getName() + "'.");
+		try (BlockWriter writer = new BlockWriter(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+			while(entries.hasNext()) {
+				writer.write(entries.next());
+			}
+			writer.finish();
+			logger.debug("Wrote " + writer.entryCount + " CDX entries in " + writer.blockPositions.size()
+					+ " blocks of " + writer.position + " bytes to file '" + outputFile.getName() + "'.");
+			return writer.entryCount;
+		} catch(IOException e) {
+			String errMsg = "Issue writing the binary CDX indices to file '" + outputFile.getAbsolutePath() + "'";
+			logger.error(errMsg, e);
+			throw new IllegalStateException(errMsg, e);
+		}
+	}
+
+	/**
+	 * @param entry The CDX entry.
+	 * @return The key of the entry, which is its canonized URL, or the empty string if it has none.
+	 */
+	protected static String getKey(CDXEntry entry) {
+		return entry.urlNorm == null ? "" : entry.urlNorm;
+	}
+
+	/**
+	 * Checks whether a digest is in base32 with the length, which can be stored as raw bytes.
+	 * @param digest The digest.
+	 * @return Whether the digest can be stored as raw bytes.
+	 */
+	protected static boolean isBase32Digest(String digest) {
+		if(digest.length() != BASE32_DIGEST_CHARS) {
+			return false;
+		}
+		for(int i = 0; i < digest.length(); i++) {
+			if(BASE32_ALPHABET.indexOf(digest.charAt(i)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writer of the blocks, the dictionaries and the block index of a single binary CDX file.
+	 */
+	protected class BlockWriter implements Closeable {
+		/** The output stream of the file.*/
+		protected final OutputStream out;
+		/** The encoding of the current block.*/
+		protected final Encoder block = new Encoder();
+		/** The ids of the filenames in the dictionary.*/
+		protected final Map<String, Integer> filenameIds = new HashMap<String, Integer>();
+		/** The filenames in the order of their ids.*/
+		protected final List<String> filenames = new ArrayList<String>();
+		/** The ids of the content types in the dictionary.*/
+		protected final Map<String, Integer> contentTypeIds = new HashMap<String, Integer>();
+		/** The content types in the order of their ids.*/
+		protected final List<String> contentTypes = new ArrayList<String>();
+		/** The ids of the status codes in the dictionary.*/
+		protected final Map<Integer, Integer> statusCodeIds = new HashMap<Integer, Integer>();
+		/** The status codes in the order of their ids.*/
+		protected final List<Integer> statusCodes = new ArrayList<Integer>();
+		/** The first key of each block.*/
+		protected final List<String> blockKeys = new ArrayList<String>();
+		/** The position of each block.*/
+		protected final List<Long> blockPositions = new ArrayList<Long>();
+		/** The length of each block.*/
+		protected final List<Integer> blockLengths = new ArrayList<Integer>();
+		/** The number of entries in each block.*/
+		protected final List<Integer> blockEntries = new ArrayList<Integer>();
+		/** The latest offset in the block for each filename id (-1 for entries without filename).*/
+		protected final Map<Integer, Long> previousOffsets = new HashMap<Integer, Long>();
+		/** The number of bytes written to the file.*/
+		protected long position = 0L;
+		/** The number of entries written.*/
+		protected long entryCount = 0L;
+		/** The number of entries in the current block.*/
+		protected int entriesInBlock = 0;
+		/** The key of the previous entry. Null before the first entry.*/
+		protected String previousKey = null;
+		/** The original URL of the previous entry in the block.*/
+		protected String previousUrl = "";
+		/** The date in seconds of the previous entry in the block.*/
+		protected long previousSeconds = 0L;
+
+		/**
+		 * Constructor, which writes the header.
+		 * @param out The output stream of the file.
+		 * @throws IOException If the header cannot be written.
+		 */
+		protected BlockWriter(OutputStream out) throws IOException {
+			this.out = out;
+			out.write(MAGIC);
+			out.write(VERSION);
+			position = HEADER_SIZE;
+		}
+
+		/**
+		 * Encodes a CDX entry into the current block, and writes the block when it is full.
+		 * The fields are read from the standalone CDX entry, since a view of packed CDX entries has no fields.
+		 * @param entry The CDX entry.
+		 * @throws IOException If the block cannot be written.
+		 * @throws IllegalArgumentException If the CDX entry is not in the order of the keys.
+		 */
+		protected void write(CDXEntry entry) throws IOException {
+			ArgumentCheck.checkNotNull(entry, "CDXEntry entry");
+			entry = entry.toStandaloneEntry();
+			String key = getKey(entry);
+			if(previousKey != null && key.compareTo(previousKey) < 0) {
+				throw new IllegalArgumentException("The CDX entries must be in the order of their keys, but '" + key
+						+ "' came after '" + previousKey + "'.");
+			}
+			if(entriesInBlock == 0) {
+				blockKeys.add(key);
+				previousKey = "";
+			}
+			encodeEntry(entry, key);
+			previousKey = key;
+			entriesInBlock++;
+			entryCount++;
+			if(entriesInBlock == entriesPerBlock) {
+				writeBlock();
+			}
+		}
+
+		/**
+		 * Encodes the fields of the CDX entry, which have a value.
+		 * @param entry The CDX entry.
+		 * @param key The key of the entry.
+		 */
+		protected void encodeEntry(CDXEntry entry, String key) {
+			int fields = 0;
+			fields |= entry.urlNorm != null ? FIELD_KEY : 0;
+			fields |= entry.date != null ? FIELD_DATE : 0;
+			fields |= entry.url != null ? FIELD_URL : 0;
+			fields |= entry.contentType != null ? FIELD_CONTENT_TYPE : 0;
+			fields |= entry.statusCode != null ? FIELD_STATUS_CODE : 0;
+			fields |= entry.digest != null ? FIELD_DIGEST : 0;
+			fields |= entry.filename != null ? FIELD_FILENAME : 0;
+			fields |= entry.offset != null ? FIELD_OFFSET : 0;
+			fields |= entry.length != null ? FIELD_LENGTH : 0;
+			fields |= entry.ip != null ? FIELD_IP : 0;
+			fields |= entry.redirect != null ? FIELD_REDIRECT : 0;
+			block.writeVarLong(fields);
+
+			if(entry.urlNorm != null) {
+				block.writeFrontCoded(previousKey, key);
+			}
+			if(entry.date != null) {
+				long seconds = entry.date / MILLIS_PER_SECOND;
+				if(entry.date % MILLIS_PER_SECOND < 0) {
+					seconds--;
+				}
+				block.writeSignedVarLong(seconds - previousSeconds);
+				previousSeconds = seconds;
+			}
+			if(entry.url != null) {
+				block.writeFrontCoded(previousUrl, entry.url);
+				previousUrl = entry.url;
+			}
+			if(entry.contentType != null) {
+				block.writeVarLong(getId(entry.contentType, contentTypeIds, contentTypes));
+			}
+			if(entry.statusCode != null) {
+				block.writeVarLong(getId(entry.statusCode, statusCodeIds, statusCodes));
+			}
+			if(entry.digest != null) {
+				block.writeDigest(entry.digest);
+			}
+			int filenameId = -1;
+			if(entry.filename != null) {
+				filenameId = getId(entry.filename, filenameIds, filenames);
+				block.writeVarLong(filenameId);
+			}
+			if(entry.offset != null) {
+				Long previousOffset = previousOffsets.get(filenameId);
+				block.writeSignedVarLong(entry.offset - (previousOffset == null ? 0L : previousOffset));
+				previousOffsets.put(filenameId, entry.offset);
+			}
+			if(entry.length != null) {
+				block.writeSignedVarLong(entry.length);
+			}
+			if(entry.ip != null) {
+				block.writeString(entry.ip);
+			}
+			if(entry.redirect != null) {
+				block.writeString(entry.redirect);
+			}
+		}
+
+		/**
+		 * Finds the id of a value in a dictionary, and adds the value if it is not there yet.
+		 * @param value The value.
+		 * @param ids The ids of the values in the dictionary.
+		 * @param values The values in the order of their ids.
+		 * @return The id of the value.
+		 */
+		protected <T> int getId(T value, Map<T, Integer> ids, List<T> values) {
+			Integer res = ids.get(value);
+			if(res == null) {
+				res = values.size();
+				ids.put(value, res);
+				values.add(value);
+			}
+			return res;
+		}
+
+		/**
+		 * Writes the current block to the file, and starts a new block.
+		 * @throws IOException If the block cannot be written.
+		 */
+		protected void writeBlock() throws IOException {
+			if(entriesInBlock == 0) {
+				return;
+			}
+			blockPositions.add(position);
+			blockLengths.add(block.size());
+			blockEntries.add(entriesInBlock);
+			block.writeTo(out);
+			position += block.size();
+
+			block.reset();
+			entriesInBlock = 0;
+			previousUrl = "";
+			previousSeconds = 0L;
+			previousOffsets.clear();
+		}
+
+		/**
+		 * Writes the last block, the footer with the dictionaries and the block index, and the trailer.
+		 * @throws IOException If it cannot be written.
+		 */
+		protected void finish() throws IOException {
+			writeBlock();
+			Encoder footer = new Encoder();
+			footer.writeVarLong(filenames.size());
+			for(String filename : filenames) {
+				footer.writeString(filename);
+			}
+			footer.writeVarLong(contentTypes.size());
+			for(String contentType : contentTypes) {
+				footer.writeString(contentType);
+			}
+			footer.writeVarLong(statusCodes.size());
+			for(Integer statusCode : statusCodes) {
+				footer.writeSignedVarLong(statusCode);
+			}
+			footer.writeVarLong(blockKeys.size());
+			String previousBlockKey = "";
+			long previousPosition = 0L;
+			for(int i = 0; i < blockKeys.size(); i++) {
+				footer.writeFrontCoded(previousBlockKey, blockKeys.get(i));
+				footer.writeVarLong(blockPositions.get(i) - previousPosition);
+				footer.writeVarLong(blockLengths.get(i));
+				footer.writeVarLong(blockEntries.get(i));
+				previousBlockKey = blockKeys.get(i);
+				previousPosition = blockPositions.get(i);
+			}
+			long footerPosition = position;
+			footer.writeTo(out);
+			position += footer.size();
+
+			for(int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) (footerPosition >>> shift));
+			}
+			out.write(MAGIC);
+			position += TRAILER_SIZE;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Buffer for encoding the varints, strings and digests of the binary CDX format.
+	 */
+	protected static class Encoder extends ByteArrayOutputStream {
+		/**
+		 * Writes a non-negative number as a varint, with 7 bits in each byte and the high bit set on all but
+		 * the last byte.
+		 * @param value The number.
+		 */
+		protected void writeVarLong(long value) {
+			long remaining = value;
+			while((remaining & ~0x7FL) != 0L) {
+				write((int) ((remaining & 0x7F) | 0x80));
+				remaining >>>= 7;
+			}
+			write((int) remaining);
+		}
+
+		/**
+		 * Writes a number, which may be negative, as a zig-zag encoded varint, so small negative numbers
+		 * are also written with few bytes.
+		 * @param value The number.
+		 */
+		protected void writeSignedVarLong(long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		/**
+		 * Writes a string as its number of bytes followed by its bytes.
+		 * @param value The string.
+		 */
+		protected void writeString(String value) {
+			byte[] bytes = value.getBytes(CHARSET);
+			writeVarLong(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * Writes a string front-coded against the previous string, as the number of characters in their common
+		 * prefix followed by the rest of the string.
+		 * @param previous The previous string.
+		 * @param value The string.
+		 */
+		protected void writeFrontCoded(String previous, String value) {
+			int shared = 0;
+			int max = Math.min(previous.length(), value.length());
+			while(shared < max && previous.charAt(shared) == value.charAt(shared)) {
+				shared++;
+			}
+			if(shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) {
+				shared--;
+			}
+			writeVarLong(shared);
+			writeString(value.substring(shared));
+		}
+
+		/**
+		 * Writes a digest. Base32 digests of the right length are written as their raw bytes, and other digests
+		 * as strings.
+		 * @param digest The digest.
+		 */
+		protected void writeDigest(String digest) {
+			if(!isBase32Digest(digest)) {
+				byte[] bytes = digest.getBytes(CHARSET);
+				writeVarLong(bytes.length + 1L);
+				write(bytes, 0, bytes.length);
+				return;
+			}
+			writeVarLong(DIGEST_TAG_BASE32);
+			int buffer = 0;
+			int bits = 0;
+			for(int i = 0; i < digest.length(); i++) {
+				buffer = (buffer << 5) | BASE32_ALPHABET.indexOf(digest.charAt(i));
+				bits += 5;
+				if(bits >= 8) {
+					bits -= 8;
+					write((buffer >>> bits) & 0xFF);
+				}
+			}
+		}
+	}
+}
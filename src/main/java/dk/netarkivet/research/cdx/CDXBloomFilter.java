@@ -0,0 +1,433 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.SurtUtils;
+
+/**
+ * Bloom filter over the canonical keys (SURTs) of the URLs in CDX files.
+ * It tells whether a URL might be in the archive, or is definitely not in the archive. So a lookup for a URL,
+ * which is not in the filter, can be answered locally without a request to the CDX server.
+ *
+ * The filter is built offline from the CDX files, and written to a file, which is memory-mapped when it is loaded.
+ * The file has a header of {@link #HEADER_SIZE} bytes (the magic, the version, the number of hash functions,
+ * the number of bits and the number of keys), followed by the bits.
+ *
+ * The bit positions are made by double hashing of a 64-bit hash of the SURT, so each lookup only hashes the
+ * key once.
+ */
+public class CDXBloomFilter {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXBloomFilter.class);
+
+	/** The default expected rate of false positives.*/
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+	/** The magic at the start of the file.*/
+	protected static final byte[] MAGIC = "CDXBLOOM".getBytes(Charset.forName("US-ASCII"));
+	/** The version of the file format.*/
+	protected static final int VERSION = 1;
+	/** The size of the header of the file.*/
+	protected static final int HEADER_SIZE = 32;
+	/** The number of bytes in each of the buffers with the bits.*/
+	protected static final int SEGMENT_SIZE = 1 << 30;
+	/** The maximum number of hash functions.*/
+	protected static final int MAX_HASHES = 30;
+	/** The seed of the second hash, which is derived from the first hash.*/
+	protected static final long SECOND_HASH_SEED = 0x9E3779B97F4A7C15L;
+	/** The start of the CDX header line.*/
+	protected static final String CDX_HEADER_START = " CDX ";
+	/** The charset of the CDX files.*/
+	protected static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/** The number of hash functions.*/
+	protected final int numHashes;
+	/** The number of bits.*/
+	protected final long numBits;
+	/** The buffers with the bits.*/
+	protected final ByteBuffer[] segments;
+	/** The number of keys added to the filter.*/
+	protected long numKeys;
+
+	/**
+	 * Constructor for an empty filter in memory, which is sized for the number of keys and the rate of
+	 * false positives.
+	 * @param expectedKeys The expected number of keys.
+	 * @param falsePositiveRate The expected rate of false positives, when all the keys have been added.
+	 */
+	public CDXBloomFilter(long expectedKeys, double falsePositiveRate) {
+		ArgumentCheck.checkIsTrue(expectedKeys >= 0, "The expected number of keys must not be negative");
+		ArgumentCheck.checkIsTrue(falsePositiveRate > 0.0 && falsePositiveRate < 1.0,
+				"The false positive rate must be between 0 and 1");
+		long keys = Math.max(expectedKeys, 1L);
+		long bits = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		this.numBits = Math.max(64L, (bits + 63L) / 64L * 64L);
+		long hashes = Math.round((double) numBits / keys * Math.log(2));
+		this.numHashes = (int) Math.max(1L, Math.min(MAX_HASHES, hashes));
+		this.numKeys = 0L;
+		long numBytes = numBits / 8L;
+		this.segments = new ByteBuffer[(int) ((numBytes + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		for(int i = 0; i < segments.length; i++) {
+			segments[i] = ByteBuffer.allocate((int) Math.min(SEGMENT_SIZE, numBytes - (long) i * SEGMENT_SIZE));
+		}
+	}
+
+	/**
+	 * Constructor for a filter with existing bits.
+	 * @param numHashes The number of hash functions.
+	 * @param numBits The number of bits.
+	 * @param numKeys The number of keys in the filter.
+	 * @param segments The buffers with the bits.
+	 */
+	protected CDXBloomFilter(int numHashes, long numBits, long numKeys, ByteBuffer[] segments) {
+		this.numHashes = numHashes;
+		this.numBits = numBits;
+		this.numKeys = numKeys;
+		this.segments = segments;
+	}
+
+	/**
+	 * Loads a filter from a file, which is memory-mapped, so the bits are not read into the heap.
+	 * @param file The file with the filter.
+	 * @return The filter.
+	 */
+	public static CDXBloomFilter load(File file) {
+		ArgumentCheck.checkIsFile(file, "File file");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while(header.hasRemaining() && channel.read(header) >= 0) {
+				continue;
+			}
+			header.flip();
+			byte[] magic = new byte[MAGIC.length];
+			if(header.remaining() < HEADER_SIZE || !Arrays.equals(readBytes(header, magic), MAGIC)) {
+				throw new IllegalArgumentException("The file '" + file.getAbsolutePath() + "' is not a CDX bloom "
+						+ "filter.");
+			}
+			int version = header.getInt();
+			if(version != VERSION) {
+				throw new IllegalArgumentException("Unsupported version " + version + " of the CDX bloom filter '"
+						+ file.getAbsolutePath() + "'.");
+			}
+			int numHashes = header.getInt();
+			long numBits = header.getLong();
+			long numKeys = header.getLong();
+			long numBytes = numBits / 8L;
+			if(numHashes < 1 || numBits <= 0 || numBits % 64L != 0 || channel.size() != HEADER_SIZE + numBytes) {
+				throw new IllegalArgumentException("The CDX bloom filter '" + file.getAbsolutePath()
+						+ "' is corrupt.");
+			}
+			ByteBuffer[] segments = new ByteBuffer[(int) ((numBytes + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			for(int i = 0; i < segments.length; i++) {
+				long start = (long) i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + start,
+						Math.min(SEGMENT_SIZE, numBytes - start));
+			}
+			logger.debug("Mapped the CDX bloom filter '" + file.getAbsolutePath() + "' with " + numKeys
+					+ " keys in " + numBits + " bits.");
+			return new CDXBloomFilter(numHashes, numBits, numKeys, segments);
+		} catch (IOException e) {
+			logger.error("Could not load the CDX bloom filter '" + file.getAbsolutePath() + "'", e);
+			throw new IllegalStateException("Could not load the CDX bloom filter '" + file.getAbsolutePath()
+					+ "'", e);
+		}
+	}
+
+	/**
+	 * @param buffer The buffer.
+	 * @param bytes The array for the bytes.
+	 * @return The array with the next bytes of the buffer.
+	 */
+	private static byte[] readBytes(ByteBuffer buffer, byte[] bytes) {
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Builds a filter with the URLs of the CDX files.
+	 * The files are read twice: First for counting the lines to size the filter, then for adding the URLs.
+	 * @param cdxFiles The CDX files.
+	 * @param falsePositiveRate The expected rate of false positives.
+	 * @return The filter.
+	 */
+	public static CDXBloomFilter createFromCDXFiles(Collection<File> cdxFiles, double falsePositiveRate) {
+		ArgumentCheck.checkNotNull(cdxFiles, "Collection<File> cdxFiles");
+		long lines = 0L;
+		for(File cdxFile : cdxFiles) {
+			lines += countLines(cdxFile);
+		}
+		CDXBloomFilter res = new CDXBloomFilter(lines, falsePositiveRate);
+		for(File cdxFile : cdxFiles) {
+			res.addCDXFile(cdxFile);
+		}
+		logger.info("Created a CDX bloom filter with " + res.getNumberOfKeys() + " keys from " + lines
+				+ " CDX lines in " + cdxFiles.size() + " files.");
+		return res;
+	}
+
+	/**
+	 * Counts the CDX lines of a file, without the CDX header line and empty lines.
+	 * @param cdxFile The CDX file.
+	 * @return The number of CDX lines.
+	 */
+	protected static long countLines(File cdxFile) {
+		ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+		long res = 0L;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cdxFile),
+				CHARSET))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(!line.trim().isEmpty() && !line.startsWith(CDX_HEADER_START)) {
+					res++;
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Could not read the CDX file '" + cdxFile.getAbsolutePath() + "'", e);
+			throw new IllegalStateException("Could not read the CDX file '" + cdxFile.getAbsolutePath() + "'", e);
+		}
+		return res;
+	}
+
+	/**
+	 * Adds the URLs of the CDX lines in a file.
+	 * The CDX format is given by the CDX header line, or it is the format of the DAB CDX server.
+	 * The original URL is used, or the canonized URL when the lines have no original URL.
+	 * @param cdxFile The CDX file.
+	 */
+	public void addCDXFile(File cdxFile) {
+		ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cdxFile),
+				CHARSET))) {
+			String line = reader.readLine();
+			Character[] format;
+			if(line != null && line.startsWith(CDX_HEADER_START)) {
+				format = new CDXFileReader().extractCDXFormat(line);
+				line = reader.readLine();
+			} else {
+				format = DabCDXExtractor.getDefaultCDXFormat().toArray(new Character[0]);
+			}
+			CDXLineParser parser = new CDXLineParser(Arrays.asList(format), true);
+			for(; line != null; line = reader.readLine()) {
+				CDXEntry entry = parser.parse(line);
+				if(entry == null) {
+					continue;
+				}
+				if(entry.getUrl() != null) {
+					add(entry.getUrl());
+				} else if(entry.getUrlNorm() != null) {
+					String urlNorm = entry.getUrlNorm();
+					addKey(isSurt(urlNorm) ? urlNorm : createKey(urlNorm));
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Could not read the CDX file '" + cdxFile.getAbsolutePath() + "'", e);
+			throw new IllegalStateException("Could not read the CDX file '" + cdxFile.getAbsolutePath() + "'", e);
+		}
+	}
+
+	/**
+	 * Adds the canonical key of a URL to the filter. Only possible for filters in memory.
+	 * @param url The URL.
+	 */
+	public void add(String url) {
+		ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+		addKey(createKey(url));
+	}
+
+	/**
+	 * Adds a canonical key to the filter.
+	 * @param key The key.
+	 */
+	protected void addKey(String key) {
+		if(segments.length > 0 && segments[0].isReadOnly()) {
+			throw new IllegalStateException("Cannot add keys to a CDX bloom filter, which has been loaded.");
+		}
+		long h1 = hash(key);
+		long h2 = secondHash(h1);
+		boolean changed = false;
+		for(int i = 0; i < numHashes; i++) {
+			long bit = bitIndex(h1, h2, i);
+			ByteBuffer segment = segments[(int) ((bit >>> 3) / SEGMENT_SIZE)];
+			int index = (int) ((bit >>> 3) % SEGMENT_SIZE);
+			byte b = segment.get(index);
+			byte mask = (byte) (1 << (bit & 7L));
+			if((b & mask) == 0) {
+				segment.put(index, (byte) (b | mask));
+				changed = true;
+			}
+		}
+		if(changed) {
+			numKeys++;
+		}
+	}
+
+	/**
+	 * Checks whether a URL might be in the filter.
+	 * @param url The URL.
+	 * @return False if the URL is definitely not in the filter, true if it might be.
+	 */
+	public boolean mightContain(String url) {
+		if(url == null || url.isEmpty()) {
+			return false;
+		}
+		long h1 = hash(createKey(url));
+		long h2 = secondHash(h1);
+		for(int i = 0; i < numHashes; i++) {
+			long bit = bitIndex(h1, h2, i);
+			ByteBuffer segment = segments[(int) ((bit >>> 3) / SEGMENT_SIZE)];
+			if((segment.get((int) ((bit >>> 3) % SEGMENT_SIZE)) & (1 << (bit & 7L))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param hash The hash of the key.
+	 * @return The second hash for the double hashing, which is odd so all the bits can be reached.
+	 */
+	protected static long secondHash(long hash) {
+		return mix(hash ^ SECOND_HASH_SEED) | 1L;
+	}
+
+	/**
+	 * Finds the bit of a hash function with double hashing: h1 + i * h2.
+	 * @param h1 The first hash of the key.
+	 * @param h2 The second hash of the key.
+	 * @param i The number of the hash function.
+	 * @return The index of the bit.
+	 */
+	protected long bitIndex(long h1, long h2, int i) {
+		return ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+	}
+
+	/**
+	 * Writes the filter to a file, which can be loaded with {@link #load(File)}.
+	 * @param file The file.
+	 */
+	public void writeToFile(File file) {
+		ArgumentCheck.checkNotNull(file, "File file");
+		try (FileOutputStream out = new FileOutputStream(file); FileChannel channel = out.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.put(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(numHashes);
+			header.putLong(numBits);
+			header.putLong(numKeys);
+			header.flip();
+			writeFully(channel, header);
+			for(ByteBuffer segment : segments) {
+				writeFully(channel, segment.duplicate());
+			}
+		} catch (IOException e) {
+			logger.error("Could not write the CDX bloom filter to '" + file.getAbsolutePath() + "'", e);
+			throw new IllegalStateException("Could not write the CDX bloom filter to '" + file.getAbsolutePath()
+					+ "'", e);
+		}
+	}
+
+	/**
+	 * Writes all the remaining bytes of the buffer to the channel.
+	 * @param channel The channel.
+	 * @param buffer The buffer.
+	 * @throws IOException If it fails to write.
+	 */
+	protected static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.rewind();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return The number of keys added to the filter. URLs with the same SURT are only counted once,
+	 * but a few distinct keys may be missed, when all their bits were already set.
+	 */
+	public long getNumberOfKeys() {
+		return numKeys;
+	}
+
+	/**
+	 * @return The number of bits of the filter.
+	 */
+	public long getNumberOfBits() {
+		return numBits;
+	}
+
+	/**
+	 * @return The number of hash functions of the filter.
+	 */
+	public int getNumberOfHashes() {
+		return numHashes;
+	}
+
+	/**
+	 * @return The expected rate of false positives, for the current number of keys.
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return Math.pow(1.0 - Math.exp(-(double) numHashes * numKeys / numBits), numHashes);
+	}
+
+	/**
+	 * Creates the key of a URL, which is its SURT. The SURT is the key most of the CDX extractors look up by, and
+	 * it is never more specific than the key of the others (e.g. the query of the DAB CDX server), so a URL which 
+	 * can be found by a CDX extractor is also in the filter.
+	 * @param url The URL.
+	 * @return The key.
+	 */
+	protected static String createKey(String url) {
+		return SurtUtils.toSurt(url);
+	}
+
+	/**
+	 * @param key The canonized URL of a CDX line.
+	 * @return Whether the canonized URL is a SURT, which has a ')' before the path.
+	 */
+	protected static boolean isSurt(String key) {
+		int hostEnd = key.indexOf(')');
+		int slash = key.indexOf('/');
+		return hostEnd >= 0 && (slash < 0 || hostEnd < slash);
+	}
+
+	/**
+	 * Makes the 64-bit hash (FNV-1a followed by a final mixing) of the characters of a key.
+	 * @param key The key.
+	 * @return The hash.
+	 */
+	protected static long hash(String key) {
+		long res = 0xCBF29CE484222325L;
+		for(int i = 0; i < key.length(); i++) {
+			res ^= key.charAt(i);
+			res *= 0x100000001B3L;
+		}
+		return mix(res);
+	}
+
+	/**
+	 * Mixes the bits of a hash (the finalizer of MurmurHash3), so all the bits depend on all the input bits.
+	 * @param h The hash.
+	 * @return The mixed hash.
+	 */
+	protected static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,19 @@
+package dk.netarkivet.research.cdx;
+
+/**
+ * Callback for the result of an asynchronous CDX lookup.
+ * @param <T> The type of the result.
+ */
+public interface CDXCallback<T> {
+	/**
+	 * Called when the lookup has completed.
+	 * @param result The result of the lookup. May be null, e.g. if no CDX entry was found.
+	 */
+	void onSuccess(T result);
+	
+	/**
+	 * Called when the lookup has failed or has been cancelled.
+	 * @param failure The cause of the failure.
+	 */
+	void onFailure(Throwable failure);
+}
@@ -139,6 +139,15 @@ public class CDXEntry {
 		return redirect;
 	}
 
+	/**
+	 * Retrieves this CDX entry as an entry, which holds all its values itself.
+	 * Views of entries stored elsewhere (e.g. in {@link PackedCDXEntries}) must return a copy.
+	 * @return The standalone CDX entry.
+	 */
+	protected CDXEntry toStandaloneEntry() {
+		return this;
+	}
+
 	/**
 	 * Extract this CDXEntry as a line for a CDX file.
 	 * @param charKeys The CDX char keys for extracting in the wanted order.
@@ -0,0 +1,15 @@
+package dk.netarkivet.research.cdx;
+
+/**
+ * Handler of CDX entries, which are delivered one at the time, e.g. while they are parsed from a CDX server response.
+ * This allows folding over all the CDX entries for a URL, without keeping all of them in memory.
+ *
+ * The entries may be views of a larger collection of CDX entries, so a handler should only keep the entries it needs.
+ */
+public interface CDXEntryHandler {
+	/**
+	 * Handles a single CDX entry.
+	 * @param entry The CDX entry.
+	 */
+	void handleEntry(CDXEntry entry);
+}
@@ -0,0 +1,116 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Lazy iterator over the CDX entries of CDX lines from a reader.
+ * Only a single line is parsed at the time, so it runs in constant memory no matter the amount of CDX lines.
+ * Lines which cannot be parsed into CDX entries are skipped.
+ *
+ * The underlying reader is closed when the last entry has been read, or when the iterator is closed.
+ */
+public class CDXEntryIterator implements Iterator<CDXEntry>, Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXEntryIterator.class);
+
+	/** The reader of the CDX lines.*/
+	protected final BufferedReader reader;
+	/** The parser of the lines.*/
+	protected final CDXLineParser parser;
+	/** The next entry to deliver. Null if it has not been read yet, or there are no more entries.*/
+	protected CDXEntry nextEntry = null;
+	/** Whether the reader has been read to the end (or closed).*/
+	protected boolean finished = false;
+
+	/**
+	 * Constructor.
+	 * @param reader The reader of the CDX lines. Must be positioned after the CDX format line, if any.
+	 * @param cdxFormat The CDX format of the lines.
+	 */
+	public CDXEntryIterator(BufferedReader reader, Character[] cdxFormat) {
+		ArgumentCheck.checkNotNull(reader, "BufferedReader reader");
+		ArgumentCheck.checkNotNull(cdxFormat, "Character[] cdxFormat");
+		this.reader = reader;
+		this.parser = new CDXLineParser(cdxFormat);
+	}
+
+	/**
+	 * Constructor, for parsing the lines with a given parser, e.g. a projection of the CDX format.
+	 * @param reader The reader of the CDX lines. Must be positioned after the CDX format line, if any.
+	 * @param parser The parser of the lines.
+	 */
+	public CDXEntryIterator(BufferedReader reader, CDXLineParser parser) {
+		ArgumentCheck.checkNotNull(reader, "BufferedReader reader");
+		ArgumentCheck.checkNotNull(parser, "CDXLineParser parser");
+		this.reader = reader;
+		this.parser = parser;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(nextEntry == null && !finished) {
+			nextEntry = readNextEntry();
+		}
+		return nextEntry != null;
+	}
+
+	@Override
+	public CDXEntry next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException("No more CDX entries.");
+		}
+		CDXEntry res = nextEntry;
+		nextEntry = null;
+		return res;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Cannot remove CDX entries from the underlying source.");
+	}
+
+	/**
+	 * Reads lines until a valid CDX entry is found, or the end of the reader is reached.
+	 * @return The next CDX entry, or null if there are no more entries.
+	 */
+	protected CDXEntry readNextEntry() {
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				CDXEntry entry = parseLine(line);
+				if(entry != null) {
+					return entry;
+				}
+				logger.trace("Ignoring the CDX line '" + line + "'.");
+			}
+			close();
+			return null;
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read the next CDX line.", e);
+		}
+	}
+
+	/**
+	 * Parses a single CDX line.
+	 * @param line The CDX line.
+	 * @return The CDX entry, or null if the line could not be parsed.
+	 */
+	protected CDXEntry parseLine(String line) {
+		return parser.parse(line);
+	}
+
+	@Override
+	public void close() throws IOException {
+		finished = true;
+		reader.close();
+	}
+}
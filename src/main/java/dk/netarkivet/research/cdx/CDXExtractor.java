@@ -25,6 +25,17 @@ public interface CDXExtractor {
 	 */
 	CDXEntry retrieveCDX(WaybackWID wid);
 	
+	/**
+	 * Receives the CDX for a Wayback WID, where only the given fields of the CDX entry are needed, e.g. only the
+	 * date, when it is just checked whether the resource has been archived.
+	 * The URL and the date are always included, and the filename as well when the WID has one.
+	 * Extractors may deliver more fields than asked for, e.g. when the CDX entries are already cached.
+	 * @param wid The Wayback web identifier.
+	 * @param fields The CDX format elements of the needed fields. If null, then all the fields are needed.
+	 * @return The CDX entry for Wayback WID.
+	 */
+	CDXEntry retrieveCDX(WaybackWID wid, Collection<Character> fields);
+	
 	/**
 	 * Retrieves all the CDX entries for all the WIDs.
 	 * If no CDX can be retrieved for a WID, then a null is returned in its place.
@@ -37,14 +48,67 @@ public interface CDXExtractor {
 	 * Retrieves all the CDX indices for the a given URL
 	 * 
 	 * @param url The url to retrieve all the CDX indices for.
-	 * @return The collection of CDX indices for the URL.
+	 * @return The collection of CDX indices for the URL, or null if they could not be retrieved.
 	 */
 	Collection<CDXEntry> retrieveAllCDX(String url);
 	
+	/**
+	 * Delivers all the CDX indices for the given URL to the handler one at the time.
+	 * Consumers, which fold over the CDX indices (e.g. finding the one closest to a date), can thereby avoid 
+	 * holding all the CDX indices for the URL in memory.
+	 * @param url The url to retrieve all the CDX indices for.
+	 * @param handler The handler of the CDX indices.
+	 * @return Whether the CDX indices could be retrieved.
+	 */
+	boolean streamAllCDX(String url, CDXEntryHandler handler);
+	
+	/**
+	 * Queries the CDX indices, which match the URL in the given way, e.g. all the URLs with the URL as prefix, 
+	 * or all the URLs of the host of the URL. 
+	 * The CDX indices are delivered while they are read, so a whole site can be retrieved with a single query, 
+	 * without holding all its CDX indices in memory.
+	 * The iterator must be closed, if it is not read to the end.
+	 * @param url The URL of the query, without wildcards.
+	 * @param matchType How the URL is matched.
+	 * @return The iterator over the CDX indices of the query.
+	 * @throws IllegalArgumentException If the extractor does not support the match type.
+	 */
+	CDXQueryIterator queryCDX(String url, CDXMatchType matchType);
+	
+	/**
+	 * Queries the CDX indices, which match the URL in the given way, where only the given fields of the CDX 
+	 * indices are needed. Extractors for CDX servers only ask the server for those fields, and the local 
+	 * extractors skip decoding the other fields, so the most frequent queries transfer and parse less.
+	 * The URL and the date are always included, since the CDX indices are ordered and sampled by them.
+	 * Extractors may deliver more fields than asked for, e.g. when the CDX indices are already cached.
+	 * The iterator must be closed, if it is not read to the end.
+	 * @param url The URL of the query, without wildcards.
+	 * @param matchType How the URL is matched.
+	 * @param fields The CDX format elements of the needed fields. If null, then all the fields are needed.
+	 * @return The iterator over the CDX indices of the query.
+	 * @throws IllegalArgumentException If the extractor does not support the match type.
+	 */
+	CDXQueryIterator queryCDX(String url, CDXMatchType matchType, Collection<Character> fields);
+	
+	/**
+	 * Queries the CDX indices, which match the URL of the interval in the given way, and are within the dates
+	 * of the interval. If the interval has a sampling, then only the first CDX index of each URL within each 
+	 * period is delivered, e.g. one capture per day. 
+	 * Extractors for CDX servers leave the dates and the sampling to the server where possible, so only the
+	 * sample is transferred.
+	 * The iterator must be closed, if it is not read to the end.
+	 * @param urlInterval The URL of the query, without wildcards, with the interval and the sampling.
+	 * @param matchType How the URL is matched.
+	 * @return The iterator over the CDX indices of the query.
+	 * @throws IllegalArgumentException If the extractor does not support the match type.
+	 */
+	CDXQueryIterator queryCDXForInterval(UrlInterval urlInterval, CDXMatchType matchType);
+	
 	/**
 	 * Retrieves all the CDX entries in the given URL in a given date interval.
+	 * If the interval has a sampling, then only the first CDX entry within each period is retrieved.
 	 * @param urlInterval The URL with the interval for those CDX indices which should be retrieved.
-	 * @return The collection of CDX indices for the given interval.
+	 * @return The collection of CDX indices for the given interval, or null if they could not be retrieved.
 	 */
 	Collection<CDXEntry> retrieveCDXForInterval(UrlInterval urlInterval);
 }
@@ -0,0 +1,77 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.File;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * A byte range of a CDX file, which starts at the beginning of a CDX line and ends right after a CDX line.
+ * The chunks of a file can be read independently of each other, e.g. in parallel.
+ */
+public class CDXFileChunk {
+	/** The CDX file.*/
+	protected final File cdxFile;
+	/** The position of the first byte of the chunk.*/
+	protected final long start;
+	/** The position after the last byte of the chunk.*/
+	protected final long end;
+	/** The CDX format of the file.*/
+	protected final Character[] cdxFormat;
+
+	/**
+	 * Constructor.
+	 * @param cdxFile The CDX file.
+	 * @param start The position of the first byte of the chunk.
+	 * @param end The position after the last byte of the chunk.
+	 * @param cdxFormat The CDX format of the file.
+	 */
+	public CDXFileChunk(File cdxFile, long start, long end, Character[] cdxFormat) {
+		ArgumentCheck.checkNotNull(cdxFile, "File cdxFile");
+		ArgumentCheck.checkNotNull(cdxFormat, "Character[] cdxFormat");
+		ArgumentCheck.checkIsTrue(start >= 0 && start <= end, "Must have 0 <= start <= end");
+		this.cdxFile = cdxFile;
+		this.start = start;
+		this.end = end;
+		this.cdxFormat = cdxFormat.clone();
+	}
+
+	/**
+	 * @return The CDX file.
+	 */
+	public File getFile() {
+		return cdxFile;
+	}
+
+	/**
+	 * @return The position of the first byte of the chunk.
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return The position after the last byte of the chunk.
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return The number of bytes in the chunk.
+	 */
+	public long getLength() {
+		return end - start;
+	}
+
+	/**
+	 * @return The CDX format of the file.
+	 */
+	public Character[] getCDXFormat() {
+		return cdxFormat.clone();
+	}
+
+	@Override
+	public String toString() {
+		return cdxFile.getName() + "[" + start + "-" + end + "]";
+	}
+}
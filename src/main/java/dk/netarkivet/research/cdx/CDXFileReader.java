@@ -3,9 +3,11 @@ package dk.netarkivet.research.cdx;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -14,12 +16,19 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.exception.ArgumentCheck;
+
 /**
  * CDX file reader.
+ * 
+ * Can either extract all the CDX entries of a file at once, or iterate them lazily one line at the time.
+ * Large files can also be split into chunks, which can be iterated independently.
  */
 public class CDXFileReader {
     /** Logging mechanism. */
     private static Logger logger = LoggerFactory.getLogger(CDXFileReader.class);
+    /** The size of the buffer, which is scanned for the end of a line when splitting the file into chunks.*/
+    protected static final int LINE_SCAN_BUFFER_SIZE = 1024;
 
 	/**
 	 * Constructor.
@@ -28,31 +37,134 @@ public class CDXFileReader {
 	
 	/**
 	 * Extracts the CDXs from a file.
+	 * This loads all the CDX entries of the file onto the heap, so for large files the iterator 
+	 * from {@link #iterateCDXFromFile(File)} should be used instead.
 	 * @param cdxFile The file to extract from.
 	 * @return The list of CDXs.
 	 * @throws IOException If an issue occurs while reading CDXs from the file.
 	 */
     public Collection<CDXEntry> extractCDXFromFile(File cdxFile) throws IOException {
     	List<CDXEntry> res = new ArrayList<CDXEntry>();
-    	String line;
-    	try (
-    	    InputStream fis = new FileInputStream(cdxFile);
-    	    InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
-    	    BufferedReader br = new BufferedReader(isr);
-    	) {
-    		Character[] cdxFormat = extractCDXFormat(br.readLine());
-    	    while ((line = br.readLine()) != null) {
-    	    	CDXEntry entry = CDXEntry.createCDXEntry(line.split(" "), cdxFormat);
-    	    	if(entry != null) {
-    	    		logger.info(entry.toString());
-    	    		res.add(entry);
-    	    	}
-    	    }
+    	try (CDXEntryIterator iterator = iterateCDXFromFile(cdxFile)) {
+    		while(iterator.hasNext()) {
+    			CDXEntry entry = iterator.next();
+    			logger.trace(entry.toString());
+    			res.add(entry);
+    		}
     	}
+    	logger.debug("Extracted " + res.size() + " CDX entries from the file '" + cdxFile.getName() + "'.");
     	
     	return res;
     }
     
+    /**
+     * Creates a lazy iterator over the CDX entries in the file, which only parses one line at the time.
+     * The iterator must be closed, unless it is read to the end.
+     * @param cdxFile The file to iterate.
+     * @return The iterator over the CDX entries in the file.
+     * @throws IOException If an issue occurs while opening the file or reading the CDX format.
+     */
+    public CDXEntryIterator iterateCDXFromFile(File cdxFile) throws IOException {
+    	BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(cdxFile), 
+    			Charset.forName("UTF-8")));
+    	try {
+    		Character[] cdxFormat = extractCDXFormat(br.readLine());
+    		return new CDXEntryIterator(br, cdxFormat);
+    	} catch (IOException e) {
+    		br.close();
+    		throw e;
+    	}
+    }
+    
+    /**
+     * Splits the CDX file into chunks of approximately the same size.
+     * Each chunk starts at the beginning of a CDX line and ends right after a CDX line, 
+     * so every CDX line will be in exactly one of the chunks.
+     * Small files may give fewer chunks than requested.
+     * @param cdxFile The CDX file to split.
+     * @param numberOfChunks The wanted number of chunks.
+     * @return The chunks of the file, in the order of the file.
+     * @throws IOException If an issue occurs while reading the file.
+     */
+    public List<CDXFileChunk> splitCDXFile(File cdxFile, int numberOfChunks) throws IOException {
+    	ArgumentCheck.checkIsTrue(numberOfChunks > 0, "The number of chunks must be positive");
+    	List<CDXFileChunk> res = new ArrayList<CDXFileChunk>(numberOfChunks);
+    	try (RandomAccessFile raf = new RandomAccessFile(cdxFile, "r")) {
+    		Character[] cdxFormat = extractCDXFormat(raf.readLine());
+    		long size = raf.length();
+    		long start = raf.getFilePointer();
+    		long chunkSize = Math.max(1L, (size - start) / numberOfChunks);
+    		while(start < size) {
+    			long end = findNextLineStart(raf, start + chunkSize);
+    			res.add(new CDXFileChunk(cdxFile, start, end, cdxFormat));
+    			start = end;
+    		}
+    	}
+    	logger.debug("Split the CDX file '" + cdxFile.getName() + "' into the chunks: " + res);
+    	return res;
+    }
+    
+    /**
+     * Creates a lazy iterator over the CDX entries in a chunk of a CDX file.
+     * The iterator must be closed, unless it is read to the end.
+     * @param chunk The chunk of the CDX file.
+     * @return The iterator over the CDX entries in the chunk.
+     * @throws IOException If an issue occurs while opening the file.
+     */
+    public CDXEntryIterator iterateCDXFromChunk(CDXFileChunk chunk) throws IOException {
+    	return iterateCDXFromChunk(chunk, null);
+    }
+    
+    /**
+     * Creates a lazy iterator over the CDX entries in a chunk of a CDX file, which only parses the given fields.
+     * The elements of the other fields are skipped, so they are not allocated for every line.
+     * The iterator must be closed, unless it is read to the end.
+     * @param chunk The chunk of the CDX file.
+     * @param fields The CDX fields to parse. If null, then all the fields of the CDX format are parsed.
+     * @return The iterator over the CDX entries in the chunk.
+     * @throws IOException If an issue occurs while opening the file.
+     */
+    public CDXEntryIterator iterateCDXFromChunk(CDXFileChunk chunk, Collection<Character> fields) 
+    		throws IOException {
+    	CDXLineParser parser = new CDXLineParser(chunk.getCDXFormat()).project(fields);
+    	FileInputStream fis = new FileInputStream(chunk.getFile());
+    	try {
+    		fis.getChannel().position(chunk.getStart());
+    	} catch (IOException e) {
+    		fis.close();
+    		throw e;
+    	}
+    	InputStream chunkStream = new ChunkInputStream(fis, chunk.getLength());
+    	BufferedReader br = new BufferedReader(new InputStreamReader(chunkStream, Charset.forName("UTF-8")));
+    	return new CDXEntryIterator(br, parser);
+    }
+    
+    /**
+     * Finds the start of the first line, which starts at or after the given position.
+     * @param raf The random access file.
+     * @param pos The position.
+     * @return The position of the start of the line, or the size of the file, if no line starts after the position.
+     * @throws IOException If an issue occurs while reading the file.
+     */
+    protected long findNextLineStart(RandomAccessFile raf, long pos) throws IOException {
+    	if(pos >= raf.length()) {
+    		return raf.length();
+    	}
+    	long bufferStart = pos - 1;
+    	raf.seek(bufferStart);
+    	byte[] buffer = new byte[LINE_SCAN_BUFFER_SIZE];
+    	int read;
+    	while((read = raf.read(buffer)) != -1) {
+    		for(int i = 0; i < read; i++) {
+    			if(buffer[i] == '\n') {
+    				return bufferStart + i + 1;
+    			}
+    		}
+    		bufferStart += read;
+    	}
+    	return raf.length();
+    }
+    
     /**
      * Extract the CDX format argument characters from the first line of the CDX file.
      * @param cdxChars The first line in the CDX file.
@@ -60,6 +172,10 @@ public class CDXFileReader {
      */
     protected Character[] extractCDXFormat(String cdxChars) {
     	List<Character> res = new ArrayList<Character>();
+    	if(cdxChars == null) {
+    		logger.warn("No CDX format line.");
+    		return new Character[0];
+    	}
     	
     	for(String c : cdxChars.split(" ")) {
     		if(c.isEmpty() || c.equals("CDX")) {
@@ -76,4 +192,63 @@ public class CDXFileReader {
     	
     	return res.toArray(new Character[res.size()]);
     }
+    
+    /**
+     * Input stream which only delivers a limited amount of bytes from the underlying stream.
+     */
+    protected static class ChunkInputStream extends FilterInputStream {
+    	/** The number of bytes remaining in the chunk.*/
+    	protected long remaining;
+    	
+    	/**
+    	 * Constructor.
+    	 * @param in The underlying input stream.
+    	 * @param length The number of bytes to deliver from the underlying stream.
+    	 */
+    	protected ChunkInputStream(InputStream in, long length) {
+    		super(in);
+    		this.remaining = length;
+    	}
+    	
+    	@Override
+    	public int read() throws IOException {
+    		if(remaining <= 0) {
+    			return -1;
+    		}
+    		int res = super.read();
+    		if(res != -1) {
+    			remaining--;
+    		}
+    		return res;
+    	}
+    	
+    	@Override
+    	public int read(byte[] b, int off, int len) throws IOException {
+    		if(remaining <= 0) {
+    			return -1;
+    		}
+    		int res = super.read(b, off, (int) Math.min(len, remaining));
+    		if(res > 0) {
+    			remaining -= res;
+    		}
+    		return res;
+    	}
+    	
+    	@Override
+    	public long skip(long n) throws IOException {
+    		long res = super.skip(Math.min(n, remaining));
+    		remaining -= res;
+    		return res;
+    	}
+    	
+    	@Override
+    	public int available() throws IOException {
+    		return (int) Math.min(super.available(), remaining);
+    	}
+    	
+    	@Override
+    	public boolean markSupported() {
+    		return false;
+    	}
+    }
 }
@@ -0,0 +1,438 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.UrlUtils;
+
+/**
+ * Sorts and merges CDX files into one sorted CDX file, which can be binary searched (e.g. by the
+ * {@link LocalCDXExtractor}).
+ *
+ * The lines are sorted in their natural order (as 'LC_ALL=C sort'), so the CDX format should start with the
+ * canonized URL and the date, for the lines to be sorted by canonical key and date.
+ * Identical lines are only written once.
+ * Input files in another CDX format (given by their CDX header line) are converted to the CDX format of the sorter,
+ * where a missing canonized URL is made from the original URL.
+ * Input files without a CDX header line are expected to be in the CDX format of the sorter.
+ *
+ * Sorting works within a fixed memory budget: the lines are sorted in runs, which are spilled to temporary files,
+ * and the runs are then merged. Files, which are already sorted, can be merged in a single streaming pass.
+ */
+public class CDXFileSorter {
+	/** Logging mechanism. */
+	private static Logger logger = LoggerFactory.getLogger(CDXFileSorter.class);
+
+	/** The default memory budget for the lines of a run, 64 MB.*/
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024L * 1024L;
+	/** The maximum number of runs merged at the same time.*/
+	protected static final int MAX_MERGE_FILES = 64;
+	/** The estimated number of bytes for a line object in a run, besides its characters.*/
+	protected static final int LINE_OVERHEAD = 64;
+	/** The charset of the CDX files.*/
+	protected static final Charset CHARSET = Charset.forName("UTF-8");
+	/** The start of the CDX header line.*/
+	protected static final String CDX_HEADER_START = " CDX";
+
+	/** The CDX format of the sorted file.*/
+	protected final List<Character> cdxFormat;
+	/** The memory budget for the lines of a run, in bytes.*/
+	protected final long memoryBudget;
+	/** The directory for the temporary files with the runs.*/
+	protected final File tempDir;
+
+	/**
+	 * Constructor.
+	 * @param cdxFormat The CDX format of the sorted file.
+	 * @param memoryBudget The memory budget for the lines of a run, in bytes.
+	 * @param tempDir The directory for the temporary files with the runs.
+	 */
+	public CDXFileSorter(Collection<Character> cdxFormat, long memoryBudget, File tempDir) {
+		ArgumentCheck.checkNotNull(cdxFormat, "Collection<Character> cdxFormat");
+		ArgumentCheck.checkIsTrue(!cdxFormat.isEmpty(), "The CDX format must not be empty");
+		ArgumentCheck.checkIsTrue(memoryBudget > 0, "The memory budget must be positive");
+		ArgumentCheck.checkNotNull(tempDir, "File tempDir");
+		this.cdxFormat = Collections.unmodifiableList(new ArrayList<Character>(cdxFormat));
+		this.memoryBudget = memoryBudget;
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * Sorts the lines of the CDX files into the output file.
+	 * @param inputFiles The CDX files, in any order.
+	 * @param outputFile The sorted CDX file.
+	 * @return The number of CDX lines in the sorted file.
+	 */
+	public long sort(Collection<File> inputFiles, File outputFile) {
+		logger.info("Sorting " + inputFiles.size() + " CDX files into '" + outputFile.getAbsolutePath() + "'.");
+		List<File> runs = new ArrayList<File>();
+		try {
+			List<String> lines = new ArrayList<String>();
+			long used = 0L;
+			for(File inputFile : inputFiles) {
+				try (CDXLineSource source = new CDXLineSource(inputFile, cdxFormat)) {
+					String line;
+					while((line = source.nextLine()) != null) {
+						lines.add(line);
+						used += LINE_OVERHEAD + 2L * line.length();
+						if(used >= memoryBudget) {
+							runs.add(writeRun(lines));
+							lines.clear();
+							used = 0L;
+						}
+					}
+				}
+			}
+
+			if(runs.isEmpty()) {
+				Collections.sort(lines);
+				try (Writer writer = openOutput(outputFile)) {
+					return writeDistinct(lines, writer);
+				}
+			}
+			if(!lines.isEmpty()) {
+				runs.add(writeRun(lines));
+			}
+			lines = null;
+			logger.debug("Merging the " + runs.size() + " sorted runs.");
+			while(runs.size() > MAX_MERGE_FILES) {
+				runs = mergeRunsOnce(runs);
+			}
+			return mergeInto(runs, outputFile, false);
+		} catch (IOException e) {
+			String errMsg = "Issue sorting the CDX files into '" + outputFile.getAbsolutePath() + "'";
+			logger.error(errMsg, e);
+			throw new IllegalStateException(errMsg, e);
+		} finally {
+			for(File run : runs) {
+				deleteRun(run);
+			}
+		}
+	}
+
+	/**
+	 * Merges CDX files, which each are sorted, into the output file in a single streaming pass.
+	 * All the files are open at the same time.
+	 * @param sortedFiles The sorted CDX files.
+	 * @param outputFile The merged CDX file.
+	 * @return The number of CDX lines in the merged file.
+	 * @throws IllegalStateException If one of the files is not sorted.
+	 */
+	public long merge(Collection<File> sortedFiles, File outputFile) {
+		logger.info("Merging " + sortedFiles.size() + " sorted CDX files into '" + outputFile.getAbsolutePath()
+				+ "'.");
+		try {
+			return mergeInto(sortedFiles, outputFile, true);
+		} catch (IOException e) {
+			String errMsg = "Issue merging the CDX files into '" + outputFile.getAbsolutePath() + "'";
+			logger.error(errMsg, e);
+			throw new IllegalStateException(errMsg, e);
+		}
+	}
+
+	/**
+	 * Sorts the lines, and writes them to a temporary file without a CDX header line.
+	 * @param lines The lines of the run.
+	 * @return The temporary file with the sorted run.
+	 * @throws IOException If it fails to write the run.
+	 */
+	protected File writeRun(List<String> lines) throws IOException {
+		Collections.sort(lines);
+		File res = File.createTempFile("cdx-run-", ".tmp", tempDir);
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(res), CHARSET))) {
+			writeDistinct(lines, writer);
+		}
+		logger.debug("Wrote a sorted run of " + lines.size() + " lines to '" + res.getName() + "'.");
+		return res;
+	}
+
+	/**
+	 * Merges the runs in groups of at most {@link #MAX_MERGE_FILES}, so there are fewer runs to merge afterwards.
+	 * The merged runs are deleted.
+	 * @param runs The runs.
+	 * @return The new runs.
+	 * @throws IOException If it fails to merge the runs.
+	 */
+	protected List<File> mergeRunsOnce(List<File> runs) throws IOException {
+		List<File> res = new ArrayList<File>();
+		try {
+			for(int start = 0; start < runs.size(); start += MAX_MERGE_FILES) {
+				List<File> group = runs.subList(start, Math.min(start + MAX_MERGE_FILES, runs.size()));
+				File merged = File.createTempFile("cdx-run-", ".tmp", tempDir);
+				res.add(merged);
+				try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(merged),
+						CHARSET))) {
+					mergeLines(group, writer, false);
+				}
+			}
+		} catch (IOException e) {
+			for(File run : res) {
+				deleteRun(run);
+			}
+			throw e;
+		}
+		for(File run : runs) {
+			deleteRun(run);
+		}
+		return res;
+	}
+
+	/**
+	 * Merges the sorted files into the output file with a CDX header line.
+	 * @param files The sorted files.
+	 * @param outputFile The output file.
+	 * @param checkOrder Whether to check, that the lines of each file are sorted.
+	 * @return The number of lines written.
+	 * @throws IOException If it fails to merge the files.
+	 */
+	protected long mergeInto(Collection<File> files, File outputFile, boolean checkOrder) throws IOException {
+		try (Writer writer = openOutput(outputFile)) {
+			return mergeLines(files, writer, checkOrder);
+		}
+	}
+
+	/**
+	 * Makes a k-way merge of the lines of the sorted files, where identical lines are only written once.
+	 * @param files The sorted files.
+	 * @param writer The writer for the merged lines.
+	 * @param checkOrder Whether to check, that the lines of each file are sorted.
+	 * @return The number of lines written.
+	 * @throws IOException If it fails to read or write the lines.
+	 */
+	protected long mergeLines(Collection<File> files, Writer writer, boolean checkOrder) throws IOException {
+		List<CDXLineSource> sources = new ArrayList<CDXLineSource>(files.size());
+		try {
+			PriorityQueue<MergeHead> heads = new PriorityQueue<MergeHead>(Math.max(1, files.size()));
+			for(File file : files) {
+				CDXLineSource source = new CDXLineSource(file, cdxFormat);
+				sources.add(source);
+				String line = source.nextLine();
+				if(line != null) {
+					heads.add(new MergeHead(line, source, sources.size() - 1));
+				}
+			}
+
+			long res = 0L;
+			String previous = null;
+			while(!heads.isEmpty()) {
+				MergeHead head = heads.poll();
+				if(!head.line.equals(previous)) {
+					writer.write(head.line);
+					writer.write("\n");
+					previous = head.line;
+					res++;
+				}
+				String next = head.source.nextLine();
+				if(next != null) {
+					if(checkOrder && next.compareTo(head.line) < 0) {
+						throw new IllegalStateException("The CDX file '" + head.source.file.getAbsolutePath()
+								+ "' is not sorted: '" + next + "' comes after '" + head.line + "'.");
+					}
+					heads.add(new MergeHead(next, head.source, head.index));
+				}
+			}
+			return res;
+		} finally {
+			for(CDXLineSource source : sources) {
+				source.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes the sorted lines, where identical lines are only written once.
+	 * @param sortedLines The sorted lines.
+	 * @param writer The writer.
+	 * @return The number of lines written.
+	 * @throws IOException If it fails to write the lines.
+	 */
+	protected long writeDistinct(List<String> sortedLines, Writer writer) throws IOException {
+		long res = 0L;
+		String previous = null;
+		for(String line : sortedLines) {
+			if(!line.equals(previous)) {
+				writer.write(line);
+				writer.write("\n");
+				previous = line;
+				res++;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Opens the output file, and writes the CDX header line.
+	 * @param outputFile The output file.
+	 * @return The writer for the lines of the output file.
+	 * @throws IOException If it fails to open the output file.
+	 */
+	protected Writer openOutput(File outputFile) throws IOException {
+		Writer res = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), CHARSET));
+		res.write(new CDXFileWriter(outputFile).createFirstLine(cdxFormat));
+		return res;
+	}
+
+	/**
+	 * Deletes a temporary file with a run.
+	 * @param run The file with the run.
+	 */
+	protected void deleteRun(File run) {
+		if(run.exists() && !run.delete()) {
+			logger.warn("Could not delete the temporary file '" + run.getAbsolutePath() + "'.");
+		}
+	}
+
+	/**
+	 * The current line of a file in the k-way merge.
+	 * Lines are ordered by their content, and identical lines by the order of their files.
+	 */
+	protected static class MergeHead implements Comparable<MergeHead> {
+		/** The line.*/
+		protected final String line;
+		/** The source of the line.*/
+		protected final CDXLineSource source;
+		/** The index of the source.*/
+		protected final int index;
+
+		/**
+		 * Constructor.
+		 * @param line The line.
+		 * @param source The source of the line.
+		 * @param index The index of the source.
+		 */
+		protected MergeHead(String line, CDXLineSource source, int index) {
+			this.line = line;
+			this.source = source;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(MergeHead o) {
+			int res = line.compareTo(o.line);
+			return res != 0 ? res : Integer.compare(index, o.index);
+		}
+	}
+
+	/**
+	 * Reads the lines of a CDX file in the CDX format of the sorter.
+	 * Lines in another CDX format are converted, trailing whitespace is removed, and empty lines are skipped.
+	 */
+	protected static class CDXLineSource implements Closeable {
+		/** The file.*/
+		protected final File file;
+		/** The reader of the file.*/
+		protected final BufferedReader reader;
+		/** The CDX format of the sorter.*/
+		protected final List<Character> cdxFormat;
+		/** The parser for lines in another CDX format. Null if the file is in the CDX format of the sorter.*/
+		protected final CDXLineParser parser;
+		/** The first line of a file without a CDX header line, which has not yet been delivered.*/
+		protected String pendingLine;
+
+		/**
+		 * Constructor.
+		 * @param file The CDX file.
+		 * @param cdxFormat The CDX format of the sorter.
+		 * @throws IOException If it fails to open the file.
+		 */
+		protected CDXLineSource(File file, List<Character> cdxFormat) throws IOException {
+			this.file = file;
+			this.cdxFormat = cdxFormat;
+			this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+			try {
+				String firstLine = reader.readLine();
+				Character[] fileFormat = null;
+				if(firstLine != null && firstLine.startsWith(CDX_HEADER_START)) {
+					fileFormat = new CDXFileReader().extractCDXFormat(firstLine);
+				} else {
+					pendingLine = firstLine;
+				}
+				if(fileFormat == null || Arrays.asList(fileFormat).equals(cdxFormat)) {
+					this.parser = null;
+				} else {
+					this.parser = new CDXLineParser(fileFormat);
+				}
+			} catch (IOException e) {
+				reader.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * @return The next line in the CDX format of the sorter, or null at the end of the file.
+		 * @throws IOException If it fails to read the file.
+		 */
+		protected String nextLine() throws IOException {
+			String line;
+			while((line = readLine()) != null) {
+				line = stripTrailingWhitespace(line);
+				if(line.isEmpty()) {
+					continue;
+				}
+				if(parser == null) {
+					return line;
+				}
+				CDXEntry entry = parser.parse(line);
+				if(entry == null) {
+					logger.warn("Skipping the line of '" + file.getName() + "', which could not be parsed: " + line);
+					continue;
+				}
+				if(entry.urlNorm == null && entry.getUrl() != null) {
+					// The canonical key is needed for sorting, so it is made from the original URL.
+					entry.urlNorm = UrlUtils.stripProtocolAndWWWAndLowerCase(entry.getUrl());
+				}
+				return stripTrailingWhitespace(entry.extractCDXAsLine(cdxFormat));
+			}
+			return null;
+		}
+
+		/**
+		 * @return The next raw line, or null at the end of the file.
+		 * @throws IOException If it fails to read the file.
+		 */
+		protected String readLine() throws IOException {
+			if(pendingLine != null) {
+				String res = pendingLine;
+				pendingLine = null;
+				return res;
+			}
+			return reader.readLine();
+		}
+
+		/**
+		 * @param line The line.
+		 * @return The line without trailing whitespace.
+		 */
+		protected static String stripTrailingWhitespace(String line) {
+			int end = line.length();
+			while(end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+				end--;
+			}
+			return line.substring(0, end);
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
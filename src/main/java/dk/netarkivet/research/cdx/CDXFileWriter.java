@@ -1,22 +1,50 @@
 package dk.netarkivet.research.cdx;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.SurtUtils;
 
 /**
  * Class for writing CDX entries to a file.
+ * 
+ * The entries can either be written as a plain CDX file, or as a block-compressed CDX file (ZipNum), 
+ * where the sorted lines are written in gzip blocks of a fixed number of lines along with a summary index of 
+ * the first key and the offset of each block. This is the layout, which pywb and OpenWayback can binary search,
+ * when the lines start with the SURT of the URL.
  */
 public class CDXFileWriter {
     /** Logging mechanism. */
     private static Logger logger = LoggerFactory.getLogger(CDXFileWriter.class);
+    
+    /** The default number of lines in each compressed block, as for the ZipNum indexes of pywb.*/
+    public static final int DEFAULT_LINES_PER_BLOCK = 3000;
+    /** The suffix for the summary index of the compressed blocks.*/
+    public static final String SUMMARY_INDEX_SUFFIX = ".idx";
+    /** The suffix for the location file, which maps the name of the compressed CDX file to its path.*/
+    public static final String LOCATION_SUFFIX = ".loc";
+    /** The separator of the fields in the summary index and the location file.*/
+    protected static final String INDEX_SEPARATOR = "\t";
 
     /** The file where the output should be written.*/
     protected final File outputFile;
@@ -32,18 +60,20 @@ public class CDXFileWriter {
 	
 	/**
 	 * Write CDX entries to the output file in the given CDX format.
+	 * Null entries (e.g. for WIDs without a CDX entry) are skipped.
 	 * @param entries The CDX entries.
 	 * @param cdxFormat The CDX format.
 	 */
 	public void writeCDXEntries(Collection<CDXEntry> entries, Collection<Character> cdxFormat) {
 		logger.debug("Writing CDX indices to file '" + outputFile.getName() + "'.");
-		try(FileOutputStream fos = new FileOutputStream(outputFile)) {
-			String firstLine = createFirstLine(cdxFormat);
-			fos.write(firstLine.getBytes(Charset.defaultCharset()));
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), 
+				Charset.defaultCharset()))) {
+			writer.write(createFirstLine(cdxFormat));
 			
 			for(CDXEntry entry : entries) {
-				String line = entry.extractCDXAsLine(cdxFormat);
-				fos.write(line.getBytes(Charset.defaultCharset()));
+				if(entry != null) {
+					writer.write(entry.extractCDXAsLine(cdxFormat));
+				}
 			}
 		} catch(IOException e) {
 			String errMsg = "Issue writing the CDX indices to file '" + outputFile.getAbsolutePath() + "'";
@@ -52,6 +82,195 @@ public class CDXFileWriter {
 		}
 	}
 	
+	/**
+	 * Writes the CDX entries to the output file as sorted lines in gzip compressed blocks (ZipNum).
+	 * The output file is a valid gzip file of the sorted CDX lines, without the CDX header line.
+	 * Besides the output file, it writes the summary index (output file name + {@link #SUMMARY_INDEX_SUFFIX}),
+	 * with a line for each block of: the key of the first line (its first two fields), the name of the output 
+	 * file, the offset and the length of the block, and the number of the block.
+	 * It also writes the location file (output file name + {@link #LOCATION_SUFFIX}) with the name and the path of
+	 * the output file.
+	 * 
+	 * The CDX format should start with the key of the lines (e.g. the canonized URL and the date), 
+	 * since the lines are sorted and the blocks are found by it.
+	 * If the CDX format starts with the canonized URL (A or N), then it is written as the SURT of the URL
+	 * (e.g. 'dk,kb)/robots.txt'), which is the key pywb and OpenWayback search the blocks by. Other keys are 
+	 * written as they are, so the blocks can only be searched by that key.
+	 * 
+	 * The lines are sorted within the memory budget of the {@link CDXFileSorter}, by spilling them to temporary
+	 * files next to the output file. Identical lines are only written once.
+	 * Null entries (e.g. for WIDs without a CDX entry) are skipped.
+	 * @param entries The CDX entries.
+	 * @param cdxFormat The CDX format.
+	 * @param linesPerBlock The number of lines in each compressed block.
+	 */
+	public void writeCompressedCDXEntries(Collection<CDXEntry> entries, Collection<Character> cdxFormat, 
+			int linesPerBlock) {
+		ArgumentCheck.checkIsTrue(linesPerBlock > 0, "The number of lines per block must be positive");
+		logger.debug("Writing CDX indices in compressed blocks of " + linesPerBlock + " lines to file '" 
+				+ outputFile.getName() + "'.");
+		File tempDir = outputFile.getAbsoluteFile().getParentFile();
+		File unsortedFile = null;
+		File sortedFile = null;
+		try {
+			unsortedFile = File.createTempFile("cdx-unsorted-", ".tmp", tempDir);
+			writeKeyedLines(entries, cdxFormat, unsortedFile);
+			sortedFile = File.createTempFile("cdx-sorted-", ".tmp", tempDir);
+			new CDXFileSorter(cdxFormat, CDXFileSorter.DEFAULT_MEMORY_BUDGET, tempDir).sort(
+					Arrays.asList(unsortedFile), sortedFile);
+			writeCompressedBlocks(sortedFile, linesPerBlock);
+		} catch(IOException e) {
+			String errMsg = "Issue writing the compressed CDX indices to file '" + outputFile.getAbsolutePath() + "'";
+			logger.error(errMsg, e);
+			throw new IllegalStateException(errMsg, e);
+		} finally {
+			deleteTempFile(unsortedFile);
+			deleteTempFile(sortedFile);
+		}
+		
+		try(Writer locationWriter = new OutputStreamWriter(new FileOutputStream(getLocationFile()), 
+				CDXFileSorter.CHARSET)) {
+			locationWriter.write(outputFile.getName() + INDEX_SEPARATOR + outputFile.getAbsolutePath() + "\n");
+		} catch(IOException e) {
+			String errMsg = "Issue writing the location file for '" + outputFile.getAbsolutePath() + "'";
+			logger.error(errMsg, e);
+			throw new IllegalStateException(errMsg, e);
+		}
+	}
+	
+	/**
+	 * Writes the CDX entries as unsorted lines with a CDX header line, where a canonized URL as the first field 
+	 * is replaced by the SURT of the URL.
+	 * @param entries The CDX entries.
+	 * @param cdxFormat The CDX format.
+	 * @param file The file to write the lines to.
+	 * @throws IOException If it fails to write the lines.
+	 */
+	protected void writeKeyedLines(Collection<CDXEntry> entries, Collection<Character> cdxFormat, File file) 
+			throws IOException {
+		Character keyElement = cdxFormat.isEmpty() ? null : cdxFormat.iterator().next();
+		boolean surtKeys = keyElement != null && (keyElement == CDXConstants.CDX_CHAR_CANONIZED_URL 
+				|| keyElement == CDXConstants.CDX_CHAR_MASSAGED_URL);
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), 
+				CDXFileSorter.CHARSET))) {
+			writer.write(createFirstLine(cdxFormat));
+			for(CDXEntry entry : entries) {
+				if(entry != null) {
+					String line = entry.extractCDXAsLine(cdxFormat);
+					writer.write(surtKeys ? replaceKeyWithSurt(entry, line) : line);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the first field of the CDX line with the SURT of the URL of the CDX entry.
+	 * The original URL is used, if the entry has it, since the canonized URL has lost e.g. the port.
+	 * @param entry The CDX entry.
+	 * @param line The CDX line of the entry.
+	 * @return The CDX line with the SURT as the first field, or the line itself if the entry has no URL.
+	 */
+	protected String replaceKeyWithSurt(CDXEntry entry, String line) {
+		String url = entry.getUrl() != null ? entry.getUrl() : entry.getUrlNorm();
+		if(url == null) {
+			return line;
+		}
+		int firstSpace = line.indexOf(' ');
+		return SurtUtils.toSurt(url) + (firstSpace < 0 ? "\n" : line.substring(firstSpace));
+	}
+	
+	/**
+	 * Writes the lines of the sorted CDX file to the output file in compressed blocks, along with the summary 
+	 * index. Only a single block of lines is kept in memory at the time.
+	 * @param sortedFile The sorted CDX file, with a CDX header line.
+	 * @param linesPerBlock The number of lines in each compressed block.
+	 * @throws IOException If it fails to read the sorted file or to write the blocks.
+	 */
+	protected void writeCompressedBlocks(File sortedFile, int linesPerBlock) throws IOException {
+		String partName = outputFile.getName();
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sortedFile), 
+						CDXFileSorter.CHARSET));
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile));
+				Writer indexWriter = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(getSummaryIndexFile()), CDXFileSorter.CHARSET))) {
+			long offset = 0L;
+			int blockNumber = 0;
+			List<String> block = new ArrayList<String>(linesPerBlock);
+			String line = reader.readLine();
+			if(line != null && line.startsWith(CDXFileSorter.CDX_HEADER_START)) {
+				line = reader.readLine();
+			}
+			while(line != null) {
+				block.add(line + "\n");
+				line = reader.readLine();
+				if(block.size() == linesPerBlock || (line == null && !block.isEmpty())) {
+					byte[] compressed = compressBlock(block);
+					out.write(compressed);
+					
+					blockNumber++;
+					indexWriter.write(extractKey(block.get(0)) + INDEX_SEPARATOR + partName + INDEX_SEPARATOR 
+							+ offset + INDEX_SEPARATOR + compressed.length + INDEX_SEPARATOR + blockNumber + "\n");
+					offset += compressed.length;
+					block.clear();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Deletes a temporary file, if it exists.
+	 * @param file The temporary file. Null if it was never created.
+	 */
+	protected void deleteTempFile(File file) {
+		if(file != null && file.exists() && !file.delete()) {
+			logger.warn("Could not delete the temporary file '" + file.getAbsolutePath() + "'.");
+		}
+	}
+	
+	/**
+	 * @return The summary index file for the compressed blocks of the output file.
+	 */
+	public File getSummaryIndexFile() {
+		return new File(outputFile.getPath() + SUMMARY_INDEX_SUFFIX);
+	}
+	
+	/**
+	 * @return The location file for the compressed output file.
+	 */
+	public File getLocationFile() {
+		return new File(outputFile.getPath() + LOCATION_SUFFIX);
+	}
+	
+	/**
+	 * Compresses a block of lines as a separate gzip member.
+	 * @param block The lines of the block.
+	 * @return The compressed block.
+	 * @throws IOException If it fails to compress the block.
+	 */
+	protected byte[] compressBlock(List<String> block) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		try(Writer writer = new OutputStreamWriter(new GZIPOutputStream(res), CDXFileSorter.CHARSET)) {
+			for(String line : block) {
+				writer.write(line);
+			}
+		}
+		return res.toByteArray();
+	}
+	
+	/**
+	 * Extracts the key of a CDX line, which is its first two fields (e.g. the canonized URL and the date).
+	 * @param line The CDX line.
+	 * @return The key of the line.
+	 */
+	protected String extractKey(String line) {
+		int firstSpace = line.indexOf(' ');
+		int secondSpace = firstSpace < 0 ? -1 : line.indexOf(' ', firstSpace + 1);
+		if(secondSpace > 0) {
+			return line.substring(0, secondSpace);
+		}
+		return line.trim();
+	}
+	
 	/**
 	 * Creates the first line of the CDX file, which describe the CDX format.
 	 * @param cdxFormat The format in the order of characters.
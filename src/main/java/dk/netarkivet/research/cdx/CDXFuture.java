@@ -0,0 +1,136 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * The pending result of an asynchronous CDX lookup.
+ * 
+ * Callbacks can be added to the future, and are called by the thread which completes the lookup, or directly by 
+ * the thread adding the callback, if the lookup has already completed. So lookups can be composed without 
+ * blocking a thread for each lookup while it is in flight.
+ * @param <T> The type of the result.
+ */
+public class CDXFuture<T> extends FutureTask<T> {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXFuture.class);
+	
+	/** The callbacks waiting for the lookup to complete.*/
+	protected final List<CDXCallback<? super T>> callbacks = new ArrayList<CDXCallback<? super T>>();
+	/** Whether the callbacks have been handed over after the lookup completed.*/
+	protected boolean completed = false;
+	
+	/**
+	 * Constructor.
+	 * @param lookup The lookup.
+	 */
+	public CDXFuture(Callable<T> lookup) {
+		super(lookup);
+	}
+	
+	/**
+	 * Creates a future, which has already completed with the given result.
+	 * @param result The result.
+	 * @return The completed future.
+	 */
+	public static <T> CDXFuture<T> completed(final T result) {
+		CDXFuture<T> res = new CDXFuture<T>(new Callable<T>() {
+			@Override
+			public T call() {
+				return result;
+			}
+		});
+		res.run();
+		return res;
+	}
+	
+	/**
+	 * Adds a callback for the result of the lookup.
+	 * If the lookup has already completed, then the callback is called right away.
+	 * @param callback The callback.
+	 * @return This future.
+	 */
+	public CDXFuture<T> addCallback(CDXCallback<? super T> callback) {
+		ArgumentCheck.checkNotNull(callback, "CDXCallback callback");
+		synchronized(callbacks) {
+			if(!completed && !isDone()) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		notifyCallback(callback);
+		return this;
+	}
+	
+	/**
+	 * Waits for the lookup to complete, and delivers its result.
+	 * @return The result of the lookup.
+	 * @throws IllegalStateException If the lookup failed, was cancelled, or the waiting was interrupted.
+	 * Runtime exceptions of the lookup are thrown as they are.
+	 */
+	public T join() {
+		try {
+			return get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the CDX lookup.", e);
+		} catch (CancellationException e) {
+			throw new IllegalStateException("The CDX lookup was cancelled.", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if(e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException("The CDX lookup failed.", e.getCause());
+		}
+	}
+	
+	@Override
+	protected void done() {
+		List<CDXCallback<? super T>> waiting;
+		synchronized(callbacks) {
+			completed = true;
+			waiting = new ArrayList<CDXCallback<? super T>>(callbacks);
+			callbacks.clear();
+		}
+		for(CDXCallback<? super T> callback : waiting) {
+			notifyCallback(callback);
+		}
+	}
+	
+	/**
+	 * Calls the callback with the result or the failure of the completed lookup.
+	 * Exceptions thrown by the callback are logged, so they do not prevent the other callbacks from being called.
+	 * @param callback The callback.
+	 */
+	protected void notifyCallback(CDXCallback<? super T> callback) {
+		try {
+			T result;
+			try {
+				result = get();
+			} catch (CancellationException e) {
+				callback.onFailure(e);
+				return;
+			} catch (ExecutionException e) {
+				callback.onFailure(e.getCause());
+				return;
+			}
+			callback.onSuccess(result);
+		} catch (InterruptedException e) {
+			// Cannot happen, since the lookup has completed.
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			logger.warn("The callback for the CDX lookup failed.", e);
+		}
+	}
+}
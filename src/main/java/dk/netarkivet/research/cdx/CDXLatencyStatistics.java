@@ -0,0 +1,120 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.Arrays;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Statistics of the latency of the lookups against a CDX server.
+ *
+ * Only the latencies of the latest lookups are kept in a ring buffer, so the percentiles follow the current
+ * state of the server instead of its whole history.
+ * Failed lookups are recorded with a penalty latency, so a failing server is ranked as a slow server until
+ * enough lookups have succeeded again.
+ */
+public class CDXLatencyStatistics {
+	/** The default number of latest lookups kept.*/
+	public static final int DEFAULT_WINDOW_SIZE = 128;
+	/** The latency recorded for a failed lookup, in milliseconds.*/
+	public static final long FAILURE_LATENCY = 30000L;
+
+	/** The latencies of the latest lookups, in milliseconds.*/
+	protected final long[] latencies;
+	/** The number of latencies in the window.*/
+	protected int sampleCount = 0;
+	/** The index in the ring buffer for the next latency.*/
+	protected int next = 0;
+	/** The total number of lookups recorded.*/
+	protected long lookupCount = 0L;
+	/** The total number of failed lookups recorded.*/
+	protected long failureCount = 0L;
+
+	/**
+	 * Constructor, with the default window size.
+	 */
+	public CDXLatencyStatistics() {
+		this(DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param windowSize The number of latest lookups kept.
+	 */
+	public CDXLatencyStatistics(int windowSize) {
+		ArgumentCheck.checkIsTrue(windowSize > 0, "The window size must be positive");
+		this.latencies = new long[windowSize];
+	}
+
+	/**
+	 * Records the latency of a successful lookup.
+	 * @param latency The latency, in milliseconds.
+	 */
+	public synchronized void recordSuccess(long latency) {
+		record(Math.max(latency, 0L));
+	}
+
+	/**
+	 * Records a failed lookup, with the penalty latency or its own latency, whichever is the largest.
+	 * @param latency The latency, in milliseconds.
+	 */
+	public synchronized void recordFailure(long latency) {
+		failureCount++;
+		record(Math.max(latency, FAILURE_LATENCY));
+	}
+
+	/**
+	 * Puts the latency into the ring buffer.
+	 * @param latency The latency, in milliseconds.
+	 */
+	protected void record(long latency) {
+		latencies[next] = latency;
+		next = (next + 1) % latencies.length;
+		if(sampleCount < latencies.length) {
+			sampleCount++;
+		}
+		lookupCount++;
+	}
+
+	/**
+	 * Calculates a percentile of the latencies in the window, with the nearest-rank method.
+	 * @param percentile The percentile, between 0 and 1, e.g. 0.95 for the 95th percentile.
+	 * @return The latency of the percentile in milliseconds, or -1 if no lookups have been recorded.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		ArgumentCheck.checkIsTrue(percentile >= 0.0 && percentile <= 1.0, "The percentile must be between 0 and 1");
+		if(sampleCount == 0) {
+			return -1L;
+		}
+		long[] sorted = Arrays.copyOf(latencies, sampleCount);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile * sampleCount);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * @return The number of latencies in the window.
+	 */
+	public synchronized int getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * @return The total number of lookups recorded.
+	 */
+	public synchronized long getLookupCount() {
+		return lookupCount;
+	}
+
+	/**
+	 * @return The total number of failed lookups recorded.
+	 */
+	public synchronized long getFailureCount() {
+		return failureCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return lookupCount + " lookups (" + failureCount + " failed), median " + getPercentile(0.5) + " ms, p95 "
+				+ getPercentile(0.95) + " ms";
+	}
+}
@@ -0,0 +1,318 @@
+package dk.netarkivet.research.cdx;
+
+import java.text.ParseException;
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.DateUtils;
+
+/**
+ * Parser of CDX lines, which is compiled once from the CDX format into a plan of which CDX entry field each
+ * element of the line is stored in.
+ * The line is scanned in a single pass, and the values are assigned directly to the CDX entry, so the only objects
+ * created for a line are the entry itself and its string values.
+ *
+ * The result is the same as splitting the line and using {@link CDXEntry#createCDXEntry(String[], Character[])}.
+ * Elements with the value '-' are ignored, and lines with bad numbers or dates are not parsed.
+ *
+ * The parser has no state besides the compiled format, so it is thread safe.
+ */
+public class CDXLineParser {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXLineParser.class);
+
+	/** The separator between the elements in a CDX line.*/
+	protected static final char ELEMENT_SEPARATOR = ' ';
+	/** The value of an element without a value.*/
+	protected static final char NO_VALUE = '-';
+
+	/** Slot for elements, which are not stored in the CDX entry.*/
+	protected static final int SLOT_IGNORE = 0;
+	/** Slot for the normalized URL (A or N).*/
+	protected static final int SLOT_URL_NORM = 1;
+	/** Slot for the date (b).*/
+	protected static final int SLOT_DATE = 2;
+	/** Slot for the IP (e).*/
+	protected static final int SLOT_IP = 3;
+	/** Slot for the original URL (a).*/
+	protected static final int SLOT_URL = 4;
+	/** Slot for the content type (m).*/
+	protected static final int SLOT_CONTENT_TYPE = 5;
+	/** Slot for the status code (s).*/
+	protected static final int SLOT_STATUS_CODE = 6;
+	/** Slot for the digest (c or k).*/
+	protected static final int SLOT_DIGEST = 7;
+	/** Slot for the offset (v or V).*/
+	protected static final int SLOT_OFFSET = 8;
+	/** Slot for the length (n).*/
+	protected static final int SLOT_LENGTH = 9;
+	/** Slot for the filename (g).*/
+	protected static final int SLOT_FILENAME = 10;
+	/** Slot for the redirect (r).*/
+	protected static final int SLOT_REDIRECT = 11;
+
+	/** The maximum number of digits, which can never overflow a long.*/
+	protected static final int MAX_SAFE_LONG_DIGITS = 18;
+
+	/** The slot for each element of the lines.*/
+	protected final int[] slots;
+	/** Whether the lines may have more elements than the format, which are then ignored.*/
+	protected final boolean allowExtraElements;
+
+	/**
+	 * Constructor for a parser, which requires the lines to have exactly the elements of the format.
+	 * @param cdxFormat The CDX format of the lines.
+	 */
+	public CDXLineParser(Character[] cdxFormat) {
+		this(cdxFormat, false);
+	}
+
+	/**
+	 * Constructor.
+	 * @param cdxFormat The CDX format of the lines.
+	 * @param allowExtraElements Whether the lines may have more elements than the format.
+	 */
+	public CDXLineParser(Collection<Character> cdxFormat, boolean allowExtraElements) {
+		this(cdxFormat.toArray(new Character[cdxFormat.size()]), allowExtraElements);
+	}
+
+	/**
+	 * Constructor.
+	 * @param cdxFormat The CDX format of the lines.
+	 * @param allowExtraElements Whether the lines may have more elements than the format.
+	 */
+	public CDXLineParser(Character[] cdxFormat, boolean allowExtraElements) {
+		ArgumentCheck.checkNotNull(cdxFormat, "Character[] cdxFormat");
+		this.slots = new int[cdxFormat.length];
+		for(int i = 0; i < cdxFormat.length; i++) {
+			slots[i] = getSlot(cdxFormat[i]);
+		}
+		this.allowExtraElements = allowExtraElements;
+	}
+
+	/**
+	 * Constructor for a parser with an already compiled plan.
+	 * @param slots The slot for each element of the lines.
+	 * @param allowExtraElements Whether the lines may have more elements than the format.
+	 */
+	protected CDXLineParser(int[] slots, boolean allowExtraElements) {
+		this.slots = slots;
+		this.allowExtraElements = allowExtraElements;
+	}
+
+	/**
+	 * Creates a parser for the same CDX format, which only decodes the elements for the given fields.
+	 * The other elements are skipped while the line is scanned, so neither strings nor numbers are made for them.
+	 * Fields are given as CDX format elements, and elements for the same field are interchangeable,
+	 * e.g. the old and the new style checksum.
+	 * @param fields The CDX format elements of the fields to decode. If null, then all the elements are decoded.
+	 * @return The parser for the projection of the CDX format.
+	 */
+	public CDXLineParser project(Collection<Character> fields) {
+		if(fields == null) {
+			return this;
+		}
+		boolean[] projectedSlots = new boolean[SLOT_REDIRECT + 1];
+		for(Character field : fields) {
+			projectedSlots[getSlot(field)] = true;
+		}
+		int[] res = new int[slots.length];
+		for(int i = 0; i < slots.length; i++) {
+			res[i] = projectedSlots[slots[i]] ? slots[i] : SLOT_IGNORE;
+		}
+		return new CDXLineParser(res, allowExtraElements);
+	}
+
+	/**
+	 * Finds the slot of the CDX entry for a given CDX format element.
+	 * @param formatChar The CDX format element.
+	 * @return The slot.
+	 */
+	protected static int getSlot(Character formatChar) {
+		if(formatChar == null) {
+			return SLOT_IGNORE;
+		}
+		switch (formatChar) {
+		case CDXConstants.CDX_CHAR_CANONIZED_URL:
+		case CDXConstants.CDX_CHAR_MASSAGED_URL:
+			return SLOT_URL_NORM;
+		case CDXConstants.CDX_CHAR_DATE:
+			return SLOT_DATE;
+		case CDXConstants.CDX_CHAR_IP:
+			return SLOT_IP;
+		case CDXConstants.CDX_CHAR_ORIGINAL_URL:
+			return SLOT_URL;
+		case CDXConstants.CDX_CHAR_MIME_TYPE:
+			return SLOT_CONTENT_TYPE;
+		case CDXConstants.CDX_CHAR_RESPONSE_CODE:
+			return SLOT_STATUS_CODE;
+		case CDXConstants.CDX_CHAR_OLD_STYLE_CHECKSUM:
+		case CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM:
+			return SLOT_DIGEST;
+		case CDXConstants.CDX_CHAR_COMPRESSED_ARC_FILE_OFFSET:
+		case CDXConstants.CDX_CHAR_UNCOMPRESSED_ARC_FILE_OFFSET:
+			return SLOT_OFFSET;
+		case CDXConstants.CDX_CHAR_ARC_DOCUMENT_LENGTH:
+			return SLOT_LENGTH;
+		case CDXConstants.CDX_CHAR_FILE_NAME:
+			return SLOT_FILENAME;
+		case CDXConstants.CDX_CHAR_REDIRECT:
+			return SLOT_REDIRECT;
+		default:
+			logger.debug("Unmatched CDX element '" + formatChar + "' will be ignored.");
+			return SLOT_IGNORE;
+		}
+	}
+
+	/**
+	 * @return The number of elements in the CDX format.
+	 */
+	public int getNumberOfElements() {
+		return slots.length;
+	}
+
+	/**
+	 * Parses a CDX line.
+	 * Trailing whitespace is ignored.
+	 * @param line The CDX line.
+	 * @return The CDX entry, or null if the line could not be parsed.
+	 */
+	public CDXEntry parse(CharSequence line) {
+		if(line == null) {
+			return null;
+		}
+		int end = line.length();
+		while(end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+			end--;
+		}
+
+		CDXEntry entry = new CDXEntry();
+		int element = 0;
+		int elementStart = 0;
+		try {
+			for(int i = 0; i <= end; i++) {
+				if(i < end && line.charAt(i) != ELEMENT_SEPARATOR) {
+					continue;
+				}
+				if(element < slots.length) {
+					setElement(entry, slots[element], line, elementStart, i);
+				} else if(!allowExtraElements) {
+					logger.warn("CDX line has more elements than the CDX format ('" + slots.length + "').");
+					return null;
+				}
+				element++;
+				elementStart = i + 1;
+			}
+		} catch (NumberFormatException | ParseException e) {
+			logger.warn("Issue parsing the CDX line '" + line + "': " + e.getMessage());
+			return null;
+		}
+
+		if(element < slots.length) {
+			logger.warn("CDX line ('" + element + "') has fewer elements than the CDX format ('" + slots.length
+					+ "').");
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Assigns the value of a single element of the line to the CDX entry.
+	 * @param entry The CDX entry.
+	 * @param slot The slot of the element.
+	 * @param line The CDX line.
+	 * @param start The index of the first character of the element.
+	 * @param end The index after the last character of the element.
+	 * @throws ParseException If the date cannot be parsed.
+	 */
+	protected void setElement(CDXEntry entry, int slot, CharSequence line, int start, int end)
+			throws ParseException {
+		if(slot == SLOT_IGNORE || (end - start == 1 && line.charAt(start) == NO_VALUE)) {
+			return;
+		}
+		switch (slot) {
+		case SLOT_URL_NORM:
+			entry.urlNorm = extractString(line, start, end);
+			break;
+		case SLOT_DATE:
+			entry.date = DateUtils.waybackDateToMillis(line, start, end);
+			break;
+		case SLOT_IP:
+			entry.ip = extractString(line, start, end);
+			break;
+		case SLOT_URL:
+			entry.url = extractString(line, start, end);
+			break;
+		case SLOT_CONTENT_TYPE:
+			entry.contentType = extractString(line, start, end);
+			break;
+		case SLOT_STATUS_CODE:
+			long statusCode = parseLong(line, start, end);
+			if(statusCode < Integer.MIN_VALUE || statusCode > Integer.MAX_VALUE) {
+				throw new NumberFormatException("Status code out of range: " + statusCode);
+			}
+			entry.statusCode = (int) statusCode;
+			break;
+		case SLOT_DIGEST:
+			entry.digest = extractString(line, start, end);
+			break;
+		case SLOT_OFFSET:
+			entry.offset = parseLong(line, start, end);
+			break;
+		case SLOT_LENGTH:
+			entry.length = parseLong(line, start, end);
+			break;
+		case SLOT_FILENAME:
+			entry.filename = extractString(line, start, end);
+			break;
+		case SLOT_REDIRECT:
+			entry.redirect = extractString(line, start, end);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Extracts a string value from the line.
+	 * @param line The CDX line.
+	 * @param start The index of the first character.
+	 * @param end The index after the last character.
+	 * @return The string.
+	 */
+	protected static String extractString(CharSequence line, int start, int end) {
+		return line.subSequence(start, end).toString();
+	}
+
+	/**
+	 * Parses a decimal number from the line, with the same result as {@link Long#parseLong(String)}.
+	 * @param line The CDX line.
+	 * @param start The index of the first character.
+	 * @param end The index after the last character.
+	 * @return The number.
+	 * @throws NumberFormatException If it is not a valid number.
+	 */
+	protected static long parseLong(CharSequence line, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		if(pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+			negative = line.charAt(pos) == '-';
+			pos++;
+		}
+		if(pos == end || end - pos > MAX_SAFE_LONG_DIGITS) {
+			return Long.parseLong(extractString(line, start, end));
+		}
+		long res = 0;
+		for(; pos < end; pos++) {
+			int digit = line.charAt(pos) - '0';
+			if(digit < 0 || digit > 9) {
+				throw new NumberFormatException("For input string: \"" + extractString(line, start, end) + "\"");
+			}
+			res = res * 10 + digit;
+		}
+		return negative ? -res : res;
+	}
+}
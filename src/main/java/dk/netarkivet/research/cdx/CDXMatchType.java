@@ -0,0 +1,68 @@
+package dk.netarkivet.research.cdx;
+
+/**
+ * The ways a URL can be matched against the CDX entries in a query, as the 'matchType' of the CDX servers.
+ */
+public enum CDXMatchType {
+	/** Only the CDX entries for the URL itself.*/
+	EXACT("exact"),
+	/** The CDX entries for all the URLs starting with the URL, e.g. 'example.dk/images/*'.*/
+	PREFIX("prefix"),
+	/** The CDX entries for all the URLs on the host of the URL.*/
+	HOST("host"),
+	/** The CDX entries for all the URLs on the host of the URL and its sub-domains, e.g. '*.example.dk'.*/
+	DOMAIN("domain");
+
+	/** The suffix of a URL pattern for a prefix query.*/
+	public static final String PREFIX_WILDCARD = "*";
+	/** The prefix of a URL pattern for a domain query.*/
+	public static final String DOMAIN_WILDCARD = "*.";
+
+	/** The value of the matchType argument for the CDX server.*/
+	protected final String argument;
+
+	/**
+	 * Constructor.
+	 * @param argument The value of the matchType argument for the CDX server.
+	 */
+	CDXMatchType(String argument) {
+		this.argument = argument;
+	}
+
+	/**
+	 * @return The value of the matchType argument for the CDX server.
+	 */
+	public String getArgument() {
+		return argument;
+	}
+
+	/**
+	 * Extracts the match type from a URL pattern, in the same way as the CDX servers do.
+	 * A URL ending with '*' (e.g. 'example.dk/*') is a prefix query, and a URL starting with '*.'
+	 * (e.g. '*.example.dk') is a domain query. Otherwise it is an exact query.
+	 * @param urlPattern The URL pattern.
+	 * @return The match type of the pattern.
+	 */
+	public static CDXMatchType extractMatchType(String urlPattern) {
+		if(urlPattern.startsWith(DOMAIN_WILDCARD)) {
+			return DOMAIN;
+		} else if(urlPattern.endsWith(PREFIX_WILDCARD)) {
+			return PREFIX;
+		}
+		return EXACT;
+	}
+
+	/**
+	 * Removes the wildcard of a URL pattern, so only the URL of the query remains.
+	 * @param urlPattern The URL pattern.
+	 * @return The URL without the wildcard.
+	 */
+	public static String stripWildcard(String urlPattern) {
+		if(urlPattern.startsWith(DOMAIN_WILDCARD)) {
+			return urlPattern.substring(DOMAIN_WILDCARD.length());
+		} else if(urlPattern.endsWith(PREFIX_WILDCARD)) {
+			return urlPattern.substring(0, urlPattern.length() - PREFIX_WILDCARD.length());
+		}
+		return urlPattern;
+	}
+}
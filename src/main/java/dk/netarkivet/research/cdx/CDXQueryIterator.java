@@ -0,0 +1,175 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Iterator over the CDX entries of a query, which are delivered while they are read from the source.
+ *
+ * The entries are streamed to a handler by a separate thread, and handed over through a bounded queue, so
+ * only a limited number of entries are in memory at the time, no matter the size of the result.
+ * If the consumer is slower than the source, then the source waits for the consumer.
+ *
+ * The iterator must be closed, if it is not read to the end, so the source stops reading.
+ */
+public abstract class CDXQueryIterator implements Iterator<CDXEntry>, Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXQueryIterator.class);
+
+	/** The default number of CDX entries, which can be waiting for the consumer.*/
+	public static final int DEFAULT_CAPACITY = 1024;
+	/** The marker for the end of the entries in the queue.*/
+	protected static final CDXEntry END_OF_ENTRIES = new CDXEntry();
+	/** The counter for the names of the threads.*/
+	protected static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	/** The entries, which are waiting for the consumer.*/
+	protected final BlockingQueue<CDXEntry> queue;
+	/** The thread streaming the entries from the source.*/
+	protected final Thread streamer;
+	/** Whether the iterator has been closed.*/
+	protected volatile boolean closed = false;
+	/** Whether all the entries were delivered by the source.*/
+	protected volatile boolean complete = false;
+	/** The failure of the source, if it failed with an exception.*/
+	protected volatile Throwable failure = null;
+	/** The next entry to deliver. Null if it has not been taken from the queue yet.*/
+	protected CDXEntry nextEntry = null;
+	/** Whether the end of the entries has been reached.*/
+	protected boolean finished = false;
+
+	/**
+	 * Constructor.
+	 * @param capacity The number of CDX entries, which can be waiting for the consumer.
+	 */
+	protected CDXQueryIterator(int capacity) {
+		ArgumentCheck.checkIsTrue(capacity > 0, "The capacity must be positive");
+		this.queue = new ArrayBlockingQueue<CDXEntry>(capacity);
+		this.streamer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				streamEntries();
+			}
+		}, "cdx-query-" + THREAD_COUNT.incrementAndGet());
+		this.streamer.setDaemon(true);
+	}
+
+	/**
+	 * Streams the CDX entries of the query from the source to the handler.
+	 * @param handler The handler of the CDX entries.
+	 * @return Whether all the CDX entries of the query could be retrieved.
+	 */
+	protected abstract boolean stream(CDXEntryHandler handler);
+
+	/**
+	 * Starts streaming the CDX entries.
+	 * @return This iterator.
+	 */
+	public CDXQueryIterator start() {
+		streamer.start();
+		return this;
+	}
+
+	/**
+	 * Streams the CDX entries into the queue, and marks the end of the entries afterwards.
+	 */
+	protected void streamEntries() {
+		try {
+			complete = stream(new CDXEntryHandler() {
+				@Override
+				public void handleEntry(CDXEntry entry) {
+					if(entry == null) {
+						return;
+					}
+					try {
+						if(closed) {
+							throw new CancellationException("The CDX query has been closed.");
+						}
+						queue.put(entry.toStandaloneEntry());
+					} catch (InterruptedException e) {
+						throw new CancellationException("The CDX query has been closed.");
+					}
+				}
+			});
+		} catch (CancellationException e) {
+			logger.debug("Stopped streaming the CDX entries, since the query was closed.");
+		} catch (RuntimeException | Error e) {
+			logger.warn("Failed to stream the CDX entries of the query.", e);
+			failure = e;
+		} finally {
+			if(!closed) {
+				try {
+					queue.put(END_OF_ENTRIES);
+				} catch (InterruptedException e) {
+					logger.debug("Interrupted while ending the CDX query.");
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(nextEntry == null && !finished) {
+			try {
+				CDXEntry entry = queue.take();
+				if(entry == END_OF_ENTRIES) {
+					finished = true;
+				} else {
+					nextEntry = entry;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next CDX entry.", e);
+			}
+			if(finished && failure != null) {
+				throw new IllegalStateException("Failed to retrieve the CDX entries of the query.", failure);
+			}
+		}
+		return nextEntry != null;
+	}
+
+	@Override
+	public CDXEntry next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException("No more CDX entries.");
+		}
+		CDXEntry res = nextEntry;
+		nextEntry = null;
+		return res;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Cannot remove CDX entries from the result of a query.");
+	}
+
+	/**
+	 * @return Whether all the CDX entries of the query were retrieved.
+	 * Only known, when the iterator has been read to the end.
+	 */
+	public boolean isComplete() {
+		return finished && complete;
+	}
+
+	/**
+	 * Closes the iterator, and stops the streaming of the CDX entries.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		finished = true;
+		nextEntry = null;
+		streamer.interrupt();
+		queue.clear();
+	}
+}
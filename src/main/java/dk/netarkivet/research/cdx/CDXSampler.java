@@ -0,0 +1,128 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.SurtUtils;
+
+/**
+ * Streaming fold, which only passes the first CDX entry of each URL within each period of the sampling on
+ * to the handler. It can also be used as a filter of the CDX entries.
+ *
+ * The CDX entries must arrive in the order of the CDX files and servers, where the entries of a URL are
+ * together and sorted by date. Then only the previous entry has to be remembered, so the memory does not depend
+ * on the number of captures. URLs are compared by their SURT, so e.g. the http and https captures of a URL are
+ * sampled together.
+ */
+public class CDXSampler implements CDXEntryHandler {
+	/** The sampling.*/
+	protected final CDXSampling sampling;
+	/** The handler of the sampled CDX entries. Null if the sampler is only used as a filter.*/
+	protected final CDXEntryHandler handler;
+	/** The URL of the previous CDX entry. Null before the first entry.*/
+	protected String previousUrl = null;
+	/** The SURT of the URL of the previous CDX entry.*/
+	protected String previousKey = null;
+	/** The period of the previous CDX entry.*/
+	protected long previousPeriod = 0L;
+	/** The number of CDX entries, which were passed on.*/
+	protected long sampleCount = 0L;
+	/** The number of CDX entries, which were left out.*/
+	protected long skippedCount = 0L;
+
+	/**
+	 * Constructor, for only using the sampler as a filter with {@link #accept(CDXEntry)}.
+	 * @param sampling The sampling.
+	 */
+	public CDXSampler(CDXSampling sampling) {
+		ArgumentCheck.checkNotNull(sampling, "CDXSampling sampling");
+		this.sampling = sampling;
+		this.handler = null;
+	}
+
+	/**
+	 * Constructor.
+	 * @param sampling The sampling.
+	 * @param handler The handler of the sampled CDX entries.
+	 */
+	public CDXSampler(CDXSampling sampling, CDXEntryHandler handler) {
+		ArgumentCheck.checkNotNull(sampling, "CDXSampling sampling");
+		ArgumentCheck.checkNotNull(handler, "CDXEntryHandler handler");
+		this.sampling = sampling;
+		this.handler = handler;
+	}
+
+	/**
+	 * Samples CDX entries, which are in the order of the CDX files (e.g. those of a timeline for a URL).
+	 * @param entries The CDX entries.
+	 * @param sampling The sampling. If null, then all the entries are kept.
+	 * @return The sampled CDX entries.
+	 */
+	public static List<CDXEntry> sample(Collection<CDXEntry> entries, CDXSampling sampling) {
+		final List<CDXEntry> res = new ArrayList<CDXEntry>();
+		if(sampling == null) {
+			res.addAll(entries);
+			return res;
+		}
+		CDXSampler sampler = new CDXSampler(sampling, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				res.add(entry);
+			}
+		});
+		for(CDXEntry entry : entries) {
+			sampler.handleEntry(entry);
+		}
+		return res;
+	}
+
+	@Override
+	public void handleEntry(CDXEntry entry) {
+		if(accept(entry) && handler != null) {
+			handler.handleEntry(entry);
+		}
+	}
+
+	/**
+	 * Checks whether the CDX entry is the first of its URL within its period, and thereby part of the sample.
+	 * The entries must be given in their order.
+	 * @param entry The next CDX entry.
+	 * @return Whether the CDX entry is part of the sample.
+	 */
+	public boolean accept(CDXEntry entry) {
+		long period = sampling.getPeriod(entry.getDateAsLong());
+		String url = entry.getUrl();
+		boolean sameUrl;
+		if(previousUrl != null && previousUrl.equals(url)) {
+			sameUrl = true;
+		} else {
+			String key = SurtUtils.toSurt(url);
+			sameUrl = previousKey != null && previousKey.equals(key);
+			previousUrl = url;
+			previousKey = key;
+		}
+		if(sameUrl && period == previousPeriod) {
+			skippedCount++;
+			return false;
+		}
+		previousPeriod = period;
+		sampleCount++;
+		return true;
+	}
+
+	/**
+	 * @return The number of CDX entries, which were passed on to the handler.
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * @return The number of CDX entries, which were left out.
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+}
@@ -0,0 +1,100 @@
+package dk.netarkivet.research.cdx;
+
+import dk.netarkivet.research.utils.DateUtils;
+
+/**
+ * The temporal samplings of the captures of a URL, where only the first capture within each period is kept.
+ * It is the same as the 'collapse=timestamp:N' argument of the CDX servers, where N is the number of digits of
+ * the timestamp (yyyyMMddHHmmss), which the captures of a period have in common.
+ */
+public enum CDXSampling {
+	/** The first capture of each year.*/
+	YEAR(4),
+	/** The first capture of each month.*/
+	MONTH(6),
+	/** The first capture of each day.*/
+	DAY(8),
+	/** The first capture of each hour.*/
+	HOUR(10);
+
+	/** The prefix of the value of the collapse argument for the CDX server.*/
+	protected static final String COLLAPSE_TIMESTAMP_PREFIX = "timestamp:";
+	/** The number of milliseconds in an hour.*/
+	protected static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+
+	/** The number of digits of the timestamp, which the captures of a period have in common.*/
+	protected final int timestampDigits;
+
+	/**
+	 * Constructor.
+	 * @param timestampDigits The number of digits of the timestamp, which the captures of a period have in common.
+	 */
+	CDXSampling(int timestampDigits) {
+		this.timestampDigits = timestampDigits;
+	}
+
+	/**
+	 * @return The number of digits of the timestamp, which the captures of a period have in common.
+	 */
+	public int getTimestampDigits() {
+		return timestampDigits;
+	}
+
+	/**
+	 * @return The value of the collapse argument for the CDX server, e.g. 'timestamp:8' for the first capture of
+	 * each day.
+	 */
+	public String getArgument() {
+		return COLLAPSE_TIMESTAMP_PREFIX + timestampDigits;
+	}
+
+	/**
+	 * Calculates the period of a date, so dates in the same period have the same number.
+	 * It is calculated without formatting the date, since it is done for every capture.
+	 * @param millis The date in milliseconds since epoch.
+	 * @return The number of the period.
+	 */
+	public long getPeriod(long millis) {
+		switch(this) {
+		case YEAR:
+			return floorDivide(DateUtils.monthsSinceEpoch(millis), 12L);
+		case MONTH:
+			return DateUtils.monthsSinceEpoch(millis);
+		case DAY:
+			return floorDivide(millis, DateUtils.MILLIS_PER_DAY);
+		default:
+			return floorDivide(millis, MILLIS_PER_HOUR);
+		}
+	}
+
+	/**
+	 * Extracts the sampling from its name (e.g. 'day') or from the value of a collapse argument
+	 * (e.g. 'timestamp:8').
+	 * @param value The name or the value of the collapse argument. Case is ignored.
+	 * @return The sampling, or null if the value is null or empty.
+	 * @throws IllegalArgumentException If the value is not a known sampling.
+	 */
+	public static CDXSampling extractSampling(String value) {
+		if(value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		String trimmed = value.trim();
+		for(CDXSampling sampling : values()) {
+			if(sampling.name().equalsIgnoreCase(trimmed) || sampling.getArgument().equalsIgnoreCase(trimmed)) {
+				return sampling;
+			}
+		}
+		throw new IllegalArgumentException("The sampling '" + value + "' is not one of 'year', 'month', 'day' or "
+				+ "'hour'.");
+	}
+
+	/**
+	 * @param value The value.
+	 * @param divisor The divisor. Must be positive.
+	 * @return The value divided by the divisor, rounded down.
+	 */
+	protected static long floorDivide(long value, long divisor) {
+		long res = value / divisor;
+		return value % divisor < 0 ? res - 1 : res;
+	}
+}
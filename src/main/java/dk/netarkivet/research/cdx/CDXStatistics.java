@@ -0,0 +1,325 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.CDXUtils;
+import dk.netarkivet.research.utils.DateUtils;
+
+/**
+ * Statistics of CDX entries, which counts the captures and their sizes by mimetype, status code, year, host and
+ * harvest job. It is the same breakdown as the MimetypeWarcBatchJob, but derived from the CDX instead of reading
+ * every WARC record.
+ *
+ * The statistics are not thread-safe, but each thread can count its own part of the CDX entries, and the partial
+ * statistics can be merged afterwards. The size is the sum of the lengths of the records, so it is only counted
+ * for CDX formats with the length field ('n').
+ */
+public class CDXStatistics implements CDXEntryHandler {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXStatistics.class);
+
+	/** The CDX fields used by the statistics.*/
+	public static final Collection<Character> STATISTICS_CDX_FIELDS = Collections.unmodifiableList(
+			Arrays.asList('A', 'a', 'b', 'm', 's', 'n', 'g'));
+	/** The key for entries without a value for the dimension.*/
+	public static final String UNKNOWN_KEY = "-";
+	/** The separator of the columns of the written statistics.*/
+	protected static final String COLUMN_SEPARATOR = ";";
+
+	/** The dimensions of the statistics.*/
+	public enum Dimension {
+		/** The mimetype of the captures.*/
+		MIMETYPE,
+		/** The HTTP status code of the captures.*/
+		STATUS,
+		/** The year of the captures.*/
+		YEAR,
+		/** The host of the URL of the captures, without 'www'.*/
+		HOST,
+		/** The harvest job of the captures, extracted from the name of the archive file.*/
+		JOB;
+	}
+
+	/** The counters of each dimension, by the key within the dimension.*/
+	protected final Map<Dimension, Map<String, Counter>> counters;
+	/** The counter of all the entries.*/
+	protected final Counter total = new Counter();
+
+	/**
+	 * Constructor.
+	 */
+	public CDXStatistics() {
+		counters = new HashMap<Dimension, Map<String, Counter>>();
+		for(Dimension dimension : Dimension.values()) {
+			counters.put(dimension, new HashMap<String, Counter>());
+		}
+	}
+
+	/**
+	 * The fields are read from the standalone CDX entry, since the getters give default values for missing fields
+	 * (e.g. status code 200), and a view of packed CDX entries has no fields. A missing length counts as size 0.
+	 */
+	@Override
+	public void handleEntry(CDXEntry entry) {
+		entry = entry.toStandaloneEntry();
+		long size = entry.length == null ? 0L : entry.length;
+		total.add(1L, size);
+		count(Dimension.MIMETYPE, extractMimetype(entry), size);
+		count(Dimension.STATUS, extractStatus(entry), size);
+		count(Dimension.YEAR, extractYear(entry), size);
+		count(Dimension.HOST, extractHost(entry), size);
+		count(Dimension.JOB, extractJob(entry), size);
+	}
+
+	/**
+	 * Counts an entry for a key within a dimension.
+	 * @param dimension The dimension.
+	 * @param key The key within the dimension.
+	 * @param size The size of the entry.
+	 */
+	protected void count(Dimension dimension, String key, long size) {
+		Map<String, Counter> map = counters.get(dimension);
+		Counter counter = map.get(key);
+		if(counter == null) {
+			counter = new Counter();
+			map.put(key, counter);
+		}
+		counter.add(1L, size);
+	}
+
+	/**
+	 * Merges other statistics into these statistics.
+	 * @param other The other statistics. They are not changed.
+	 */
+	public void merge(CDXStatistics other) {
+		ArgumentCheck.checkNotNull(other, "CDXStatistics other");
+		total.add(other.total.count, other.total.size);
+		for(Dimension dimension : Dimension.values()) {
+			Map<String, Counter> map = counters.get(dimension);
+			for(Map.Entry<String, Counter> otherCounter : other.counters.get(dimension).entrySet()) {
+				Counter counter = map.get(otherCounter.getKey());
+				if(counter == null) {
+					counter = new Counter();
+					map.put(otherCounter.getKey(), counter);
+				}
+				counter.add(otherCounter.getValue().count, otherCounter.getValue().size);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of CDX entries.
+	 */
+	public long getTotalCount() {
+		return total.count;
+	}
+
+	/**
+	 * @return The sum of the sizes of the CDX entries.
+	 */
+	public long getTotalSize() {
+		return total.size;
+	}
+
+	/**
+	 * @param dimension The dimension.
+	 * @return The number of CDX entries by the keys of the dimension.
+	 */
+	public Map<String, Long> getCounts(Dimension dimension) {
+		ArgumentCheck.checkNotNull(dimension, "Dimension dimension");
+		Map<String, Long> res = new HashMap<String, Long>();
+		for(Map.Entry<String, Counter> counter : counters.get(dimension).entrySet()) {
+			res.put(counter.getKey(), counter.getValue().count);
+		}
+		return res;
+	}
+
+	/**
+	 * @param dimension The dimension.
+	 * @return The sum of the sizes of the CDX entries by the keys of the dimension.
+	 */
+	public Map<String, Long> getSizes(Dimension dimension) {
+		ArgumentCheck.checkNotNull(dimension, "Dimension dimension");
+		Map<String, Long> res = new HashMap<String, Long>();
+		for(Map.Entry<String, Counter> counter : counters.get(dimension).entrySet()) {
+			res.put(counter.getKey(), counter.getValue().size);
+		}
+		return res;
+	}
+
+	/**
+	 * Writes the statistics of each dimension to its own CSV file in the directory, e.g. 'mimetype.csv'.
+	 * The lines are the key, the count and the size, sorted by the count with the largest first.
+	 * @param outputDir The directory for the CSV files. It is created, if it does not exist.
+	 */
+	public void writeToDirectory(File outputDir) {
+		ArgumentCheck.checkNotNull(outputDir, "File outputDir");
+		if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IllegalStateException("Could not create the output directory '" + outputDir.getAbsolutePath()
+					+ "'.");
+		}
+		for(Dimension dimension : Dimension.values()) {
+			File outputFile = new File(outputDir, dimension.name().toLowerCase() + ".csv");
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+				writeDimension(dimension, out);
+			} catch (IOException e) {
+				logger.error("Failed to write the statistics to the file '" + outputFile.getAbsolutePath() + "'.",
+						e);
+				throw new IllegalStateException("Failed to write the statistics to the file '"
+						+ outputFile.getAbsolutePath() + "'.", e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the statistics of a dimension as CSV.
+	 * @param dimension The dimension.
+	 * @param out The output stream.
+	 * @throws IOException If it fails to write to the output stream.
+	 */
+	protected void writeDimension(Dimension dimension, OutputStream out) throws IOException {
+		List<Map.Entry<String, Counter>> entries = new ArrayList<Map.Entry<String, Counter>>(
+				counters.get(dimension).entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Counter>>() {
+			@Override
+			public int compare(Map.Entry<String, Counter> o1, Map.Entry<String, Counter> o2) {
+				int res = Long.compare(o2.getValue().count, o1.getValue().count);
+				if(res == 0) {
+					res = o1.getKey().compareTo(o2.getKey());
+				}
+				return res;
+			}
+		});
+		Charset charset = Charset.forName("UTF-8");
+		out.write((dimension.name().toLowerCase() + COLUMN_SEPARATOR + "count" + COLUMN_SEPARATOR + "size\n")
+				.getBytes(charset));
+		for(Map.Entry<String, Counter> entry : entries) {
+			out.write((entry.getKey() + COLUMN_SEPARATOR + entry.getValue().count + COLUMN_SEPARATOR
+					+ entry.getValue().size + "\n").getBytes(charset));
+		}
+		out.flush();
+	}
+
+	/**
+	 * @param entry The CDX entry.
+	 * @return The mimetype of the CDX entry, without any parameters like the charset.
+	 */
+	protected static String extractMimetype(CDXEntry entry) {
+		String mimetype = entry.getContentType();
+		if(mimetype == null || mimetype.isEmpty()) {
+			return UNKNOWN_KEY;
+		}
+		int parameters = mimetype.indexOf(';');
+		if(parameters >= 0) {
+			mimetype = mimetype.substring(0, parameters);
+		}
+		return mimetype.trim().toLowerCase();
+	}
+
+	/**
+	 * @param entry The standalone CDX entry.
+	 * @return The HTTP status code of the CDX entry.
+	 */
+	protected static String extractStatus(CDXEntry entry) {
+		return entry.statusCode == null ? UNKNOWN_KEY : entry.statusCode.toString();
+	}
+
+	/**
+	 * The year is calculated without formatting the date, since it is done for every capture.
+	 * @param entry The standalone CDX entry.
+	 * @return The year of the date of the CDX entry.
+	 */
+	protected static String extractYear(CDXEntry entry) {
+		if(entry.date == null) {
+			return UNKNOWN_KEY;
+		}
+		long year = CDXSampling.floorDivide(DateUtils.monthsSinceEpoch(entry.date), 12L) + 1970L;
+		return Long.toString(year);
+	}
+
+	/**
+	 * Extracts the host from the original URL, or from the canonized URL if the original URL is not in the CDX.
+	 * The protocol, the 'www', the user info and the port are removed.
+	 * @param entry The CDX entry.
+	 * @return The host of the URL of the CDX entry.
+	 */
+	protected static String extractHost(CDXEntry entry) {
+		String url = entry.getUrl();
+		if(url == null || url.isEmpty()) {
+			url = entry.getUrlNorm();
+		}
+		if(url == null || url.isEmpty()) {
+			return UNKNOWN_KEY;
+		}
+		int start = url.indexOf("://");
+		start = start < 0 ? 0 : start + 3;
+		int end = start;
+		while(end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+			end++;
+		}
+		int userInfo = url.lastIndexOf('@', end - 1);
+		if(userInfo >= start) {
+			start = userInfo + 1;
+		}
+		int port = url.indexOf(':', start);
+		if(port >= 0 && port < end) {
+			end = port;
+		}
+		String host = url.substring(start, end).toLowerCase();
+		if(host.startsWith("www")) {
+			host = host.replaceFirst("^www[0-9]*\\.", "");
+		}
+		return host.isEmpty() ? UNKNOWN_KEY : host;
+	}
+
+	/**
+	 * @param entry The CDX entry.
+	 * @return The ID of the harvest job of the CDX entry.
+	 */
+	protected static String extractJob(CDXEntry entry) {
+		try {
+			Long jobId = CDXUtils.extractJobID(entry);
+			return jobId == null ? UNKNOWN_KEY : jobId.toString();
+		} catch (NumberFormatException e) {
+			logger.trace("No job ID in the filename '" + entry.getFilename() + "'.", e);
+			return UNKNOWN_KEY;
+		}
+	}
+
+	/**
+	 * Counter of the number and the sizes of the CDX entries.
+	 */
+	protected static class Counter {
+		/** The number of CDX entries.*/
+		protected long count = 0L;
+		/** The sum of the sizes of the CDX entries.*/
+		protected long size = 0L;
+
+		/**
+		 * Adds to the counter.
+		 * @param count The number of CDX entries to add.
+		 * @param size The size to add.
+		 */
+		protected void add(long count, long size) {
+			this.count += count;
+			this.size += size;
+		}
+	}
+}
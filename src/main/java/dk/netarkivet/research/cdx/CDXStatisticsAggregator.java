@@ -0,0 +1,201 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Aggregates the statistics of local CDX files in parallel.
+ *
+ * The text CDX files are split into chunks by byte ranges (see {@link CDXFileReader#splitCDXFile(File, int)}),
+ * so even a single large CDX file is counted on all the threads. Each chunk is counted into its own partial
+ * statistics, and only the fields used by the statistics are parsed. The partial statistics are merged, when all
+ * the chunks have been counted.
+ * Binary CDX files cannot be split by byte ranges, so each of them is counted as a whole by a single thread.
+ */
+public class CDXStatisticsAggregator {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXStatisticsAggregator.class);
+
+	/** The default minimum size of a chunk. Smaller files are not split into more chunks than this allows.*/
+	public static final long DEFAULT_MIN_CHUNK_SIZE = 1024L * 1024L;
+	/** The default maximum size of a chunk, so large files are split into more chunks than threads.*/
+	public static final long DEFAULT_MAX_CHUNK_SIZE = 64L * 1024L * 1024L;
+
+	/** The number of threads.*/
+	protected final int threads;
+	/** The minimum size of a chunk.*/
+	protected final long minChunkSize;
+	/** The maximum size of a chunk.*/
+	protected final long maxChunkSize;
+	/** The reader of the text CDX files.*/
+	protected final CDXFileReader reader = new CDXFileReader();
+
+	/**
+	 * Constructor, with the default chunk sizes.
+	 * @param threads The number of threads.
+	 */
+	public CDXStatisticsAggregator(int threads) {
+		this(threads, DEFAULT_MIN_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param threads The number of threads.
+	 * @param minChunkSize The minimum size of a chunk, in bytes.
+	 * @param maxChunkSize The maximum size of a chunk, in bytes.
+	 */
+	public CDXStatisticsAggregator(int threads, long minChunkSize, long maxChunkSize) {
+		ArgumentCheck.checkIsTrue(threads > 0, "The number of threads must be positive");
+		ArgumentCheck.checkIsTrue(minChunkSize > 0, "The minimum chunk size must be positive");
+		ArgumentCheck.checkIsTrue(maxChunkSize >= minChunkSize, "The maximum chunk size must be at least the "
+				+ "minimum chunk size");
+		this.threads = threads;
+		this.minChunkSize = minChunkSize;
+		this.maxChunkSize = maxChunkSize;
+	}
+
+	/**
+	 * Aggregates the statistics of the CDX files.
+	 * @param cdxFiles The CDX files, either text or binary CDX files.
+	 * @return The merged statistics of all the CDX entries in the files.
+	 */
+	public CDXStatistics aggregate(Collection<File> cdxFiles) {
+		ArgumentCheck.checkNotNull(cdxFiles, "Collection<File> cdxFiles");
+		List<Callable<CDXStatistics>> tasks = new ArrayList<Callable<CDXStatistics>>();
+		for(File cdxFile : cdxFiles) {
+			ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+			tasks.addAll(createTasks(cdxFile));
+		}
+		logger.info("Aggregating the statistics of " + cdxFiles.size() + " CDX files in " + tasks.size()
+				+ " chunks with " + threads + " threads.");
+
+		CDXStatistics res = new CDXStatistics();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new AggregatorThreadFactory());
+		try {
+			List<Future<CDXStatistics>> partials = new ArrayList<Future<CDXStatistics>>(tasks.size());
+			for(Callable<CDXStatistics> task : tasks) {
+				partials.add(executor.submit(task));
+			}
+			for(Future<CDXStatistics> partial : partials) {
+				res.merge(partial.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while aggregating the CDX statistics.", e);
+		} catch (ExecutionException e) {
+			logger.error("Failed to aggregate the CDX statistics.", e.getCause());
+			throw new IllegalStateException("Failed to aggregate the CDX statistics.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		logger.info("Aggregated the statistics of " + res.getTotalCount() + " CDX entries.");
+		return res;
+	}
+
+	/**
+	 * Creates the tasks for counting the statistics of a CDX file.
+	 * @param cdxFile The CDX file.
+	 * @return The tasks, one for each chunk of the file.
+	 */
+	protected List<Callable<CDXStatistics>> createTasks(final File cdxFile) {
+		List<Callable<CDXStatistics>> res = new ArrayList<Callable<CDXStatistics>>();
+		if(BinaryCDXFileReader.isBinaryCDXFile(cdxFile)) {
+			res.add(new Callable<CDXStatistics>() {
+				@Override
+				public CDXStatistics call() throws IOException {
+					CDXStatistics statistics = new CDXStatistics();
+					try (BinaryCDXFileReader binaryReader = new BinaryCDXFileReader(cdxFile)) {
+						binaryReader.streamAllEntries(statistics);
+					}
+					return statistics;
+				}
+			});
+			return res;
+		}
+
+		try {
+			for(final CDXFileChunk chunk : reader.splitCDXFile(cdxFile, getNumberOfChunks(cdxFile.length()))) {
+				res.add(new Callable<CDXStatistics>() {
+					@Override
+					public CDXStatistics call() throws IOException {
+						return countChunk(chunk);
+					}
+				});
+			}
+		} catch (IOException e) {
+			logger.error("Failed to split the CDX file '" + cdxFile.getAbsolutePath() + "'.", e);
+			throw new IllegalStateException("Failed to split the CDX file '" + cdxFile.getAbsolutePath() + "'.", e);
+		}
+		return res;
+	}
+
+	/**
+	 * Calculates the number of chunks for a file. It is at least the number of threads, unless the chunks would
+	 * become smaller than the minimum chunk size, and large files get more chunks, so no chunk is larger than the
+	 * maximum chunk size.
+	 * @param fileSize The size of the file.
+	 * @return The number of chunks.
+	 */
+	protected int getNumberOfChunks(long fileSize) {
+		long forThreads = Math.min(threads, ceilDivide(fileSize, minChunkSize));
+		long forSize = ceilDivide(fileSize, maxChunkSize);
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, Math.max(forThreads, forSize)));
+	}
+
+	/**
+	 * Counts the statistics of a chunk of a text CDX file.
+	 * @param chunk The chunk.
+	 * @return The statistics of the CDX entries in the chunk.
+	 * @throws IOException If an issue occurs while reading the chunk.
+	 */
+	protected CDXStatistics countChunk(CDXFileChunk chunk) throws IOException {
+		CDXStatistics res = new CDXStatistics();
+		try (CDXEntryIterator iterator = reader.iterateCDXFromChunk(chunk, CDXStatistics.STATISTICS_CDX_FIELDS)) {
+			while(iterator.hasNext()) {
+				res.handleEntry(iterator.next());
+			}
+		}
+		logger.debug("Counted " + res.getTotalCount() + " CDX entries in the chunk " + chunk);
+		return res;
+	}
+
+	/**
+	 * @param value The value. Must not be negative.
+	 * @param divisor The divisor. Must be positive.
+	 * @return The value divided by the divisor, rounded up.
+	 */
+	protected static long ceilDivide(long value, long divisor) {
+		return (value + divisor - 1) / divisor;
+	}
+
+	/**
+	 * Thread factory for the threads counting the chunks.
+	 * The threads are daemon threads, so they never keep the JVM alive.
+	 */
+	protected static class AggregatorThreadFactory implements ThreadFactory {
+		/** The number of threads created, used for naming the threads.*/
+		protected final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread res = new Thread(r, "cdx-statistics-" + threadCount.incrementAndGet());
+			res.setDaemon(true);
+			return res;
+		}
+	}
+}
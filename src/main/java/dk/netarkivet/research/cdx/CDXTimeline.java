@@ -0,0 +1,216 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The timeline of the CDX entries for a URL.
+ * The dates of the entries are kept sorted in a primitive array, so the entry closest to a date and the entries
+ * within an interval are found with binary search, instead of going through all the entries.
+ *
+ * The timeline refers to the entries of the collection it was made from, and does not copy them, unless the
+ * collection does not have random access.
+ * Null entries in the collection are ignored.
+ * The timeline cannot be changed, and can therefore be used by several threads at the same time.
+ */
+public class CDXTimeline {
+	/** The collection of entries, which the timeline was made from.*/
+	protected final Collection<CDXEntry> source;
+	/** The entries, with random access.*/
+	protected final List<CDXEntry> entries;
+	/** The indices of the entries in the order of their dates.*/
+	protected final int[] order;
+	/** The dates of the entries in sorted order.*/
+	protected final long[] dates;
+
+	/**
+	 * Constructor.
+	 * @param cdxEntries The CDX entries for the URL, in any order.
+	 * If they already are sorted by date, as from a CDX server, then no sorting is needed.
+	 */
+	public CDXTimeline(Collection<CDXEntry> cdxEntries) {
+		this.source = cdxEntries;
+		if(cdxEntries instanceof List && cdxEntries instanceof RandomAccess) {
+			this.entries = (List<CDXEntry>) cdxEntries;
+		} else {
+			this.entries = new ArrayList<CDXEntry>(cdxEntries);
+		}
+
+		int[] indices = new int[entries.size()];
+		final long[] entryDates = new long[entries.size()];
+		int count = 0;
+		boolean sorted = true;
+		for(int i = 0; i < entries.size(); i++) {
+			CDXEntry entry = entries.get(i);
+			if(entry == null) {
+				continue;
+			}
+			indices[count] = i;
+			entryDates[count] = entries instanceof PackedCDXEntries ? ((PackedCDXEntries) entries).getDate(i)
+					: entry.getDateAsLong();
+			if(count > 0 && entryDates[count] < entryDates[count - 1]) {
+				sorted = false;
+			}
+			count++;
+		}
+
+		if(sorted) {
+			this.order = Arrays.copyOf(indices, count);
+			this.dates = Arrays.copyOf(entryDates, count);
+		} else {
+			// Stable sort, so entries with the same date keep their order.
+			Integer[] positions = new Integer[count];
+			for(int i = 0; i < count; i++) {
+				positions[i] = i;
+			}
+			Arrays.sort(positions, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return Long.compare(entryDates[o1], entryDates[o2]);
+				}
+			});
+			this.order = new int[count];
+			this.dates = new long[count];
+			for(int i = 0; i < count; i++) {
+				order[i] = indices[positions[i]];
+				dates[i] = entryDates[positions[i]];
+			}
+		}
+	}
+
+	/**
+	 * @param cdxEntries A collection of CDX entries.
+	 * @return Whether this timeline was made from exactly that collection.
+	 */
+	public boolean isTimelineOf(Collection<CDXEntry> cdxEntries) {
+		return source == cdxEntries;
+	}
+
+	/**
+	 * @return The number of entries in the timeline.
+	 */
+	public int size() {
+		return dates.length;
+	}
+
+	/**
+	 * @param index The index in the timeline.
+	 * @return The date of the entry at the index in the timeline.
+	 */
+	public long getDate(int index) {
+		return dates[index];
+	}
+
+	/**
+	 * @param index The index in the timeline.
+	 * @return The entry at the index in the timeline.
+	 */
+	public CDXEntry getEntry(int index) {
+		return entries.get(order[index]);
+	}
+
+	/**
+	 * Finds the entry closest to the date.
+	 * If an earlier and a later entry are equally close, then the earlier one is chosen.
+	 * @param date The date.
+	 * @return The entry closest to the date, or null if there are no entries or no date.
+	 */
+	public CDXEntry findClosest(Date date) {
+		if(date == null || dates.length == 0) {
+			return null;
+		}
+		return getEntry(indexOfClosest(date.getTime())).toStandaloneEntry();
+	}
+
+	/**
+	 * Finds the index in the timeline of the entry closest to the date.
+	 * Of several entries with the same date, the first is chosen.
+	 * @param date The date in millis.
+	 * @return The index of the closest entry. Must not be called on an empty timeline.
+	 */
+	protected int indexOfClosest(long date) {
+		int later = lowerBound(date);
+		if(later == 0) {
+			return later;
+		}
+		int earlier = lowerBound(dates[later - 1]);
+		if(later == dates.length || date - dates[earlier] <= dates[later] - date) {
+			return earlier;
+		}
+		return later;
+	}
+
+	/**
+	 * Finds the entries within the interval, in the order of their dates.
+	 * @param earliest The earliest date of the interval (inclusive). Null for no earliest date.
+	 * @param latest The latest date of the interval (inclusive). Null for no latest date.
+	 * @return The entries within the interval.
+	 */
+	public List<CDXEntry> findInterval(Date earliest, Date latest) {
+		int from = earliest == null ? 0 : lowerBound(earliest.getTime());
+		int to = latest == null ? dates.length : upperBound(latest.getTime());
+		List<CDXEntry> res = new ArrayList<CDXEntry>(Math.max(to - from, 0));
+		for(int i = from; i < to; i++) {
+			res.add(getEntry(i));
+		}
+		return res;
+	}
+
+	/**
+	 * Finds the first entry with the filename, in the order of the collection the timeline was made from.
+	 * @param filename The filename. The case is ignored.
+	 * @return The entry with the filename, or null if no entry has the filename, or the filename is null.
+	 */
+	public CDXEntry findFilename(String filename) {
+		if(filename == null) {
+			return null;
+		}
+		for(CDXEntry entry : entries) {
+			if(entry != null && filename.equalsIgnoreCase(entry.getFilename())) {
+				return entry.toStandaloneEntry();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param date The date in millis.
+	 * @return The index of the first entry, which is not before the date. The size, if all entries are before it.
+	 */
+	protected int lowerBound(long date) {
+		int low = 0;
+		int high = dates.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(dates[mid] < date) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param date The date in millis.
+	 * @return The index of the first entry, which is after the date. The size, if no entries are after it.
+	 */
+	protected int upperBound(long date) {
+		int low = 0;
+		int high = dates.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(dates[mid] <= date) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
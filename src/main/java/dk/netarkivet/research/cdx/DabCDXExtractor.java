@@ -1,16 +1,16 @@
 package dk.netarkivet.research.cdx;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.cache.CDXCache;
+import dk.netarkivet.research.cdx.cache.LruCDXCache;
+import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.http.HttpRetriever;
 import dk.netarkivet.research.utils.UrlUtils;
 import dk.netarkivet.research.wid.WPID;
@@ -50,6 +50,9 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 					CDXConstants.CDX_CHAR_COMPRESSED_ARC_FILE_OFFSET,
 					CDXConstants.CDX_CHAR_FILE_NAME));
 	
+	/** The parser for the CDX lines from the server. Any extra elements at the end of the lines are ignored.*/
+	protected static final CDXLineParser CDX_LINE_PARSER = new CDXLineParser(CDX_FORMAT_CHARS, true);
+	
 	/**
 	 * Retrieves the default CDX format for this extractor.
 	 * @return The default CDX format.
@@ -63,28 +66,58 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 	/** The http retriever for handling the HTTP requests to the CDX server.*/
 	protected final HttpRetriever httpRetriever;
 	
-	/** Map to keep track of the already extracted CDX entries, so we don't have to extract them several times.*/
-	protected final Map<String, List<CDXEntry>> cdxExtractMap = new HashMap<String, List<CDXEntry>>();
+	/** 
+	 * Cache of the already extracted CDX entries, so we don't have to extract them several times.
+	 * The entries are kept packed, to reduce the memory footprint of the cache.
+	 * The key is the server URL and the query sent to the CDX server (see {@link #createRequestKey(String)}), so
+	 * URLs share the cached entries, when they only differ in protocol, 'www' or case.
+	 */
+	protected final CDXCache cache;
 
 	/**
-	 * Constructor.
+	 * Constructor, with a default bounded in-memory cache.
 	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
 	 * @param httpRetriever The http retriever for retrieving from the CDX server.
 	 */
 	public DabCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever) {
+		this(cdxServerUrl, httpRetriever, new LruCDXCache());
+	}
+
+	/**
+	 * Constructor.
+	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
+	 * @param httpRetriever The http retriever for retrieving from the CDX server.
+	 * @param cache The cache for the extracted CDX entries.
+	 */
+	public DabCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever, CDXCache cache) {
+		ArgumentCheck.checkNotNull(cache, "CDXCache cache");
 		this.cdxUrl = cdxServerUrl;
 		this.httpRetriever = httpRetriever;
+		this.cache = cache;
+	}
+
+	/**
+	 * @return The cache of the extracted CDX entries.
+	 */
+	public CDXCache getCache() {
+		return cache;
 	}
 
 	@Override
 	public CDXEntry retrieveCDX(WPID wpid) {
-		Collection<CDXEntry> allCDXforUrl = retrieveAllCDX(wpid.getUrl());
-		return retrieveCDXclosestToDate(allCDXforUrl, wpid.getDate());
+		return retrieveCDXclosestToDate(wpid.getUrl(), wpid.getDate());
 	}
 
+	/**
+	 * Only the CDX entries of a successful request are cached. If the request fails (e.g. an error response or a
+	 * refused connection), then null is returned, so the URL is requested again by the next lookup, and a 
+	 * federation of replicas can send the lookup on to another replica.
+	 * An empty response is an answer, since the CDX server has no CDX entries for the URL.
+	 */
 	@Override
 	public Collection<CDXEntry> retrieveAllCDX(String url) {
-		List<CDXEntry> res = cdxExtractMap.get(url);
+		String cacheKey = getCacheKey(cdxUrl, url);
+		List<CDXEntry> res = cache.get(cacheKey);
 
 		if(res != null) {
 			logger.debug("Using already extracted CDX entries for the URL '" + url + "'.");
@@ -92,25 +125,101 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 			
 			logger.debug("Extracting CDX entries for URL '" + url + "'.");
 			String requestUrlString = createRequestUrlForURL(url);
-			String response = httpRetriever.retrieveFromUrl(requestUrlString);
-			if(response == null || response.isEmpty()) {
-				logger.warn("Failed to retrieve CDX indices for the URL '" + url + "'. Returning a null");
-				res = Arrays.asList();
-			} else {
-				res = new ArrayList<CDXEntry>();
-				for(String line : response.split("\n")) {
-					CDXEntry entry = CDXEntry.createCDXEntry(createCdxMap(line));
-					if(entry != null) {
-						res.add(entry);
-					}
+			final PackedCDXEntries entries = new PackedCDXEntries();
+			CDXResponseLineHandler lineHandler = new CDXResponseLineHandler(CDX_LINE_PARSER, new CDXEntryHandler() {
+				@Override
+				public void handleEntry(CDXEntry entry) {
+					entries.add(entry);
 				}
+			});
+			if(!httpRetriever.retrieveLinesFromUrl(requestUrlString, lineHandler)) {
+				logger.warn("Failed to retrieve CDX indices for the URL '" + url + "'. Returning null");
+				return null;
 			}
-			cdxExtractMap.put(url, res);
+			entries.trimToSize();
+			res = entries;
+			cache.put(cacheKey, res);
 		}
 		
 		return res;
 	}
 
+	/**
+	 * The key is the query sent to the CDX server instead of the SURT, since the CDX server does not canonize the 
+	 * URL to its SURT, but only finds the lines starting with the query. So e.g. URLs which only differ in the 
+	 * order of the query arguments do not give the same CDX entries.
+	 */
+	@Override
+	protected String getUrlKey(String url) {
+		return createRequestKey(url);
+	}
+
+	/**
+	 * The CDX entries are always cached, so the timelines of the URLs are reused.
+	 */
+	@Override
+	protected boolean isCachingEntries() {
+		return true;
+	}
+
+	/**
+	 * The CDX server finds the lines starting with the query, so prefix and host queries are made by leaving out 
+	 * the space, which otherwise ends the key of the URL.
+	 * Domain queries are not supported, since the keys of the CDX server do not have the host reversed.
+	 */
+	@Override
+	protected void checkMatchType(String url, CDXMatchType matchType) {
+		if(matchType == CDXMatchType.DOMAIN) {
+			throw new IllegalArgumentException("The DAB CDX server does not support domain queries, since its keys "
+					+ "are not SURTs. Use a host query instead.");
+		}
+	}
+	
+	@Override
+	protected boolean streamQuery(String url, CDXMatchType matchType, CDXEntryHandler handler) {
+		return streamQuery(url, matchType, null, handler);
+	}
+	
+	/**
+	 * The CDX server always delivers all the fields, so the projection only skips decoding the other fields.
+	 * Exact queries use the cache, where the CDX entries already have all the fields.
+	 */
+	@Override
+	protected boolean streamQuery(String url, CDXMatchType matchType, Collection<Character> fields, 
+			CDXEntryHandler handler) {
+		if(matchType == CDXMatchType.EXACT) {
+			return streamAllCDX(url, handler);
+		}
+		CDXResponseLineHandler lineHandler = new CDXResponseLineHandler(CDX_LINE_PARSER.project(fields), handler);
+		if(!httpRetriever.retrieveLinesFromUrl(createRequestUrlForQuery(url, matchType), lineHandler)) {
+			logger.warn("Failed to retrieve CDX indices for the " + matchType + " query for '" + url + "'.");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the request URL for a prefix or host query, which is the key of the URL without the space. 
+	 * For a host query the key is cut after the host.
+	 * @param url The URL of the query.
+	 * @param matchType The match type, either prefix or host.
+	 * @return The request URL for the query to the CDX server.
+	 */
+	protected String createRequestUrlForQuery(String url, CDXMatchType matchType) {
+		String key = UrlUtils.stripProtocolAndWWWAndLowerCase(url);
+		if(matchType == CDXMatchType.HOST) {
+			int slash = key.indexOf(QUERY_SLASH);
+			key = (slash < 0 ? key : key.substring(0, slash)) + QUERY_SLASH;
+		}
+		StringBuilder res = new StringBuilder();
+		res.append(cdxUrl);
+		if(!cdxUrl.endsWith(QUERY_PREFIX)) {
+			res.append(QUERY_PREFIX);
+		}
+		res.append(key);
+		return res.toString();
+	}
+
 	/**
 	 * Creates the request URL for retrieving the CDX entry for a given. 
 	 * @param url The URL for the web-resource.
@@ -118,13 +227,25 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 	 * @return The request URL for retrieving the CDX from the CDX server.
 	 */
 	protected String createRequestUrlForURL(String url) {
-		String urlWithoutProtocol = UrlUtils.stripProtocolAndWWWAndLowerCase(url);
 		StringBuilder res = new StringBuilder();
 		res.append(cdxUrl);
 		if(!cdxUrl.endsWith(QUERY_PREFIX)) {
 			res.append(QUERY_PREFIX);
 		}
-		res.append(urlWithoutProtocol);
+		res.append(createRequestKey(url));
+		return res.toString();
+	}
+
+	/**
+	 * Creates the query for the URL, which is sent to the CDX server.
+	 * The protocol and 'www' are removed, and the URL is lower-cased, since the keys of the CDX server are 
+	 * canonized that way.
+	 * @param url The URL for the web-resource.
+	 * @return The query for the URL.
+	 */
+	protected String createRequestKey(String url) {
+		StringBuilder res = new StringBuilder();
+		res.append(UrlUtils.stripProtocolAndWWWAndLowerCase(url));
 		if(!url.contains(QUERY_SLASH)) {
 			res.append(QUERY_SLASH);
 		}
@@ -133,19 +254,4 @@ public class DabCDXExtractor extends AbstractCDXExtractor {
 		}
 		return res.toString();
 	}
-
-	/**
-	 * Creates the CDX map between CDX format element and the string retrieved from the CDX server.
-	 * @param cdxLine The cdx line from the server.
-	 * @return The map between cdx format element and the value.
-	 */
-	protected Map<Character, String> createCdxMap(String cdxLine) {
-		Map<Character, String> res = new HashMap<Character, String>();
-		String[] cdxLineSplit = cdxLine.split(" ");
-
-		for(int i = 0; i < CDX_FORMAT_CHARS.size(); i++) {
-			res.put(CDX_FORMAT_CHARS.get(i), cdxLineSplit[i]);
-		}
-		return res;
-	}
 }
@@ -0,0 +1,493 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.cache.CDXCache;
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
+
+/**
+ * CDX extractor, which federates the lookups over several replicas of a CDX server.
+ *
+ * Each lookup is sent to the replica with the lowest median latency of its latest lookups. If the replica has
+ * not answered within a percentile (default the 95th) of its latencies, then a hedged duplicate of the lookup
+ * is sent to the next replica, and the first answer is used. A lookup, which fails, is sent on to the next
+ * replica at once. A lookup fails, when the replica throws an exception or cannot retrieve the CDX entries for
+ * the URL (e.g. a DAB CDX server answering with an error), but not when the replica has no CDX entries for the URL.
+ * The lookups of single CDX entries are made in the timelines of all the CDX entries for the URLs, when the
+ * replicas cache their CDX entries, so a failing replica is also detected for them.
+ * The requests, which lose the race, are not cancelled, so their latency is still recorded. Thereby the
+ * statistics of the slower replicas are kept current, and a replica will get the traffic back when it recovers.
+ *
+ * Replicas without enough latencies are ranked first, so the statistics of all the replicas are filled in.
+ * Streamed queries cannot be hedged, since the entries are delivered while they are read, so they are only sent
+ * to the fastest replica.
+ *
+ * The extractor must be closed after use, to stop the threads of the lookups.
+ */
+public class FederatedCDXExtractor extends AbstractCDXExtractor implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(FederatedCDXExtractor.class);
+
+	/** The default percentile of the latencies of a replica, after which the lookup is hedged.*/
+	public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+	/** The default delay before hedging a lookup, while a replica does not have enough latencies.*/
+	public static final long DEFAULT_INITIAL_HEDGE_DELAY = 500L;
+	/** The default minimum delay before hedging a lookup, so fast replicas are not hedged all the time.*/
+	public static final long DEFAULT_MIN_HEDGE_DELAY = 10L;
+	/** The number of latencies needed for a replica, before it is ranked by its latencies.*/
+	protected static final int MIN_SAMPLES = 10;
+
+	/** The replicas in the configured order.*/
+	protected final List<Replica> replicas;
+	/** The threads making the lookups against the replicas.*/
+	protected final ExecutorService executor;
+	/** The percentile of the latencies of a replica, after which the lookup is hedged.*/
+	protected double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+	/** The delay before hedging a lookup, while the replica does not have enough latencies. In milliseconds.*/
+	protected long initialHedgeDelay = DEFAULT_INITIAL_HEDGE_DELAY;
+	/** The minimum delay before hedging a lookup. In milliseconds.*/
+	protected long minHedgeDelay = DEFAULT_MIN_HEDGE_DELAY;
+	/** The maximum number of hedged requests for a lookup.*/
+	protected int maxHedges = 1;
+	/** The number of hedged requests sent.*/
+	protected final AtomicLong hedgeCount = new AtomicLong();
+	/** The number of lookups, which were answered by a hedged request.*/
+	protected final AtomicLong hedgeWinCount = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param replicas The extractors for the replicas by their names (e.g. the URL of the server), in the order
+	 * they are tried, until their latencies are known.
+	 */
+	public FederatedCDXExtractor(Map<String, ? extends CDXExtractor> replicas) {
+		ArgumentCheck.checkNotNull(replicas, "Map<String, CDXExtractor> replicas");
+		ArgumentCheck.checkIsTrue(!replicas.isEmpty(), "There must be at least one replica");
+		List<Replica> list = new ArrayList<Replica>(replicas.size());
+		for(Map.Entry<String, ? extends CDXExtractor> replica : replicas.entrySet()) {
+			ArgumentCheck.checkNotNull(replica.getValue(), "CDXExtractor replica");
+			list.add(new Replica(replica.getKey(), replica.getValue()));
+		}
+		this.replicas = Collections.unmodifiableList(list);
+		this.executor = Executors.newCachedThreadPool(new ResolverThreadFactory());
+	}
+
+	/**
+	 * Creates the federated extractor for replicas of a DAB CDX server.
+	 * @param cdxServerUrls The URLs of the replicas of the CDX server.
+	 * @param httpRetriever The http retriever for retrieving from the CDX servers.
+	 * @param cache The cache for the extracted CDX entries. It can be shared, since the cache keys of the
+	 * entries contain the URL of the server.
+	 * @return The federated extractor.
+	 */
+	public static FederatedCDXExtractor createForDabServers(Collection<String> cdxServerUrls,
+			HttpRetriever httpRetriever, CDXCache cache) {
+		ArgumentCheck.checkNotNull(cdxServerUrls, "Collection<String> cdxServerUrls");
+		Map<String, CDXExtractor> replicas = new LinkedHashMap<String, CDXExtractor>();
+		for(String cdxServerUrl : cdxServerUrls) {
+			replicas.put(cdxServerUrl, new DabCDXExtractor(cdxServerUrl, httpRetriever, cache));
+		}
+		return new FederatedCDXExtractor(replicas);
+	}
+
+	/**
+	 * Sets when the lookups are hedged.
+	 * @param hedgePercentile The percentile of the latencies of a replica, between 0 and 1, after which a lookup
+	 * is hedged.
+	 * @param maxHedges The maximum number of hedged requests for a lookup. 0 for no hedging.
+	 */
+	public void setHedging(double hedgePercentile, int maxHedges) {
+		ArgumentCheck.checkIsTrue(hedgePercentile > 0.0 && hedgePercentile <= 1.0,
+				"The hedge percentile must be above 0 and at most 1");
+		ArgumentCheck.checkIsTrue(maxHedges >= 0, "The maximum number of hedges must not be negative");
+		this.hedgePercentile = hedgePercentile;
+		this.maxHedges = maxHedges;
+	}
+
+	/**
+	 * Sets the bounds of the delay before a lookup is hedged.
+	 * @param initialHedgeDelay The delay while the replica does not have enough latencies, in milliseconds.
+	 * @param minHedgeDelay The minimum delay, in milliseconds.
+	 */
+	public void setHedgeDelays(long initialHedgeDelay, long minHedgeDelay) {
+		ArgumentCheck.checkIsTrue(initialHedgeDelay >= 0, "The initial hedge delay must not be negative");
+		ArgumentCheck.checkIsTrue(minHedgeDelay >= 0, "The minimum hedge delay must not be negative");
+		this.initialHedgeDelay = initialHedgeDelay;
+		this.minHedgeDelay = minHedgeDelay;
+	}
+
+	/**
+	 * @return The latency statistics of the replicas by their names.
+	 */
+	public Map<String, CDXLatencyStatistics> getStatistics() {
+		Map<String, CDXLatencyStatistics> res = new LinkedHashMap<String, CDXLatencyStatistics>();
+		for(Replica replica : replicas) {
+			res.put(replica.name, replica.statistics);
+		}
+		return Collections.unmodifiableMap(res);
+	}
+
+	/**
+	 * @return The number of hedged requests sent.
+	 */
+	public long getHedgeCount() {
+		return hedgeCount.get();
+	}
+
+	/**
+	 * @return The number of lookups, which were answered by a hedged request.
+	 */
+	public long getHedgeWinCount() {
+		return hedgeWinCount.get();
+	}
+
+	/**
+	 * Logs the latency statistics of the replicas.
+	 */
+	public void logStatistics() {
+		logger.info("Sent " + hedgeCount.get() + " hedged requests, which answered " + hedgeWinCount.get()
+				+ " lookups.");
+		for(Replica replica : replicas) {
+			logger.info("CDX replica '" + replica.name + "': " + replica.statistics);
+		}
+	}
+
+	/**
+	 * If the replicas cache their CDX entries, then the CDX entry is found in the timeline of all the CDX entries
+	 * for the URL, since a replica can only tell a failed lookup from a missing CDX entry, when it retrieves all
+	 * the CDX entries (e.g. a DAB CDX server).
+	 */
+	@Override
+	public CDXEntry retrieveCDX(final WPID wpid) {
+		if(isCachingEntries()) {
+			return retrieveCDXclosestToDate(wpid.getUrl(), wpid.getDate());
+		}
+		return lookup("retrieve the CDX entry for '" + wpid + "'", false, new ReplicaLookup<CDXEntry>() {
+			@Override
+			public CDXEntry lookup(CDXExtractor extractor) {
+				return extractor.retrieveCDX(wpid);
+			}
+		});
+	}
+
+	/**
+	 * If the replicas cache their CDX entries, then the CDX entry is found in the timeline of all the CDX entries
+	 * for the URL, so a failed lookup is sent on to the next replica.
+	 */
+	@Override
+	public CDXEntry retrieveCDX(final WaybackWID wid) {
+		if(isCachingEntries()) {
+			return super.retrieveCDX(wid);
+		}
+		return lookup("retrieve the CDX entry for '" + wid + "'", false, new ReplicaLookup<CDXEntry>() {
+			@Override
+			public CDXEntry lookup(CDXExtractor extractor) {
+				return extractor.retrieveCDX(wid);
+			}
+		});
+	}
+
+	/**
+	 * If the replicas cache their CDX entries, then the CDX entry is found in the timeline of all the CDX entries
+	 * for the URL, so a failed lookup is sent on to the next replica.
+	 */
+	@Override
+	public CDXEntry retrieveCDX(final WaybackWID wid, final Collection<Character> fields) {
+		if(isCachingEntries()) {
+			return super.retrieveCDX(wid);
+		}
+		return lookup("retrieve the CDX entry for '" + wid + "'", false, new ReplicaLookup<CDXEntry>() {
+			@Override
+			public CDXEntry lookup(CDXExtractor extractor) {
+				return extractor.retrieveCDX(wid, fields);
+			}
+		});
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveAllCDX(final String url) {
+		return lookup("retrieve the CDX entries for '" + url + "'", true, new ReplicaLookup<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> lookup(CDXExtractor extractor) {
+				return extractor.retrieveAllCDX(url);
+			}
+		});
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveCDXForInterval(final UrlInterval urlInterval) {
+		return lookup("retrieve the CDX entries for an interval of '" + urlInterval.getUrl() + "'", true,
+				new ReplicaLookup<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> lookup(CDXExtractor extractor) {
+				return extractor.retrieveCDXForInterval(urlInterval);
+			}
+		});
+	}
+
+	/**
+	 * Sends the query to the fastest replica, since a streamed query cannot be hedged.
+	 */
+	@Override
+	public CDXQueryIterator queryCDX(String url, CDXMatchType matchType, Collection<Character> fields) {
+		Replica replica = rankReplicas().get(0);
+		logger.debug("Sending the query for '" + url + "' to the CDX replica '" + replica.name + "'.");
+		return replica.extractor.queryCDX(url, matchType, fields);
+	}
+
+	/**
+	 * Sends the query to the fastest replica, since a streamed query cannot be hedged.
+	 */
+	@Override
+	public CDXQueryIterator queryCDXForInterval(UrlInterval urlInterval, CDXMatchType matchType) {
+		Replica replica = rankReplicas().get(0);
+		logger.debug("Sending the query for an interval of '" + urlInterval.getUrl() + "' to the CDX replica '" 
+				+ replica.name + "'.");
+		return replica.extractor.queryCDXForInterval(urlInterval, matchType);
+	}
+
+	/**
+	 * The timelines can be reused, when all the replicas cache their CDX entries.
+	 */
+	@Override
+	protected boolean isCachingEntries() {
+		for(Replica replica : replicas) {
+			if(!(replica.extractor instanceof AbstractCDXExtractor)
+					|| !((AbstractCDXExtractor) replica.extractor).isCachingEntries()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes a lookup against the replicas, in the order of their ranking.
+	 * The lookup is hedged, if the first replica does not answer within the hedge delay, and sent to the next
+	 * replica at once, if it fails.
+	 * @param description The description of the lookup, for the log.
+	 * @param nullIsFailure Whether a null result means, that the lookup failed.
+	 * @param lookup The lookup.
+	 * @return The first result of a replica, or null if the lookup failed for all the replicas.
+	 * @throws IllegalStateException If all the replicas failed with an exception, or the thread was interrupted.
+	 */
+	protected <T> T lookup(String description, boolean nullIsFailure, ReplicaLookup<T> lookup) {
+		List<Replica> ranked = rankReplicas();
+		CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+		Map<Future<T>, Replica> sent = new HashMap<Future<T>, Replica>();
+		Set<Future<T>> hedged = new HashSet<Future<T>>();
+		sent.put(submit(completion, ranked.get(0), lookup, nullIsFailure), ranked.get(0));
+		long hedgeDelay = getHedgeDelay(ranked.get(0));
+		int pending = 1;
+		int hedges = 0;
+		Throwable failure = null;
+		try {
+			while(pending > 0) {
+				boolean mayHedge = sent.size() < ranked.size() && hedges < maxHedges;
+				Future<T> done = mayHedge ? completion.poll(hedgeDelay, TimeUnit.MILLISECONDS) : completion.take();
+				if(done == null) {
+					Replica replica = ranked.get(sent.size());
+					logger.debug("Hedging the lookup to " + description + " to the CDX replica '" + replica.name
+							+ "' after " + hedgeDelay + " ms.");
+					Future<T> future = submit(completion, replica, lookup, nullIsFailure);
+					sent.put(future, replica);
+					hedged.add(future);
+					hedgeCount.incrementAndGet();
+					hedges++;
+					pending++;
+					continue;
+				}
+				pending--;
+				try {
+					T res = done.get();
+					if(hedged.contains(done)) {
+						hedgeWinCount.incrementAndGet();
+					}
+					return res;
+				} catch (ExecutionException e) {
+					if(!(e.getCause() instanceof NoResultException)) {
+						failure = e.getCause();
+					}
+					logger.debug("The CDX replica '" + sent.get(done).name + "' failed to " + description + ".",
+							e.getCause());
+				}
+				if(pending == 0 && sent.size() < ranked.size()) {
+					Replica replica = ranked.get(sent.size());
+					sent.put(submit(completion, replica, lookup, nullIsFailure), replica);
+					hedgeDelay = getHedgeDelay(replica);
+					pending++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the CDX replicas to " + description + ".",
+					e);
+		}
+
+		if(failure != null) {
+			throw new IllegalStateException("All the CDX replicas failed to " + description + ".", failure);
+		}
+		logger.warn("None of the CDX replicas could " + description + ".");
+		return null;
+	}
+
+	/**
+	 * Submits the lookup against a replica, and records its latency when it is done.
+	 * @param completion The completion service for the lookup.
+	 * @param replica The replica.
+	 * @param lookup The lookup.
+	 * @param nullIsFailure Whether a null result means, that the lookup failed.
+	 * @return The future of the result of the replica.
+	 * @throws IllegalStateException If the extractor has been closed.
+	 */
+	protected <T> Future<T> submit(CompletionService<T> completion, final Replica replica,
+			final ReplicaLookup<T> lookup, final boolean nullIsFailure) {
+		try {
+			return completion.submit(new Callable<T>() {
+				@Override
+				public T call() {
+					long start = System.currentTimeMillis();
+					boolean succeeded = false;
+					try {
+						T res = lookup.lookup(replica.extractor);
+						if(res == null && nullIsFailure) {
+							throw new NoResultException();
+						}
+						succeeded = true;
+						return res;
+					} finally {
+						long latency = System.currentTimeMillis() - start;
+						if(succeeded) {
+							replica.statistics.recordSuccess(latency);
+						} else {
+							replica.statistics.recordFailure(latency);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw new IllegalStateException("The federated CDX extractor has been closed.", e);
+		}
+	}
+
+	/**
+	 * Ranks the replicas by the median of their latest latencies. Replicas without enough latencies come first,
+	 * and otherwise equal replicas keep the configured order.
+	 * @return The replicas in the order they should be asked.
+	 */
+	protected List<Replica> rankReplicas() {
+		Replica[] ranked = replicas.toArray(new Replica[replicas.size()]);
+		long[] scores = new long[ranked.length];
+		for(int i = 0; i < ranked.length; i++) {
+			CDXLatencyStatistics statistics = ranked[i].statistics;
+			scores[i] = statistics.getSampleCount() < MIN_SAMPLES ? -1L : statistics.getPercentile(0.5);
+		}
+		// Insertion sort, since it is stable and there are only a few replicas.
+		for(int i = 1; i < ranked.length; i++) {
+			Replica replica = ranked[i];
+			long score = scores[i];
+			int j = i - 1;
+			while(j >= 0 && scores[j] > score) {
+				ranked[j + 1] = ranked[j];
+				scores[j + 1] = scores[j];
+				j--;
+			}
+			ranked[j + 1] = replica;
+			scores[j + 1] = score;
+		}
+		return Arrays.asList(ranked);
+	}
+
+	/**
+	 * @param replica The replica.
+	 * @return The delay before a lookup against the replica is hedged, in milliseconds.
+	 */
+	protected long getHedgeDelay(Replica replica) {
+		if(replica.statistics.getSampleCount() < MIN_SAMPLES) {
+			return initialHedgeDelay;
+		}
+		return Math.max(minHedgeDelay, replica.statistics.getPercentile(hedgePercentile));
+	}
+
+	/**
+	 * Stops the threads of the lookups.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * A lookup, which can be made against any of the replicas.
+	 * @param <T> The type of the result.
+	 */
+	protected interface ReplicaLookup<T> {
+		/**
+		 * @param extractor The extractor for the replica.
+		 * @return The result of the lookup.
+		 */
+		T lookup(CDXExtractor extractor);
+	}
+
+	/**
+	 * A replica of the CDX server, with the statistics of its latencies.
+	 */
+	protected static class Replica {
+		/** The name of the replica.*/
+		protected final String name;
+		/** The extractor for the replica.*/
+		protected final CDXExtractor extractor;
+		/** The statistics of the latencies of the replica.*/
+		protected final CDXLatencyStatistics statistics = new CDXLatencyStatistics();
+
+		/**
+		 * Constructor.
+		 * @param name The name of the replica.
+		 * @param extractor The extractor for the replica.
+		 */
+		protected Replica(String name, CDXExtractor extractor) {
+			this.name = name;
+			this.extractor = extractor;
+		}
+	}
+
+	/**
+	 * Marks a lookup, which a replica could not answer, without failing with an exception.
+	 */
+	protected static class NoResultException extends RuntimeException {
+		/** The serial version UID.*/
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor.
+		 */
+		protected NoResultException() {
+			super("The CDX replica returned no result.");
+		}
+	}
+}
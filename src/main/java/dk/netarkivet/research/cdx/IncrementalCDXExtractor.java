@@ -0,0 +1,610 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Local CDX store, which can take new CDX files without rebuilding the sorted index of the whole archive.
+ *
+ * The store is a directory of sorted segment files ('segment-[generation].cdx'). Each ingested batch of CDX files
+ * is sorted into a new segment, so the cost of an ingest is proportional to the size of the batch.
+ * When there are more than the maximum number of segments, the smallest segments are merged into one by a
+ * background thread. Segments are only merged with segments of similar size, so each CDX line is only merged
+ * a few times, no matter how many batches are ingested.
+ *
+ * Lookups are made in all the segments, and the results are merged, so identical lines in several segments are
+ * only delivered once. Queries with wildcards stream each segment after the other, and may therefore deliver
+ * a line once for each segment it is in, until the segments have been merged.
+ *
+ * The segments are replaced atomically, so lookups can be made while batches are ingested and segments are merged.
+ * The segment files are written to temporary files and renamed, when they are complete, so the directory only
+ * contains complete segments, and the store can be reopened from the directory.
+ *
+ * The store can have secondary indexes of the CDX entries by their payload digest and by the harvest job of their
+ * file. Each segment then has an index file for each, which has the CDX lines of the segment sorted by the digest 
+ * ('segment-[generation].digest.idx') or by the filename ('segment-[generation].job.idx'), so the CDX entries 
+ * with a digest or of a harvest job are found with a binary search in each segment. 
+ * The index files are sorted from the new segment, when a batch is ingested, and merged with the segments.
+ */
+public class IncrementalCDXExtractor extends LocalCDXExtractor implements IndexedCDXExtractor {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(IncrementalCDXExtractor.class);
+
+	/** The default maximum number of segments before they are merged.*/
+	public static final int DEFAULT_MAX_SEGMENTS = 8;
+	/** The prefix of the names of the segment files.*/
+	protected static final String SEGMENT_PREFIX = "segment-";
+	/** The suffix of a segment file, while it is being written.*/
+	protected static final String TEMPORARY_SUFFIX = ".tmp";
+	/** The suffix of the index file of a segment by the payload digest, which replaces the '.cdx' suffix.*/
+	protected static final String DIGEST_INDEX_SUFFIX = ".digest.idx";
+	/** The suffix of the index file of a segment by the harvest job, which replaces the '.cdx' suffix.*/
+	protected static final String JOB_INDEX_SUFFIX = ".job.idx";
+	/** The separator after the harvest job ID at the start of the filenames.*/
+	protected static final String JOB_ID_SEPARATOR = "-";
+
+	/** The directory with the segment files.*/
+	protected final File directory;
+	/** The sorter, which sorts the batches into segments and merges the segments.*/
+	protected final CDXFileSorter sorter;
+	/** Whether the segments have secondary indexes by the payload digest and by the harvest job.*/
+	protected final boolean secondaryIndexes;
+	/** The sorter for the index files by the payload digest.*/
+	protected final CDXFileSorter digestIndexSorter;
+	/** The sorter for the index files by the harvest job.*/
+	protected final CDXFileSorter jobIndexSorter;
+	/** The maximum number of segments before they are merged.*/
+	protected final int maxSegments;
+	/** The generation of the next segment.*/
+	protected final AtomicLong nextGeneration;
+	/** The lock for replacing the list of segments.*/
+	protected final Object segmentsLock = new Object();
+	/** The lock, which only lets one merge of segments run at the time.*/
+	protected final Object compactionLock = new Object();
+	/** Whether a background merge of the segments has been scheduled and not started yet.*/
+	protected final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+	/** The thread for merging the segments in the background.*/
+	protected final ExecutorService compactor;
+
+	/**
+	 * Constructor.
+	 * Opens the store in the directory, and creates the directory if it does not exist.
+	 * @param directory The directory with the segment files.
+	 * @param maxSegments The maximum number of segments before they are merged.
+	 * @param memoryBudget The memory budget for sorting the batches, in bytes.
+	 * @param secondaryIndexes Whether the segments should have secondary indexes by the payload digest and by the 
+	 * harvest job. Missing index files of existing segments are made, when the store is opened.
+	 */
+	public IncrementalCDXExtractor(File directory, int maxSegments, long memoryBudget, boolean secondaryIndexes) {
+		super(new ArrayList<File>());
+		ArgumentCheck.checkNotNull(directory, "File directory");
+		ArgumentCheck.checkIsTrue(maxSegments > 0, "The maximum number of segments must be positive");
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalStateException("Could not create the directory '" + directory.getAbsolutePath() + "'.");
+		}
+		this.directory = directory;
+		this.maxSegments = maxSegments;
+		this.sorter = new CDXFileSorter(DabCDXExtractor.getDefaultCDXFormat(), memoryBudget, directory);
+		this.secondaryIndexes = secondaryIndexes;
+		this.digestIndexSorter = new CDXFileSorter(createIndexFormat(CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM), 
+				memoryBudget, directory);
+		this.jobIndexSorter = new CDXFileSorter(createIndexFormat(CDXConstants.CDX_CHAR_FILE_NAME), memoryBudget,
+				directory);
+		this.compactor = Executors.newSingleThreadExecutor(new AbstractCDXExtractor.ResolverThreadFactory());
+
+		long maxGeneration = 0L;
+		List<MappedCDXFile> segments = new ArrayList<MappedCDXFile>();
+		for(File segmentFile : listSegmentFiles()) {
+			maxGeneration = Math.max(maxGeneration, extractGeneration(segmentFile));
+			segments.add(openSegment(segmentFile, new ArrayList<MappedCDXFile>()));
+		}
+		this.nextGeneration = new AtomicLong(maxGeneration + 1);
+		this.cdxFiles = Collections.unmodifiableList(segments);
+		logger.info("Opened the CDX store in '" + directory.getAbsolutePath() + "' with " + segments.size()
+				+ " segments.");
+	}
+
+	/**
+	 * Constructor for a store without secondary indexes.
+	 * @param directory The directory with the segment files.
+	 * @param maxSegments The maximum number of segments before they are merged.
+	 * @param memoryBudget The memory budget for sorting the batches, in bytes.
+	 */
+	public IncrementalCDXExtractor(File directory, int maxSegments, long memoryBudget) {
+		this(directory, maxSegments, memoryBudget, false);
+	}
+
+	/**
+	 * Constructor with the default maximum number of segments and the default memory budget, and without 
+	 * secondary indexes.
+	 * @param directory The directory with the segment files.
+	 */
+	public IncrementalCDXExtractor(File directory) {
+		this(directory, DEFAULT_MAX_SEGMENTS, CDXFileSorter.DEFAULT_MEMORY_BUDGET, false);
+	}
+
+	/**
+	 * Creates the CDX format of an index file, which is the CDX format of the segments with the key element first.
+	 * @param keyElement The CDX element, which the index file is sorted by.
+	 * @return The CDX format of the index file.
+	 */
+	protected static List<Character> createIndexFormat(char keyElement) {
+		List<Character> res = new ArrayList<Character>(DabCDXExtractor.getDefaultCDXFormat());
+		res.remove(Character.valueOf(keyElement));
+		res.add(0, keyElement);
+		return res;
+	}
+
+	/**
+	 * Lists the complete segment files in the directory, and deletes the temporary files of segments,
+	 * which were never completed.
+	 * @return The segment files, in the order of their generation.
+	 */
+	protected List<File> listSegmentFiles() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX);
+			}
+		});
+		List<File> res = new ArrayList<File>();
+		if(files == null) {
+			return res;
+		}
+		for(File file : files) {
+			String name = file.getName();
+			if(name.endsWith(CDX_FILE_SUFFIX)) {
+				res.add(file);
+			} else if(name.endsWith(TEMPORARY_SUFFIX)) {
+				logger.info("Deleting the incomplete segment '" + file.getAbsolutePath() + "'.");
+				deleteFile(file);
+			} else if(name.endsWith(DIGEST_INDEX_SUFFIX) || name.endsWith(JOB_INDEX_SUFFIX)) {
+				String segmentName = name.substring(0, name.lastIndexOf('.', name.lastIndexOf('.') - 1));
+				if(!new File(directory, segmentName + CDX_FILE_SUFFIX).isFile()) {
+					logger.info("Deleting the index file of a deleted segment '" + file.getAbsolutePath() + "'.");
+					deleteFile(file);
+				}
+			}
+		}
+		Collections.sort(res, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(extractGeneration(o1), extractGeneration(o2));
+			}
+		});
+		return res;
+	}
+
+	/**
+	 * @param segmentFile The segment file.
+	 * @return The generation in the name of the segment file.
+	 * @throws IllegalStateException If the name does not have a generation.
+	 */
+	protected static long extractGeneration(File segmentFile) {
+		String name = segmentFile.getName();
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - CDX_FILE_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("The segment file '" + segmentFile.getAbsolutePath()
+					+ "' has no generation.", e);
+		}
+	}
+
+	/**
+	 * Sorts a batch of CDX files into a new segment, which is used by the lookups as soon as it is complete.
+	 * The segments are merged in the background, if there are too many.
+	 * @param batch The CDX files of the batch, in any order and any CDX format with a CDX header line.
+	 * @return The number of CDX lines in the new segment.
+	 */
+	public long ingest(Collection<File> batch) {
+		ArgumentCheck.checkNotNull(batch, "Collection<File> batch");
+		long generation = nextGeneration.getAndIncrement();
+		File temporaryFile = new File(directory, SEGMENT_PREFIX + generation + TEMPORARY_SUFFIX);
+		long lines = sorter.sort(batch, temporaryFile);
+		if(lines == 0L) {
+			logger.info("No CDX lines in the batch of " + batch.size() + " files.");
+			deleteFile(temporaryFile);
+			return 0L;
+		}
+		MappedCDXFile segment = completeSegment(temporaryFile, generation, new ArrayList<MappedCDXFile>());
+		synchronized(segmentsLock) {
+			List<MappedCDXFile> segments = new ArrayList<MappedCDXFile>(cdxFiles);
+			segments.add(segment);
+			cdxFiles = Collections.unmodifiableList(segments);
+		}
+		logger.info("Ingested " + lines + " CDX lines from " + batch.size() + " files into the segment '"
+				+ segment.getFile().getName() + "'.");
+		scheduleCompaction();
+		return lines;
+	}
+
+	/**
+	 * Renames the written temporary file to a segment file, and opens it.
+	 * @param temporaryFile The temporary file of the segment.
+	 * @param generation The generation of the segment.
+	 * @param mergedSegments The segments, which were merged into the segment. Empty for a new batch.
+	 * @return The opened segment.
+	 */
+	protected MappedCDXFile completeSegment(File temporaryFile, long generation, List<MappedCDXFile> mergedSegments) {
+		File segmentFile = new File(directory, SEGMENT_PREFIX + generation + CDX_FILE_SUFFIX);
+		renameTemporaryFile(temporaryFile, segmentFile);
+		return openSegment(segmentFile, mergedSegments);
+	}
+
+	/**
+	 * Opens a segment, and makes its index files, if the store has secondary indexes and they are missing.
+	 * @param segmentFile The segment file.
+	 * @param mergedSegments The segments, which were merged into the segment, so their index files can be merged.
+	 * Empty, if the index files must be sorted from the segment file.
+	 * @return The memory-mapped segment.
+	 */
+	protected MappedCDXFile openSegment(File segmentFile, List<MappedCDXFile> mergedSegments) {
+		if(!secondaryIndexes) {
+			return mapFile(segmentFile);
+		}
+		List<File> mergedDigestIndexes = new ArrayList<File>();
+		List<File> mergedJobIndexes = new ArrayList<File>();
+		for(MappedCDXFile merged : mergedSegments) {
+			if(!(merged instanceof IndexedSegment)) {
+				mergedDigestIndexes = null;
+				mergedJobIndexes = null;
+				break;
+			}
+			mergedDigestIndexes.add(((IndexedSegment) merged).digestIndex.getFile());
+			mergedJobIndexes.add(((IndexedSegment) merged).jobIndex.getFile());
+		}
+		File digestIndex = makeIndexFile(segmentFile, DIGEST_INDEX_SUFFIX, digestIndexSorter, mergedDigestIndexes);
+		File jobIndex = makeIndexFile(segmentFile, JOB_INDEX_SUFFIX, jobIndexSorter, mergedJobIndexes);
+		try {
+			return new IndexedSegment(segmentFile, mapFile(digestIndex), mapFile(jobIndex));
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not memory-map the CDX file '" + segmentFile.getAbsolutePath() 
+					+ "'", e);
+		}
+	}
+
+	/**
+	 * Makes the index file of a segment, unless it already exists.
+	 * @param segmentFile The segment file.
+	 * @param suffix The suffix of the index file.
+	 * @param indexSorter The sorter for the index file.
+	 * @param mergedIndexes The index files of the segments merged into the segment, which are then merged. 
+	 * If null or empty, then the index file is sorted from the segment file.
+	 * @return The index file.
+	 */
+	protected File makeIndexFile(File segmentFile, String suffix, CDXFileSorter indexSorter, 
+			List<File> mergedIndexes) {
+		File res = getIndexFile(segmentFile, suffix);
+		if(res.isFile()) {
+			return res;
+		}
+		File temporaryFile = new File(directory, res.getName() + TEMPORARY_SUFFIX);
+		if(mergedIndexes == null || mergedIndexes.isEmpty()) {
+			indexSorter.sort(Arrays.asList(segmentFile), temporaryFile);
+		} else {
+			indexSorter.merge(mergedIndexes, temporaryFile);
+		}
+		renameTemporaryFile(temporaryFile, res);
+		return res;
+	}
+
+	/**
+	 * @param segmentFile The segment file.
+	 * @param suffix The suffix of the index file.
+	 * @return The index file of the segment.
+	 */
+	protected File getIndexFile(File segmentFile, String suffix) {
+		String name = segmentFile.getName();
+		return new File(directory, name.substring(0, name.length() - CDX_FILE_SUFFIX.length()) + suffix);
+	}
+
+	/**
+	 * Renames a temporary file, when it has been written.
+	 * @param temporaryFile The temporary file.
+	 * @param file The new name of the file.
+	 */
+	protected void renameTemporaryFile(File temporaryFile, File file) {
+		if(!temporaryFile.renameTo(file)) {
+			deleteFile(temporaryFile);
+			throw new IllegalStateException("Could not rename the file '" + temporaryFile.getAbsolutePath()
+					+ "' to '" + file.getAbsolutePath() + "'.");
+		}
+	}
+
+	/**
+	 * Schedules a merge of the segments in the background, if there are too many segments, and no merge is
+	 * already waiting to start.
+	 */
+	protected void scheduleCompaction() {
+		if(cdxFiles.size() <= maxSegments || !compactionScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		compactor.execute(new Runnable() {
+			@Override
+			public void run() {
+				compactionScheduled.set(false);
+				try {
+					compact();
+				} catch (RuntimeException e) {
+					logger.warn("Failed to merge the segments of the CDX store.", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Merges segments of similar size, until there are at most the maximum number of segments.
+	 */
+	public void compact() {
+		synchronized(compactionLock) {
+			while(cdxFiles.size() > maxSegments) {
+				mergeSegments(selectSegmentsToMerge(cdxFiles));
+			}
+		}
+	}
+
+	/**
+	 * Merges all the segments into a single segment.
+	 */
+	public void compactAll() {
+		synchronized(compactionLock) {
+			if(cdxFiles.size() > 1) {
+				mergeSegments(cdxFiles);
+			}
+		}
+	}
+
+	/**
+	 * Selects the segments to merge: the two smallest segments, and then the next smallest segments as long as
+	 * they are no larger than the segments selected so far together.
+	 * @param segments The current segments.
+	 * @return The segments to merge.
+	 */
+	protected List<MappedCDXFile> selectSegmentsToMerge(List<MappedCDXFile> segments) {
+		List<MappedCDXFile> bySize = new ArrayList<MappedCDXFile>(segments);
+		Collections.sort(bySize, new Comparator<MappedCDXFile>() {
+			@Override
+			public int compare(MappedCDXFile o1, MappedCDXFile o2) {
+				return Long.compare(o1.getFile().length(), o2.getFile().length());
+			}
+		});
+		List<MappedCDXFile> res = new ArrayList<MappedCDXFile>(bySize.subList(0, 2));
+		long selectedSize = res.get(0).getFile().length() + res.get(1).getFile().length();
+		for(int i = 2; i < bySize.size(); i++) {
+			long size = bySize.get(i).getFile().length();
+			if(size > selectedSize) {
+				break;
+			}
+			res.add(bySize.get(i));
+			selectedSize += size;
+		}
+		return res;
+	}
+
+	/**
+	 * Merges the segments into a new segment, and replaces them by it.
+	 * The merged segments are deleted, but not closed, since lookups may still be reading them.
+	 * Their memory is released, when they are garbage collected.
+	 * @param segments The segments to merge.
+	 */
+	protected void mergeSegments(List<MappedCDXFile> segments) {
+		List<File> files = new ArrayList<File>();
+		for(MappedCDXFile segment : segments) {
+			files.add(segment.getFile());
+		}
+		long generation = nextGeneration.getAndIncrement();
+		File temporaryFile = new File(directory, SEGMENT_PREFIX + generation + TEMPORARY_SUFFIX);
+		long lines = sorter.merge(files, temporaryFile);
+		MappedCDXFile merged = completeSegment(temporaryFile, generation, segments);
+		synchronized(segmentsLock) {
+			List<MappedCDXFile> remaining = new ArrayList<MappedCDXFile>(cdxFiles);
+			remaining.removeAll(segments);
+			remaining.add(merged);
+			cdxFiles = Collections.unmodifiableList(remaining);
+		}
+		for(File file : files) {
+			deleteFile(file);
+			deleteFile(getIndexFile(file, DIGEST_INDEX_SUFFIX));
+			deleteFile(getIndexFile(file, JOB_INDEX_SUFFIX));
+		}
+		logger.info("Merged " + segments.size() + " segments into the segment '" + merged.getFile().getName()
+				+ "' with " + lines + " CDX lines.");
+	}
+
+	/**
+	 * @return The segment files currently used by the lookups.
+	 */
+	public List<File> getSegmentFiles() {
+		List<File> res = new ArrayList<File>();
+		for(MappedCDXFile segment : cdxFiles) {
+			res.add(segment.getFile());
+		}
+		return res;
+	}
+
+	/**
+	 * The lines for the URL are found in each segment, and the distinct lines are delivered ordered by date.
+	 */
+	@Override
+	protected Collection<CDXEntry> retrieveAllCDX(String url, Collection<Character> fields) {
+		List<MappedCDXFile> segments = cdxFiles;
+		Set<String> lines = new HashSet<String>();
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(MappedCDXFile segment : segments) {
+			Character[] format = segment.getCDXFormat();
+			if(format.length == 0) {
+				logger.warn("No CDX format for the segment '" + segment.getFile().getName() + "'. Ignoring it.");
+				continue;
+			}
+			CDXLineParser parser = segment.parser.project(fields);
+			for(String line : segment.findLines(createKey(url, format[0], segment.hasSurtKeys()))) {
+				CDXEntry entry = lines.add(line) ? parser.parse(line) : null;
+				if(entry != null) {
+					res.add(entry);
+				}
+			}
+		}
+		if(segments.size() > 1) {
+			Collections.sort(res, new Comparator<CDXEntry>() {
+				@Override
+				public int compare(CDXEntry o1, CDXEntry o2) {
+					return Long.compare(o1.getDateAsLong(), o2.getDateAsLong());
+				}
+			});
+		}
+		logger.debug("Found " + res.size() + " CDX entries for the URL '" + url + "' in " + segments.size()
+				+ " segments.");
+		return res;
+	}
+
+	/**
+	 * The lines with the digest are found in the digest index of each segment, and the distinct lines are 
+	 * delivered ordered by their URL and date.
+	 */
+	@Override
+	public Collection<CDXEntry> retrieveCDXForDigest(String digest) {
+		ArgumentCheck.checkNotNullOrEmpty(digest, "String digest");
+		checkSecondaryIndexes();
+		List<MappedCDXFile> segments = cdxFiles;
+		Set<String> lines = new HashSet<String>();
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(MappedCDXFile segment : segments) {
+			MappedCDXFile digestIndex = ((IndexedSegment) segment).digestIndex;
+			for(String line : digestIndex.findLines(digest)) {
+				CDXEntry entry = lines.add(line) ? digestIndex.parser.parse(line) : null;
+				if(entry != null) {
+					res.add(entry);
+				}
+			}
+		}
+		if(segments.size() > 1) {
+			Collections.sort(res, new Comparator<CDXEntry>() {
+				@Override
+				public int compare(CDXEntry o1, CDXEntry o2) {
+					int res = String.valueOf(o1.getUrlNorm()).compareTo(String.valueOf(o2.getUrlNorm()));
+					return res != 0 ? res : Long.compare(o1.getDateAsLong(), o2.getDateAsLong());
+				}
+			});
+		}
+		logger.debug("Found " + res.size() + " CDX entries with the digest '" + digest + "'.");
+		return res;
+	}
+
+	/**
+	 * The files of the harvest job are found in the harvest job index of each segment, and are read one segment
+	 * after the other. So a CDX line may be delivered once for each segment it is in, until the segments have 
+	 * been merged.
+	 */
+	@Override
+	public CDXQueryIterator queryCDXForJob(long jobId) {
+		checkSecondaryIndexes();
+		final List<MappedCDXFile> segments = cdxFiles;
+		final String filenamePrefix = jobId + JOB_ID_SEPARATOR;
+		return new CDXQueryIterator(CDXQueryIterator.DEFAULT_CAPACITY) {
+			@Override
+			protected boolean stream(CDXEntryHandler handler) {
+				long count = 0L;
+				for(MappedCDXFile segment : segments) {
+					count += ((IndexedSegment) segment).jobIndex.streamEntriesWithPrefix(filenamePrefix, handler);
+				}
+				logger.debug("Found " + count + " CDX entries in the files '" + filenamePrefix + "*'.");
+				return true;
+			}
+		}.start();
+	}
+
+	/**
+	 * @return Whether the segments have secondary indexes by the payload digest and by the harvest job.
+	 */
+	public boolean hasSecondaryIndexes() {
+		return secondaryIndexes;
+	}
+
+	/**
+	 * @throws IllegalStateException If the store has no secondary indexes.
+	 */
+	protected void checkSecondaryIndexes() {
+		if(!secondaryIndexes) {
+			throw new IllegalStateException("The CDX store in '" + directory.getAbsolutePath() + "' has no "
+					+ "secondary indexes.");
+		}
+	}
+
+	/**
+	 * Deletes a file, or marks it for deletion when the JVM exits, if it cannot be deleted now.
+	 * @param file The file.
+	 */
+	protected void deleteFile(File file) {
+		if(file.exists() && !file.delete()) {
+			logger.warn("Could not delete the file '" + file.getAbsolutePath() + "'. Deleting it on exit.");
+			file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Waits for a running merge of the segments to finish, and closes the segments.
+	 */
+	@Override
+	public void close() {
+		compactor.shutdown();
+		try {
+			if(!compactor.awaitTermination(1, TimeUnit.HOURS)) {
+				logger.warn("Gave up waiting for the merge of the segments of the CDX store.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for the merge of the segments of the CDX store.", e);
+		}
+		super.close();
+	}
+
+	/**
+	 * A segment with its index files by the payload digest and by the harvest job.
+	 */
+	protected static class IndexedSegment extends MappedCDXFile {
+		/** The index file by the payload digest.*/
+		protected final MappedCDXFile digestIndex;
+		/** The index file by the harvest job.*/
+		protected final MappedCDXFile jobIndex;
+
+		/**
+		 * Constructor.
+		 * @param segmentFile The segment file.
+		 * @param digestIndex The memory-mapped index file by the payload digest.
+		 * @param jobIndex The memory-mapped index file by the harvest job.
+		 * @throws IOException If the segment file cannot be mapped.
+		 */
+		protected IndexedSegment(File segmentFile, MappedCDXFile digestIndex, MappedCDXFile jobIndex) 
+				throws IOException {
+			super(segmentFile);
+			this.digestIndex = digestIndex;
+			this.jobIndex = jobIndex;
+		}
+
+		@Override
+		public void close() {
+			super.close();
+			digestIndex.close();
+			jobIndex.close();
+		}
+	}
+}
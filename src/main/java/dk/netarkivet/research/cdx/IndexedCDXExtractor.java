@@ -0,0 +1,31 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.Collection;
+
+/**
+ * Extractor for CDX entries, which also has secondary indexes of the CDX entries by their payload digest and by 
+ * the harvest job of their file. 
+ * Captures across all the URLs can thereby be found by their digest or their harvest job without scanning all 
+ * the CDX entries.
+ */
+public interface IndexedCDXExtractor extends CDXExtractor {
+	/**
+	 * Retrieves all the CDX entries with the given payload digest, no matter their URL.
+	 * @param digest The payload digest, as in the CDX entries (e.g. 'KLLVMTGA2AYGQYWFQS5YBZB5K5ZS355D').
+	 * @return The CDX entries with the digest.
+	 * @throws IllegalStateException If the extractor has no index of the digests.
+	 */
+	Collection<CDXEntry> retrieveCDXForDigest(String digest);
+	
+	/**
+	 * Queries all the CDX entries in the files of the given harvest job, where the harvest job is the
+	 * number before the first '-' in the filename (as given by 
+	 * {@link dk.netarkivet.research.utils.CDXUtils#extractJobID(CDXEntry)}).
+	 * The CDX entries are delivered while they are read, since a harvest job can have very many CDX entries.
+	 * The iterator must be closed, if it is not read to the end.
+	 * @param jobId The ID of the harvest job.
+	 * @return The iterator over the CDX entries of the harvest job.
+	 * @throws IllegalStateException If the extractor has no index of the harvest jobs.
+	 */
+	CDXQueryIterator queryCDXForJob(long jobId);
+}
@@ -0,0 +1,233 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.SurtUtils;
+import dk.netarkivet.research.utils.UrlUtils;
+import dk.netarkivet.research.wid.WPID;
+
+/**
+ * Extractor for CDX entries in local sorted CDX files.
+ * The files are memory-mapped and searched with binary search, so the CDX entries are retrieved at local disk speed
+ * without loading the files onto the heap.
+ *
+ * The first element of the lines in the CDX files is used as the key.
+ * If it is the canonized url (A) or massaged url (N), then the URL is canonized before the lookup, either as a SURT
+ * (e.g. 'dk,kb)/robots.txt') or as a stripped URL (e.g. 'kb.dk/robots.txt') depending on the keys of the file.
+ * Otherwise the URL is used directly.
+ */
+public class LocalCDXExtractor extends AbstractCDXExtractor implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(LocalCDXExtractor.class);
+
+	/** The suffix for the CDX files, when a directory of CDX files is given.*/
+	protected static final String CDX_FILE_SUFFIX = ".cdx";
+
+	/** 
+	 * The memory-mapped CDX files. The list is never changed, but subclasses may replace it with another list, 
+	 * so it must only be read once by each lookup.
+	 */
+	protected volatile List<MappedCDXFile> cdxFiles;
+
+	/**
+	 * Constructor.
+	 * @param files The sorted CDX files.
+	 */
+	public LocalCDXExtractor(Collection<File> files) {
+		ArgumentCheck.checkNotNull(files, "Collection<File> files");
+		List<MappedCDXFile> mappedFiles = new ArrayList<MappedCDXFile>(files.size());
+		for(File f : files) {
+			mappedFiles.add(mapFile(f));
+		}
+		this.cdxFiles = Collections.unmodifiableList(mappedFiles);
+	}
+
+	/**
+	 * Memory-maps a sorted CDX file.
+	 * @param file The sorted CDX file.
+	 * @return The memory-mapped CDX file.
+	 */
+	protected static MappedCDXFile mapFile(File file) {
+		try {
+			return new MappedCDXFile(file);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not memory-map the CDX file '" + file.getAbsolutePath() + "'", e);
+		}
+	}
+
+	/**
+	 * Creates the local CDX extractor for a path, which is either a single sorted CDX file,
+	 * or a directory containing sorted CDX files (with the suffix '.cdx').
+	 * @param path The path to the CDX file or directory.
+	 * @return The local CDX extractor.
+	 */
+	public static LocalCDXExtractor createFromPath(File path) {
+		ArgumentCheck.checkNotNull(path, "File path");
+		if(path.isFile()) {
+			return new LocalCDXExtractor(Arrays.asList(path));
+		}
+		File[] files = path.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(CDX_FILE_SUFFIX);
+			}
+		});
+		if(files == null || files.length == 0) {
+			throw new IllegalArgumentException("No CDX files found at '" + path.getAbsolutePath() + "'.");
+		}
+		Arrays.sort(files);
+		logger.debug("Using the " + files.length + " CDX files in '" + path.getAbsolutePath() + "'.");
+		return new LocalCDXExtractor(Arrays.asList(files));
+	}
+
+	@Override
+	public CDXEntry retrieveCDX(WPID wpid) {
+		return retrieveCDXclosestToDate(wpid.getUrl(), wpid.getDate());
+	}
+
+	@Override
+	public Collection<CDXEntry> retrieveAllCDX(String url) {
+		return retrieveAllCDX(url, null);
+	}
+	
+	/**
+	 * Retrieves all the CDX entries for the URL, where only the given fields are decoded.
+	 * @param url The URL.
+	 * @param fields The CDX format elements of the fields to decode. If null, then all the fields are decoded.
+	 * @return The CDX entries for the URL.
+	 */
+	protected Collection<CDXEntry> retrieveAllCDX(String url, Collection<Character> fields) {
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(MappedCDXFile cdxFile : cdxFiles) {
+			Character[] format = cdxFile.getCDXFormat();
+			if(format.length == 0) {
+				logger.warn("No CDX format for the file '" + cdxFile.getFile().getName() + "'. Ignoring it.");
+				continue;
+			}
+			res.addAll(cdxFile.findEntries(createKey(url, format[0], cdxFile.hasSurtKeys()), fields));
+		}
+		logger.debug("Found " + res.size() + " CDX entries for the URL '" + url + "'.");
+		return res;
+	}
+
+	/**
+	 * Creates the key for looking up the URL in a CDX file.
+	 * @param url The URL.
+	 * @param keyElement The CDX element of the key in the CDX file.
+	 * @param surtKeys Whether the canonized URLs in the CDX file are SURTs.
+	 * @return The key for the URL.
+	 */
+	protected String createKey(String url, Character keyElement, boolean surtKeys) {
+		if(keyElement == CDXConstants.CDX_CHAR_CANONIZED_URL || keyElement == CDXConstants.CDX_CHAR_MASSAGED_URL) {
+			return surtKeys ? SurtUtils.toSurt(url) : UrlUtils.stripProtocolAndWWWAndLowerCase(url);
+		}
+		return url;
+	}
+
+	/**
+	 * Prefix queries are supported for all the files. Host and domain queries require the files to have the 
+	 * canonized URL as key, and domain queries also require the keys to be SURTs.
+	 */
+	@Override
+	protected void checkMatchType(String url, CDXMatchType matchType) {
+		for(MappedCDXFile cdxFile : cdxFiles) {
+			Character[] format = cdxFile.getCDXFormat();
+			if(format.length > 0) {
+				createKeyPrefixes(url, matchType, format[0], cdxFile.hasSurtKeys());
+			}
+		}
+	}
+
+	@Override
+	protected boolean streamQuery(String url, CDXMatchType matchType, CDXEntryHandler handler) {
+		return streamQuery(url, matchType, null, handler);
+	}
+
+	/**
+	 * The lines with the keys of the query are found with binary search in each file, and are read one at the time.
+	 * Only the needed fields of the lines are decoded.
+	 */
+	@Override
+	protected boolean streamQuery(String url, CDXMatchType matchType, Collection<Character> fields, 
+			CDXEntryHandler handler) {
+		if(matchType == CDXMatchType.EXACT) {
+			for(CDXEntry entry : retrieveAllCDX(url, fields)) {
+				handler.handleEntry(entry);
+			}
+			return true;
+		}
+		long count = 0L;
+		for(MappedCDXFile cdxFile : cdxFiles) {
+			Character[] format = cdxFile.getCDXFormat();
+			if(format.length == 0) {
+				logger.warn("No CDX format for the file '" + cdxFile.getFile().getName() + "'. Ignoring it.");
+				continue;
+			}
+			for(String prefix : createKeyPrefixes(url, matchType, format[0], cdxFile.hasSurtKeys())) {
+				count += cdxFile.streamEntriesWithPrefix(prefix, fields, handler);
+			}
+		}
+		logger.debug("Found " + count + " CDX entries for the " + matchType + " query for '" + url + "'.");
+		return true;
+	}
+
+	/**
+	 * Creates the prefixes of the keys, which match the URL in a query.
+	 * For a domain query on SURT keys, the host itself, its sub-domains and the host with a port are matched 
+	 * separately, so e.g. 'dk,example' does not match 'dk,examples'.
+	 * @param url The URL of the query.
+	 * @param matchType The match type, which must not be exact.
+	 * @param keyElement The CDX element of the key in the CDX file.
+	 * @param surtKeys Whether the canonized URLs in the CDX file are SURTs.
+	 * @return The prefixes of the keys, in sorted order.
+	 * @throws IllegalArgumentException If the keys of the file do not support the match type.
+	 */
+	protected List<String> createKeyPrefixes(String url, CDXMatchType matchType, Character keyElement, 
+			boolean surtKeys) {
+		String key = createKey(url, keyElement, surtKeys);
+		if(matchType == CDXMatchType.PREFIX) {
+			return Arrays.asList(key);
+		}
+		if(keyElement != CDXConstants.CDX_CHAR_CANONIZED_URL && keyElement != CDXConstants.CDX_CHAR_MASSAGED_URL) {
+			throw new IllegalArgumentException("Cannot make a " + matchType + " query on CDX files, which do not "
+					+ "have the canonized URL as key.");
+		}
+		if(!surtKeys) {
+			if(matchType == CDXMatchType.DOMAIN) {
+				throw new IllegalArgumentException("Cannot make a domain query on CDX files, whose keys are not SURTs."
+						+ " Use a host query instead.");
+			}
+			int slash = key.indexOf('/');
+			return Arrays.asList((slash < 0 ? key : key.substring(0, slash)) + "/");
+		}
+		int hostEnd = key.indexOf(')');
+		String host = hostEnd < 0 ? key : key.substring(0, hostEnd);
+		if(matchType == CDXMatchType.HOST) {
+			return Arrays.asList(host + ")");
+		}
+		int port = host.indexOf(':');
+		if(port >= 0) {
+			host = host.substring(0, port);
+		}
+		return Arrays.asList(host + ")", host + ",", host + ":");
+	}
+
+	@Override
+	public void close() {
+		for(MappedCDXFile cdxFile : cdxFiles) {
+			cdxFile.close();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * A sorted CDX file, which is memory-mapped and searched with binary search on the first element of each line.
+ *
+ * The file must start with the CDX format line (e.g. ' CDX A b a m s k r V g'), and the remaining lines must be
+ * sorted bytewise (e.g. with 'LC_ALL=C sort'), which means that all lines with the same key are adjacent.
+ *
+ * The file is mapped in segments, so files larger than 2 GB are also supported.
+ * Nothing but the matching lines are ever copied onto the heap.
+ */
+public class MappedCDXFile implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(MappedCDXFile.class);
+
+	/** The default size of the mapped segments.*/
+	protected static final long DEFAULT_SEGMENT_SIZE = Integer.MAX_VALUE;
+	/** The separator between the elements in a CDX line.*/
+	protected static final byte ELEMENT_SEPARATOR = ' ';
+	/** The separator between the CDX lines.*/
+	protected static final byte LINE_SEPARATOR = '\n';
+	/** The charset of the CDX file.*/
+	protected static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/** The CDX file.*/
+	protected final File cdxFile;
+	/** The size of each of the mapped segments.*/
+	protected final long segmentSize;
+	/** The memory mapped segments of the file.*/
+	protected MappedByteBuffer[] segments;
+	/** The size of the file.*/
+	protected final long fileSize;
+	/** The position of the first CDX line after the format line.*/
+	protected final long dataStart;
+	/** The CDX format of the lines in the file.*/
+	protected final Character[] cdxFormat;
+	/** The parser for the lines in the file.*/
+	protected final CDXLineParser parser;
+	/** Whether the keys of the file are SURTs (e.g. 'dk,kb)/robots.txt') instead of stripped URLs.*/
+	protected final boolean surtKeys;
+
+	/**
+	 * Constructor.
+	 * @param cdxFile The sorted CDX file.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	public MappedCDXFile(File cdxFile) throws IOException {
+		this(cdxFile, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param cdxFile The sorted CDX file.
+	 * @param segmentSize The maximum size of each mapped segment.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	protected MappedCDXFile(File cdxFile, long segmentSize) throws IOException {
+		ArgumentCheck.checkIsFile(cdxFile, "File cdxFile");
+		ArgumentCheck.checkIsTrue(segmentSize > 0 && segmentSize <= Integer.MAX_VALUE,
+				"The segment size must be positive and at most " + Integer.MAX_VALUE);
+		this.cdxFile = cdxFile;
+		this.segmentSize = segmentSize;
+		try (RandomAccessFile raf = new RandomAccessFile(cdxFile, "r"); FileChannel channel = raf.getChannel()) {
+			this.fileSize = channel.size();
+			int numberOfSegments = (int) ((fileSize + segmentSize - 1) / segmentSize);
+			segments = new MappedByteBuffer[numberOfSegments];
+			for(int i = 0; i < numberOfSegments; i++) {
+				long start = i * segmentSize;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(segmentSize, fileSize - start));
+			}
+		}
+		this.dataStart = findNextLineStart(0L);
+		this.cdxFormat = new CDXFileReader().extractCDXFormat(readLine(0L, dataStart));
+		this.parser = new CDXLineParser(cdxFormat);
+		this.surtKeys = isSurtKey(dataStart);
+		logger.debug("Mapped CDX file '" + cdxFile.getAbsolutePath() + "' of " + fileSize + " bytes in "
+				+ segments.length + " segments.");
+	}
+
+	/**
+	 * @return The CDX format of the lines in the file.
+	 */
+	public Character[] getCDXFormat() {
+		return cdxFormat.clone();
+	}
+
+	/**
+	 * @return Whether the keys of the file are SURTs, which is decided from the key of the first line.
+	 */
+	public boolean hasSurtKeys() {
+		return surtKeys;
+	}
+
+	/**
+	 * @return The CDX file.
+	 */
+	public File getFile() {
+		return cdxFile;
+	}
+
+	/**
+	 * Finds all the lines in the file, which have the given key as their first element.
+	 * @param key The key to search for.
+	 * @return The lines with the key, in the order of the file.
+	 */
+	public List<String> findLines(String key) {
+		ArgumentCheck.checkNotNull(key, "String key");
+		if(segments.length == 0 && fileSize > 0) {
+			throw new IllegalStateException("The CDX file '" + cdxFile.getAbsolutePath() + "' has been closed.");
+		}
+		byte[] keyBytes = key.getBytes(CHARSET);
+		List<String> res = new ArrayList<String>();
+		long pos = findFirstLineNotBefore(keyBytes);
+		while(pos < fileSize && compareKey(pos, keyBytes) == 0) {
+			long end = findNextLineStart(pos);
+			res.add(readLine(pos, end));
+			pos = end;
+		}
+		return res;
+	}
+
+	/**
+	 * Finds the CDX entries of all the lines in the file, which have the given key as their first element.
+	 * Lines which cannot be parsed are ignored.
+	 * @param key The key to search for.
+	 * @return The CDX entries with the key, in the order of the file.
+	 */
+	public List<CDXEntry> findEntries(String key) {
+		return findEntries(key, null);
+	}
+
+	/**
+	 * Finds the CDX entries of all the lines in the file, which have the given key as their first element, 
+	 * where only the given fields are decoded.
+	 * Lines which cannot be parsed are ignored.
+	 * @param key The key to search for.
+	 * @param fields The CDX format elements of the fields to decode. If null, then all the fields are decoded.
+	 * @return The CDX entries with the key, in the order of the file.
+	 */
+	public List<CDXEntry> findEntries(String key, Collection<Character> fields) {
+		CDXLineParser projectedParser = parser.project(fields);
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(String line : findLines(key)) {
+			CDXEntry entry = projectedParser.parse(line);
+			if(entry != null) {
+				res.add(entry);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Delivers the CDX entries of all the lines in the file, whose key starts with the given prefix, to the handler.
+	 * The lines are read one at the time, so any number of lines can be delivered.
+	 * Lines which cannot be parsed are ignored.
+	 * @param keyPrefix The prefix of the keys.
+	 * @param handler The handler of the CDX entries, which are delivered in the order of the file.
+	 * @return The number of CDX entries delivered.
+	 */
+	public long streamEntriesWithPrefix(String keyPrefix, CDXEntryHandler handler) {
+		return streamEntriesWithPrefix(keyPrefix, null, handler);
+	}
+
+	/**
+	 * Delivers the CDX entries of all the lines in the file, whose key starts with the given prefix, to the handler,
+	 * where only the given fields are decoded.
+	 * The lines are read one at the time, so any number of lines can be delivered.
+	 * Lines which cannot be parsed are ignored.
+	 * @param keyPrefix The prefix of the keys.
+	 * @param fields The CDX format elements of the fields to decode. If null, then all the fields are decoded.
+	 * @param handler The handler of the CDX entries, which are delivered in the order of the file.
+	 * @return The number of CDX entries delivered.
+	 */
+	public long streamEntriesWithPrefix(String keyPrefix, Collection<Character> fields, CDXEntryHandler handler) {
+		ArgumentCheck.checkNotNull(keyPrefix, "String keyPrefix");
+		ArgumentCheck.checkNotNull(handler, "CDXEntryHandler handler");
+		if(segments.length == 0 && fileSize > 0) {
+			throw new IllegalStateException("The CDX file '" + cdxFile.getAbsolutePath() + "' has been closed.");
+		}
+		CDXLineParser projectedParser = parser.project(fields);
+		byte[] prefixBytes = keyPrefix.getBytes(CHARSET);
+		long res = 0L;
+		long pos = findFirstLineNotBefore(prefixBytes);
+		while(pos < fileSize && keyStartsWith(pos, prefixBytes)) {
+			long end = findNextLineStart(pos);
+			CDXEntry entry = projectedParser.parse(readLine(pos, end));
+			if(entry != null) {
+				handler.handleEntry(entry);
+				res++;
+			}
+			pos = end;
+		}
+		return res;
+	}
+
+	/**
+	 * Binary search for the first line, whose key is not smaller than the given key.
+	 * @param keyBytes The bytes of the key.
+	 * @return The position of the start of the line, or the file size, if all keys are smaller.
+	 */
+	protected long findFirstLineNotBefore(byte[] keyBytes) {
+		long low = dataStart;
+		long high = fileSize;
+		while(low < high) {
+			long mid = (low + high) >>> 1;
+			long lineStart = findLineStart(mid);
+			if(compareKey(lineStart, keyBytes) < 0) {
+				low = findNextLineStart(mid);
+			} else {
+				high = lineStart;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compares the key of the line at the given position with the given key.
+	 * The end of a key is considered smaller than any character, as with a bytewise sort of the lines.
+	 * @param lineStart The position of the start of the line.
+	 * @param keyBytes The key to compare against.
+	 * @return Negative if the line key is smaller, positive if it is larger, and zero if the keys are equal.
+	 */
+	protected int compareKey(long lineStart, byte[] keyBytes) {
+		long pos = lineStart;
+		for(int i = 0; i < keyBytes.length; i++, pos++) {
+			if(pos >= fileSize) {
+				return -1;
+			}
+			byte b = getByte(pos);
+			if(b == ELEMENT_SEPARATOR || b == LINE_SEPARATOR) {
+				return -1;
+			}
+			int diff = (b & 0xff) - (keyBytes[i] & 0xff);
+			if(diff != 0) {
+				return diff;
+			}
+		}
+		if(pos >= fileSize) {
+			return 0;
+		}
+		byte b = getByte(pos);
+		return (b == ELEMENT_SEPARATOR || b == LINE_SEPARATOR || b == '\r') ? 0 : 1;
+	}
+
+	/**
+	 * Checks whether the key of the line at the given position starts with the given prefix.
+	 * @param lineStart The position of the start of the line.
+	 * @param prefixBytes The prefix.
+	 * @return Whether the key starts with the prefix.
+	 */
+	protected boolean keyStartsWith(long lineStart, byte[] prefixBytes) {
+		long pos = lineStart;
+		for(int i = 0; i < prefixBytes.length; i++, pos++) {
+			if(pos >= fileSize) {
+				return false;
+			}
+			byte b = getByte(pos);
+			if(b != prefixBytes[i] || b == ELEMENT_SEPARATOR || b == LINE_SEPARATOR) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the key of a line is a SURT, which has a ')' between the host and the path.
+	 * @param lineStart The start of the line.
+	 * @return Whether the key is a SURT.
+	 */
+	protected boolean isSurtKey(long lineStart) {
+		for(long pos = lineStart; pos < fileSize; pos++) {
+			byte b = getByte(pos);
+			if(b == ')') {
+				return true;
+			} else if(b == ELEMENT_SEPARATOR || b == LINE_SEPARATOR || b == '/') {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the start of the line containing the given position.
+	 * @param pos The position.
+	 * @return The position of the start of the line.
+	 */
+	protected long findLineStart(long pos) {
+		long res = pos;
+		while(res > dataStart && getByte(res - 1) != LINE_SEPARATOR) {
+			res--;
+		}
+		return res;
+	}
+
+	/**
+	 * Finds the start of the line after the line containing the given position.
+	 * @param pos The position.
+	 * @return The position of the start of the next line, or the file size if there are no more lines.
+	 */
+	protected long findNextLineStart(long pos) {
+		long res = pos;
+		while(res < fileSize) {
+			if(getByte(res++) == LINE_SEPARATOR) {
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Reads a line from the file, without the line separator.
+	 * @param start The start of the line.
+	 * @param end The end of the line, e.g. the start of the next line.
+	 * @return The line.
+	 */
+	protected String readLine(long start, long end) {
+		long lineEnd = end;
+		while(lineEnd > start && (getByte(lineEnd - 1) == LINE_SEPARATOR || getByte(lineEnd - 1) == '\r')) {
+			lineEnd--;
+		}
+		byte[] bytes = new byte[(int) (lineEnd - start)];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = getByte(start + i);
+		}
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Retrieves a single byte from the mapped segments.
+	 * @param pos The position of the byte in the file.
+	 * @return The byte.
+	 */
+	protected byte getByte(long pos) {
+		return segments[(int) (pos / segmentSize)].get((int) (pos % segmentSize));
+	}
+
+	@Override
+	public void close() {
+		// The mapped buffers are released when they are garbage collected.
+		segments = new MappedByteBuffer[0];
+	}
+}
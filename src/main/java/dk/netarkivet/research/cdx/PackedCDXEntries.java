@@ -0,0 +1,400 @@
+package dk.netarkivet.research.cdx;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compact list of CDX entries, which stores the elements column-wise in primitive arrays instead of as objects.
+ * The numbers (date, offset, length and status code) are kept in primitive arrays,
+ * and the strings are dictionary-encoded, so recurring values (e.g. URLs, mimetypes, filenames and digests)
+ * are only stored once.
+ *
+ * The entries retrieved from the list are light-weight views of a row in the columns.
+ * They are equal, when they are views of the same row in the same list.
+ *
+ * Entries can only be appended to the list (null entries are also allowed).
+ * The list is not thread safe while it is being appended to, but it can be read concurrently afterwards.
+ */
+public class PackedCDXEntries extends AbstractList<CDXEntry> implements RandomAccess {
+	/** The default initial capacity.*/
+	protected static final int DEFAULT_CAPACITY = 16;
+	/** The value in the long columns for elements without a value.*/
+	protected static final long NO_LONG_VALUE = Long.MIN_VALUE;
+	/** The value in the status code column for elements without a value.*/
+	protected static final int NO_INT_VALUE = Integer.MIN_VALUE;
+	/** The dictionary id for elements without a value.*/
+	protected static final int NO_STRING_VALUE = -1;
+	/** The number of bytes per row in the columns (3 long columns and 8 int columns).*/
+	protected static final int BYTES_PER_ROW = 3 * 8 + 8 * 4;
+	/** The estimated number of bytes for the list object, its column arrays and its dictionary maps.*/
+	protected static final int LIST_OVERHEAD = 400;
+	/** The estimated number of bytes for a string object and its dictionary entry, besides its characters.*/
+	protected static final int STRING_OVERHEAD = 100;
+
+	/** The dictionary for the string values.*/
+	protected final StringDictionary dictionary = new StringDictionary();
+	/** The rows, which are null entries.*/
+	protected final BitSet nullEntries = new BitSet();
+	/** The number of entries.*/
+	protected int size = 0;
+
+	/** The column of the normalized URL ids.*/
+	protected int[] urlNorms;
+	/** The column of the dates.*/
+	protected long[] dates;
+	/** The column of the IP ids.*/
+	protected int[] ips;
+	/** The column of the URL ids.*/
+	protected int[] urls;
+	/** The column of the content type ids.*/
+	protected int[] contentTypes;
+	/** The column of the status codes.*/
+	protected int[] statusCodes;
+	/** The column of the digest ids.*/
+	protected int[] digests;
+	/** The column of the offsets.*/
+	protected long[] offsets;
+	/** The column of the lengths.*/
+	protected long[] lengths;
+	/** The column of the filename ids.*/
+	protected int[] filenames;
+	/** The column of the redirect ids.*/
+	protected int[] redirects;
+
+	/**
+	 * Constructor for an empty list.
+	 */
+	public PackedCDXEntries() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor for an empty list.
+	 * @param capacity The initial capacity.
+	 */
+	public PackedCDXEntries(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Constructor for a list with the given entries.
+	 * @param entries The entries.
+	 */
+	public PackedCDXEntries(Collection<CDXEntry> entries) {
+		this(entries.size());
+		addAll(entries);
+	}
+
+	@Override
+	public CDXEntry get(int index) {
+		checkIndex(index);
+		if(nullEntries.get(index)) {
+			return null;
+		}
+		return new EntryView(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Appends a CDX entry. Only appending at the end of the list is supported.
+	 * @param index The index, which must be the size of the list.
+	 * @param entry The CDX entry.
+	 */
+	@Override
+	public void add(int index, CDXEntry entry) {
+		if(index != size) {
+			throw new UnsupportedOperationException("Can only append CDX entries at the end of the list.");
+		}
+		if(size == dates.length) {
+			allocate(size + (size >> 1) + 1);
+		}
+		modCount++;
+		if(entry == null) {
+			nullEntries.set(size);
+			setRow(size, new CDXEntry());
+		} else {
+			setRow(size, entry.toStandaloneEntry());
+		}
+		size++;
+	}
+
+	/**
+	 * Stores the values of the CDX entry in a row of the columns.
+	 * @param row The row.
+	 * @param entry The CDX entry.
+	 */
+	protected void setRow(int row, CDXEntry entry) {
+		urlNorms[row] = dictionary.getId(entry.urlNorm);
+		dates[row] = entry.date == null ? NO_LONG_VALUE : entry.date;
+		ips[row] = dictionary.getId(entry.ip);
+		urls[row] = dictionary.getId(entry.url);
+		contentTypes[row] = dictionary.getId(entry.contentType);
+		statusCodes[row] = entry.statusCode == null ? NO_INT_VALUE : entry.statusCode;
+		digests[row] = dictionary.getId(entry.digest);
+		offsets[row] = entry.offset == null ? NO_LONG_VALUE : entry.offset;
+		lengths[row] = entry.length == null ? NO_LONG_VALUE : entry.length;
+		filenames[row] = dictionary.getId(entry.filename);
+		redirects[row] = dictionary.getId(entry.redirect);
+	}
+
+	/**
+	 * Creates a standalone CDX entry with the values of a row in the columns.
+	 * @param row The row.
+	 * @return The CDX entry.
+	 */
+	protected CDXEntry getRow(int row) {
+		CDXEntry res = new CDXEntry();
+		res.urlNorm = dictionary.getValue(urlNorms[row]);
+		res.date = dates[row] == NO_LONG_VALUE ? null : dates[row];
+		res.ip = dictionary.getValue(ips[row]);
+		res.url = dictionary.getValue(urls[row]);
+		res.contentType = dictionary.getValue(contentTypes[row]);
+		res.statusCode = statusCodes[row] == NO_INT_VALUE ? null : statusCodes[row];
+		res.digest = dictionary.getValue(digests[row]);
+		res.offset = offsets[row] == NO_LONG_VALUE ? null : offsets[row];
+		res.length = lengths[row] == NO_LONG_VALUE ? null : lengths[row];
+		res.filename = dictionary.getValue(filenames[row]);
+		res.redirect = dictionary.getValue(redirects[row]);
+		return res;
+	}
+
+	/**
+	 * Retrieves the date of an entry without creating any objects.
+	 * @param index The index of the entry.
+	 * @return The date in milliseconds, or 0 if the entry has no date.
+	 */
+	public long getDate(int index) {
+		checkIndex(index);
+		return dates[index] == NO_LONG_VALUE ? 0L : dates[index];
+	}
+
+	/**
+	 * Reduces the capacity of the columns to the current number of entries.
+	 */
+	public void trimToSize() {
+		if(size < dates.length) {
+			allocate(Math.max(size, 1));
+		}
+	}
+
+	/**
+	 * @return The number of distinct strings in the dictionary.
+	 */
+	public int getNumberOfDistinctStrings() {
+		return dictionary.size();
+	}
+
+	/**
+	 * Estimates the number of bytes used on the heap by the list, including the dictionary of strings.
+	 * @return The estimated memory usage in bytes.
+	 */
+	public long estimateMemoryUsage() {
+		return LIST_OVERHEAD + (long) dates.length * BYTES_PER_ROW + dictionary.estimateMemoryUsage();
+	}
+
+	/**
+	 * Resizes all the columns to the given capacity.
+	 * @param capacity The new capacity.
+	 */
+	protected void allocate(int capacity) {
+		if(dates == null) {
+			urlNorms = new int[capacity];
+			dates = new long[capacity];
+			ips = new int[capacity];
+			urls = new int[capacity];
+			contentTypes = new int[capacity];
+			statusCodes = new int[capacity];
+			digests = new int[capacity];
+			offsets = new long[capacity];
+			lengths = new long[capacity];
+			filenames = new int[capacity];
+			redirects = new int[capacity];
+		} else {
+			urlNorms = Arrays.copyOf(urlNorms, capacity);
+			dates = Arrays.copyOf(dates, capacity);
+			ips = Arrays.copyOf(ips, capacity);
+			urls = Arrays.copyOf(urls, capacity);
+			contentTypes = Arrays.copyOf(contentTypes, capacity);
+			statusCodes = Arrays.copyOf(statusCodes, capacity);
+			digests = Arrays.copyOf(digests, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			filenames = Arrays.copyOf(filenames, capacity);
+			redirects = Arrays.copyOf(redirects, capacity);
+		}
+	}
+
+	/**
+	 * Validates the index.
+	 * @param index The index.
+	 */
+	protected void checkIndex(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * Dictionary, which maps each distinct string to an id.
+	 */
+	protected static class StringDictionary {
+		/** The map from the strings to their ids.*/
+		protected final Map<String, Integer> ids = new HashMap<String, Integer>();
+		/** The strings, in the order of their ids.*/
+		protected final List<String> values = new ArrayList<String>();
+		/** The total number of characters in the strings.*/
+		protected long characters = 0L;
+
+		/**
+		 * Retrieves the id of a string, and adds it to the dictionary if it is not already there.
+		 * @param value The string. May be null.
+		 * @return The id of the string.
+		 */
+		protected int getId(String value) {
+			if(value == null) {
+				return NO_STRING_VALUE;
+			}
+			Integer id = ids.get(value);
+			if(id == null) {
+				id = values.size();
+				ids.put(value, id);
+				values.add(value);
+				characters += value.length();
+			}
+			return id;
+		}
+
+		/**
+		 * @param id The id of a string.
+		 * @return The string with the id, or null if it is the id for no value.
+		 */
+		protected String getValue(int id) {
+			if(id == NO_STRING_VALUE) {
+				return null;
+			}
+			return values.get(id);
+		}
+
+		/**
+		 * @return The number of strings in the dictionary.
+		 */
+		protected int size() {
+			return values.size();
+		}
+
+		/**
+		 * @return The estimated number of bytes used on the heap by the dictionary.
+		 */
+		protected long estimateMemoryUsage() {
+			return values.size() * (long) STRING_OVERHEAD + characters * 2;
+		}
+	}
+
+	/**
+	 * The view of a single row in the columns.
+	 */
+	protected class EntryView extends CDXEntry {
+		/** The row of the entry.*/
+		protected final int row;
+
+		/**
+		 * Constructor.
+		 * @param row The row of the entry.
+		 */
+		protected EntryView(int row) {
+			this.row = row;
+		}
+
+		@Override
+		public String getUrlNorm() {
+			return dictionary.getValue(urlNorms[row]);
+		}
+		@Override
+		public Long getDateAsLong() {
+			return dates[row] == NO_LONG_VALUE ? 0L : dates[row];
+		}
+		@Override
+		public Date getDateAsDate() {
+			return dates[row] == NO_LONG_VALUE ? null : new Date(dates[row]);
+		}
+		@Override
+		public String getIP() {
+			return dictionary.getValue(ips[row]);
+		}
+		@Override
+		public String getUrl() {
+			return dictionary.getValue(urls[row]);
+		}
+		@Override
+		public String getContentType() {
+			return dictionary.getValue(contentTypes[row]);
+		}
+		@Override
+		public Integer getStatusCode() {
+			return statusCodes[row] == NO_INT_VALUE ? 200 : statusCodes[row];
+		}
+		@Override
+		public String getDigest() {
+			return dictionary.getValue(digests[row]);
+		}
+		@Override
+		public Long getOffset() {
+			return offsets[row] == NO_LONG_VALUE ? 0L : offsets[row];
+		}
+		@Override
+		public Long getLength() {
+			return lengths[row] == NO_LONG_VALUE ? 0L : lengths[row];
+		}
+		@Override
+		public String getFilename() {
+			return dictionary.getValue(filenames[row]);
+		}
+		@Override
+		public String getRedirect() {
+			return dictionary.getValue(redirects[row]);
+		}
+
+		@Override
+		public String extractCDXAsLine(Collection<Character> charKeys) {
+			return toStandaloneEntry().extractCDXAsLine(charKeys);
+		}
+
+		@Override
+		protected CDXEntry toStandaloneEntry() {
+			return getRow(row);
+		}
+
+		/**
+		 * @return The list, which this is a view of.
+		 */
+		private PackedCDXEntries getList() {
+			return PackedCDXEntries.this;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof EntryView)) {
+				return false;
+			}
+			EntryView other = (EntryView) o;
+			return other.getList() == getList() && other.row == row;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(getList()) * 31 + row;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package dk.netarkivet.research.cdx;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.SurtUtils;
+import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
+
+/**
+ * Asynchronous CDX extractor, which makes the lookups of a blocking CDX extractor with a bounded pool of threads.
+ * 
+ * The lookups are queued, and the number of threads is the number of lookups which are sent to the CDX server at 
+ * the same time, so it should match the number of connections of the HTTP retriever of the CDX extractor 
+ * (see {@link dk.netarkivet.research.http.HttpRetriever#HttpRetriever(int)}). 
+ * Any number of lookups can thereby be pending, while only the threads for the open connections are used.
+ * 
+ * Lookups of all the CDX entries for URLs with the same key, which are pending at the same time, share the same 
+ * lookup. The key is the one the blocking CDX extractor uses for its requests (see 
+ * {@link AbstractCDXExtractor#getUrlKey(String)}), or otherwise the SURT of the URL.
+ * 
+ * The extractor must be closed after use. Lookups, which are still pending, are then cancelled.
+ */
+public class PooledAsyncCDXExtractor implements AsyncCDXExtractor, Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(PooledAsyncCDXExtractor.class);
+	
+	/** The blocking CDX extractor, which makes the lookups.*/
+	protected final CDXExtractor cdxExtractor;
+	/** The threads making the lookups.*/
+	protected final ExecutorService executor;
+	/** The pending lookups of all the CDX entries of a URL, by the key of the URL.*/
+	protected final ConcurrentMap<String, CDXFuture<Collection<CDXEntry>>> pendingLookups = 
+			new ConcurrentHashMap<String, CDXFuture<Collection<CDXEntry>>>();
+	
+	/**
+	 * Constructor.
+	 * @param cdxExtractor The blocking CDX extractor, which makes the lookups.
+	 * @param threads The number of lookups which are made at the same time.
+	 */
+	public PooledAsyncCDXExtractor(CDXExtractor cdxExtractor, int threads) {
+		ArgumentCheck.checkNotNull(cdxExtractor, "CDXExtractor cdxExtractor");
+		ArgumentCheck.checkIsTrue(threads > 0, "The number of threads must be positive");
+		this.cdxExtractor = cdxExtractor;
+		this.executor = Executors.newFixedThreadPool(threads, new AbstractCDXExtractor.ResolverThreadFactory());
+	}
+	
+	@Override
+	public CDXFuture<CDXEntry> retrieveCDXAsync(final WPID wpid) {
+		ArgumentCheck.checkNotNull(wpid, "WPID wpid");
+		return submit(new Callable<CDXEntry>() {
+			@Override
+			public CDXEntry call() {
+				return cdxExtractor.retrieveCDX(wpid);
+			}
+		});
+	}
+	
+	@Override
+	public CDXFuture<CDXEntry> retrieveCDXAsync(final WaybackWID wid) {
+		ArgumentCheck.checkNotNull(wid, "WaybackWID wid");
+		return submit(new Callable<CDXEntry>() {
+			@Override
+			public CDXEntry call() {
+				return cdxExtractor.retrieveCDX(wid);
+			}
+		});
+	}
+	
+	@Override
+	public CDXFuture<Collection<CDXEntry>> retrieveAllCDXAsync(final String url) {
+		ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+		final String key = cdxExtractor instanceof AbstractCDXExtractor 
+				? ((AbstractCDXExtractor) cdxExtractor).getUrlKey(url) : SurtUtils.toSurt(url);
+		CDXFuture<Collection<CDXEntry>> lookup = new CDXFuture<Collection<CDXEntry>>(
+				new Callable<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> call() {
+				try {
+					return cdxExtractor.retrieveAllCDX(url);
+				} finally {
+					// Only the lookup, which was registered as pending for the key, is ever run.
+					pendingLookups.remove(key);
+				}
+			}
+		});
+		CDXFuture<Collection<CDXEntry>> pending = pendingLookups.putIfAbsent(key, lookup);
+		if(pending != null) {
+			logger.debug("Sharing the pending lookup for the URL '" + url + "'.");
+			return pending;
+		}
+		try {
+			execute(lookup);
+		} catch (IllegalStateException e) {
+			pendingLookups.remove(key, lookup);
+			throw e;
+		}
+		return lookup;
+	}
+	
+	@Override
+	public CDXFuture<Collection<CDXEntry>> retrieveCDXForIntervalAsync(final UrlInterval urlInterval) {
+		ArgumentCheck.checkNotNull(urlInterval, "UrlInterval urlInterval");
+		return submit(new Callable<Collection<CDXEntry>>() {
+			@Override
+			public Collection<CDXEntry> call() {
+				return cdxExtractor.retrieveCDXForInterval(urlInterval);
+			}
+		});
+	}
+	
+	/**
+	 * Queues a lookup.
+	 * @param lookup The lookup.
+	 * @return The future result of the lookup.
+	 */
+	protected <T> CDXFuture<T> submit(Callable<T> lookup) {
+		CDXFuture<T> res = new CDXFuture<T>(lookup);
+		execute(res);
+		return res;
+	}
+	
+	/**
+	 * Queues the future of a lookup for the threads.
+	 * @param future The future of the lookup.
+	 * @throws IllegalStateException If the extractor has been closed.
+	 */
+	protected void execute(CDXFuture<?> future) {
+		try {
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			future.cancel(false);
+			throw new IllegalStateException("The asynchronous CDX extractor has been closed.", e);
+		}
+	}
+	
+	/**
+	 * Stops the threads, and cancels the lookups which are still pending.
+	 */
+	@Override
+	public void close() {
+		for(Runnable pending : executor.shutdownNow()) {
+			if(pending instanceof Future) {
+				((Future<?>) pending).cancel(false);
+			}
+		}
+		pendingLookups.clear();
+	}
+}
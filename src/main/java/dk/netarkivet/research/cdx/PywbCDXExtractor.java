@@ -1,17 +1,30 @@
 package dk.netarkivet.research.cdx;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.cache.CDXCache;
+import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.interval.UrlInterval;
 import dk.netarkivet.research.utils.DateUtils;
 import dk.netarkivet.research.wid.WPID;
 
@@ -20,7 +33,7 @@ import dk.netarkivet.research.wid.WPID;
  * Example of extraction url:
  * http://localhost:8080/pywb-cdx/coll-cdx?url=example.com&closest=20140127171200&limit=1&fl=url,timestamp,filename,offset,length,mime,status,digest
  */
-public class PywbCDXExtractor extends AbstractCDXExtractor {
+public class PywbCDXExtractor extends AbstractCDXExtractor implements Closeable {
 	/** The log.*/
 	private static Logger logger = LoggerFactory.getLogger(PywbCDXExtractor.class);
 
@@ -36,6 +49,20 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 	protected static final String ARGUMENT_INITIALISER = "?";
 	/** The element request argument in the HTTP request.*/
 	public static final String FL_ARGUMENT_PREFIX = "fl=";
+	/** The prefix for the earliest date argument in the HTTP request.*/
+	protected static final String FROM_ARGUMENT_PREFIX = "from=";
+	/** The prefix for the latest date argument in the HTTP request.*/
+	protected static final String TO_ARGUMENT_PREFIX = "to=";
+	/** The prefix for the collapse argument in the HTTP request.*/
+	protected static final String COLLAPSE_ARGUMENT_PREFIX = "collapse=";
+	/** The prefix for the match type argument in the HTTP request.*/
+	protected static final String MATCH_TYPE_ARGUMENT_PREFIX = "matchType=";
+	/** The argument for requesting the number of pages instead of the CDX entries.*/
+	protected static final String SHOW_NUM_PAGES_ARGUMENT = "showNumPages=true";
+	/** The prefix for the page argument in the HTTP request.*/
+	protected static final String PAGE_ARGUMENT_PREFIX = "page=";
+	/** The pattern for the number of pages in a JSON response to the showNumPages request.*/
+	protected static final Pattern JSON_PAGES_PATTERN = Pattern.compile("\"pages\"\\s*:\\s*(\\d+)");
 	
 	/** Map between CDX format element and their cdx-server fl argument (separated by ,). */
 	public static final Map<Character, String> CDX_ARGUMENTS;
@@ -52,19 +79,70 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 		CDX_ARGUMENTS = Collections.unmodifiableMap(m);
 	}
 	
+	/** The parser for the CDX lines from the server. Any extra elements at the end of the lines are ignored.*/
+	protected static final CDXLineParser CDX_LINE_PARSER = new CDXLineParser(CDX_ARGUMENTS.keySet(), true);
+	
 	/** The prefix for the URL argument in the HTTP request.*/
 	private final String cdxUrl;
 	/** The HTTP retriever, for communicating with the CDX server.*/
 	protected final HttpRetriever httpRetriever;
 	
+	/** The cache of the CDX entries for all the URLs. Null if they should not be cached.*/
+	protected final CDXCache cache;
+	/** 
+	 * The number of pages retrieved at the same time with the paged API of the CDX server.
+	 * If it is 0, then the paged API is not used.
+	 */
+	protected int pageConcurrency = 0;
+	/** The executor, which retrieves the pages. Null if the paged API is not used.*/
+	protected ExecutorService pageExecutor = null;
+	
 	/**
-	 * Constructor.
+	 * Constructor, without caching.
 	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
 	 * @param httpRetriever The http retriever.
 	 */
 	public PywbCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever) {
+		this(cdxServerUrl, httpRetriever, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param cdxServerUrl The URL for the CDX server (complete url to query for the right collection).
+	 * @param httpRetriever The http retriever.
+	 * @param cache The cache for the CDX entries of all the URLs. May be null, if they should not be cached.
+	 */
+	public PywbCDXExtractor(String cdxServerUrl, HttpRetriever httpRetriever, CDXCache cache) {
 		this.cdxUrl = cdxServerUrl;
 		this.httpRetriever = httpRetriever;
+		this.cache = cache;
+	}
+	
+	/**
+	 * Makes the extractor use the paged API of the CDX server (showNumPages and page), where the pages are 
+	 * retrieved concurrently. This requires that the collection has a paged index (ZipNum). If the CDX server
+	 * cannot tell the number of pages, then the CDX entries are retrieved without paging.
+	 * The pages are retrieved by a pool of threads, which is stopped when the extractor is closed.
+	 * @param pageConcurrency The number of pages to retrieve at the same time. 0 for not using the paged API.
+	 */
+	public void setPageConcurrency(int pageConcurrency) {
+		ArgumentCheck.checkIsTrue(pageConcurrency >= 0, "The page concurrency must not be negative");
+		this.pageConcurrency = pageConcurrency;
+		if(pageExecutor != null) {
+			pageExecutor.shutdown();
+		}
+		pageExecutor = pageConcurrency > 0 
+				? Executors.newFixedThreadPool(pageConcurrency, new ResolverThreadFactory()) : null;
+	}
+	
+	/**
+	 * Stops the threads retrieving the pages.
+	 */
+	@Override
+	public void close() {
+		if(pageExecutor != null) {
+			pageExecutor.shutdownNow();
+		}
 	}
 	
 	@Override
@@ -76,28 +154,314 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 			logger.warn("Failed to retrieve wpid '" + wpid.toString() + "'. Returning a null");
 			return null;
 		} else {
-			return CDXEntry.createCDXEntry(createCdxMap(response));
+			return CDX_LINE_PARSER.parse(response);
 		}
 	}
 
 	@Override
 	public Collection<CDXEntry> retrieveAllCDX(String url) {
 		String requestUrlString = createRequestUrlForWID(url);
-		String response = httpRetriever.retrieveFromUrl(requestUrlString);
+		String cacheKey = getCacheKey(cdxUrl, url);
+		if(cache != null) {
+			List<CDXEntry> cached = cache.get(cacheKey);
+			if(cached != null) {
+				logger.debug("Using already extracted CDX entries for the URL '" + url + "'.");
+				return cached;
+			}
+		}
+		List<CDXEntry> res = retrieveEntries(url, requestUrlString);
+		if(res != null && cache != null) {
+			cache.put(cacheKey, res);
+		}
+		return res;
+	}
+	
+	/**
+	 * The dates of the interval are given to the CDX server (as 'from' and 'to'), so only the CDX entries within 
+	 * the interval are transferred. The sampling is also given to the CDX server (as 'collapse'), so only the 
+	 * sample is transferred.
+	 * If all the CDX entries for the URL are already cached, then they are found in the timeline for the URL instead.
+	 */
+	@Override
+	public Collection<CDXEntry> retrieveCDXForInterval(UrlInterval urlInterval) {
+		Date earliestDate = urlInterval.getEarliestDate();
+		Date latestDate = urlInterval.getLatestDate();
+		if(earliestDate == null && latestDate == null && urlInterval.getSampling() == null) {
+			return retrieveAllCDX(urlInterval.getUrl());
+		}
 		
-		if(response == null || response.isEmpty()) {
-			logger.warn("Failed to retrieve CDX indices for URL '" + url + "'. Returning a null");
-			return null;
-		} else {
+		if(cache != null) {
+			List<CDXEntry> cached = cache.get(getCacheKey(cdxUrl, urlInterval.getUrl()));
+			if(cached != null) {
+				return CDXSampler.sample(getTimeline(urlInterval.getUrl(), cached).findInterval(earliestDate, 
+						latestDate), urlInterval.getSampling());
+			}
+		}
+		Collection<CDXEntry> entries = retrieveEntries(urlInterval.getUrl(), createRequestUrlForInterval(urlInterval));
+		final List<CDXEntry> res = new ArrayList<CDXEntry>();
+		if(entries == null) {
+			return res;
+		}
+		// The CDX server only handles the dates down to the second, and may not support collapsing.
+		CDXEntryHandler handler = createIntervalHandler(urlInterval, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				res.add(entry);
+			}
+		});
+		for(CDXEntry entry : entries) {
+			handler.handleEntry(entry);
+		}
+		return res;
+	}
+	
+	/**
+	 * Retrieves the CDX entries for the request URL from the server. 
+	 * Uses the paged API, if the page concurrency is set and the server tells that there are more than one page.
+	 * @param url The URL for the web-resource.
+	 * @param requestUrlString The request URL for the CDX server.
+	 * @return The CDX entries, or null if they could not be retrieved.
+	 */
+	protected List<CDXEntry> retrieveEntries(String url, String requestUrlString) {
+		if(pageConcurrency > 0) {
+			String numPagesResponse = httpRetriever.retrieveFromUrl(requestUrlString + ARGUMENT_SEPARATOR 
+					+ SHOW_NUM_PAGES_ARGUMENT);
+			Integer numPages = extractNumberOfPages(numPagesResponse);
+			if(numPages != null && numPages > 1) {
+				return retrievePages(url, requestUrlString, numPages);
+			}
+			if(numPages == null && numPagesResponse != null && !numPagesResponse.isEmpty()) {
+				logger.debug("The CDX server ignored the request for the number of pages. Using the response.");
+				return parseResponse(numPagesResponse);
+			}
+		}
+		
+		final List<CDXEntry> res = new ArrayList<CDXEntry>();
+		boolean success = streamFromServer(url, requestUrlString, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				res.add(entry);
+			}
+		});
+		return success ? res : null;
+	}
+	
+	/**
+	 * Retrieves the pages of CDX entries concurrently, and combines them in the order of the pages.
+	 * @param url The URL for the web-resource.
+	 * @param requestUrlString The request URL for the CDX server.
+	 * @param numPages The number of pages.
+	 * @return The CDX entries of all the pages, or null if any of the pages could not be retrieved.
+	 */
+	protected List<CDXEntry> retrievePages(final String url, String requestUrlString, int numPages) {
+		logger.debug("Retrieving " + numPages + " pages of CDX entries for the URL '" + url + "' with " 
+				+ pageConcurrency + " threads.");
+		List<Future<List<CDXEntry>>> pages = new ArrayList<Future<List<CDXEntry>>>(numPages);
+		try {
+			for(int page = 0; page < numPages; page++) {
+				final String pageUrlString = requestUrlString + ARGUMENT_SEPARATOR + PAGE_ARGUMENT_PREFIX + page;
+				pages.add(pageExecutor.submit(new Callable<List<CDXEntry>>() {
+					@Override
+					public List<CDXEntry> call() {
+						final List<CDXEntry> pageEntries = new ArrayList<CDXEntry>();
+						CDXResponseLineHandler lineHandler = new CDXResponseLineHandler(CDX_LINE_PARSER, 
+								new CDXEntryHandler() {
+							@Override
+							public void handleEntry(CDXEntry entry) {
+								pageEntries.add(entry);
+							}
+						});
+						if(!httpRetriever.retrieveLinesFromUrl(pageUrlString, lineHandler)) {
+							logger.warn("Failed to retrieve the page '" + pageUrlString + "'.");
+							return null;
+						}
+						return pageEntries;
+					}
+				}));
+			}
+			
 			List<CDXEntry> res = new ArrayList<CDXEntry>();
-			for(String line : response.split("\n")) {
-				CDXEntry entry = CDXEntry.createCDXEntry(createCdxMap(line));
-				if(entry != null) {
-					res.add(entry);
+			for(Future<List<CDXEntry>> page : pages) {
+				List<CDXEntry> pageEntries = page.get();
+				if(pageEntries == null) {
+					logger.warn("Failed to retrieve CDX indices for URL '" + url + "'. Returning a null");
+					return null;
 				}
+				res.addAll(pageEntries);
 			}
 			return res;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while retrieving the pages for '" + url + "'.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to retrieve the pages for '" + url + "'.", e.getCause());
+		} finally {
+			// Stops the retrieval of the remaining pages, if any of the pages failed.
+			for(Future<List<CDXEntry>> page : pages) {
+				page.cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Extracts the number of pages from the response to the showNumPages request.
+	 * The response is either the plain number, or a JSON object with the number of 'pages'.
+	 * @param response The response.
+	 * @return The number of pages, or null if the response does not tell the number of pages.
+	 */
+	protected static Integer extractNumberOfPages(String response) {
+		if(response == null) {
+			return null;
+		}
+		String trimmed = response.trim();
+		Matcher matcher = JSON_PAGES_PATTERN.matcher(trimmed);
+		try {
+			if(matcher.find()) {
+				return Integer.parseInt(matcher.group(1));
+			}
+			return Integer.parseInt(trimmed);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Parses the lines of a complete response into CDX entries.
+	 * @param response The response.
+	 * @return The CDX entries.
+	 */
+	protected static List<CDXEntry> parseResponse(String response) {
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		for(String line : response.split("\n")) {
+			CDXEntry entry = CDX_LINE_PARSER.parse(line);
+			if(entry != null) {
+				res.add(entry);
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Without a cache, the CDX entries are delivered to the handler while the response is read from the server,
+	 * instead of collecting all of them first.
+	 */
+	@Override
+	public boolean streamAllCDX(String url, CDXEntryHandler handler) {
+		if(cache != null) {
+			return super.streamAllCDX(url, handler);
 		}
+		return streamFromServer(url, createRequestUrlForWID(url), handler);
+	}
+	
+	@Override
+	protected boolean isCachingEntries() {
+		return cache != null;
+	}
+	
+	/**
+	 * All the match types are supported by the CDX server.
+	 */
+	@Override
+	protected void checkMatchType(String url, CDXMatchType matchType) {}
+	
+	/**
+	 * Exact queries use the cache (if any). Other queries are given to the CDX server as the matchType argument,
+	 * and the CDX entries are delivered while the response is read.
+	 */
+	@Override
+	protected boolean streamQuery(String url, CDXMatchType matchType, CDXEntryHandler handler) {
+		if(matchType == CDXMatchType.EXACT) {
+			return streamAllCDX(url, handler);
+		}
+		return streamFromServer(url, createRequestUrlForQuery(url, matchType), handler);
+	}
+	
+	/**
+	 * The dates of the interval are given to the CDX server, and the sampling as well for exact queries.
+	 * Queries for several URLs are sampled in a streaming fold, since the CDX server collapses adjacent 
+	 * CDX entries regardless of their URL.
+	 * Exact queries without a sampling use the cache (if any).
+	 */
+	@Override
+	protected boolean streamQueryForInterval(UrlInterval urlInterval, CDXMatchType matchType, 
+			CDXEntryHandler handler) {
+		if(matchType == CDXMatchType.EXACT && cache != null && urlInterval.getSampling() == null) {
+			return super.streamQueryForInterval(urlInterval, matchType, handler);
+		}
+		StringBuilder requestUrl = new StringBuilder();
+		if(matchType == CDXMatchType.EXACT) {
+			requestUrl.append(createRequestUrlForWID(urlInterval.getUrl()));
+		} else {
+			requestUrl.append(createRequestUrlForQuery(urlInterval.getUrl(), matchType));
+		}
+		appendIntervalArguments(requestUrl, urlInterval, matchType == CDXMatchType.EXACT);
+		return streamFromServer(urlInterval.getUrl(), requestUrl.toString(), 
+				createIntervalHandler(urlInterval, handler));
+	}
+	
+	/**
+	 * Only the needed fields are requested from the CDX server (as 'fl'), and only those are parsed.
+	 * Exact queries use the cache (if any), where the CDX entries already have all the fields.
+	 */
+	@Override
+	protected boolean streamQuery(String url, CDXMatchType matchType, Collection<Character> fields, 
+			CDXEntryHandler handler) {
+		if(fields == null || (matchType == CDXMatchType.EXACT && cache != null)) {
+			return streamQuery(url, matchType, handler);
+		}
+		List<Character> projection = projectArguments(fields);
+		String requestUrlString = matchType == CDXMatchType.EXACT ? createRequestUrlForWID(url, projection) 
+				: createRequestUrlForQuery(url, matchType, projection);
+		return streamFromServer(url, requestUrlString, new CDXLineParser(projection, true), handler);
+	}
+	
+	/**
+	 * Finds the CDX format elements of the fields of the CDX server, which are needed for a projection.
+	 * @param fields The CDX format elements of the needed fields.
+	 * @return The CDX format elements of the fields to request, in the order of the CDX arguments.
+	 */
+	protected static List<Character> projectArguments(Collection<Character> fields) {
+		Set<Integer> slots = new HashSet<Integer>();
+		for(Character field : fields) {
+			slots.add(CDXLineParser.getSlot(field));
+		}
+		List<Character> res = new ArrayList<Character>();
+		for(Character argument : CDX_ARGUMENTS.keySet()) {
+			if(slots.contains(CDXLineParser.getSlot(argument))) {
+				res.add(argument);
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Retrieves the CDX entries from the server, and delivers them to the handler one at the time.
+	 * @param url The URL for the web-resource.
+	 * @param requestUrlString The request URL for the CDX server.
+	 * @param handler The handler of the CDX entries.
+	 * @return Whether the CDX entries could be retrieved. False if the request failed or the response was empty.
+	 */
+	protected boolean streamFromServer(String url, String requestUrlString, CDXEntryHandler handler) {
+		return streamFromServer(url, requestUrlString, CDX_LINE_PARSER, handler);
+	}
+	
+	/**
+	 * Retrieves the CDX entries from the server, and delivers them to the handler one at the time.
+	 * @param url The URL for the web-resource.
+	 * @param requestUrlString The request URL for the CDX server.
+	 * @param parser The parser for the fields of the request.
+	 * @param handler The handler of the CDX entries.
+	 * @return Whether the CDX entries could be retrieved. False if the request failed or the response was empty.
+	 */
+	protected boolean streamFromServer(String url, String requestUrlString, CDXLineParser parser, 
+			CDXEntryHandler handler) {
+		CDXResponseLineHandler lineHandler = new CDXResponseLineHandler(parser, handler);
+		if(!httpRetriever.retrieveLinesFromUrl(requestUrlString, lineHandler) 
+				|| lineHandler.getNumberOfLines() == 0L) {
+			logger.warn("Failed to retrieve CDX indices for URL '" + url + "'. Returning a null");
+			return false;
+		}
+		return true;
 	}
 
 	/**
@@ -119,16 +483,83 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 		res.append(ARGUMENT_SEPARATOR);
 		res.append(LIMIT_1_ARGUMENT);
 		res.append(ARGUMENT_SEPARATOR);
+		appendFieldArgument(res, CDX_ARGUMENTS.keySet());
+		return res.toString();
+	}
+	
+	/**
+	 * Appends the argument for the fields of the CDX entries to the request URL.
+	 * @param res The request URL.
+	 * @param fields The CDX format elements of the fields, which must be among the CDX arguments.
+	 */
+	protected void appendFieldArgument(StringBuilder res, Collection<Character> fields) {
 		res.append(FL_ARGUMENT_PREFIX);
-		for(String s : CDX_ARGUMENTS.values()) {
-			res.append(s);
+		for(Character field : fields) {
+			res.append(CDX_ARGUMENTS.get(field));
 			res.append(",");
 		}
 		res.delete(res.length() - 1, res.length()); // remove last ','
-		return res.toString();
 	}
 
 	
+	/**
+	 * Creates the request URL for retrieving the CDX entries within an interval.
+	 * @param urlInterval The URL and the dates of the interval, and the sampling.
+	 * @return The request URL for retrieving the CDX entries from the CDX server.
+	 */
+	protected String createRequestUrlForInterval(UrlInterval urlInterval) {
+		StringBuilder res = new StringBuilder(createRequestUrlForWID(urlInterval.getUrl()));
+		appendIntervalArguments(res, urlInterval, true);
+		return res.toString();
+	}
+	
+	/**
+	 * Appends the arguments for the dates of the interval and the sampling to the request URL.
+	 * @param res The request URL.
+	 * @param urlInterval The interval.
+	 * @param collapse Whether the sampling should be given to the CDX server as the collapse argument.
+	 */
+	protected void appendIntervalArguments(StringBuilder res, UrlInterval urlInterval, boolean collapse) {
+		if(urlInterval.getEarliestDate() != null) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(FROM_ARGUMENT_PREFIX);
+			res.append(DateUtils.dateToWaybackDate(urlInterval.getEarliestDate()));
+		}
+		if(urlInterval.getLatestDate() != null) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(TO_ARGUMENT_PREFIX);
+			res.append(DateUtils.dateToWaybackDate(urlInterval.getLatestDate()));
+		}
+		if(collapse && urlInterval.getSampling() != null) {
+			res.append(ARGUMENT_SEPARATOR);
+			res.append(COLLAPSE_ARGUMENT_PREFIX);
+			res.append(urlInterval.getSampling().getArgument());
+		}
+	}
+	
+	/**
+	 * Creates the request URL for a query for the CDX entries, which match the URL in the given way.
+	 * @param url The URL of the query.
+	 * @param matchType The match type.
+	 * @return The request URL for the query to the CDX server.
+	 */
+	protected String createRequestUrlForQuery(String url, CDXMatchType matchType) {
+		return createRequestUrlForQuery(url, matchType, CDX_ARGUMENTS.keySet());
+	}
+	
+	/**
+	 * Creates the request URL for a query for some of the fields of the CDX entries, which match the URL in the 
+	 * given way.
+	 * @param url The URL of the query.
+	 * @param matchType The match type.
+	 * @param fields The CDX format elements of the fields, which must be among the CDX arguments.
+	 * @return The request URL for the query to the CDX server.
+	 */
+	protected String createRequestUrlForQuery(String url, CDXMatchType matchType, Collection<Character> fields) {
+		return createRequestUrlForWID(url, fields) + ARGUMENT_SEPARATOR + MATCH_TYPE_ARGUMENT_PREFIX 
+				+ matchType.getArgument();
+	}
+	
 	/**
 	 * Creates the request URL for retrieving the CDX entry for a given. 
 	 * @param url The URL for the web-resource.
@@ -136,6 +567,16 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 	 * @return The request URL for retrieving the CDX from the CDX server.
 	 */
 	protected String createRequestUrlForWID(String url) {
+		return createRequestUrlForWID(url, CDX_ARGUMENTS.keySet());
+	}
+	
+	/**
+	 * Creates the request URL for retrieving some of the fields of the CDX entries for the URL.
+	 * @param url The URL for the web-resource.
+	 * @param fields The CDX format elements of the fields, which must be among the CDX arguments.
+	 * @return The request URL for retrieving the CDX entries from the CDX server.
+	 */
+	protected String createRequestUrlForWID(String url, Collection<Character> fields) {
 		StringBuilder res = new StringBuilder();
 		res.append(cdxUrl);
 		if(!cdxUrl.endsWith(ARGUMENT_INITIALISER)) {
@@ -144,33 +585,7 @@ public class PywbCDXExtractor extends AbstractCDXExtractor {
 		res.append(URL_ARGUMENT_PREFIX);
 		res.append(url);
 		res.append(ARGUMENT_SEPARATOR);
-		res.append(FL_ARGUMENT_PREFIX);
-		for(String s : CDX_ARGUMENTS.values()) {
-			res.append(s);
-			res.append(",");
-		}
-		res.delete(res.length() - 1, res.length()); // remove last ','
+		appendFieldArgument(res, fields);
 		return res.toString();
 	}
-	
-	/**
-	 * Creates the CDX map between CDX format element and the string retrieved from the CDX server.
-	 * @param cdxLine The cdx line from the server.
-	 * @return The map between cdx format element and the value.
-	 */
-	protected Map<Character, String> createCdxMap(String cdxLine) {
-		Map<Character, String> res = new HashMap<Character, String>();
-		String[] cdxLineSplit = cdxLine.split(" ");
-		Character[] format = CDX_ARGUMENTS.keySet().toArray(new Character[CDX_ARGUMENTS.size()]);
-		
-		if(cdxLineSplit.length < format.length) {
-			logger.warn("Not enough cdx elements. Expected " + format.length + " but only got " + cdxLine.length());
-			return null;
-		}
-
-		for(int i = 0; i < format.length; i++) {
-			res.put(format[i], cdxLineSplit[i]);
-		}
-		return res;
-	}
 }
@@ -0,0 +1,53 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.util.List;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+
+/**
+ * Cache for the CDX entries retrieved for a given key, e.g. a URL or a request to a CDX server.
+ * Implementations must be thread safe.
+ */
+public interface CDXCache {
+	/**
+	 * Retrieves the cached CDX entries for a key.
+	 * @param key The key.
+	 * @return The cached CDX entries, or null if they are not in the cache.
+	 */
+	List<CDXEntry> get(String key);
+
+	/**
+	 * Puts the CDX entries for a key into the cache.
+	 * The cache may decide not to keep them, e.g. if they are too large.
+	 * Only the answers of successful lookups must be cached. Null is the result of a failed lookup, and is never 
+	 * cached, so the key is looked up again the next time.
+	 * @param key The key.
+	 * @param entries The CDX entries for the key. If null, then nothing is cached.
+	 */
+	void put(String key, List<CDXEntry> entries);
+
+	/**
+	 * Removes all the entries from the cache.
+	 */
+	void clear();
+
+	/**
+	 * @return The number of keys in the cache.
+	 */
+	int size();
+
+	/**
+	 * @return The number of lookups, where the key was found in the cache.
+	 */
+	long getHitCount();
+
+	/**
+	 * @return The number of lookups, where the key was not found in the cache.
+	 */
+	long getMissCount();
+
+	/**
+	 * @return The number of keys, which have been removed from the cache to stay within its bounds.
+	 */
+	long getEvictionCount();
+}
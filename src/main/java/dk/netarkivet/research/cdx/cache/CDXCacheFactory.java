@@ -0,0 +1,42 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the CDX cache for the command line tools from the system properties.
+ *
+ * Without the cache directory property, the cache is a bounded in-memory cache.
+ * With it, the in-memory cache is put in front of a persistent cache in the directory, so later runs only
+ * retrieve the URLs, which are new or have expired.
+ */
+public class CDXCacheFactory {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(CDXCacheFactory.class);
+
+	/** The system property for the directory of the persistent CDX cache.*/
+	public static final String CACHE_DIR_PROPERTY = "dk.netarkivet.research.cdx.cacheDir";
+	/** The system property for the number of hours the entries in the persistent CDX cache are kept (0 for ever).*/
+	public static final String CACHE_TTL_HOURS_PROPERTY = "dk.netarkivet.research.cdx.cacheTtlHours";
+	/** The default number of hours the entries in the persistent CDX cache are kept.*/
+	public static final long DEFAULT_CACHE_TTL_HOURS = 7 * 24L;
+	/** The number of milliseconds in an hour.*/
+	protected static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+
+	/**
+	 * Creates the CDX cache from the system properties.
+	 * @return The CDX cache.
+	 */
+	public static CDXCache createCache() {
+		String cacheDir = System.getProperty(CACHE_DIR_PROPERTY);
+		if(cacheDir == null || cacheDir.isEmpty()) {
+			return new LruCDXCache();
+		}
+		long ttlHours = Long.getLong(CACHE_TTL_HOURS_PROPERTY, DEFAULT_CACHE_TTL_HOURS);
+		logger.info("Using the persistent CDX cache in '" + cacheDir + "', with entries kept for " + ttlHours
+				+ " hours.");
+		return new TieredCDXCache(new LruCDXCache(), new DiskCDXCache(new File(cacheDir), ttlHours * MILLIS_PER_HOUR));
+	}
+}
@@ -0,0 +1,434 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXConstants;
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXLineParser;
+import dk.netarkivet.research.cdx.PackedCDXEntries;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Persistent CDX cache on local disk, which survives between runs.
+ *
+ * The CDX entries for each key are stored as a gzip-compressed block of CDX lines, appended to a data file.
+ * For each block a record with the key, the position of the block and the time it was stored is appended to an index
+ * file. The index is read into memory when the cache is opened, and the last record for a key wins.
+ * Blocks older than the time-to-live are treated as missing, so they are retrieved again.
+ *
+ * Replaced and expired blocks stay in the data file until {@link #compact()} is called.
+ * The entries are returned packed. Null entries in the cached lists are not stored.
+ *
+ * All the methods are synchronized, so the cache can be shared between threads,
+ * but only a single process may use the cache directory at the time.
+ */
+public class DiskCDXCache implements CDXCache, Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(DiskCDXCache.class);
+
+	/** The name of the data file with the compressed blocks of CDX lines.*/
+	public static final String DATA_FILE_NAME = "cdx-cache.data";
+	/** The name of the index file.*/
+	public static final String INDEX_FILE_NAME = "cdx-cache.index";
+	/** The time-to-live for never letting the cached entries expire.*/
+	public static final long NO_EXPIRY = 0L;
+
+	/** The CDX format of the stored lines, which contains every element of a CDX entry.*/
+	protected static final List<Character> CACHE_CDX_FORMAT = Collections.unmodifiableList(Arrays.asList(
+			CDXConstants.CDX_CHAR_CANONIZED_URL,
+			CDXConstants.CDX_CHAR_DATE,
+			CDXConstants.CDX_CHAR_IP,
+			CDXConstants.CDX_CHAR_ORIGINAL_URL,
+			CDXConstants.CDX_CHAR_MIME_TYPE,
+			CDXConstants.CDX_CHAR_RESPONSE_CODE,
+			CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM,
+			CDXConstants.CDX_CHAR_REDIRECT,
+			CDXConstants.CDX_CHAR_COMPRESSED_ARC_FILE_OFFSET,
+			CDXConstants.CDX_CHAR_ARC_DOCUMENT_LENGTH,
+			CDXConstants.CDX_CHAR_FILE_NAME));
+	/** The parser of the stored lines.*/
+	protected static final CDXLineParser CACHE_LINE_PARSER = new CDXLineParser(CACHE_CDX_FORMAT, false);
+	/** The charset of the stored lines.*/
+	protected static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/** The directory with the cache files.*/
+	protected final File directory;
+	/** The number of milliseconds the entries are kept, or 0 if they never expire.*/
+	protected final long ttlMillis;
+	/** The data file.*/
+	protected RandomAccessFile dataFile;
+	/** The output stream for appending to the index file.*/
+	protected DataOutputStream indexOut;
+	/** The in-memory index between the keys and their blocks in the data file.*/
+	protected final Map<String, BlockRef> index = new HashMap<String, BlockRef>();
+	/** The number of lookups which found the key.*/
+	protected long hits = 0L;
+	/** The number of lookups which did not find the key, or found an expired block.*/
+	protected long misses = 0L;
+	/** The number of keys removed because they had expired.*/
+	protected long evictions = 0L;
+
+	/**
+	 * Constructor.
+	 * Opens the cache in the directory, or creates a new empty cache if there is none.
+	 * @param directory The directory for the cache files. It is created if it does not exist.
+	 * @param ttlMillis The number of milliseconds the entries are kept, or {@link #NO_EXPIRY}.
+	 */
+	public DiskCDXCache(File directory, long ttlMillis) {
+		ArgumentCheck.checkNotNull(directory, "File directory");
+		ArgumentCheck.checkIsTrue(ttlMillis >= 0, "The time-to-live must not be negative");
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalStateException("Could not create the cache directory '" + directory.getAbsolutePath()
+					+ "'.");
+		}
+		this.directory = directory;
+		this.ttlMillis = ttlMillis;
+		try {
+			open();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not open the CDX cache in '" + directory.getAbsolutePath() + "'.",
+					e);
+		}
+		logger.info("Opened the CDX cache in '" + directory.getAbsolutePath() + "' with " + index.size()
+				+ " keys.");
+	}
+
+	/**
+	 * Opens the data file, and reads the index file into memory.
+	 * Index records pointing beyond the end of the data file (e.g. after a crash) are ignored.
+	 * @throws IOException If the files cannot be opened or read.
+	 */
+	protected void open() throws IOException {
+		dataFile = new RandomAccessFile(new File(directory, DATA_FILE_NAME), "rw");
+		File indexFile = new File(directory, INDEX_FILE_NAME);
+		long dataLength = dataFile.length();
+		if(indexFile.isFile()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+				while(true) {
+					String key;
+					BlockRef ref;
+					try {
+						key = in.readUTF();
+						ref = new BlockRef(in.readLong(), in.readInt(), in.readLong());
+					} catch (EOFException e) {
+						break;
+					}
+					if(ref.offset + ref.length <= dataLength) {
+						index.put(key, ref);
+					} else {
+						logger.warn("Ignoring the cache record for '" + key + "', which is beyond the data file.");
+					}
+				}
+			}
+		}
+		indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+	}
+
+	@Override
+	public synchronized List<CDXEntry> get(String key) {
+		BlockRef ref = index.get(key);
+		if(ref == null) {
+			misses++;
+			return null;
+		}
+		if(isExpired(ref)) {
+			logger.debug("The cached CDX entries for '" + key + "' have expired.");
+			index.remove(key);
+			evictions++;
+			misses++;
+			return null;
+		}
+		try {
+			List<CDXEntry> res = readBlock(ref);
+			hits++;
+			return res;
+		} catch (IOException e) {
+			logger.warn("Could not read the cached CDX entries for '" + key + "'. Ignoring them.", e);
+			index.remove(key);
+			misses++;
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized void put(String key, List<CDXEntry> entries) {
+		ArgumentCheck.checkNotNull(key, "String key");
+		if(entries == null) {
+			logger.debug("Not caching the failed lookup for '" + key + "'.");
+			return;
+		}
+		try {
+			byte[] block = encodeBlock(entries);
+			long offset = dataFile.length();
+			dataFile.seek(offset);
+			dataFile.write(block);
+			BlockRef ref = new BlockRef(offset, block.length, currentTimeMillis());
+			writeIndexRecord(indexOut, key, ref);
+			indexOut.flush();
+			index.put(key, ref);
+		} catch (IOException e) {
+			logger.warn("Could not write the CDX entries for '" + key + "' to the cache.", e);
+		}
+	}
+
+	/**
+	 * Rewrites the cache files with only the blocks, which are still in use and have not expired.
+	 * @throws IOException If the files cannot be rewritten.
+	 */
+	public synchronized void compact() throws IOException {
+		File newData = new File(directory, DATA_FILE_NAME + ".tmp");
+		File newIndex = new File(directory, INDEX_FILE_NAME + ".tmp");
+		Map<String, BlockRef> newRefs = new HashMap<String, BlockRef>();
+		try (RandomAccessFile dataOut = new RandomAccessFile(newData, "rw");
+				DataOutputStream idxOut = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(newIndex)))) {
+			dataOut.setLength(0L);
+			for(Map.Entry<String, BlockRef> e : index.entrySet()) {
+				BlockRef ref = e.getValue();
+				if(isExpired(ref)) {
+					evictions++;
+					continue;
+				}
+				byte[] block = readBytes(ref);
+				BlockRef newRef = new BlockRef(dataOut.getFilePointer(), block.length, ref.storedTime);
+				dataOut.write(block);
+				writeIndexRecord(idxOut, e.getKey(), newRef);
+				newRefs.put(e.getKey(), newRef);
+			}
+		}
+		closeFiles();
+		replaceFile(newData, new File(directory, DATA_FILE_NAME));
+		replaceFile(newIndex, new File(directory, INDEX_FILE_NAME));
+		index.clear();
+		index.putAll(newRefs);
+		dataFile = new RandomAccessFile(new File(directory, DATA_FILE_NAME), "rw");
+		indexOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, INDEX_FILE_NAME), true)));
+		logger.info("Compacted the CDX cache in '" + directory.getAbsolutePath() + "' to " + index.size()
+				+ " keys.");
+	}
+
+	@Override
+	public synchronized void clear() {
+		try {
+			closeFiles();
+			new File(directory, INDEX_FILE_NAME).delete();
+			index.clear();
+			open();
+			dataFile.setLength(0L);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not clear the CDX cache in '" + directory.getAbsolutePath()
+					+ "'.", e);
+		}
+	}
+
+	@Override
+	public synchronized int size() {
+		return index.size();
+	}
+
+	@Override
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	@Override
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * @return The size of the data file in bytes, including replaced and expired blocks.
+	 */
+	public synchronized long getDataFileSize() {
+		try {
+			return dataFile.length();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read the size of the data file.", e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			closeFiles();
+		} catch (IOException e) {
+			logger.warn("Issue closing the CDX cache in '" + directory.getAbsolutePath() + "'.", e);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DiskCDXCache[dir=" + directory.getAbsolutePath() + ", keys=" + index.size() + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+	/**
+	 * @return The current time in milliseconds. Used for the time-to-live.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Checks whether a block is older than the time-to-live.
+	 * @param ref The reference to the block.
+	 * @return Whether the block has expired.
+	 */
+	protected boolean isExpired(BlockRef ref) {
+		return ttlMillis != NO_EXPIRY && currentTimeMillis() - ref.storedTime > ttlMillis;
+	}
+
+	/**
+	 * Encodes the CDX entries as a gzip-compressed block of CDX lines.
+	 * @param entries The CDX entries.
+	 * @return The compressed block.
+	 * @throws IOException If the compression fails.
+	 */
+	protected byte[] encodeBlock(List<CDXEntry> entries) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(res)) {
+			for(CDXEntry entry : entries) {
+				if(entry != null) {
+					out.write(entry.extractCDXAsLine(CACHE_CDX_FORMAT).getBytes(CHARSET));
+				}
+			}
+		}
+		return res.toByteArray();
+	}
+
+	/**
+	 * Reads and decodes a block of CDX lines from the data file.
+	 * @param ref The reference to the block.
+	 * @return The packed CDX entries of the block.
+	 * @throws IOException If the block cannot be read or decompressed.
+	 */
+	protected List<CDXEntry> readBlock(BlockRef ref) throws IOException {
+		PackedCDXEntries res = new PackedCDXEntries();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new ByteArrayInputStream(readBytes(ref))), CHARSET))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				CDXEntry entry = CACHE_LINE_PARSER.parse(line);
+				if(entry != null) {
+					res.add(entry);
+				}
+			}
+		}
+		res.trimToSize();
+		return res;
+	}
+
+	/**
+	 * Reads the raw bytes of a block from the data file.
+	 * @param ref The reference to the block.
+	 * @return The bytes of the block.
+	 * @throws IOException If the block cannot be read.
+	 */
+	protected byte[] readBytes(BlockRef ref) throws IOException {
+		byte[] res = new byte[ref.length];
+		dataFile.seek(ref.offset);
+		dataFile.readFully(res);
+		return res;
+	}
+
+	/**
+	 * Writes a record to an index file.
+	 * @param out The output stream for the index file.
+	 * @param key The key.
+	 * @param ref The reference to the block for the key.
+	 * @throws IOException If the record cannot be written.
+	 */
+	protected static void writeIndexRecord(DataOutputStream out, String key, BlockRef ref) throws IOException {
+		out.writeUTF(key);
+		out.writeLong(ref.offset);
+		out.writeInt(ref.length);
+		out.writeLong(ref.storedTime);
+	}
+
+	/**
+	 * Closes the data file and the index file.
+	 * @throws IOException If either of the files cannot be closed.
+	 */
+	protected void closeFiles() throws IOException {
+		try {
+			if(indexOut != null) {
+				indexOut.close();
+			}
+		} finally {
+			if(dataFile != null) {
+				dataFile.close();
+			}
+		}
+	}
+
+	/**
+	 * Replaces a file with another file.
+	 * @param from The new file.
+	 * @param to The file to replace.
+	 * @throws IOException If the file cannot be replaced.
+	 */
+	protected static void replaceFile(File from, File to) throws IOException {
+		if(to.exists() && !to.delete()) {
+			throw new IOException("Could not delete '" + to.getAbsolutePath() + "'.");
+		}
+		if(!from.renameTo(to)) {
+			throw new IOException("Could not move '" + from.getAbsolutePath() + "' to '" + to.getAbsolutePath()
+					+ "'.");
+		}
+	}
+
+	/**
+	 * Reference to a block in the data file.
+	 */
+	protected static class BlockRef {
+		/** The position of the block in the data file.*/
+		protected final long offset;
+		/** The number of bytes in the block.*/
+		protected final int length;
+		/** The time when the block was stored, in milliseconds.*/
+		protected final long storedTime;
+
+		/**
+		 * Constructor.
+		 * @param offset The position of the block in the data file.
+		 * @param length The number of bytes in the block.
+		 * @param storedTime The time when the block was stored.
+		 */
+		protected BlockRef(long offset, int length, long storedTime) {
+			this.offset = offset;
+			this.length = length;
+			this.storedTime = storedTime;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.PackedCDXEntries;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * Bounded in-memory CDX cache, which evicts the least recently used keys.
+ * It is bounded both by the number of keys and by the estimated number of bytes used by the cached CDX entries.
+ * Lists of CDX entries, which alone are larger than the byte bound, are not cached.
+ *
+ * All the methods are synchronized, so the cache can be shared between threads.
+ */
+public class LruCDXCache implements CDXCache {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(LruCDXCache.class);
+
+	/** The default maximum number of keys.*/
+	public static final int DEFAULT_MAX_KEYS = 10000;
+	/** The default maximum number of bytes used by the cached CDX entries.*/
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	/** The estimated number of bytes for a key and its map entry, besides the characters of the key.*/
+	protected static final int KEY_OVERHEAD = 100;
+	/** The estimated number of bytes for an unpacked CDX entry and its boxed numbers.*/
+	protected static final int ENTRY_OVERHEAD = 150;
+	/** The estimated number of bytes for a string object, besides its characters.*/
+	protected static final int STRING_OVERHEAD = 40;
+
+	/** The map between the keys and their CDX entries, in the order of access.*/
+	protected final LinkedHashMap<String, CachedEntries> map;
+	/** The maximum number of keys.*/
+	protected final int maxKeys;
+	/** The maximum number of bytes.*/
+	protected final long maxBytes;
+	/** The estimated number of bytes used by the cached CDX entries.*/
+	protected long bytes = 0L;
+	/** The number of lookups which found the key.*/
+	protected long hits = 0L;
+	/** The number of lookups which did not find the key.*/
+	protected long misses = 0L;
+	/** The number of evicted keys.*/
+	protected long evictions = 0L;
+
+	/**
+	 * Constructor with the default bounds.
+	 */
+	public LruCDXCache() {
+		this(DEFAULT_MAX_KEYS, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxKeys The maximum number of keys in the cache.
+	 * @param maxBytes The maximum number of bytes used by the cached CDX entries.
+	 */
+	public LruCDXCache(int maxKeys, long maxBytes) {
+		ArgumentCheck.checkIsTrue(maxKeys > 0, "The maximum number of keys must be positive");
+		ArgumentCheck.checkIsTrue(maxBytes > 0, "The maximum number of bytes must be positive");
+		this.maxKeys = maxKeys;
+		this.maxBytes = maxBytes;
+		this.map = new LinkedHashMap<String, CachedEntries>(16, 0.75f, true);
+	}
+
+	@Override
+	public synchronized List<CDXEntry> get(String key) {
+		CachedEntries res = map.get(key);
+		if(res == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return res.entries;
+	}
+
+	@Override
+	public synchronized void put(String key, List<CDXEntry> entries) {
+		ArgumentCheck.checkNotNull(key, "String key");
+		if(entries == null) {
+			logger.debug("Not caching the failed lookup for '" + key + "'.");
+			return;
+		}
+		long size = KEY_OVERHEAD + key.length() * 2L + estimateMemoryUsage(entries);
+		if(size > maxBytes) {
+			logger.debug("Not caching the " + entries.size() + " CDX entries for '" + key + "', since their "
+					+ "estimated size (" + size + " bytes) is larger than the cache.");
+			return;
+		}
+		CachedEntries previous = map.put(key, new CachedEntries(entries, size));
+		if(previous != null) {
+			bytes -= previous.size;
+		}
+		bytes += size;
+		evict();
+	}
+
+	/**
+	 * Evicts the least recently used keys, until the cache is within its bounds.
+	 */
+	protected void evict() {
+		Iterator<Map.Entry<String, CachedEntries>> it = map.entrySet().iterator();
+		while((map.size() > maxKeys || bytes > maxBytes) && it.hasNext()) {
+			Map.Entry<String, CachedEntries> eldest = it.next();
+			bytes -= eldest.getValue().size;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		map.clear();
+		bytes = 0L;
+	}
+
+	@Override
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * @return The estimated number of bytes used by the cached CDX entries.
+	 */
+	public synchronized long getEstimatedBytes() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	@Override
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LruCDXCache[keys=" + map.size() + "/" + maxKeys + ", bytes=" + bytes + "/" + maxBytes + ", hits="
+				+ hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+	/**
+	 * Estimates the number of bytes used on the heap by a list of CDX entries.
+	 * @param entries The CDX entries.
+	 * @return The estimated number of bytes.
+	 */
+	protected static long estimateMemoryUsage(List<CDXEntry> entries) {
+		if(entries instanceof PackedCDXEntries) {
+			return ((PackedCDXEntries) entries).estimateMemoryUsage();
+		}
+		long res = 0L;
+		for(CDXEntry entry : entries) {
+			if(entry == null) {
+				continue;
+			}
+			res += ENTRY_OVERHEAD + estimateMemoryUsage(entry.getUrlNorm()) + estimateMemoryUsage(entry.getUrl())
+					+ estimateMemoryUsage(entry.getContentType()) + estimateMemoryUsage(entry.getDigest())
+					+ estimateMemoryUsage(entry.getFilename()) + estimateMemoryUsage(entry.getRedirect())
+					+ estimateMemoryUsage(entry.getIP());
+		}
+		return res;
+	}
+
+	/**
+	 * Estimates the number of bytes used on the heap by a string.
+	 * @param value The string. May be null.
+	 * @return The estimated number of bytes.
+	 */
+	protected static long estimateMemoryUsage(String value) {
+		if(value == null) {
+			return 0L;
+		}
+		return STRING_OVERHEAD + value.length() * 2L;
+	}
+
+	/**
+	 * The cached CDX entries with their estimated size.
+	 */
+	protected static class CachedEntries {
+		/** The CDX entries.*/
+		protected final List<CDXEntry> entries;
+		/** The estimated size of the CDX entries and their key.*/
+		protected final long size;
+
+		/**
+		 * Constructor.
+		 * @param entries The CDX entries.
+		 * @param size The estimated size.
+		 */
+		protected CachedEntries(List<CDXEntry> entries, long size) {
+			this.entries = entries;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package dk.netarkivet.research.cdx.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.exception.ArgumentCheck;
+
+/**
+ * CDX cache in two tiers, e.g. a small in-memory cache in front of a persistent cache on disk.
+ * Lookups try the first tier, then the second tier, and entries found in the second tier are put into the first tier.
+ * New entries are put into both tiers.
+ *
+ * It is thread safe, when both tiers are thread safe.
+ */
+public class TieredCDXCache implements CDXCache, Closeable {
+	/** The first tier, which is tried first.*/
+	protected final CDXCache first;
+	/** The second tier.*/
+	protected final CDXCache second;
+
+	/**
+	 * Constructor.
+	 * @param first The first tier, which is tried first.
+	 * @param second The second tier.
+	 */
+	public TieredCDXCache(CDXCache first, CDXCache second) {
+		ArgumentCheck.checkNotNull(first, "CDXCache first");
+		ArgumentCheck.checkNotNull(second, "CDXCache second");
+		this.first = first;
+		this.second = second;
+	}
+
+	@Override
+	public List<CDXEntry> get(String key) {
+		List<CDXEntry> res = first.get(key);
+		if(res == null) {
+			res = second.get(key);
+			if(res != null) {
+				first.put(key, res);
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public void put(String key, List<CDXEntry> entries) {
+		if(entries == null) {
+			return;
+		}
+		first.put(key, entries);
+		second.put(key, entries);
+	}
+
+	@Override
+	public void clear() {
+		first.clear();
+		second.clear();
+	}
+
+	@Override
+	public int size() {
+		return second.size();
+	}
+
+	@Override
+	public long getHitCount() {
+		return first.getHitCount() + second.getHitCount();
+	}
+
+	/**
+	 * Only the lookups, which miss both tiers, are counted as misses.
+	 * @return The number of lookups, where the key was not found in any of the tiers.
+	 */
+	@Override
+	public long getMissCount() {
+		return second.getMissCount();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return first.getEvictionCount() + second.getEvictionCount();
+	}
+
+	/**
+	 * @return The first tier.
+	 */
+	public CDXCache getFirstTier() {
+		return first;
+	}
+
+	/**
+	 * @return The second tier.
+	 */
+	public CDXCache getSecondTier() {
+		return second;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for(CDXCache tier : new CDXCache[]{first, second}) {
+			if(tier instanceof Closeable) {
+				((Closeable) tier).close();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TieredCDXCache[" + first + ", " + second + "]";
+	}
+}
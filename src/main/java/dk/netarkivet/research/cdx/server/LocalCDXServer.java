@@ -0,0 +1,785 @@
+package dk.netarkivet.research.cdx.server;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import dk.netarkivet.research.cdx.CDXConstants;
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXEntryHandler;
+import dk.netarkivet.research.cdx.CDXExtractor;
+import dk.netarkivet.research.cdx.CDXMatchType;
+import dk.netarkivet.research.cdx.CDXQueryIterator;
+import dk.netarkivet.research.cdx.CDXSampler;
+import dk.netarkivet.research.cdx.CDXSampling;
+import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.exception.ArgumentCheck;
+import dk.netarkivet.research.utils.DateUtils;
+
+/**
+ * Small embedded HTTP server, which serves CDX entries with the protocols of the CDX servers, so the
+ * CDX extractors can be tested and load-tested without the production CDX servers.
+ *
+ * The CDX entries are delivered by a CDX extractor, typically a LocalCDXExtractor on sorted CDX files.
+ * The server has two endpoints:
+ * <ul>
+ *   <li>The DAB protocol at {@link #DAB_PATH}, e.g. '?q=netarkivet.dk/%20'. The key ends with a space,
+ *   otherwise it is a prefix query.</li>
+ *   <li>The pywb protocol at {@link #PYWB_PATH}, with the arguments 'url', 'fl', 'matchType', 'from', 'to',
+ *   'closest', 'limit', 'showNumPages' and 'page'.</li>
+ * </ul>
+ *
+ * Each request can be delayed by an artificial latency, and a fraction of the requests can be answered with
+ * an error, to reproduce the behaviour of a loaded production server. The number of threads handling the
+ * requests limits the concurrency of the server in the same way as the production servers.
+ */
+public class LocalCDXServer implements Closeable {
+	/** The log.*/
+	private static Logger logger = LoggerFactory.getLogger(LocalCDXServer.class);
+
+	/** The path of the endpoint with the DAB protocol.*/
+	public static final String DAB_PATH = "/dab/query/";
+	/** The path of the endpoint with the pywb protocol.*/
+	public static final String PYWB_PATH = "/pywb-cdx/query";
+	/** The default number of threads handling the requests.*/
+	public static final int DEFAULT_THREADS = 10;
+	/** The default number of CDX entries on a page of the pywb paged API.*/
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	/** The default HTTP status code of the injected errors.*/
+	public static final int DEFAULT_ERROR_STATUS_CODE = 503;
+
+	/** The HTTP status code for a successful request.*/
+	protected static final int STATUS_OK = 200;
+	/** The HTTP status code for an invalid request.*/
+	protected static final int STATUS_BAD_REQUEST = 400;
+	/** The HTTP status code for a failure of the server.*/
+	protected static final int STATUS_SERVER_ERROR = 500;
+	/** The charset of the responses.*/
+	protected static final Charset CHARSET = Charset.forName("UTF-8");
+	/** The content type of the responses.*/
+	protected static final String CONTENT_TYPE = "text/plain; charset=UTF-8";
+	/** The query argument of the DAB protocol.*/
+	protected static final String DAB_QUERY_ARGUMENT = "q";
+	/** The padding of a partial date for the earliest date it can mean.*/
+	protected static final String EARLIEST_DATE_PADDING = "00000101000000";
+	/** The padding of a partial date for the latest date it can mean.*/
+	protected static final String LATEST_DATE_PADDING = "99991231235959";
+
+	/** The URL argument of the pywb protocol.*/
+	protected static final String URL_ARGUMENT = "url";
+	/** The argument of the pywb protocol for the fields of the CDX lines.*/
+	protected static final String FL_ARGUMENT = "fl";
+	/** The match type argument of the pywb protocol.*/
+	protected static final String MATCH_TYPE_ARGUMENT = "matchType";
+	/** The earliest date argument of the pywb protocol.*/
+	protected static final String FROM_ARGUMENT = "from";
+	/** The latest date argument of the pywb protocol.*/
+	protected static final String TO_ARGUMENT = "to";
+	/** The argument of the pywb protocol for sorting by the distance to a date.*/
+	protected static final String CLOSEST_ARGUMENT = "closest";
+	/** The argument of the pywb protocol for the maximum number of CDX entries.*/
+	protected static final String LIMIT_ARGUMENT = "limit";
+	/** The argument of the pywb protocol for requesting the number of pages.*/
+	protected static final String SHOW_NUM_PAGES_ARGUMENT = "showNumPages";
+	/** The page argument of the pywb protocol.*/
+	protected static final String PAGE_ARGUMENT = "page";
+	/** The collapse argument of the pywb protocol, e.g. 'timestamp:8' for the first capture of each day.*/
+	protected static final String COLLAPSE_ARGUMENT = "collapse";
+	/** 
+	 * All the arguments of the pywb protocol. Any other '&amp;' in the query is part of the value of the URL,
+	 * since the PywbCDXExtractor does not encode the URL.
+	 */
+	protected static final List<String> PYWB_ARGUMENTS = Collections.unmodifiableList(Arrays.asList(
+			URL_ARGUMENT, FL_ARGUMENT, MATCH_TYPE_ARGUMENT, FROM_ARGUMENT, TO_ARGUMENT, CLOSEST_ARGUMENT,
+			LIMIT_ARGUMENT, SHOW_NUM_PAGES_ARGUMENT, PAGE_ARGUMENT, COLLAPSE_ARGUMENT, "output", "sort", "filter",
+			"pageSize"));
+
+	/** Map between the field names of the pywb 'fl' argument and the CDX format elements.*/
+	protected static final Map<String, Character> PYWB_FIELDS;
+	static {
+		Map<String, Character> m = new HashMap<String, Character>();
+		m.put("urlkey", CDXConstants.CDX_CHAR_CANONIZED_URL);
+		m.put("timestamp", CDXConstants.CDX_CHAR_DATE);
+		m.put("url", CDXConstants.CDX_CHAR_ORIGINAL_URL);
+		m.put("original", CDXConstants.CDX_CHAR_ORIGINAL_URL);
+		m.put("mime", CDXConstants.CDX_CHAR_MIME_TYPE);
+		m.put("mimetype", CDXConstants.CDX_CHAR_MIME_TYPE);
+		m.put("status", CDXConstants.CDX_CHAR_RESPONSE_CODE);
+		m.put("statuscode", CDXConstants.CDX_CHAR_RESPONSE_CODE);
+		m.put("digest", CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM);
+		m.put("redirect", CDXConstants.CDX_CHAR_REDIRECT);
+		m.put("offset", CDXConstants.CDX_CHAR_COMPRESSED_ARC_FILE_OFFSET);
+		m.put("length", CDXConstants.CDX_CHAR_ARC_DOCUMENT_LENGTH);
+		m.put("filename", CDXConstants.CDX_CHAR_FILE_NAME);
+		PYWB_FIELDS = Collections.unmodifiableMap(m);
+	}
+
+	/** The extractor delivering the CDX entries.*/
+	protected final CDXExtractor extractor;
+	/** The port of the server. 0 for any free port, until the server has been started.*/
+	protected int port;
+	/** The number of threads handling the requests.*/
+	protected int threads = DEFAULT_THREADS;
+	/** The minimum artificial latency of each request, in milliseconds.*/
+	protected volatile long minLatency = 0L;
+	/** The maximum artificial latency of each request, in milliseconds.*/
+	protected volatile long maxLatency = 0L;
+	/** The fraction of the requests, which are answered with an error.*/
+	protected volatile double errorRate = 0.0;
+	/** The HTTP status code of the injected errors.*/
+	protected volatile int errorStatusCode = DEFAULT_ERROR_STATUS_CODE;
+	/** The number of CDX entries on a page of the pywb paged API.*/
+	protected volatile int pageSize = DEFAULT_PAGE_SIZE;
+	/** The random generator for the latency and the errors.*/
+	protected volatile Random random = new Random();
+
+	/** The number of requests received.*/
+	protected final AtomicLong requestCount = new AtomicLong();
+	/** The number of requests answered with an injected error.*/
+	protected final AtomicLong injectedErrorCount = new AtomicLong();
+
+	/** The HTTP server. Null until the server has been started.*/
+	protected HttpServer server;
+	/** The threads handling the requests. Null until the server has been started.*/
+	protected ExecutorService executor;
+
+	/**
+	 * Constructor.
+	 * @param extractor The extractor delivering the CDX entries.
+	 * @param port The port of the server, or 0 for any free port.
+	 */
+	public LocalCDXServer(CDXExtractor extractor, int port) {
+		ArgumentCheck.checkNotNull(extractor, "CDXExtractor extractor");
+		ArgumentCheck.checkIsTrue(port >= 0, "The port must not be negative");
+		this.extractor = extractor;
+		this.port = port;
+	}
+
+	/**
+	 * Sets the number of threads handling the requests. Must be set before the server is started.
+	 * @param threads The number of threads.
+	 */
+	public void setThreads(int threads) {
+		ArgumentCheck.checkIsTrue(threads > 0, "The number of threads must be positive");
+		ArgumentCheck.checkIsTrue(server == null, "The server has already been started");
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the artificial latency of each request. The latency of a request is random between the minimum and
+	 * the maximum.
+	 * @param minLatency The minimum latency, in milliseconds.
+	 * @param maxLatency The maximum latency, in milliseconds.
+	 */
+	public void setLatency(long minLatency, long maxLatency) {
+		ArgumentCheck.checkIsTrue(minLatency >= 0, "The latency must not be negative");
+		ArgumentCheck.checkIsTrue(maxLatency >= minLatency, "The maximum latency must not be below the minimum");
+		this.minLatency = minLatency;
+		this.maxLatency = maxLatency;
+	}
+
+	/**
+	 * Sets the fraction of the requests, which are answered with an error instead of the CDX entries.
+	 * @param errorRate The fraction of the requests, between 0 and 1.
+	 */
+	public void setErrorRate(double errorRate) {
+		ArgumentCheck.checkIsTrue(errorRate >= 0.0 && errorRate <= 1.0, "The error rate must be between 0 and 1");
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Sets the HTTP status code of the injected errors.
+	 * @param errorStatusCode The HTTP status code.
+	 */
+	public void setErrorStatusCode(int errorStatusCode) {
+		ArgumentCheck.checkIsTrue(errorStatusCode >= 400 && errorStatusCode < 600,
+				"The error status code must be a HTTP error");
+		this.errorStatusCode = errorStatusCode;
+	}
+
+	/**
+	 * Sets the number of CDX entries on a page of the pywb paged API.
+	 * @param pageSize The number of CDX entries.
+	 */
+	public void setPageSize(int pageSize) {
+		ArgumentCheck.checkIsTrue(pageSize > 0, "The page size must be positive");
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Sets the seed of the random latency and errors, so a load test can be reproduced.
+	 * @param seed The seed.
+	 */
+	public void setRandomSeed(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Starts the server.
+	 * @return This server.
+	 */
+	public LocalCDXServer start() {
+		ArgumentCheck.checkIsTrue(server == null, "The server has already been started");
+		try {
+			server = HttpServer.create(new InetSocketAddress(port), 0);
+		} catch (IOException e) {
+			logger.error("Could not start the CDX server on the port " + port, e);
+			throw new IllegalStateException("Could not start the CDX server on the port " + port, e);
+		}
+		server.createContext(DAB_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRequest(exchange, true);
+			}
+		});
+		server.createContext(PYWB_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRequest(exchange, false);
+			}
+		});
+		executor = Executors.newFixedThreadPool(threads, new ServerThreadFactory());
+		server.setExecutor(executor);
+		server.start();
+		port = server.getAddress().getPort();
+		logger.info("Started the CDX server on the port " + port + " with " + threads + " threads.");
+		return this;
+	}
+
+	/**
+	 * @return The port of the server. Only the actual port, when the server has been started.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return The URL of the endpoint with the DAB protocol, for the DabCDXExtractor.
+	 */
+	public String getDabUrl() {
+		return "http://localhost:" + port + DAB_PATH;
+	}
+
+	/**
+	 * @return The URL of the endpoint with the pywb protocol, for the PywbCDXExtractor.
+	 */
+	public String getPywbUrl() {
+		return "http://localhost:" + port + PYWB_PATH;
+	}
+
+	/**
+	 * @return The number of requests received.
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return The number of requests answered with an injected error.
+	 */
+	public long getInjectedErrorCount() {
+		return injectedErrorCount.get();
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	@Override
+	public void close() {
+		if(server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			logger.info("Stopped the CDX server on the port " + port + " after " + requestCount.get()
+					+ " requests.");
+		}
+	}
+
+	/**
+	 * Handles a request: Waits for the latency, injects an error, or delivers the CDX entries.
+	 * @param exchange The exchange of the request.
+	 * @param dab Whether it is a request with the DAB protocol, otherwise it is the pywb protocol.
+	 */
+	protected void handleRequest(HttpExchange exchange, boolean dab) {
+		requestCount.incrementAndGet();
+		try {
+			waitForLatency();
+			if(errorRate > 0.0 && random.nextDouble() < errorRate) {
+				injectedErrorCount.incrementAndGet();
+				sendMessage(exchange, errorStatusCode, "Injected error");
+				return;
+			}
+			String query = exchange.getRequestURI().getRawQuery();
+			if(dab) {
+				handleDabRequest(exchange, query == null ? "" : query);
+			} else {
+				handlePywbRequest(exchange, query == null ? "" : query);
+			}
+		} catch (IllegalArgumentException e) {
+			logger.debug("Invalid request '" + exchange.getRequestURI() + "'.", e);
+			sendMessage(exchange, STATUS_BAD_REQUEST, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Failed to answer the request '" + exchange.getRequestURI() + "'.", e);
+			sendMessage(exchange, STATUS_SERVER_ERROR, e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Waits for the artificial latency of a request.
+	 * @throws InterruptedException If the server is stopped while waiting.
+	 */
+	protected void waitForLatency() throws InterruptedException {
+		long latency = minLatency;
+		if(maxLatency > minLatency) {
+			latency += (long) (random.nextDouble() * (maxLatency - minLatency + 1));
+		}
+		if(latency > 0) {
+			Thread.sleep(latency);
+		}
+	}
+
+	/**
+	 * Handles a request with the DAB protocol, where the query is the key of the URL followed by a space.
+	 * Without the space the query is for all the keys with the prefix.
+	 * @param exchange The exchange of the request.
+	 * @param query The raw query of the request.
+	 * @throws IOException If the response cannot be written.
+	 */
+	protected void handleDabRequest(HttpExchange exchange, String query) throws IOException {
+		Map<String, String> arguments = parseArguments(query, Collections.singletonList(DAB_QUERY_ARGUMENT));
+		String q = arguments.get(DAB_QUERY_ARGUMENT);
+		if(q == null || q.trim().isEmpty()) {
+			throw new IllegalArgumentException("Missing the argument '" + DAB_QUERY_ARGUMENT + "'.");
+		}
+		String key = q.trim();
+		CDXMatchType matchType = q.endsWith(" ") ? CDXMatchType.EXACT : CDXMatchType.PREFIX;
+		Collection<Character> format = DabCDXExtractor.getDefaultCDXFormat();
+
+		if(matchType == CDXMatchType.EXACT) {
+			try (CDXEntryWriter writer = new CDXEntryWriter(exchange, format)) {
+				extractor.streamAllCDX(key, writer);
+			}
+		} else {
+			try (CDXQueryIterator iterator = extractor.queryCDX(key, matchType);
+					CDXEntryWriter writer = new CDXEntryWriter(exchange, format)) {
+				while(iterator.hasNext()) {
+					writer.handleEntry(iterator.next());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles a request with the pywb protocol.
+	 * The CDX entries are streamed, unless they must be sorted by the closest date, or divided into pages.
+	 * @param exchange The exchange of the request.
+	 * @param query The raw query of the request.
+	 * @throws IOException If the response cannot be written.
+	 */
+	protected void handlePywbRequest(HttpExchange exchange, String query) throws IOException {
+		Map<String, String> arguments = parseArguments(query, PYWB_ARGUMENTS);
+		String url = arguments.get(URL_ARGUMENT);
+		if(url == null || url.isEmpty()) {
+			throw new IllegalArgumentException("Missing the argument '" + URL_ARGUMENT + "'.");
+		}
+		CDXMatchType matchType = CDXMatchType.extractMatchType(url);
+		url = CDXMatchType.stripWildcard(url);
+		if(arguments.containsKey(MATCH_TYPE_ARGUMENT)) {
+			matchType = extractMatchType(arguments.get(MATCH_TYPE_ARGUMENT));
+		}
+		List<Character> format = extractFormat(arguments.get(FL_ARGUMENT));
+		String from = padDate(arguments.get(FROM_ARGUMENT), EARLIEST_DATE_PADDING);
+		String to = padDate(arguments.get(TO_ARGUMENT), LATEST_DATE_PADDING);
+		int limit = extractNumber(arguments, LIMIT_ARGUMENT, Integer.MAX_VALUE);
+		String closest = padDate(arguments.get(CLOSEST_ARGUMENT), EARLIEST_DATE_PADDING);
+		boolean showNumPages = Boolean.parseBoolean(arguments.get(SHOW_NUM_PAGES_ARGUMENT));
+		int page = extractNumber(arguments, PAGE_ARGUMENT, -1);
+		CDXSampling sampling = CDXSampling.extractSampling(arguments.get(COLLAPSE_ARGUMENT));
+
+		CDXQueryIterator iterator = matchType == CDXMatchType.EXACT ? null : extractor.queryCDX(url, matchType);
+		try {
+			if(closest == null && !showNumPages && page < 0) {
+				try (CDXEntryWriter writer = new CDXEntryWriter(exchange, format)) {
+					writer.setInterval(from, to);
+					writer.setSampling(sampling);
+					writer.setLimit(limit);
+					streamEntries(url, iterator, writer);
+				}
+				return;
+			}
+
+			final List<CDXEntry> entries = new ArrayList<CDXEntry>();
+			CDXEntryWriter collector = new CDXEntryWriter(null, format) {
+				@Override
+				protected void writeEntry(CDXEntry entry) {
+					entries.add(entry);
+				}
+			};
+			collector.setInterval(from, to);
+			collector.setSampling(sampling);
+			streamEntries(url, iterator, collector);
+			if(closest != null) {
+				sortByClosestDate(entries, closest);
+			}
+			List<CDXEntry> res = entries.subList(0, Math.min(limit, entries.size()));
+			if(showNumPages) {
+				int pages = (res.size() + pageSize - 1) / pageSize;
+				sendMessage(exchange, STATUS_OK, "{\"pages\": " + pages + ", \"pageSize\": " + pageSize
+						+ ", \"blocks\": " + pages + "}");
+				return;
+			}
+			if(page >= 0) {
+				int start = Math.min(page * pageSize, res.size());
+				res = res.subList(start, Math.min(start + pageSize, res.size()));
+			}
+			try (CDXEntryWriter writer = new CDXEntryWriter(exchange, format)) {
+				for(CDXEntry entry : res) {
+					writer.handleEntry(entry);
+				}
+			}
+		} finally {
+			if(iterator != null) {
+				iterator.close();
+			}
+		}
+	}
+
+	/**
+	 * Streams the CDX entries for the URL, or of a query, to the handler.
+	 * @param url The URL.
+	 * @param iterator The iterator of the query, or null for the CDX entries of the URL itself.
+	 * @param handler The handler of the CDX entries.
+	 */
+	protected void streamEntries(String url, CDXQueryIterator iterator, CDXEntryHandler handler) {
+		if(iterator == null) {
+			extractor.streamAllCDX(url, handler);
+			return;
+		}
+		while(iterator.hasNext()) {
+			handler.handleEntry(iterator.next());
+		}
+	}
+
+	/**
+	 * Sorts the CDX entries by their distance to a date, with the closest first.
+	 * @param entries The CDX entries.
+	 * @param closest The date, in the Wayback format.
+	 */
+	protected void sortByClosestDate(List<CDXEntry> entries, String closest) {
+		final long closestDate;
+		try {
+			closestDate = DateUtils.waybackDateToDate(closest).getTime();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid date for '" + CLOSEST_ARGUMENT + "': " + closest, e);
+		}
+		Collections.sort(entries, new Comparator<CDXEntry>() {
+			@Override
+			public int compare(CDXEntry o1, CDXEntry o2) {
+				return Long.compare(Math.abs(o1.getDateAsLong() - closestDate),
+						Math.abs(o2.getDateAsLong() - closestDate));
+			}
+		});
+	}
+
+	/**
+	 * Parses the arguments of a query. An '&amp;', which is not followed by one of the known arguments, is part
+	 * of the previous value, since the CDX extractors do not encode the URL in the request.
+	 * A '+' is kept as a '+', and not decoded as a space.
+	 * @param query The raw query.
+	 * @param knownArguments The names of the known arguments.
+	 * @return The decoded values of the arguments by their name.
+	 */
+	protected static Map<String, String> parseArguments(String query, List<String> knownArguments) {
+		Map<String, String> res = new LinkedHashMap<String, String>();
+		String name = null;
+		StringBuilder value = new StringBuilder();
+		for(String part : query.split("&", -1)) {
+			int equals = part.indexOf('=');
+			String partName = equals < 0 ? part : part.substring(0, equals);
+			if(knownArguments.contains(partName)) {
+				if(name != null) {
+					res.put(name, decode(value.toString()));
+				}
+				name = partName;
+				value.setLength(0);
+				value.append(equals < 0 ? "" : part.substring(equals + 1));
+			} else if(name != null) {
+				value.append('&').append(part);
+			}
+		}
+		if(name != null) {
+			res.put(name, decode(value.toString()));
+		}
+		return res;
+	}
+
+	/**
+	 * Decodes the percent-encoded characters of a value.
+	 * @param value The value.
+	 * @return The decoded value.
+	 */
+	protected static String decode(String value) {
+		try {
+			return URLDecoder.decode(value.replace("+", "%2B"), CHARSET.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("The charset '" + CHARSET.name() + "' is not supported.", e);
+		}
+	}
+
+	/**
+	 * Extracts the match type from the value of the 'matchType' argument.
+	 * @param value The value of the argument.
+	 * @return The match type.
+	 */
+	protected static CDXMatchType extractMatchType(String value) {
+		for(CDXMatchType matchType : CDXMatchType.values()) {
+			if(matchType.getArgument().equalsIgnoreCase(value)) {
+				return matchType;
+			}
+		}
+		throw new IllegalArgumentException("Unknown " + MATCH_TYPE_ARGUMENT + ": " + value);
+	}
+
+	/**
+	 * Extracts the CDX format of the response from the value of the 'fl' argument.
+	 * @param fields The comma separated names of the fields, or null for the default CDX format.
+	 * @return The CDX format.
+	 */
+	protected static List<Character> extractFormat(String fields) {
+		if(fields == null || fields.isEmpty()) {
+			return new ArrayList<Character>(DabCDXExtractor.getDefaultCDXFormat());
+		}
+		List<Character> res = new ArrayList<Character>();
+		for(String field : fields.split(",")) {
+			Character c = PYWB_FIELDS.get(field.trim());
+			if(c == null) {
+				throw new IllegalArgumentException("Unknown field in '" + FL_ARGUMENT + "': " + field);
+			}
+			res.add(c);
+		}
+		return res;
+	}
+
+	/**
+	 * Pads a partial date (e.g. '2014') to a full date in the Wayback format.
+	 * @param date The partial date, or null.
+	 * @param padding The full date, which the missing digits are taken from.
+	 * @return The full date, or null if no date was given.
+	 */
+	protected static String padDate(String date, String padding) {
+		if(date == null || date.isEmpty()) {
+			return null;
+		}
+		if(date.length() >= padding.length()) {
+			return date.substring(0, padding.length());
+		}
+		return date + padding.substring(date.length());
+	}
+
+	/**
+	 * Extracts a non-negative number from the arguments.
+	 * @param arguments The arguments.
+	 * @param name The name of the argument.
+	 * @param defaultValue The value, when the argument is not given.
+	 * @return The number.
+	 */
+	protected static int extractNumber(Map<String, String> arguments, String name, int defaultValue) {
+		String value = arguments.get(name);
+		if(value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			int res = Integer.parseInt(value);
+			ArgumentCheck.checkIsTrue(res >= 0, "The argument '" + name + "' must not be negative");
+			return res;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number for '" + name + "': " + value, e);
+		}
+	}
+
+	/**
+	 * Sends a short message as the whole response. Ignored if the response has already been started.
+	 * @param exchange The exchange of the request.
+	 * @param statusCode The HTTP status code.
+	 * @param message The message.
+	 */
+	protected static void sendMessage(HttpExchange exchange, int statusCode, String message) {
+		if(exchange.getResponseCode() != -1) {
+			return;
+		}
+		byte[] content = (message == null ? "" : message).getBytes(CHARSET);
+		try {
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(statusCode, content.length == 0 ? -1 : content.length);
+			if(content.length > 0) {
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(content);
+				}
+			}
+		} catch (IOException e) {
+			logger.debug("Could not send the response to '" + exchange.getRequestURI() + "'.", e);
+		}
+	}
+
+	/**
+	 * Handler, which writes the CDX entries as lines of the response while they are delivered.
+	 * The response is started by the first entry, or when the writer is closed.
+	 */
+	protected static class CDXEntryWriter implements CDXEntryHandler, Closeable {
+		/** The exchange of the request.*/
+		protected final HttpExchange exchange;
+		/** The CDX format of the lines.*/
+		protected final Collection<Character> format;
+		/** The earliest date of the CDX entries, in the Wayback format. Null for no earliest date.*/
+		protected String from = null;
+		/** The latest date of the CDX entries, in the Wayback format. Null for no latest date.*/
+		protected String to = null;
+		/** The sampler of the CDX entries. Null for all the CDX entries.*/
+		protected CDXSampler sampler = null;
+		/** The maximum number of CDX entries.*/
+		protected int limit = Integer.MAX_VALUE;
+		/** The number of CDX entries delivered.*/
+		protected int count = 0;
+		/** The writer of the response. Null until the response has been started.*/
+		protected Writer writer = null;
+
+		/**
+		 * Constructor.
+		 * @param exchange The exchange of the request.
+		 * @param format The CDX format of the lines.
+		 */
+		protected CDXEntryWriter(HttpExchange exchange, Collection<Character> format) {
+			this.exchange = exchange;
+			this.format = format;
+		}
+
+		/**
+		 * Only delivers the CDX entries within the interval.
+		 * @param from The earliest date, in the Wayback format. Null for no earliest date.
+		 * @param to The latest date, in the Wayback format. Null for no latest date.
+		 */
+		protected void setInterval(String from, String to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Only delivers the first CDX entry of each URL within each period of the sampling.
+		 * @param sampling The sampling. Null for all the CDX entries.
+		 */
+		protected void setSampling(CDXSampling sampling) {
+			this.sampler = sampling == null ? null : new CDXSampler(sampling);
+		}
+
+		/**
+		 * Only delivers a limited number of CDX entries.
+		 * @param limit The maximum number of CDX entries.
+		 */
+		protected void setLimit(int limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public void handleEntry(CDXEntry entry) {
+			if(entry == null || count >= limit) {
+				return;
+			}
+			if(from != null || to != null) {
+				String date = DateUtils.dateToWaybackDate(entry.getDateAsLong());
+				if((from != null && date.compareTo(from) < 0) || (to != null && date.compareTo(to) > 0)) {
+					return;
+				}
+			}
+			if(sampler != null && !sampler.accept(entry)) {
+				return;
+			}
+			count++;
+			writeEntry(entry);
+		}
+
+		/**
+		 * Writes the CDX entry as a line of the response.
+		 * @param entry The CDX entry.
+		 */
+		protected void writeEntry(CDXEntry entry) {
+			try {
+				startResponse();
+				String line = entry.extractCDXAsLine(format);
+				writer.write(line.substring(0, line.length() - 2));
+				writer.write('\n');
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not write the CDX entry to the response.", e);
+			}
+		}
+
+		/**
+		 * Starts the response, if it has not been started already.
+		 * @throws IOException If the response cannot be started.
+		 */
+		protected void startResponse() throws IOException {
+			if(writer == null) {
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(STATUS_OK, 0);
+				writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), CHARSET));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(exchange == null) {
+				return;
+			}
+			startResponse();
+			writer.close();
+		}
+	}
+
+	/**
+	 * Thread factory for the threads handling the requests, which are daemon threads, so a server, which is
+	 * not stopped, does not keep the JVM alive.
+	 */
+	protected static class ServerThreadFactory implements ThreadFactory {
+		/** The counter for the names of the threads.*/
+		protected static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread res = new Thread(r, "cdx-server-" + THREAD_COUNT.incrementAndGet());
+			res.setDaemon(true);
+			return res;
+		}
+	}
+}
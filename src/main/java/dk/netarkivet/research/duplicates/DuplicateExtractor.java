@@ -1,17 +1,27 @@
 package dk.netarkivet.research.duplicates;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.CDXConstants;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
+import dk.netarkivet.research.cdx.CDXMatchType;
+import dk.netarkivet.research.cdx.CDXQueryIterator;
+import dk.netarkivet.research.cdx.IndexedCDXExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
 import dk.netarkivet.research.interval.UrlInterval;
 import dk.netarkivet.research.utils.CDXUtils;
 import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.utils.SurtUtils;
 
 /**
  * Finds duplicates.
@@ -21,6 +31,14 @@ import dk.netarkivet.research.utils.DateUtils;
 public class DuplicateExtractor {
     /** Logging mechanism. */
     private static Logger logger = LoggerFactory.getLogger(DuplicateExtractor.class);
+    
+	/** 
+	 * The CDX fields needed for the duplicates: the URL, the date and the digest for the duplicate maps, 
+	 * the filename for the harvest job, and the status code for the results.
+	 */
+	public static final Collection<Character> DUPLICATE_CDX_FIELDS = Collections.unmodifiableList(Arrays.asList(
+			CDXConstants.CDX_CHAR_ORIGINAL_URL, CDXConstants.CDX_CHAR_DATE, CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM,
+			CDXConstants.CDX_CHAR_FILE_NAME, CDXConstants.CDX_CHAR_RESPONSE_CODE));
 
 	/** The CDX extractor.*/
 	protected final CDXExtractor cdxExtractor;
@@ -39,23 +57,96 @@ public class DuplicateExtractor {
 	
 	/**
 	 * Create a duplicate map for a given URL interval.
+	 * The CDX entries of the interval are retrieved through the extractor, which limits them to the dates of the
+	 * interval and samples them, if the interval has a sampling.
 	 * @param urlInterval The URL interval to extract the CDX from for creating the duplicate map.
 	 * @return The duplicate map for the URL interval.
 	 */
 	public DuplicateMap makeDuplicateMap(UrlInterval urlInterval) {
-		Collection<CDXEntry> cdxs = cdxExtractor.retrieveAllCDX(urlInterval.getUrl());
-
 		DuplicateMap res = new DuplicateMap();
+		Collection<CDXEntry> cdxs = cdxExtractor.retrieveCDXForInterval(urlInterval);
+		if(cdxs == null) {
+			logger.info("No CDX entries for the URL '" + urlInterval.getUrl() + "'.");
+			return res;
+		}
 		
 		for(CDXEntry entry : cdxs) {
-			if(DateUtils.checkDateInterval(entry, urlInterval.getEarliestDate(), urlInterval.getLatestDate())) {
-				res.addElement(entry, extractJobInfo(entry));
-			}
+			res.addElement(entry, extractJobInfo(entry));
 		}
 		
 		return res;
 	}
 	
+	/**
+	 * Creates the duplicate maps for all the URLs matching a query, e.g. all the URLs of a host.
+	 * The CDX entries are retrieved with a single streamed query, instead of a request for each URL, and only
+	 * with the fields needed for the duplicates.
+	 * URLs with the same SURT (e.g. with and without 'www') share the same duplicate map.
+	 * @param urlInterval The URL of the query and the interval, and possibly the sampling of each URL.
+	 * @param matchType How the URL of the query is matched.
+	 * @return The duplicate maps for the URLs, by the first URL found for each SURT.
+	 */
+	public Map<String, DuplicateMap> makeDuplicateMaps(UrlInterval urlInterval, CDXMatchType matchType) {
+		Map<String, String> surtToUrl = new HashMap<String, String>();
+		Map<String, DuplicateMap> res = new LinkedHashMap<String, DuplicateMap>();
+		// A sampled query is sampled by the extractor, since the sample must be taken within the interval.
+		CDXQueryIterator query = urlInterval.getSampling() == null 
+				? cdxExtractor.queryCDX(urlInterval.getUrl(), matchType, DUPLICATE_CDX_FIELDS) 
+				: cdxExtractor.queryCDXForInterval(urlInterval, matchType);
+		try (CDXQueryIterator iterator = query) {
+			while(iterator.hasNext()) {
+				CDXEntry entry = iterator.next();
+				if(!DateUtils.checkDateInterval(entry, urlInterval.getEarliestDate(), urlInterval.getLatestDate())) {
+					continue;
+				}
+				addToDuplicateMaps(entry, surtToUrl, res);
+			}
+		}
+		logger.info("Found " + res.size() + " URLs for the " + matchType + " query for '" + urlInterval.getUrl() 
+				+ "'.");
+		return res;
+	}
+	
+	/**
+	 * Creates the duplicate maps for all the URLs, which have captures with the given digest.
+	 * The captures are found with the digest index of the CDX extractor, instead of looking through the CDX 
+	 * entries of every URL.
+	 * URLs with the same SURT (e.g. with and without 'www') share the same duplicate map.
+	 * @param digest The payload digest.
+	 * @return The duplicate maps for the URLs with the digest, by the first URL found for each SURT.
+	 * @throws IllegalStateException If the CDX extractor has no index of the digests.
+	 */
+	public Map<String, DuplicateMap> makeDigestDuplicateMaps(String digest) {
+		if(!(cdxExtractor instanceof IndexedCDXExtractor)) {
+			throw new IllegalStateException("The CDX extractor cannot find the captures with a digest.");
+		}
+		Map<String, String> surtToUrl = new HashMap<String, String>();
+		Map<String, DuplicateMap> res = new LinkedHashMap<String, DuplicateMap>();
+		for(CDXEntry entry : ((IndexedCDXExtractor) cdxExtractor).retrieveCDXForDigest(digest)) {
+			addToDuplicateMaps(entry, surtToUrl, res);
+		}
+		logger.info("Found " + res.size() + " URLs with the digest '" + digest + "'.");
+		return res;
+	}
+	
+	/**
+	 * Adds the CDX entry to the duplicate map for its URL, which is shared by the URLs with the same SURT.
+	 * @param entry The CDX entry.
+	 * @param surtToUrl The first URL found for each SURT.
+	 * @param duplicateMaps The duplicate maps by the first URL found for each SURT.
+	 */
+	protected void addToDuplicateMaps(CDXEntry entry, Map<String, String> surtToUrl, 
+			Map<String, DuplicateMap> duplicateMaps) {
+		String surt = SurtUtils.toSurt(entry.getUrl());
+		String url = surtToUrl.get(surt);
+		if(url == null) {
+			url = entry.getUrl();
+			surtToUrl.put(surt, url);
+			duplicateMaps.put(url, new DuplicateMap());
+		}
+		duplicateMaps.get(url).addElement(entry, extractJobInfo(entry));
+	}
+	
 	/**
 	 * Extracts the harvest job info for the harvest job id in the filename in the CDX entry.
 	 * @param entry The CDX entry.
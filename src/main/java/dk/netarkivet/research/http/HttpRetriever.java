@@ -1,28 +1,60 @@
 package dk.netarkivet.research.http;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.Charset;
 
-import org.apache.http.HttpResponse;
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.exception.ArgumentCheck;
+
 /**
  * Class for encapsulating HTTP methods.
+ * 
+ * By default a new HTTP client is made for each request. With a pool of connections, a single HTTP client
+ * is shared by all the requests, and the connections to the servers are kept alive and reused between the 
+ * requests, and at most the given number of connections are open at the same time.
+ * A retriever with a pool of connections must be closed after use.
  */
-public class HttpRetriever {
+public class HttpRetriever implements Closeable {
 	/** The log.*/
 	private static Logger logger = LoggerFactory.getLogger(HttpRetriever.class);
 
+	/** The HTTP client shared by all the requests. Null if each request has its own HTTP client.*/
+	protected final CloseableHttpClient sharedClient;
+
 	/**
 	 * Constructor.
 	 */
-	public HttpRetriever() {}
+	public HttpRetriever() {
+		this.sharedClient = null;
+	}
+
+	/**
+	 * Constructor for a retriever with a pool of connections.
+	 * @param maxConnections The maximum number of open connections, both in total and to each server.
+	 */
+	public HttpRetriever(int maxConnections) {
+		ArgumentCheck.checkIsTrue(maxConnections > 0, "The maximum number of connections must be positive");
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		this.sharedClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+	}
 
 	/**
 	 * Makes a HTTP request and delivers the content of the respons.
@@ -31,10 +63,8 @@ public class HttpRetriever {
 	 * @return The response, or null if it is a bad response or an exception was thrown.
 	 */
 	public String retrieveFromUrl(String url) {
-		try (CloseableHttpClient httpClient = HttpClients.createDefault();){
-			HttpGet httpGet = new HttpGet(url);
-
-			HttpResponse response = httpClient.execute(httpGet);
+		CloseableHttpClient httpClient = openClient();
+		try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
 			if(response.getStatusLine().getStatusCode() != 200) {
 				logger.warn("Failed to retrieve data. Received response code " 
 						+ response.getStatusLine().getStatusCode());
@@ -45,6 +75,86 @@ public class HttpRetriever {
 		} catch (IOException e) {
 			logger.warn("Failed to retrieve data from '" + url + "'. Returning a null", e);
 			return null;
+		} finally {
+			closeClient(httpClient);
+		}
+	}
+
+	/**
+	 * Makes a HTTP request and delivers the content of the response to the handler one line at the time, 
+	 * while it is read from the connection. So the response is never held in memory as a whole.
+	 * If the response has no charset, then it is read as ISO-8859-1, as with {@link #retrieveFromUrl(String)}.
+	 * 
+	 * If it fails while reading the response, then the handler may have received some of the lines.
+	 * @param url The url for the HTTP request.
+	 * @param handler The handler of the lines of the response.
+	 * @return Whether the whole response was delivered. False if it is a bad response or an exception was thrown.
+	 */
+	public boolean retrieveLinesFromUrl(String url, ResponseLineHandler handler) {
+		CloseableHttpClient httpClient = openClient();
+		try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
+			if(response.getStatusLine().getStatusCode() != 200) {
+				logger.warn("Failed to retrieve data. Received response code " 
+						+ response.getStatusLine().getStatusCode());
+				return false;
+			}
+			HttpEntity entity = response.getEntity();
+			if(entity == null) {
+				return true;
+			}
+			ContentType contentType = ContentType.get(entity);
+			Charset charset = contentType == null ? null : contentType.getCharset();
+			if(charset == null) {
+				charset = Consts.ISO_8859_1;
+			}
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getContent(), charset))) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					handler.handleLine(line);
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			logger.warn("Failed to retrieve data from '" + url + "'.", e);
+			return false;
+		} finally {
+			closeClient(httpClient);
+		}
+	}
+
+	/**
+	 * @return The HTTP client for a request. Either the shared HTTP client, or a new HTTP client.
+	 */
+	protected CloseableHttpClient openClient() {
+		return sharedClient != null ? sharedClient : HttpClients.createDefault();
+	}
+
+	/**
+	 * Closes the HTTP client after a request, unless it is the shared HTTP client.
+	 * @param httpClient The HTTP client of the request.
+	 */
+	protected void closeClient(CloseableHttpClient httpClient) {
+		if(httpClient == sharedClient) {
+			return;
+		}
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			logger.debug("Failed to close the HTTP client.", e);
+		}
+	}
+
+	/**
+	 * Closes the pool of connections, if the retriever has one.
+	 */
+	@Override
+	public void close() {
+		if(sharedClient != null) {
+			try {
+				sharedClient.close();
+			} catch (IOException e) {
+				logger.warn("Failed to close the pool of HTTP connections.", e);
+			}
 		}
 	}
 
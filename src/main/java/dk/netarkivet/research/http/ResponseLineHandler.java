@@ -0,0 +1,12 @@
+package dk.netarkivet.research.http;
+
+/**
+ * Handler of the lines of a HTTP response, which is read one line at the time.
+ */
+public interface ResponseLineHandler {
+	/**
+	 * Handles a single line of the response.
+	 * @param line The line, without the line separator.
+	 */
+	void handleLine(String line);
+}
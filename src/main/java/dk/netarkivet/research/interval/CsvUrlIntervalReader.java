@@ -15,6 +15,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.research.cdx.CDXSampling;
 import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.utils.DateUtils;
 
@@ -22,7 +23,9 @@ import dk.netarkivet.research.utils.DateUtils;
  * Extracts URL intervals from a CSV file.
  * 
  * Must be in the format:
- * 'W/X';'url';'earliest date';'latest date';
+ * 'W/X';'url';'earliest date';'latest date';'sampling'
+ * where the sampling is optional, and is either 'year', 'month', 'day' or 'hour' for only the first capture
+ * within each period.
  */
 public class CsvUrlIntervalReader {
     /** Logging mechanism. */
@@ -93,13 +96,22 @@ public class CsvUrlIntervalReader {
 		String url = split[1];
 		Date earliestDate = null;
 		Date latestDate = null;
+		CDXSampling sampling = null;
 		if(split.length > 2) {
 			earliestDate = DateUtils.extractCsvDate(split[2]);
 			if(split.length > 3) {
 				latestDate = DateUtils.extractCsvDate(split[3]);
 			}
+			if(split.length > 4) {
+				try {
+					sampling = CDXSampling.extractSampling(split[4]);
+				} catch (IllegalArgumentException e) {
+					logger.warn("Ignoring the line '" + line + "', since it has an invalid sampling.", e);
+					return null;
+				}
+			}
 		}
 		
-		return new UrlInterval(url, earliestDate, latestDate);		
+		return new UrlInterval(url, earliestDate, latestDate, sampling);		
 	}
 }
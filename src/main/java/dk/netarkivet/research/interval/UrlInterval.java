@@ -2,6 +2,8 @@ package dk.netarkivet.research.interval;
 
 import java.util.Date;
 
+import dk.netarkivet.research.cdx.CDXSampling;
+
 /**
  * Container for the URL interval format.
  */
@@ -12,15 +14,30 @@ public class UrlInterval {
 	protected Date earliestDate = null;
 	/** The latest date for the interval.*/
 	protected Date latestDate = null;
+	/** The sampling of the captures within the interval. Null for all the captures.*/
+	protected final CDXSampling sampling;
 	
 	/**
-	 * Constructor.
+	 * Constructor, for all the captures within the interval.
 	 * @param url The URL for the interval.
 	 * @param earliestDate The earliest date for the interval.
 	 * @param latestDate The latest date for the interval.
 	 */
 	public UrlInterval(String url, Date earliestDate, Date latestDate) {
+		this(url, earliestDate, latestDate, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param url The URL for the interval.
+	 * @param earliestDate The earliest date for the interval.
+	 * @param latestDate The latest date for the interval.
+	 * @param sampling The sampling of the captures within the interval, e.g. only the first capture of each day.
+	 * Null for all the captures.
+	 */
+	public UrlInterval(String url, Date earliestDate, Date latestDate, CDXSampling sampling) {
 		this.url = url;
+		this.sampling = sampling;
 		if(earliestDate != null) {
 			this.earliestDate = new Date(earliestDate.getTime());
 		}
@@ -55,4 +72,11 @@ public class UrlInterval {
 		}
 		return new Date(latestDate.getTime());
 	}
+	
+	/**
+	 * @return The sampling of the captures within the interval, or null for all the captures.
+	 */
+	public CDXSampling getSampling() {
+		return sampling;
+	}
 }
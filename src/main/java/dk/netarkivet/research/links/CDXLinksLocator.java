@@ -1,19 +1,40 @@
 package dk.netarkivet.research.links;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 
+import dk.netarkivet.research.cdx.CDXBloomFilter;
+import dk.netarkivet.research.cdx.CDXConstants;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
+import dk.netarkivet.research.utils.SurtUtils;
 import dk.netarkivet.research.wid.WaybackWID;
 
 /**
  * CDX Link locator.
  * Extracting the links from WARC records using a link extractor, and checking whether the links can be found in 
  * the CDX server.
+ * 
+ * If a bloom filter of the URLs in the archive is given, then the links which are definitely not in the archive
+ * are found without asking the CDX server.
  */
 public class CDXLinksLocator extends LinksLocator {
+	/** 
+	 * The CDX fields needed for a link. Only whether the link is archived, and the date of the closest capture, 
+	 * are used.
+	 */
+	protected static final Collection<Character> LINK_CDX_FIELDS = Collections.unmodifiableList(Arrays.asList(
+			CDXConstants.CDX_CHAR_DATE));
 	/** The CDX extractor.*/
 	protected final CDXExtractor cdxExtractor;
+	/** The bloom filter of the URLs in the archive. Null if every link must be looked up.*/
+	protected final CDXBloomFilter bloomFilter;
+	/** The number of links, which were looked up with the CDX extractor.*/
+	protected long lookups = 0L;
+	/** The number of links, which the bloom filter found not to be in the archive.*/
+	protected long filteredLookups = 0L;
 	
 	/**
 	 * Constructor.
@@ -21,21 +42,50 @@ public class CDXLinksLocator extends LinksLocator {
 	 * @param cdxExtractor The extractor of CDX entries.
 	 */
 	public CDXLinksLocator(LinkExtractor linkExtractor, CDXExtractor cdxExtractor) {
+		this(linkExtractor, cdxExtractor, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param linkExtractor The extractor of the links.
+	 * @param cdxExtractor The extractor of CDX entries.
+	 * @param bloomFilter The bloom filter of the URLs in the archive. May be null, if every link must be looked up.
+	 */
+	public CDXLinksLocator(LinkExtractor linkExtractor, CDXExtractor cdxExtractor, CDXBloomFilter bloomFilter) {
 		super(linkExtractor);
 		this.cdxExtractor = cdxExtractor;
+		this.bloomFilter = bloomFilter;
+	}
+	
+	/**
+	 * @return The number of links, which were looked up with the CDX extractor.
+	 */
+	public long getLookups() {
+		return lookups;
+	}
+	
+	/**
+	 * @return The number of links, which the bloom filter found not to be in the archive, without a lookup.
+	 */
+	public long getFilteredLookups() {
+		return filteredLookups;
 	}
 
 	@Override
 	protected LinkStatus getLinkStatus(String link, String originalUrl, Date originalDate) {
-		String extractLink = link.contains("#") ? link.split("#")[0] : link;
+		String extractLink = SurtUtils.stripFragment(link);
 		WaybackWID wid = WaybackWID.createNarkWaybackWID(null, extractLink, originalDate);
 		if(extractLink.equals("http:") || extractLink.equals("https:") 
 		   || extractLink.equals("http:/") || extractLink.equals("https:/") 
 		   || extractLink.equals("http://") || extractLink.equals("https://") 
 		   || !extractLink.startsWith("http"))  {
 			return new LinkStatus(false, link, null, originalUrl, originalDate, "cdx");
+		} else if(bloomFilter != null && !bloomFilter.mightContain(extractLink)) {
+			filteredLookups++;
+			return new LinkStatus(false, link, null, originalUrl, originalDate, "cdx");
 		} else {
-			CDXEntry entry = cdxExtractor.retrieveCDX(wid);
+			lookups++;
+			CDXEntry entry = cdxExtractor.retrieveCDX(wid, LINK_CDX_FIELDS);
 			if(entry == null) {
 				return new LinkStatus(false, link, null, originalUrl, originalDate, "cdx");
 			} else {
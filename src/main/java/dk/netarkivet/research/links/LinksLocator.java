@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.research.exception.ArgumentCheck;
 import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.utils.SurtUtils;
 
 /**
  * Abstract link locator.
@@ -55,7 +56,7 @@ public abstract class LinksLocator {
 			Collection<String> links = linkExtractor.extractLinks(record.getPayloadContent(), contentUrl);
 			
 			for(String link : links) {
-				String extractLink = link.contains("#") ? link.split("#")[0] : link;
+				String extractLink = SurtUtils.stripFragment(link);
 				linkStates.add(getLinkStatus(extractLink, contentUrl.toExternalForm(), recordDate));
 			}
 
@@ -27,6 +27,13 @@ public class DateUtils {
 	/** CDX date format string as specified in the CDX documentation. */
 	protected static final String CDX_DATE_FORMAT = "yyyyMMddHHmmss";
 	
+	/** The first whole year of the Gregorian calendar, which is used by the CDX date format.*/
+	private static final int GREGORIAN_START_YEAR = 1583;
+	/** The number of days from 0000-03-01 to 1970-01-01 in the proleptic Gregorian calendar.*/
+	private static final long DAYS_FROM_YEAR_ZERO_TO_EPOCH = 719468L;
+	/** The number of milliseconds in a day.*/
+	public static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+	
 	/** The date format for the */
 	protected static final List<String> WAYBACK_DATE_FORMATS = Collections.unmodifiableList(Arrays.asList(
 			"yyyy-MM-dd hh:mm:ss", "yyyy-MM-dd hh:mm", "dd-MM-yyyy"));
@@ -73,6 +80,108 @@ public class DateUtils {
 		return CDX_DATE_PARSER_THREAD.get().parse(date);		
 	}
 	
+	/**
+	 * Converts a Wayback date (yyyyMMddHHmmss in UTC) within a character sequence into milliseconds since epoch.
+	 * Well-formed 14-digit dates are decoded with integer arithmetic, without creating any objects.
+	 * Anything else is delegated to the date format, so the result is the same as for {@link #waybackDateToDate}.
+	 * @param date The character sequence containing the date.
+	 * @param start The index of the first character of the date.
+	 * @param end The index after the last character of the date.
+	 * @return The date in milliseconds since epoch.
+	 * @throws ParseException If it cannot be parsed.
+	 */
+	public static long waybackDateToMillis(CharSequence date, int start, int end) throws ParseException {
+		if(end - start == CDX_DATE_FORMAT.length()) {
+			int year = parseDigits(date, start, start + 4);
+			int month = parseDigits(date, start + 4, start + 6);
+			int day = parseDigits(date, start + 6, start + 8);
+			int hour = parseDigits(date, start + 8, start + 10);
+			int minute = parseDigits(date, start + 10, start + 12);
+			int second = parseDigits(date, start + 12, end);
+			// Before the Gregorian cutover the date format uses the Julian calendar.
+			if(year >= GREGORIAN_START_YEAR && month >= 1 && month <= 12 && day >= 1
+					&& day <= daysInMonth(year, month) && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59
+					&& second >= 0 && second <= 59) {
+				long days = daysSinceEpoch(year, month, day);
+				return ((days * 24L + hour) * 60L + minute) * 60000L + second * 1000L;
+			}
+		}
+		return waybackDateToDate(date.subSequence(start, end).toString()).getTime();
+	}
+
+	/**
+	 * Parses a sequence of decimal digits.
+	 * @param chars The characters.
+	 * @param start The index of the first digit.
+	 * @param end The index after the last digit.
+	 * @return The value of the digits, or -1 if any of the characters are not digits.
+	 */
+	private static int parseDigits(CharSequence chars, int start, int end) {
+		int res = 0;
+		for(int i = start; i < end; i++) {
+			int digit = chars.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				return -1;
+			}
+			res = res * 10 + digit;
+		}
+		return res;
+	}
+
+	/**
+	 * @param year The year.
+	 * @param month The month (1-12).
+	 * @return The number of days in the month of the year in the Gregorian calendar.
+	 */
+	private static int daysInMonth(int year, int month) {
+		if(month == 2) {
+			boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leapYear ? 29 : 28;
+		}
+		return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+	}
+
+	/**
+	 * Calculates the number of days between 1970-01-01 and the given date in the Gregorian calendar.
+	 * @param year The year (not negative).
+	 * @param month The month (1-12).
+	 * @param day The day of the month (1-31).
+	 * @return The number of days since epoch.
+	 */
+	private static long daysSinceEpoch(int year, int month, int day) {
+		// Count the years from March, so the leap day is the last day of the year.
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - DAYS_FROM_YEAR_ZERO_TO_EPOCH;
+	}
+
+	/**
+	 * Calculates the number of whole months between January 1970 and the month of the date in UTC,
+	 * with integer arithmetic in the Gregorian calendar. It is the inverse of the calculation of the days since
+	 * epoch, and is used for grouping dates by month or year without formatting them.
+	 * @param millis The date in milliseconds since epoch.
+	 * @return The number of months since January 1970. Negative for earlier dates.
+	 */
+	public static long monthsSinceEpoch(long millis) {
+		long days = millis / MILLIS_PER_DAY;
+		if(millis % MILLIS_PER_DAY < 0) {
+			days--;
+		}
+		// Count the years from March, so the leap day is the last day of the year.
+		long z = days + DAYS_FROM_YEAR_ZERO_TO_EPOCH;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long monthFromMarch = (5 * dayOfYear + 2) / 153;
+		long month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return (year - 1970) * 12 + month - 1;
+	}
+	
 	/**
 	 * Extract the actual date from the date-string. 
 	 * TODO also make it handle the default date format -> new Date().toString() ?
@@ -0,0 +1,288 @@
+package dk.netarkivet.research.utils;
+
+import java.util.Arrays;
+
+/**
+ * Utility class for making the SURT (Sort-friendly URI Reordering Transform) form of URLs, e.g.
+ * 'http://www.Example.com:80/Path?b=2&amp;a=1#top' becomes 'com,example)/path?a=1&amp;b=2'.
+ *
+ * The SURT is used as the key of a URL, so URLs which differ only in the scheme (http/https), a 'www' prefix,
+ * the default port, the case, the fragment or the order of the query arguments have the same key.
+ *
+ * The URL is read one character at the time without regular expressions, and the result is written directly
+ * into a single buffer, since it is made for every lookup.
+ */
+public class SurtUtils {
+	/** The separator between the host and the path in the SURT.*/
+	protected static final char HOST_END = ')';
+	/** The separator between the labels of the host in the SURT.*/
+	protected static final char LABEL_SEPARATOR = ',';
+	/** The separator of the scheme and the authority.*/
+	protected static final String SCHEME_SEPARATOR = "://";
+	/** The default port for http.*/
+	protected static final String HTTP_PORT = "80";
+	/** The default port for https.*/
+	protected static final String HTTPS_PORT = "443";
+	/** The prefix of hosts, which is not part of the SURT.*/
+	protected static final String WWW_PREFIX = "www";
+
+	/**
+	 * Makes the SURT form of the URL.
+	 * URLs without a scheme are handled as http URLs, and URLs which are not hierarchical
+	 * (e.g. 'dns:example.com') are only lower-cased.
+	 * @param url The URL.
+	 * @return The SURT of the URL, or null if the URL is null.
+	 */
+	public static String toSurt(String url) {
+		if(url == null) {
+			return null;
+		}
+		int start = 0;
+		int end = url.length();
+		while(start < end && url.charAt(start) <= ' ') {
+			start++;
+		}
+		int fragment = url.indexOf('#', start);
+		if(fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		while(end > start && url.charAt(end - 1) <= ' ') {
+			end--;
+		}
+
+		// The scheme.
+		String defaultPort = HTTP_PORT;
+		int authorityStart = start;
+		int schemeEnd = findSchemeEnd(url, start, end);
+		if(schemeEnd >= 0) {
+			if(!url.startsWith(SCHEME_SEPARATOR, schemeEnd)) {
+				if(!isPort(url, schemeEnd + 1, end)) {
+					return appendLowerCase(new StringBuilder(end - start), url, start, end).toString();
+				}
+			} else {
+				if(schemeEnd - start == 5 && url.regionMatches(true, start, "https", 0, 5)) {
+					defaultPort = HTTPS_PORT;
+				}
+				authorityStart = schemeEnd + SCHEME_SEPARATOR.length();
+			}
+		}
+
+		// The authority: [userinfo@]host[:port]
+		int authorityEnd = authorityStart;
+		while(authorityEnd < end && url.charAt(authorityEnd) != '/' && url.charAt(authorityEnd) != '?') {
+			authorityEnd++;
+		}
+		int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+		if(hostStart < authorityStart) {
+			hostStart = authorityStart;
+		}
+		int hostEnd = authorityEnd;
+		int portStart = authorityEnd;
+		for(int i = authorityEnd - 1; i >= hostStart; i--) {
+			char c = url.charAt(i);
+			if(c == ':') {
+				hostEnd = i;
+				portStart = i + 1;
+				break;
+			} else if(c < '0' || c > '9') {
+				break;
+			}
+		}
+		while(hostEnd > hostStart && url.charAt(hostEnd - 1) == '.') {
+			hostEnd--;
+		}
+		hostStart = skipWwwPrefix(url, hostStart, hostEnd);
+
+		StringBuilder res = new StringBuilder(end - start + 2);
+		appendHost(res, url, hostStart, hostEnd);
+		boolean defaultPortGiven = authorityEnd - portStart == defaultPort.length()
+				&& url.startsWith(defaultPort, portStart);
+		if(portStart < authorityEnd && !defaultPortGiven) {
+			res.append(':');
+			res.append(url, portStart, authorityEnd);
+		}
+		res.append(HOST_END);
+
+		// The path and the query.
+		int queryStart = url.indexOf('?', authorityEnd);
+		if(queryStart < 0 || queryStart >= end) {
+			queryStart = end;
+		}
+		if(authorityEnd == queryStart) {
+			res.append('/');
+		} else {
+			appendLowerCase(res, url, authorityEnd, queryStart);
+		}
+		if(queryStart + 1 < end) {
+			appendQuery(res, url, queryStart + 1, end);
+		}
+		return res.toString();
+	}
+
+	/**
+	 * Removes the fragment (the part after '#') from the URL.
+	 * @param url The URL.
+	 * @return The URL without the fragment.
+	 */
+	public static String stripFragment(String url) {
+		if(url == null) {
+			return null;
+		}
+		int fragment = url.indexOf('#');
+		return fragment < 0 ? url : url.substring(0, fragment);
+	}
+
+	/**
+	 * Finds the end of the scheme of the URL, which is the ':' after letters, digits, '+', '-' or '.'
+	 * starting with a letter.
+	 * @param url The URL.
+	 * @param start The start of the URL.
+	 * @param end The end of the URL.
+	 * @return The index of the ':' after the scheme, or -1 if the URL has no scheme.
+	 */
+	protected static int findSchemeEnd(String url, int start, int end) {
+		for(int i = start; i < end; i++) {
+			char c = url.charAt(i);
+			if(c == ':') {
+				return i > start ? i : -1;
+			}
+			boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+			if(!letter && (i == start || !((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'))) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param url The URL.
+	 * @param start The start of the part after a ':'.
+	 * @param end The end of the URL.
+	 * @return Whether the ':' is followed by a port number (digits until '/', '?' or the end).
+	 */
+	protected static boolean isPort(String url, int start, int end) {
+		int i = start;
+		while(i < end && url.charAt(i) >= '0' && url.charAt(i) <= '9') {
+			i++;
+		}
+		return i > start && (i == end || url.charAt(i) == '/' || url.charAt(i) == '?');
+	}
+
+	/**
+	 * Skips a 'www' prefix of the host, possibly with a number (e.g. 'www2.'), unless it is all of the host.
+	 * @param url The URL.
+	 * @param hostStart The start of the host.
+	 * @param hostEnd The end of the host.
+	 * @return The start of the host without the prefix.
+	 */
+	protected static int skipWwwPrefix(String url, int hostStart, int hostEnd) {
+		if(!url.regionMatches(true, hostStart, WWW_PREFIX, 0, WWW_PREFIX.length())) {
+			return hostStart;
+		}
+		int i = hostStart + WWW_PREFIX.length();
+		while(i < hostEnd && url.charAt(i) >= '0' && url.charAt(i) <= '9') {
+			i++;
+		}
+		if(i + 1 < hostEnd && url.charAt(i) == '.') {
+			return i + 1;
+		}
+		return hostStart;
+	}
+
+	/**
+	 * Appends the host with its labels in reverse order, e.g. 'example.com' as 'com,example'.
+	 * IP addresses are not reversed.
+	 * @param res The buffer for the SURT.
+	 * @param url The URL.
+	 * @param hostStart The start of the host.
+	 * @param hostEnd The end of the host.
+	 */
+	protected static void appendHost(StringBuilder res, String url, int hostStart, int hostEnd) {
+		boolean ipAddress = true;
+		for(int i = hostStart; i < hostEnd && ipAddress; i++) {
+			char c = url.charAt(i);
+			ipAddress = c == '.' || (c >= '0' && c <= '9');
+		}
+		if(ipAddress || url.charAt(hostStart) == '[') {
+			res.append(url, hostStart, hostEnd);
+			return;
+		}
+		int labelEnd = hostEnd;
+		for(int i = hostEnd - 1; i >= hostStart - 1; i--) {
+			if(i < hostStart || url.charAt(i) == '.') {
+				appendLowerCase(res, url, i + 1, labelEnd);
+				if(i >= hostStart) {
+					res.append(LABEL_SEPARATOR);
+				}
+				labelEnd = i;
+			}
+		}
+	}
+
+	/**
+	 * Appends the query with its arguments in sorted order, and without empty arguments.
+	 * @param res The buffer for the SURT.
+	 * @param url The URL.
+	 * @param queryStart The start of the query (after the '?').
+	 * @param end The end of the query.
+	 */
+	protected static void appendQuery(StringBuilder res, String url, int queryStart, int end) {
+		int separators = 0;
+		for(int i = queryStart; i < end; i++) {
+			if(url.charAt(i) == '&') {
+				separators++;
+			}
+		}
+		if(separators == 0) {
+			res.append('?');
+			appendLowerCase(res, url, queryStart, end);
+			return;
+		}
+
+		String[] arguments = new String[separators + 1];
+		int count = 0;
+		int argumentStart = queryStart;
+		for(int i = queryStart; i <= end; i++) {
+			if(i == end || url.charAt(i) == '&') {
+				if(i > argumentStart) {
+					arguments[count++] = appendLowerCase(new StringBuilder(i - argumentStart), url,
+							argumentStart, i).toString();
+				}
+				argumentStart = i + 1;
+			}
+		}
+		if(count == 0) {
+			return;
+		}
+		Arrays.sort(arguments, 0, count);
+		res.append('?');
+		for(int i = 0; i < count; i++) {
+			if(i > 0) {
+				res.append('&');
+			}
+			res.append(arguments[i]);
+		}
+	}
+
+	/**
+	 * Appends the characters in lower case.
+	 * @param res The buffer.
+	 * @param s The string with the characters.
+	 * @param start The start of the characters.
+	 * @param end The end of the characters.
+	 * @return The buffer.
+	 */
+	protected static StringBuilder appendLowerCase(StringBuilder res, String s, int start, int end) {
+		for(int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if(c >= 'A' && c <= 'Z') {
+				res.append((char) (c + ('a' - 'A')));
+			} else if(c < 128) {
+				res.append(c);
+			} else {
+				res.append(Character.toLowerCase(c));
+			}
+		}
+		return res;
+	}
+}
@@ -8,6 +8,7 @@ import java.io.RandomAccessFile;
 import java.net.URISyntaxException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.UUID;
 
 import org.jwat.archive.ManagedPayload;
@@ -87,6 +88,17 @@ public class WarcPacker {
      * @param targetDir The directory for placing the resulting warc-files.
      */
     public void extractToWarc(Collection<CDXEntry> entries, File targetDir) {
+    	extractToWarc(entries.iterator(), targetDir);
+    }
+    
+    /**
+     * Extract warc records for the cdx-entries of an iterator.
+     * The entries are extracted as they are delivered by the iterator, 
+     * so the extraction can start before all the entries have been read.
+     * @param entries The iterator of the CDX entries to have extracted.
+     * @param targetDir The directory for placing the resulting warc-files.
+     */
+    public void extractToWarc(Iterator<CDXEntry> entries, File targetDir) {
         String filePrefix = "CDX-EXTRACT";
 
         try {
@@ -97,7 +109,8 @@ public class WarcPacker {
             WarcFileWriter warcFileWriter = WarcFileWriter.getWarcWriterInstance(warcFileNaming, warcFileWriterConfig);
             
             WarcWriter warcWriter = null;
-        	for (CDXEntry cdxEntry : entries) {
+        	while (entries.hasNext()) {
+        		CDXEntry cdxEntry = entries.next();
         		if (warcFileWriter.nextWriter()) {
         			warcWriter = warcFileWriter.getWriter();
         			writeInfoRecord(warcFileWriter);
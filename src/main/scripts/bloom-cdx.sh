@@ -0,0 +1,18 @@
+#!/bin/bash
+ProgDir=`dirname "$0"`
+. "${ProgDir}/env.sh"
+
+MAIN_CLASS=dk.netarkivet.research.ExtCDXBloomFilter
+
+if [ "${CDX_BLOOM_FALSE_POSITIVE_RATE}" ]; then
+  CDX_BLOOM_OPTS="-Ddk.netarkivet.research.cdx.bloomFalsePositiveRate=$CDX_BLOOM_FALSE_POSITIVE_RATE"
+fi
+
+# echo "MAIN_CLASS: " $MAIN_CLASS
+# echo "JAVA: " $JAVA
+# echo "CP: " $CP
+# echo "JAVA_OPTS: " $JAVA_OPTS
+
+cd ${assembly.home.env.name.ref}
+
+"${JAVA}" ${JAVA_OPTS} ${CDX_BLOOM_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
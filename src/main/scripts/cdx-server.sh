@@ -0,0 +1,27 @@
+#!/bin/bash
+ProgDir=`dirname "$0"`
+. "${ProgDir}/env.sh"
+
+MAIN_CLASS=dk.netarkivet.research.ExtCDXServer
+
+if [ "${CDX_SERVER_LATENCY_MS}" ]; then
+  CDX_SERVER_OPTS="-Ddk.netarkivet.research.cdx.server.latencyMs=$CDX_SERVER_LATENCY_MS"
+fi
+if [ "${CDX_SERVER_ERROR_RATE}" ]; then
+  CDX_SERVER_OPTS="$CDX_SERVER_OPTS -Ddk.netarkivet.research.cdx.server.errorRate=$CDX_SERVER_ERROR_RATE"
+fi
+if [ "${CDX_SERVER_THREADS}" ]; then
+  CDX_SERVER_OPTS="$CDX_SERVER_OPTS -Ddk.netarkivet.research.cdx.server.threads=$CDX_SERVER_THREADS"
+fi
+if [ "${CDX_SERVER_PAGE_SIZE}" ]; then
+  CDX_SERVER_OPTS="$CDX_SERVER_OPTS -Ddk.netarkivet.research.cdx.server.pageSize=$CDX_SERVER_PAGE_SIZE"
+fi
+
+# echo "MAIN_CLASS: " $MAIN_CLASS
+# echo "JAVA: " $JAVA
+# echo "CP: " $CP
+# echo "JAVA_OPTS: " $JAVA_OPTS
+
+cd ${assembly.home.env.name.ref}
+
+"${JAVA}" ${JAVA_OPTS} ${CDX_SERVER_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
@@ -0,0 +1,18 @@
+#!/bin/bash
+ProgDir=`dirname "$0"`
+. "${ProgDir}/env.sh"
+
+MAIN_CLASS=dk.netarkivet.research.ExtCDXStatistics
+
+if [ "${CDX_STATISTICS_THREADS}" ]; then
+  CDX_STATISTICS_OPTS="-Ddk.netarkivet.research.cdx.statisticsThreads=$CDX_STATISTICS_THREADS"
+fi
+
+# echo "MAIN_CLASS: " $MAIN_CLASS
+# echo "JAVA: " $JAVA
+# echo "CP: " $CP
+# echo "JAVA_OPTS: " $JAVA_OPTS
+
+cd ${assembly.home.env.name.ref}
+
+"${JAVA}" ${JAVA_OPTS} ${CDX_STATISTICS_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
@@ -0,0 +1,26 @@
+#!/bin/bash
+ProgDir=`dirname "$0"`
+. "${ProgDir}/env.sh"
+
+MAIN_CLASS=dk.netarkivet.research.ExtCDXStore
+
+if [ "${CDX_STORE_MAX_SEGMENTS}" ]; then
+  CDX_STORE_OPTS="-Ddk.netarkivet.research.cdx.storeMaxSegments=$CDX_STORE_MAX_SEGMENTS"
+fi
+
+if [ "${CDX_STORE_INDEXES}" ]; then
+  CDX_STORE_OPTS="$CDX_STORE_OPTS -Ddk.netarkivet.research.cdx.storeIndexes=$CDX_STORE_INDEXES"
+fi
+
+if [ "${CDX_SORT_MEMORY_MB}" ]; then
+  CDX_STORE_OPTS="$CDX_STORE_OPTS -Ddk.netarkivet.research.cdx.sortMemoryMb=$CDX_SORT_MEMORY_MB"
+fi
+
+# echo "MAIN_CLASS: " $MAIN_CLASS
+# echo "JAVA: " $JAVA
+# echo "CP: " $CP
+# echo "JAVA_OPTS: " $JAVA_OPTS
+
+cd ${assembly.home.env.name.ref}
+
+"${JAVA}" ${JAVA_OPTS} ${CDX_STORE_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
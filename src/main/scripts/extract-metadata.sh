@@ -10,6 +10,23 @@ elif [ "${NAS_SCRIPT}" ]; then
   NAS_SETTINGS_OPTS=-Ddk.netarkivet.research.script=$NAS_SCRIPT
 fi
 
+if [ "${CDX_CONCURRENCY}" ]; then
+  CDX_OPTS="-Ddk.netarkivet.research.cdx.concurrency=$CDX_CONCURRENCY"
+  if [ "${CDX_MAX_IN_FLIGHT}" ]; then
+    CDX_OPTS="$CDX_OPTS -Ddk.netarkivet.research.cdx.maxInFlight=$CDX_MAX_IN_FLIGHT"
+  fi
+fi
+
+if [ "${CDX_HEDGE_PERCENTILE}" ]; then
+  CDX_OPTS="$CDX_OPTS -Ddk.netarkivet.research.cdx.hedgePercentile=$CDX_HEDGE_PERCENTILE"
+fi
+
+if [ "${CDX_CACHE_DIR}" ]; then
+  CDX_CACHE_OPTS="-Ddk.netarkivet.research.cdx.cacheDir=$CDX_CACHE_DIR"
+  if [ "${CDX_CACHE_TTL_HOURS}" ]; then
+    CDX_CACHE_OPTS="$CDX_CACHE_OPTS -Ddk.netarkivet.research.cdx.cacheTtlHours=$CDX_CACHE_TTL_HOURS"
+  fi
+fi
 
 # echo "NAS_SETTINGS_OPTS: " $NAS_SETTINGS_OPTS
 # echo "MAIN_CLASS: " $MAIN_CLASS
@@ -19,4 +36,4 @@ fi
 
 cd ${assembly.home.env.name.ref}
 
-"${JAVA}" ${JAVA_OPTS} ${NAS_SETTINGS_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
+"${JAVA}" ${JAVA_OPTS} ${NAS_SETTINGS_OPTS} ${CDX_OPTS} ${CDX_CACHE_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
@@ -13,6 +13,13 @@ if [ -z "${NAS_SETTINGS}" ]; then
 fi
 
 
+if [ "${CDX_CACHE_DIR}" ]; then
+  CDX_CACHE_OPTS="-Ddk.netarkivet.research.cdx.cacheDir=$CDX_CACHE_DIR"
+  if [ "${CDX_CACHE_TTL_HOURS}" ]; then
+    CDX_CACHE_OPTS="$CDX_CACHE_OPTS -Ddk.netarkivet.research.cdx.cacheTtlHours=$CDX_CACHE_TTL_HOURS"
+  fi
+fi
+
 # echo "NAS_SETTINGS: " $NAS_SETTINGS
 # echo "MAIN_CLASS: " $MAIN_CLASS
 # echo "JAVA: " $JAVA
@@ -21,4 +28,4 @@ fi
 
 cd ${assembly.home.env.name.ref}
 
-"${JAVA}" ${JAVA_OPTS} -Ddk.netarkivet.settings.file=$NAS_SETTINGS -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
+"${JAVA}" ${JAVA_OPTS} ${CDX_CACHE_OPTS} -Ddk.netarkivet.settings.file=$NAS_SETTINGS -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
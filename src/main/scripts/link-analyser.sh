@@ -4,6 +4,17 @@ ProgDir=`dirname "$0"`  #dirname function på script navn ($0) - `` betyder at l
 
 MAIN_CLASS=dk.netarkivet.research.ExtLinkAnalyser
 
+if [ "${CDX_CACHE_DIR}" ]; then
+  CDX_CACHE_OPTS="-Ddk.netarkivet.research.cdx.cacheDir=$CDX_CACHE_DIR"
+  if [ "${CDX_CACHE_TTL_HOURS}" ]; then
+    CDX_CACHE_OPTS="$CDX_CACHE_OPTS -Ddk.netarkivet.research.cdx.cacheTtlHours=$CDX_CACHE_TTL_HOURS"
+  fi
+fi
+
+if [ "${CDX_BLOOM_FILTER}" ]; then
+  CDX_CACHE_OPTS="$CDX_CACHE_OPTS -Ddk.netarkivet.research.links.bloomFilter=$CDX_BLOOM_FILTER"
+fi
+
 cd ${assembly.home.env.name.ref}
 
-"${JAVA}" ${JAVA_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"  #$@ betyder alle argumenter der er givet til scriptet
+"${JAVA}" ${JAVA_OPTS} ${CDX_CACHE_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"  #$@ betyder alle argumenter der er givet til scriptet
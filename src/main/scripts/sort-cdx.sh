@@ -0,0 +1,21 @@
+#!/bin/bash
+ProgDir=`dirname "$0"`
+. "${ProgDir}/env.sh"
+
+MAIN_CLASS=dk.netarkivet.research.ExtCDXSorter
+
+if [ "${CDX_SORT_MEMORY_MB}" ]; then
+  CDX_SORT_OPTS="-Ddk.netarkivet.research.cdx.sortMemoryMb=$CDX_SORT_MEMORY_MB"
+fi
+if [ "${CDX_SORT_TEMP_DIR}" ]; then
+  CDX_SORT_OPTS="$CDX_SORT_OPTS -Ddk.netarkivet.research.cdx.sortTempDir=$CDX_SORT_TEMP_DIR"
+fi
+
+# echo "MAIN_CLASS: " $MAIN_CLASS
+# echo "JAVA: " $JAVA
+# echo "CP: " $CP
+# echo "JAVA_OPTS: " $JAVA_OPTS
+
+cd ${assembly.home.env.name.ref}
+
+"${JAVA}" ${JAVA_OPTS} ${CDX_SORT_OPTS} -D${assembly.home.env.name}="${assembly.home.env.name.ref}" -cp "$CP" $MAIN_CLASS "$@"
@@ -1,8 +1,6 @@
 package dk.netarkivet.research;
 
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 
 import java.io.File;
@@ -20,6 +18,7 @@ import dk.netarkivet.research.links.CDXLinksLocator;
 import dk.netarkivet.research.links.HtmlLinkExtractor;
 import dk.netarkivet.research.links.LinkExtractor;
 import dk.netarkivet.research.links.LinksLocator;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.testutils.TestFileUtils;
 
 public class ExtLinkAnalyserTest extends ExtendedTestCase {
@@ -58,7 +57,7 @@ public class ExtLinkAnalyserTest extends ExtendedTestCase {
 		
 		//next two lines are mockup of HttpRetriever
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
-		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn(cdxReply1);
+		HttpRetrieverTestUtils.mockLinesResponse(httpRetriever, cdxReply1);
 
 		CDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerUrl, httpRetriever);
 		LinkExtractor linkExtractor = new HtmlLinkExtractor();
@@ -1,5 +1,6 @@
 package dk.netarkivet.research;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -26,6 +27,8 @@ import dk.netarkivet.research.duplicates.DuplicateExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
 import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.http.ResponseLineHandler;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.testutils.TestFileUtils;
 import dk.netarkivet.research.utils.UrlUtils;
 
@@ -80,7 +83,7 @@ public class NASFindDuplicatesForURLsTest extends ExtendedTestCase {
 		addDescription("Test the duplicate finder when the cdx-server does not deliver any cdx indices (for the request)");
 		
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
-		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn("");
+		HttpRetrieverTestUtils.mockLinesResponse(httpRetriever, "");
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 		
 		CDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerUrl, httpRetriever);
@@ -99,7 +102,7 @@ public class NASFindDuplicatesForURLsTest extends ExtendedTestCase {
 		HarvestJobInfo jobInfoTest = new HarvestJobInfo(3250L, "This is a test type", "DONE", "UnitTestJob");
 		
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
-		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn(cdxReply2);
+		HttpRetrieverTestUtils.mockLinesResponse(httpRetriever, cdxReply2);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 		
 		when(jobExtractor.extractJob(eq(3250L))).thenReturn(jobInfoTest);
@@ -165,7 +168,7 @@ public class NASFindDuplicatesForURLsTest extends ExtendedTestCase {
 		File csvFile = new File("src/test/resources/duplicates.csv");
 		
 		HttpRetriever httpRetriever = mock(HttpRetriever.class);
-		when(httpRetriever.retrieveFromUrl(anyString())).thenReturn("");
+		HttpRetrieverTestUtils.mockLinesResponse(httpRetriever, "");
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
 		CDXExtractor cdxExtractor = new DabCDXExtractor(cdxServerUrl, httpRetriever);
@@ -178,7 +181,7 @@ public class NASFindDuplicatesForURLsTest extends ExtendedTestCase {
 			assertEquals(TestFileUtils.countNumberOfLines(outdir.listFiles()[i]), 1);
 		}
 		
-		verify(httpRetriever, times(4)).retrieveFromUrl(anyString());
+		verify(httpRetriever, times(4)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
 	}
 
 }
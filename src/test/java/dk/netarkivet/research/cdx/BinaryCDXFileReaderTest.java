@@ -0,0 +1,104 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class BinaryCDXFileReaderTest extends ExtendedTestCase {
+	
+	String dirPath = "test-dir-binary";
+	File outDir;
+	File binaryCdxFile;
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	
+	@BeforeClass
+	public void setup() throws Exception {
+		outDir = new File(dirPath);
+		if(outDir.exists()) {
+			TestFileUtils.removeFile(outDir);
+		}
+		outDir = FileUtils.createDir(dirPath);
+		binaryCdxFile = new File(outDir, "sorted.bcdx");
+		new BinaryCDXFileWriter(binaryCdxFile, 2).writeCDXFile(sortedCdxFile);
+	}
+	
+	@AfterClass
+	public void cleanUp() throws Exception {
+		TestFileUtils.removeFile(outDir);
+	}
+	
+	int countWithPrefix(BinaryCDXFileReader reader, final String keyPrefix) {
+		final int[] res = new int[1];
+		long delivered = reader.streamEntriesWithPrefix(keyPrefix, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				assertTrue(entry.getUrlNorm().startsWith(keyPrefix), entry.getUrlNorm());
+				res[0]++;
+			}
+		});
+		assertEquals(delivered, (long) res[0]);
+		return res[0];
+	}
+	
+	@Test
+	public void testFindEntries() throws Exception {
+		addDescription("Test finding the entries of a key, which span several blocks.");
+		try (BinaryCDXFileReader reader = new BinaryCDXFileReader(binaryCdxFile)) {
+			List<CDXEntry> entries = reader.findEntries("kb.dk/robots.txt");
+			assertEquals(entries.size(), 3);
+			for(CDXEntry entry : entries) {
+				assertEquals(entry.getUrlNorm(), "kb.dk/robots.txt");
+			}
+			
+			List<CDXEntry> netarkivet = reader.findEntries("netarkivet.dk/");
+			assertEquals(netarkivet.size(), 3);
+			assertEquals(netarkivet.get(1).getFilename(), 
+					"239240-135-20150910100037-00000-kb-prod-har-024.kb.dk.warc");
+			assertEquals(netarkivet.get(1).getOffset(), Long.valueOf(16223658L));
+			assertEquals(netarkivet.get(1).getDigest(), "AB66XB3DFYS3M2OYQ4EWR54X4NA45HTI");
+			assertEquals(netarkivet.get(2).getRedirect(), "http://netarkivet.dk/");
+			assertEquals(netarkivet.get(2).getStatusCode(), Integer.valueOf(301));
+			
+			assertEquals(reader.findEntries("kb.dk/robots").size(), 0);
+			assertEquals(reader.findEntries("zzz").size(), 0);
+		}
+	}
+	
+	@Test
+	public void testPrefixes() throws Exception {
+		addDescription("Test delivering the entries with a key prefix.");
+		try (BinaryCDXFileReader reader = new BinaryCDXFileReader(binaryCdxFile)) {
+			assertEquals(countWithPrefix(reader, "kb.dk/"), 6);
+			assertEquals(countWithPrefix(reader, "kb.dk/robots.txt"), 4);
+			assertEquals(countWithPrefix(reader, "netarkivet.dk/"), 4);
+			assertEquals(countWithPrefix(reader, "example.com/"), 0);
+			assertEquals(countWithPrefix(reader, ""), 10);
+		}
+	}
+	
+	@Test
+	public void testFileType() throws Exception {
+		addDescription("Test that only binary CDX files are recognized.");
+		assertTrue(BinaryCDXFileReader.isBinaryCDXFile(binaryCdxFile));
+		assertFalse(BinaryCDXFileReader.isBinaryCDXFile(sortedCdxFile));
+		assertFalse(BinaryCDXFileReader.isBinaryCDXFile(outDir));
+	}
+	
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingTextCDXFile() throws Exception {
+		addDescription("Test that a text CDX file cannot be opened as a binary CDX file.");
+		new BinaryCDXFileReader(sortedCdxFile);
+	}
+}
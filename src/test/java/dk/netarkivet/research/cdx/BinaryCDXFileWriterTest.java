@@ -0,0 +1,130 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class BinaryCDXFileWriterTest extends ExtendedTestCase {
+	
+	String dirPath = "test-dir";
+	File outDir;
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	List<Character> format = Arrays.asList('A', 'b', 'a', 'm', 's', 'k', 'r', 'V', 'g');
+	
+	@BeforeMethod
+	public void setupMethod() throws Exception {
+		outDir = new File(dirPath);
+		if(outDir.exists()) {
+			TestFileUtils.removeFile(outDir);
+		}
+		outDir = FileUtils.createDir(dirPath);
+	}
+	
+	@AfterMethod
+	public void cleanUpMethod() throws Exception {
+		TestFileUtils.removeFile(outDir);
+	}
+	
+	@Test
+	public void testConvertingCDXFile() throws Exception {
+		addDescription("Test converting a sorted CDX file into a smaller binary CDX file with the same entries.");
+		File outputFile = new File(dirPath, "sorted.bcdx");
+		BinaryCDXFileWriter writer = new BinaryCDXFileWriter(outputFile, 2);
+		assertEquals(writer.writeCDXFile(sortedCdxFile), 10L);
+		assertTrue(outputFile.length() < sortedCdxFile.length(), "Size: " + outputFile.length());
+		
+		addStep("Read all the entries of the binary CDX file", "Should give the same CDX lines");
+		List<String> expected = new ArrayList<String>();
+		for(CDXEntry entry : new CDXFileReader().extractCDXFromFile(sortedCdxFile)) {
+			expected.add(entry.extractCDXAsLine(format));
+		}
+		final List<String> lines = new ArrayList<String>();
+		try (BinaryCDXFileReader reader = new BinaryCDXFileReader(outputFile)) {
+			assertEquals(reader.getNumberOfEntries(), 10L);
+			assertEquals(reader.getNumberOfBlocks(), 5);
+			reader.streamAllEntries(new CDXEntryHandler() {
+				@Override
+				public void handleEntry(CDXEntry entry) {
+					lines.add(entry.extractCDXAsLine(format));
+				}
+			});
+		}
+		assertEquals(lines, expected);
+	}
+	
+	@Test
+	public void testWritingUnsortedEntries() throws Exception {
+		addDescription("Test that unsorted entries are sorted, and that entries without values are kept as such.");
+		Collection<CDXEntry> entries = new CDXFileReader().extractCDXFromFile(sortedCdxFile);
+		List<CDXEntry> reversed = new ArrayList<CDXEntry>(entries);
+		Collections.reverse(reversed);
+		CDXEntry partial = new CDXEntry();
+		partial.urlNorm = "kb.dk/robots.txt";
+		partial.date = 1000000000000L;
+		reversed.add(partial);
+		reversed.add(null);
+		
+		File outputFile = new File(dirPath, "unsorted.bcdx");
+		assertEquals(new BinaryCDXFileWriter(outputFile).writeCDXEntries(reversed), 11L);
+		try (BinaryCDXFileReader reader = new BinaryCDXFileReader(outputFile)) {
+			List<CDXEntry> found = reader.findEntries("kb.dk/robots.txt");
+			assertEquals(found.size(), 4);
+			assertEquals(found.get(0).getDateAsLong(), Long.valueOf(1000000000000L));
+			assertEquals(found.get(0).getUrl(), null);
+			assertEquals(found.get(0).getFilename(), null);
+			assertEquals(found.get(1).getUrl(), "http://www.kb.dk/robots.txt");
+		}
+	}
+	
+	@Test
+	public void testWritingPackedEntries() throws Exception {
+		addDescription("Test that packed CDX entries are written with all their fields.");
+		Collection<CDXEntry> entries = new CDXFileReader().extractCDXFromFile(sortedCdxFile);
+		PackedCDXEntries packed = new PackedCDXEntries(entries);
+		List<String> expected = new ArrayList<String>();
+		for(CDXEntry entry : entries) {
+			expected.add(entry.extractCDXAsLine(format));
+		}
+		
+		addStep("Write the packed entries, both sorted and unsorted", "Should give the same CDX lines");
+		File sortedFile = new File(dirPath, "packed-sorted.bcdx");
+		assertEquals(new BinaryCDXFileWriter(sortedFile, 2).writeSortedCDXEntries(packed.iterator()), 10L);
+		File unsortedFile = new File(dirPath, "packed-unsorted.bcdx");
+		assertEquals(new BinaryCDXFileWriter(unsortedFile, 2).writeCDXEntries(packed), 10L);
+		for(File outputFile : Arrays.asList(sortedFile, unsortedFile)) {
+			final List<String> lines = new ArrayList<String>();
+			try (BinaryCDXFileReader reader = new BinaryCDXFileReader(outputFile)) {
+				reader.streamAllEntries(new CDXEntryHandler() {
+					@Override
+					public void handleEntry(CDXEntry entry) {
+						lines.add(entry.extractCDXAsLine(format));
+					}
+				});
+				assertEquals(reader.findEntries("kb.dk/robots.txt").size(), 3);
+			}
+			assertEquals(lines, expected);
+		}
+	}
+	
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWritingEntriesOutOfOrder() throws Exception {
+		addDescription("Test that entries, which are not in the order of their keys, are rejected.");
+		List<CDXEntry> entries = new ArrayList<CDXEntry>(new CDXFileReader().extractCDXFromFile(sortedCdxFile));
+		Collections.reverse(entries);
+		new BinaryCDXFileWriter(new File(dirPath, "reversed.bcdx")).writeSortedCDXEntries(entries.iterator());
+	}
+}
@@ -0,0 +1,112 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.testutils.TestFileUtils;
+
+public class CDXBloomFilterTest extends ExtendedTestCase {
+
+	File dir = new File("tempDir");
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+	File surtCdxFile = new File("src/test/resources/cdx/surt/sorted.cdx");
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		TestFileUtils.removeFile(dir);
+		dir.mkdirs();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		TestFileUtils.removeFile(dir);
+	}
+
+	@Test
+	public void testNoFalseNegatives() throws Exception {
+		addDescription("Test that all the URLs of the CDX files, and their variants, might be in the filter.");
+		CDXBloomFilter filter = CDXBloomFilter.createFromCDXFiles(Arrays.asList(sortedCdxFile, validCdxFile), 
+				CDXBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+		for(CDXEntry entry : new CDXFileReader().extractCDXFromFile(validCdxFile)) {
+			assertTrue(filter.mightContain(entry.getUrl()), entry.getUrl());
+		}
+		assertTrue(filter.mightContain("http://www.kb.dk/robots.txt"));
+		assertTrue(filter.mightContain("https://kb.dk/robots.txt#top"));
+		assertTrue(filter.mightContain("http://NETARKIVET.dk:80/"));
+		assertFalse(filter.mightContain(null));
+	}
+
+	@Test
+	public void testSurtKeysWithoutOriginalUrls() throws Exception {
+		addDescription("Test that the canonized URL is used for CDX lines without the original URL.");
+		File keysOnly = new File(dir, "keys.cdx");
+		new CDXFileWriter(keysOnly).writeCDXEntries(new CDXFileReader().extractCDXFromFile(surtCdxFile), 
+				Arrays.asList(CDXConstants.CDX_CHAR_CANONIZED_URL, CDXConstants.CDX_CHAR_DATE));
+		CDXBloomFilter filter = CDXBloomFilter.createFromCDXFiles(Arrays.asList(keysOnly), 0.001);
+		assertTrue(filter.mightContain("http://www.kb.dk/robots.txt"));
+		assertTrue(filter.mightContain("http://netarkivet.dk/about"));
+	}
+
+	@Test
+	public void testWriteAndLoad() throws Exception {
+		addDescription("Test that a filter written to a file is the same, when it is memory-mapped again.");
+		CDXBloomFilter filter = CDXBloomFilter.createFromCDXFiles(Arrays.asList(sortedCdxFile), 0.01);
+		File file = new File(dir, "urls.bloom");
+		filter.writeToFile(file);
+
+		CDXBloomFilter loaded = CDXBloomFilter.load(file);
+		assertEquals(loaded.getNumberOfBits(), filter.getNumberOfBits());
+		assertEquals(loaded.getNumberOfHashes(), filter.getNumberOfHashes());
+		assertEquals(loaded.getNumberOfKeys(), filter.getNumberOfKeys());
+		for(int i = 0; i < 1000; i++) {
+			String url = "http://example" + i + ".dk/";
+			assertEquals(loaded.mightContain(url), filter.mightContain(url), url);
+		}
+		assertTrue(loaded.mightContain("http://kb.dk/robots.txt2"));
+
+		addStep("Add a URL to a loaded filter", "Should fail");
+		try {
+			loaded.add("http://example.dk/");
+			throw new AssertionError("A loaded filter should not be changed.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testLoadOtherFile() throws Exception {
+		addDescription("Test that loading a file, which is not a bloom filter, fails.");
+		CDXBloomFilter.load(sortedCdxFile);
+	}
+
+	@Test
+	public void testFalsePositiveRate() throws Exception {
+		addDescription("Test that the rate of false positives is close to the expected rate.");
+		int keys = 100000;
+		CDXBloomFilter filter = new CDXBloomFilter(keys, 0.01);
+		for(int i = 0; i < keys; i++) {
+			filter.add("http://archived" + i + ".dk/page/" + i);
+		}
+		int falsePositives = 0;
+		int lookups = 100000;
+		for(int i = 0; i < lookups; i++) {
+			if(filter.mightContain("http://missing" + i + ".dk/page/" + i)) {
+				falsePositives++;
+			}
+		}
+		double rate = (double) falsePositives / lookups;
+		addStep("Measured false positive rate: " + rate, "Should be close to 1%");
+		assertTrue(rate < 0.02, "Rate: " + rate);
+		assertTrue(filter.getExpectedFalsePositiveRate() < 0.02);
+	}
+}
@@ -4,7 +4,10 @@ import static org.testng.Assert.*;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.annotations.Test;
@@ -12,6 +15,7 @@ import org.testng.annotations.Test;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXFileReader;
 import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.DateUtils;
 
 public class CDXFileReaderTest extends ExtendedTestCase {
 	
@@ -45,6 +49,70 @@ public class CDXFileReaderTest extends ExtendedTestCase {
     	assertEquals(4, TestFileUtils.countNumberOfLines(cdxFile));
     }
 
+    @Test
+    public void testIteratingFile() throws Exception {
+    	addDescription("Test iterating the CDX entries of a valid test cdx file.");
+    	CDXFileReader reader = new CDXFileReader();
+    	int count = 0;
+    	try (CDXEntryIterator iterator = reader.iterateCDXFromFile(new File(validCdxFilePath))) {
+    		while(iterator.hasNext()) {
+    			assertNotNull(iterator.next());
+    			count++;
+    		}
+    		assertFalse(iterator.hasNext());
+    	}
+    	assertEquals(count, 28);
+    }
+
+    @Test
+    public void testIteratingFileWithBadLine() throws Exception {
+    	addDescription("Test iterating a test cdx file with bad lines, which must be skipped.");
+    	CDXFileReader reader = new CDXFileReader();
+    	try (CDXEntryIterator iterator = reader.iterateCDXFromFile(new File(badLinesCdxFilePath))) {
+    		assertTrue(iterator.hasNext());
+    		assertEquals(iterator.next().getFilename(), "1-1-20091021124236-00001-kb-test-har-001.kb.dk.arc");
+    		assertFalse(iterator.hasNext());
+    	}
+    }
+
+    @Test(expectedExceptions = NoSuchElementException.class)
+    public void testIteratingBeyondTheEnd() throws Exception {
+    	addDescription("Test that the iterator fails, when there are no more entries.");
+    	CDXFileReader reader = new CDXFileReader();
+    	try (CDXEntryIterator iterator = reader.iterateCDXFromFile(new File(badLinesCdxFilePath))) {
+    		iterator.next();
+    		iterator.next();
+    	}
+    }
+
+    @Test
+    public void testSplittingFileIntoChunks() throws Exception {
+    	addDescription("Test splitting a CDX file into chunks, and iterating the chunks.");
+    	File cdxFile = new File(validCdxFilePath);
+    	CDXFileReader reader = new CDXFileReader();
+    	for(int numberOfChunks : new int[]{1, 2, 3, 7, 28, 1000}) {
+    		addStep("Split into " + numberOfChunks + " chunks", "All entries must be in exactly one chunk");
+    		List<CDXFileChunk> chunks = reader.splitCDXFile(cdxFile, numberOfChunks);
+    		assertTrue(chunks.size() <= Math.min(numberOfChunks, 28), chunks.toString());
+    		assertEquals(chunks.get(chunks.size() - 1).getEnd(), cdxFile.length());
+    		
+    		List<String> dates = new ArrayList<String>();
+    		for(int i = 0; i < chunks.size(); i++) {
+    			if(i > 0) {
+    				assertEquals(chunks.get(i).getStart(), chunks.get(i - 1).getEnd());
+    			}
+    			try (CDXEntryIterator iterator = reader.iterateCDXFromChunk(chunks.get(i))) {
+    				while(iterator.hasNext()) {
+    					dates.add(DateUtils.dateToWaybackDate(iterator.next().getDateAsDate()));
+    				}
+    			}
+    		}
+    		assertEquals(dates.size(), 28);
+    		assertEquals(dates.get(0), "20091021124237");
+    		assertEquals(dates.get(27), "20140710050626");
+    	}
+    }
+
     @Test(expectedExceptions = FileNotFoundException.class)
     public void testReadingNonExistingFile() throws Exception {
     	addDescription("Test extracting CDX entries from a non-existing file.");
@@ -0,0 +1,152 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.UrlUtils;
+
+public class CDXFileSorterTest extends ExtendedTestCase {
+
+	File dir = new File("tempDir");
+	File validFile = new File("src/test/resources/cdx/valid.cdx");
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		TestFileUtils.removeFile(dir);
+		dir.mkdirs();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		TestFileUtils.removeFile(dir);
+	}
+
+	List<String> readLines(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+	}
+
+	File writeLines(String name, List<String> lines) throws IOException {
+		File res = new File(dir, name);
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(res), "UTF-8")) {
+			for(String line : lines) {
+				writer.write(line + "\n");
+			}
+		}
+		return res;
+	}
+
+	void assertSortedAndDistinct(List<String> lines) {
+		for(int i = 2; i < lines.size(); i++) {
+			assertTrue(lines.get(i - 1).compareTo(lines.get(i)) < 0, lines.get(i - 1) + " / " + lines.get(i));
+		}
+	}
+
+	@Test
+	public void testSortingWithRuns() throws Exception {
+		addDescription("Test sorting CDX files with a memory budget, which only allows a few lines in each run.");
+		List<String> valid = readLines(validFile);
+		List<String> reversed = new ArrayList<String>(valid.subList(1, valid.size()));
+		Collections.reverse(reversed);
+		reversed.add(0, valid.get(0));
+		File input1 = writeLines("reversed.cdx", reversed);
+		File input2 = writeLines("noheader.cdx", valid.subList(1, valid.size()));
+		File output = new File(dir, "sorted.cdx");
+		File tempDir = new File(dir, "tmp");
+		tempDir.mkdirs();
+
+		CDXFileSorter sorter = new CDXFileSorter(DabCDXExtractor.getDefaultCDXFormat(), 600L, tempDir);
+		long count = sorter.sort(Arrays.asList(input1, input2), output);
+
+		addStep("Check the sorted file", "Should have the header and the distinct lines in sorted order");
+		List<String> sorted = readLines(output);
+		assertEquals(sorted.get(0).trim(), valid.get(0).trim());
+		assertEquals(count, (long) sorted.size() - 1);
+		assertEquals(count, (long) valid.size() - 1);
+		assertSortedAndDistinct(sorted);
+		assertEquals(tempDir.list().length, 0);
+	}
+
+	@Test
+	public void testSortingConvertsFormat() throws Exception {
+		addDescription("Test that CDX files in another CDX format are converted to the format of the sorter.");
+		List<CDXEntry> entries = new ArrayList<CDXEntry>(new CDXFileReader().extractCDXFromFile(validFile));
+		File nasFile = new File(dir, "nas.cdx");
+		new CDXFileWriter(nasFile).writeCDXEntries(entries, CDXConstants.getNasDefaultCDXFormat());
+		File output = new File(dir, "sorted.cdx");
+
+		CDXFileSorter sorter = new CDXFileSorter(DabCDXExtractor.getDefaultCDXFormat(),
+				CDXFileSorter.DEFAULT_MEMORY_BUDGET, dir);
+		long count = sorter.sort(Arrays.asList(nasFile), output);
+		assertEquals(count, (long) entries.size());
+
+		addStep("Check the converted lines", "Should have the canonized URL made from the original URL");
+		List<String> sorted = readLines(output);
+		assertSortedAndDistinct(sorted);
+		List<String> valid = readLines(validFile);
+		for(int i = 1; i < sorted.size(); i++) {
+			String[] fields = sorted.get(i).split(" ");
+			assertEquals(fields.length, 9);
+			assertEquals(fields[0], UrlUtils.stripProtocolAndWWWAndLowerCase(fields[2]));
+			boolean found = false;
+			for(String line : valid) {
+				found |= line.startsWith(fields[0] + " " + fields[1] + " " + fields[2] + " ")
+						&& line.trim().endsWith(" " + fields[8]);
+			}
+			assertTrue(found, sorted.get(i));
+		}
+	}
+
+	@Test
+	public void testMergingSortedFiles() throws Exception {
+		addDescription("Test merging sorted CDX files in one pass.");
+		List<String> valid = readLines(validFile);
+		List<String> odd = new ArrayList<String>();
+		List<String> even = new ArrayList<String>();
+		odd.add(valid.get(0));
+		even.add(valid.get(0));
+		for(int i = 1; i < valid.size(); i++) {
+			(i % 2 == 0 ? even : odd).add(valid.get(i));
+		}
+		File oddFile = writeLines("odd.cdx", odd);
+		File evenFile = writeLines("even.cdx", even);
+		File output = new File(dir, "merged.cdx");
+
+		CDXFileSorter sorter = new CDXFileSorter(DabCDXExtractor.getDefaultCDXFormat(),
+				CDXFileSorter.DEFAULT_MEMORY_BUDGET, dir);
+		long count = sorter.merge(Arrays.asList(oddFile, evenFile, validFile), output);
+		assertEquals(count, (long) valid.size() - 1);
+		List<String> merged = readLines(output);
+		assertSortedAndDistinct(merged);
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testMergingUnsortedFile() throws Exception {
+		addDescription("Test that merging fails, when a file is not sorted.");
+		List<String> valid = readLines(validFile);
+		List<String> reversed = new ArrayList<String>(valid.subList(1, valid.size()));
+		Collections.reverse(reversed);
+		File input = writeLines("reversed.cdx", reversed);
+
+		CDXFileSorter sorter = new CDXFileSorter(DabCDXExtractor.getDefaultCDXFormat(),
+				CDXFileSorter.DEFAULT_MEMORY_BUDGET, dir);
+		sorter.merge(Arrays.asList(input), new File(dir, "merged.cdx"));
+	}
+}
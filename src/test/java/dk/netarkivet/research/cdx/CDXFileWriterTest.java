@@ -1,10 +1,19 @@
 package dk.netarkivet.research.cdx;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.annotations.AfterMethod;
@@ -12,6 +21,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.SurtUtils;
 import dk.netarkivet.research.utils.FileUtils;
 
 public class CDXFileWriterTest extends ExtendedTestCase {
@@ -57,4 +67,92 @@ public class CDXFileWriterTest extends ExtendedTestCase {
     	assertEquals(TestFileUtils.countNumberOfLines(outputFile), 2);
 
     }
+    
+    @Test
+    public void testWritingCompressedBlocks() throws Exception {
+    	addDescription("Writing the CDX entries in compressed blocks with a summary index.");
+    	File outputFile = new File(dirPath, "OutputFile-" + Math.random() + ".cdx.gz");
+    	CDXFileWriter cfw = new CDXFileWriter(outputFile);
+    	List<CDXEntry> entries = new ArrayList<CDXEntry>(
+    			new CDXFileReader().extractCDXFromFile(new File("src/test/resources/cdx/valid.cdx")));
+    	Collections.reverse(entries);
+    	entries.add(null);
+    	
+    	addStep("Write the entries in blocks of 2 lines", "Should have an index line for each block");
+    	cfw.writeCompressedCDXEntries(entries, CDXConstants.getNasDefaultCDXFormat(), 2);
+    	int numberOfEntries = entries.size() - 1;
+    	List<String> index = Files.readAllLines(cfw.getSummaryIndexFile().toPath(), CDXFileSorter.CHARSET);
+    	assertEquals(index.size(), (numberOfEntries + 1) / 2);
+    	assertTrue(cfw.getLocationFile().isFile());
+    	
+    	addStep("Read each block from its offset", "Should be sorted lines, starting with the key in the index");
+    	byte[] data = Files.readAllBytes(outputFile.toPath());
+    	List<String> allLines = new ArrayList<String>();
+    	for(String indexLine : index) {
+    		String[] fields = indexLine.split("\t");
+    		assertEquals(fields[1], outputFile.getName());
+    		int offset = Integer.parseInt(fields[2]);
+    		int length = Integer.parseInt(fields[3]);
+    		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+    				new ByteArrayInputStream(data, offset, length)), CDXFileSorter.CHARSET))) {
+    			String line = reader.readLine();
+    			assertTrue(line.startsWith(fields[0] + " "));
+    			while(line != null) {
+    				allLines.add(line);
+    				line = reader.readLine();
+    			}
+    		}
+    	}
+    	assertEquals(allLines.size(), numberOfEntries);
+    	List<String> sorted = new ArrayList<String>(allLines);
+    	Collections.sort(sorted);
+    	assertEquals(allLines, sorted);
+    	
+    	addStep("Read the whole file as one gzip file", "Should give all the lines");
+    	try(BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+    			new FileInputStream(outputFile)), CDXFileSorter.CHARSET))) {
+    		int count = 0;
+    		while(reader.readLine() != null) {
+    			count++;
+    		}
+    		assertEquals(count, numberOfEntries);
+    	}
+    }
+    
+    @Test
+    public void testWritingCompressedBlocksWithSurtKeys() throws Exception {
+    	addDescription("Test that the canonized URL is written as the SURT, when writing compressed blocks.");
+    	File outputFile = new File(dirPath, "OutputFile-" + Math.random() + ".cdx.gz");
+    	CDXFileWriter cfw = new CDXFileWriter(outputFile);
+    	List<CDXEntry> entries = new ArrayList<CDXEntry>(
+    			new CDXFileReader().extractCDXFromFile(new File("src/test/resources/cdx/sorted.cdx")));
+    	Collections.reverse(entries);
+    	cfw.writeCompressedCDXEntries(new PackedCDXEntries(entries), DabCDXExtractor.getDefaultCDXFormat(), 4);
+    	
+    	addStep("Read the summary index", "Should have SURT keys");
+    	List<String> index = Files.readAllLines(cfw.getSummaryIndexFile().toPath(), CDXFileSorter.CHARSET);
+    	assertEquals(index.size(), 3);
+    	for(String indexLine : index) {
+    		assertTrue(indexLine.contains(",") && indexLine.contains(")/"), indexLine);
+    	}
+    	
+    	addStep("Read the lines", "Should be sorted, and start with the SURT of their URL");
+    	List<String> lines = new ArrayList<String>();
+    	try(BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+    			new FileInputStream(outputFile)), CDXFileSorter.CHARSET))) {
+    		String line;
+    		while((line = reader.readLine()) != null) {
+    			lines.add(line);
+    		}
+    	}
+    	assertEquals(lines.size(), entries.size());
+    	List<String> sorted = new ArrayList<String>(lines);
+    	Collections.sort(sorted);
+    	assertEquals(lines, sorted);
+    	for(String line : lines) {
+    		String[] fields = line.split(" ");
+    		assertEquals(fields[0], SurtUtils.toSurt(fields[2]));
+    	}
+    	assertEquals(outputFile.getParentFile().list().length, 3, "The temporary files must be deleted");
+    }
 }
@@ -0,0 +1,40 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class CDXLatencyStatisticsTest extends ExtendedTestCase {
+
+	@Test
+	public void testPercentiles() {
+		addDescription("Test the percentiles of the latencies.");
+		CDXLatencyStatistics statistics = new CDXLatencyStatistics();
+		assertEquals(statistics.getPercentile(0.5), -1L);
+		for(long latency = 100L; latency > 0; latency--) {
+			statistics.recordSuccess(latency);
+		}
+		assertEquals(statistics.getPercentile(0.0), 1L);
+		assertEquals(statistics.getPercentile(0.5), 50L);
+		assertEquals(statistics.getPercentile(0.95), 95L);
+		assertEquals(statistics.getPercentile(1.0), 100L);
+		assertEquals(statistics.getLookupCount(), 100L);
+	}
+
+	@Test
+	public void testWindowAndFailures() {
+		addDescription("Test that only the latest latencies are kept, and that failures have a penalty latency.");
+		CDXLatencyStatistics statistics = new CDXLatencyStatistics(4);
+		statistics.recordFailure(5L);
+		assertEquals(statistics.getPercentile(0.5), CDXLatencyStatistics.FAILURE_LATENCY);
+		for(int i = 0; i < 4; i++) {
+			statistics.recordSuccess(10L);
+		}
+		addStep("Push the failure out of the window", "Should only have the latest latencies");
+		assertEquals(statistics.getSampleCount(), 4);
+		assertEquals(statistics.getPercentile(1.0), 10L);
+		assertEquals(statistics.getLookupCount(), 5L);
+		assertEquals(statistics.getFailureCount(), 1L);
+	}
+}
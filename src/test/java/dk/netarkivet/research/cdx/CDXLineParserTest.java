@@ -0,0 +1,110 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.utils.DateUtils;
+
+public class CDXLineParserTest extends ExtendedTestCase {
+
+	String cdxLine = "0.envato-static.com/ 20130321174128 http://0.envato-static.com/ application/xml 403 VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM - 83292970 4589-189-20130321161636-00007-sb-test-har-001.statsbiblioteket.dk.arc";
+	Character[] format = new Character[]{'A', 'b', 'a', 'm', 's', 'k', 'r', 'V', 'g'};
+
+	@Test
+	public void testSameAsSplitting() throws Exception {
+		addDescription("Test that the parser gives the same CDX entry as splitting the line.");
+		CDXLineParser parser = new CDXLineParser(format);
+		CDXEntry expected = CDXEntry.createCDXEntry(cdxLine.split(" "), format);
+		CDXEntry entry = parser.parse(cdxLine);
+
+		assertNotNull(entry);
+		assertEquals(entry.extractCDXAsLine(Arrays.asList(format)), expected.extractCDXAsLine(Arrays.asList(format)));
+		assertEquals(entry.getDateAsLong(), expected.getDateAsLong());
+		assertEquals(entry.getStatusCode(), Integer.valueOf(403));
+		assertEquals(entry.getOffset(), Long.valueOf(83292970L));
+		assertNull(entry.getRedirect());
+		assertNull(entry.getIP());
+	}
+
+	@Test
+	public void testIgnoredElements() throws Exception {
+		addDescription("Test that blank and unknown format elements are not stored.");
+		CDXLineParser parser = new CDXLineParser(new Character[]{' ', 'b', 'X', 'n'});
+		CDXEntry entry = parser.parse("ignored 20130321174128 unknown 1234");
+		assertNotNull(entry);
+		assertNull(entry.getUrlNorm());
+		assertEquals(entry.getLength(), Long.valueOf(1234L));
+	}
+
+	@Test
+	public void testProjection() throws Exception {
+		addDescription("Test that a projected parser only decodes the fields of the projection.");
+		CDXLineParser parser = new CDXLineParser(format).project(Arrays.asList('b', 'c'));
+		assertEquals(parser.getNumberOfElements(), format.length);
+		CDXEntry entry = parser.parse(cdxLine);
+		assertNotNull(entry);
+		assertEquals(DateUtils.dateToWaybackDate(entry.getDateAsDate()), "20130321174128");
+		addStep("Use the old style checksum for the new style checksum of the format", "Should be the same field");
+		assertEquals(entry.getDigest(), "VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM");
+		assertNull(entry.getUrl());
+		assertNull(entry.getFilename());
+		
+		addStep("Project on all the fields", "Should be the same parser");
+		CDXLineParser fullParser = new CDXLineParser(format);
+		assertTrue(fullParser.project(null) == fullParser);
+	}
+
+	@Test
+	public void testTrailingWhitespace() throws Exception {
+		addDescription("Test that trailing spaces and carriage returns are ignored.");
+		CDXLineParser parser = new CDXLineParser(format);
+		CDXEntry entry = parser.parse(cdxLine + " \r");
+		assertNotNull(entry);
+		assertEquals(entry.getFilename(), "4589-189-20130321161636-00007-sb-test-har-001.statsbiblioteket.dk.arc");
+	}
+
+	@Test
+	public void testWrongNumberOfElements() throws Exception {
+		addDescription("Test that lines with the wrong number of elements are rejected, unless extra elements are "
+				+ "allowed.");
+		CDXLineParser strictParser = new CDXLineParser(format);
+		CDXLineParser lenientParser = new CDXLineParser(Arrays.asList(format), true);
+		String shortLine = cdxLine.substring(0, cdxLine.lastIndexOf(' '));
+		String longLine = cdxLine + " extra";
+
+		assertNull(strictParser.parse(shortLine));
+		assertNull(lenientParser.parse(shortLine));
+		assertNull(strictParser.parse(longLine));
+		assertNotNull(lenientParser.parse(longLine));
+		assertNull(strictParser.parse(""));
+		assertNull(strictParser.parse(null));
+	}
+
+	@Test
+	public void testBadValues() throws Exception {
+		addDescription("Test that lines with bad numbers or dates are rejected.");
+		CDXLineParser parser = new CDXLineParser(format);
+		assertNull(parser.parse(cdxLine.replace(" 403 ", " 4o3 ")));
+		assertNull(parser.parse(cdxLine.replace(" 83292970 ", " 99999999999999999999 ")));
+		assertNull(parser.parse(cdxLine.replace("20130321174128", "20131321174128")));
+		assertNull(parser.parse(cdxLine.replace(" 403 ", "  ")));
+	}
+
+	@Test
+	public void testNoValues() throws Exception {
+		addDescription("Test that elements with the value '-' are not stored.");
+		CDXLineParser parser = new CDXLineParser(format);
+		CDXEntry entry = parser.parse("- - - - - - - - -");
+		assertNotNull(entry);
+		assertNull(entry.getUrlNorm());
+		assertNull(entry.getUrl());
+		assertEquals(entry.getDateAsLong(), Long.valueOf(0L));
+	}
+}
@@ -0,0 +1,102 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class CDXQueryIteratorTest extends ExtendedTestCase {
+
+	/**
+	 * Iterator which delivers a number of CDX entries, and counts the entries delivered to the queue.
+	 */
+	class CountingIterator extends CDXQueryIterator {
+		final int entries;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile int delivered = 0;
+
+		CountingIterator(int entries, int capacity) {
+			super(capacity);
+			this.entries = entries;
+		}
+
+		@Override
+		protected boolean stream(CDXEntryHandler handler) {
+			try {
+				for(int i = 0; i < entries; i++) {
+					CDXEntry entry = new CDXEntry();
+					entry.url = "http://kb.dk/" + i;
+					handler.handleEntry(entry);
+					delivered++;
+				}
+			} finally {
+				done.countDown();
+			}
+			return true;
+		}
+	}
+
+	@Test
+	public void testIteratingAllEntries() throws Exception {
+		addDescription("Test iterating all the CDX entries of a query.");
+		CountingIterator iterator = new CountingIterator(100, 4);
+		try {
+			iterator.start();
+			int count = 0;
+			while(iterator.hasNext()) {
+				assertEquals(iterator.next().getUrl(), "http://kb.dk/" + count);
+				count++;
+			}
+			assertEquals(count, 100);
+			assertTrue(iterator.isComplete());
+		} finally {
+			iterator.close();
+		}
+	}
+
+	@Test
+	public void testClosingBeforeTheEnd() throws Exception {
+		addDescription("Test that closing the iterator stops the source, which only fills the bounded queue.");
+		CountingIterator iterator = new CountingIterator(100000, 4);
+		iterator.start();
+		assertTrue(iterator.hasNext());
+		iterator.next();
+		addStep("Close the iterator", "The source should stop long before the end");
+		iterator.close();
+		assertTrue(iterator.done.await(10, TimeUnit.SECONDS));
+		assertTrue(iterator.delivered < 100);
+		assertFalse(iterator.hasNext());
+		assertFalse(iterator.isComplete());
+	}
+
+	@Test(expectedExceptions = NoSuchElementException.class)
+	public void testNextAfterTheEnd() throws Exception {
+		addDescription("Test that the iterator fails when reading past the end.");
+		CountingIterator iterator = new CountingIterator(0, 4);
+		iterator.start();
+		assertFalse(iterator.hasNext());
+		iterator.next();
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testFailureOfTheSource() throws Exception {
+		addDescription("Test that a failure of the source is delivered to the consumer.");
+		CDXQueryIterator iterator = new CDXQueryIterator(4) {
+			@Override
+			protected boolean stream(CDXEntryHandler handler) {
+				handler.handleEntry(new CDXEntry());
+				throw new IllegalStateException("The source failed.");
+			}
+		};
+		iterator.start();
+		assertTrue(iterator.hasNext());
+		iterator.next();
+		iterator.hasNext();
+	}
+}
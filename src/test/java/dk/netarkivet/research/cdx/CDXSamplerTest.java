@@ -0,0 +1,94 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class CDXSamplerTest extends ExtendedTestCase {
+
+	CDXEntry createEntry(String url, String date) {
+		Map<Character, String> mapping = new HashMap<Character, String>();
+		mapping.put(CDXConstants.CDX_CHAR_ORIGINAL_URL, url);
+		mapping.put(CDXConstants.CDX_CHAR_DATE, date);
+		return CDXEntry.createCDXEntry(mapping);
+	}
+
+	List<CDXEntry> createEntries() {
+		List<CDXEntry> res = new ArrayList<CDXEntry>();
+		res.add(createEntry("http://www.kb.dk/", "20150101000000"));
+		res.add(createEntry("https://kb.dk/", "20150101003000"));
+		res.add(createEntry("http://www.kb.dk/", "20150102235959"));
+		res.add(createEntry("http://www.kb.dk/", "20150131000000"));
+		res.add(createEntry("http://www.kb.dk/", "20150201000000"));
+		res.add(createEntry("http://www.kb.dk/", "20160101000000"));
+		res.add(createEntry("http://www.kb.dk/about", "20160101000001"));
+		res.add(createEntry("http://www.kb.dk/about", "20160101130000"));
+		return res;
+	}
+
+	List<String> getDates(List<CDXEntry> entries) {
+		List<String> res = new ArrayList<String>();
+		for(CDXEntry entry : entries) {
+			res.add(entry.getUrl() + " " + entry.getDateAsLong());
+		}
+		return res;
+	}
+
+	@Test
+	public void testSamplings() {
+		addDescription("Test that only the first CDX entry of each URL within each period is kept.");
+		List<CDXEntry> entries = createEntries();
+		assertEquals(CDXSampler.sample(entries, null).size(), 8);
+		assertEquals(CDXSampler.sample(entries, CDXSampling.HOUR).size(), 7);
+		assertEquals(CDXSampler.sample(entries, CDXSampling.DAY).size(), 6);
+		assertEquals(CDXSampler.sample(entries, CDXSampling.MONTH).size(), 4);
+		assertEquals(CDXSampler.sample(entries, CDXSampling.YEAR).size(), 3);
+		
+		addStep("Check which entries are kept for the months", "Should be the first of each month of each URL");
+		List<CDXEntry> expected = new ArrayList<CDXEntry>();
+		expected.add(entries.get(0));
+		expected.add(entries.get(4));
+		expected.add(entries.get(5));
+		expected.add(entries.get(6));
+		assertEquals(getDates(CDXSampler.sample(entries, CDXSampling.MONTH)), getDates(expected));
+	}
+
+	@Test
+	public void testStreamingCounts() {
+		addDescription("Test the counts of the streaming fold.");
+		final List<CDXEntry> sample = new ArrayList<CDXEntry>();
+		CDXSampler sampler = new CDXSampler(CDXSampling.DAY, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				sample.add(entry);
+			}
+		});
+		for(CDXEntry entry : createEntries()) {
+			sampler.handleEntry(entry);
+		}
+		assertEquals(sample.size(), 6);
+		assertEquals(sampler.getSampleCount(), 6L);
+		assertEquals(sampler.getSkippedCount(), 2L);
+	}
+
+	@Test
+	public void testExtractSampling() {
+		addDescription("Test extracting the sampling from its name or from the collapse argument.");
+		assertEquals(CDXSampling.extractSampling("Day"), CDXSampling.DAY);
+		assertEquals(CDXSampling.extractSampling("timestamp:6"), CDXSampling.MONTH);
+		assertEquals(CDXSampling.extractSampling(" "), null);
+		assertEquals(CDXSampling.DAY.getArgument(), "timestamp:8");
+		try {
+			CDXSampling.extractSampling("week");
+			throw new AssertionError("Should have failed");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
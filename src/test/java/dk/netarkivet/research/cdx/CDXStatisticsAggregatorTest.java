@@ -0,0 +1,89 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXStatistics.Dimension;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class CDXStatisticsAggregatorTest extends ExtendedTestCase {
+
+	String dirPath = "test-dir-aggregator";
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		File dir = new File(dirPath);
+		if(dir.exists()) {
+			TestFileUtils.removeFile(dir);
+		}
+		FileUtils.createDir(dirPath);
+	}
+
+	@AfterMethod
+	public void cleanUp() throws Exception {
+		TestFileUtils.removeFile(new File(dirPath));
+	}
+
+	CDXStatistics countSequentially(File ... cdxFiles) throws Exception {
+		CDXStatistics res = new CDXStatistics();
+		for(File cdxFile : cdxFiles) {
+			for(CDXEntry entry : new CDXFileReader().extractCDXFromFile(cdxFile)) {
+				res.handleEntry(entry);
+			}
+		}
+		return res;
+	}
+
+	void assertSameStatistics(CDXStatistics actual, CDXStatistics expected) {
+		assertEquals(actual.getTotalCount(), expected.getTotalCount());
+		assertEquals(actual.getTotalSize(), expected.getTotalSize());
+		for(Dimension dimension : Dimension.values()) {
+			assertEquals(actual.getCounts(dimension), expected.getCounts(dimension), dimension.name());
+			assertEquals(actual.getSizes(dimension), expected.getSizes(dimension), dimension.name());
+		}
+	}
+
+	@Test
+	public void testAggregatingChunksInParallel() throws Exception {
+		addDescription("Test that counting small chunks on several threads gives the same as counting sequentially.");
+		CDXStatisticsAggregator aggregator = new CDXStatisticsAggregator(4, 100L, 200L);
+		assertEquals(aggregator.getNumberOfChunks(validCdxFile.length()), 
+				(int) CDXStatisticsAggregator.ceilDivide(validCdxFile.length(), 200L));
+
+		CDXStatistics statistics = aggregator.aggregate(Arrays.asList(validCdxFile, sortedCdxFile));
+		assertEquals(statistics.getTotalCount(), 38L);
+		assertSameStatistics(statistics, countSequentially(validCdxFile, sortedCdxFile));
+	}
+
+	@Test
+	public void testNumberOfChunks() throws Exception {
+		addDescription("Test that files are split for the threads, but not into chunks below the minimum size.");
+		CDXStatisticsAggregator aggregator = new CDXStatisticsAggregator(8, 1000L, 10000L);
+		assertEquals(aggregator.getNumberOfChunks(0L), 1);
+		assertEquals(aggregator.getNumberOfChunks(500L), 1);
+		assertEquals(aggregator.getNumberOfChunks(3500L), 4);
+		assertEquals(aggregator.getNumberOfChunks(50000L), 8);
+		assertEquals(aggregator.getNumberOfChunks(200000L), 20);
+	}
+
+	@Test
+	public void testAggregatingBinaryCDXFiles() throws Exception {
+		addDescription("Test that binary CDX files are counted along with the text CDX files.");
+		File binaryCdxFile = new File(dirPath, "sorted.bcdx");
+		new BinaryCDXFileWriter(binaryCdxFile, 2).writeCDXFile(sortedCdxFile);
+
+		CDXStatisticsAggregator aggregator = new CDXStatisticsAggregator(2);
+		CDXStatistics statistics = aggregator.aggregate(Arrays.asList(validCdxFile, binaryCdxFile));
+		assertSameStatistics(statistics, countSequentially(validCdxFile, sortedCdxFile));
+	}
+}
@@ -0,0 +1,155 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXStatistics.Dimension;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.FileUtils;
+
+public class CDXStatisticsTest extends ExtendedTestCase {
+
+	String dirPath = "test-dir-statistics";
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		File dir = new File(dirPath);
+		if(dir.exists()) {
+			TestFileUtils.removeFile(dir);
+		}
+		FileUtils.createDir(dirPath);
+	}
+
+	@AfterMethod
+	public void cleanUp() throws Exception {
+		TestFileUtils.removeFile(new File(dirPath));
+	}
+
+	List<CDXEntry> readEntries() throws Exception {
+		return new ArrayList<CDXEntry>(new CDXFileReader().extractCDXFromFile(validCdxFile));
+	}
+
+	@Test
+	public void testCounting() throws Exception {
+		addDescription("Test counting the CDX entries of the valid test CDX file by each dimension.");
+		CDXStatistics statistics = new CDXStatistics();
+		for(CDXEntry entry : readEntries()) {
+			statistics.handleEntry(entry);
+		}
+
+		assertEquals(statistics.getTotalCount(), 28L);
+		assertEquals(statistics.getTotalSize(), 0L, "The CDX format has no length field");
+		assertEquals(statistics.getCounts(Dimension.MIMETYPE).get("text/plain"), Long.valueOf(23L));
+		assertEquals(statistics.getCounts(Dimension.MIMETYPE).get("text/html"), Long.valueOf(5L));
+		assertEquals(statistics.getCounts(Dimension.STATUS).get("200"), Long.valueOf(21L));
+		assertEquals(statistics.getCounts(Dimension.STATUS).get("301"), Long.valueOf(5L));
+		assertEquals(statistics.getCounts(Dimension.STATUS).get("302"), Long.valueOf(2L));
+		assertEquals(statistics.getCounts(Dimension.YEAR).get("2009"), Long.valueOf(1L));
+		assertEquals(statistics.getCounts(Dimension.YEAR).get("2012"), Long.valueOf(9L));
+		assertEquals(statistics.getCounts(Dimension.HOST).size(), 1);
+		assertEquals(statistics.getCounts(Dimension.HOST).get("kb.dk"), Long.valueOf(28L));
+		assertEquals(statistics.getCounts(Dimension.JOB).size(), 27);
+		assertEquals(statistics.getCounts(Dimension.JOB).get("5631"), Long.valueOf(2L));
+	}
+
+	@Test
+	public void testCountingMissingValues() throws Exception {
+		addDescription("Test that entries without a status code, date or length are counted as unknown, also when "
+				+ "they are packed.");
+		CDXLineParser parser = new CDXLineParser(new Character[]{'A', 'b', 'a', 'm', 's', 'n', 'g'});
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		entries.add(parser.parse("kb.dk/robots.txt 20091021124237 http://www.kb.dk/robots.txt text/plain - 100 "
+				+ "1-1-20091021124236-00001-kb-test-har-001.kb.dk.arc"));
+		entries.add(parser.parse("kb.dk/ - http://www.kb.dk/ text/html 404 - "
+				+ "2-2-20110623093204-00003-sb-test-har-001.arc"));
+
+		for(List<CDXEntry> counted : Arrays.asList(entries, new PackedCDXEntries(entries))) {
+			CDXStatistics statistics = new CDXStatistics();
+			for(CDXEntry entry : counted) {
+				statistics.handleEntry(entry);
+			}
+			assertEquals(statistics.getTotalCount(), 2L);
+			assertEquals(statistics.getTotalSize(), 100L);
+			assertEquals(statistics.getCounts(Dimension.STATUS).get(CDXStatistics.UNKNOWN_KEY), Long.valueOf(1L));
+			assertEquals(statistics.getCounts(Dimension.STATUS).get("404"), Long.valueOf(1L));
+			assertNull(statistics.getCounts(Dimension.STATUS).get("200"));
+			assertEquals(statistics.getSizes(Dimension.STATUS).get(CDXStatistics.UNKNOWN_KEY), Long.valueOf(100L));
+			assertEquals(statistics.getCounts(Dimension.YEAR).get(CDXStatistics.UNKNOWN_KEY), Long.valueOf(1L));
+			assertEquals(statistics.getCounts(Dimension.YEAR).get("2009"), Long.valueOf(1L));
+			assertEquals(statistics.getCounts(Dimension.MIMETYPE).get("text/html"), Long.valueOf(1L));
+		}
+	}
+
+	@Test
+	public void testExtractingKeys() throws Exception {
+		addDescription("Test extracting the keys of the dimensions from CDX entries.");
+		CDXEntry entry = new CDXEntry();
+		entry.url = "HTTP://user@WWW2.Example.COM:8080/path?www.other.com";
+		entry.contentType = "Text/HTML; charset=UTF-8";
+		entry.filename = "not-a-job.warc";
+		assertEquals(CDXStatistics.extractHost(entry), "example.com");
+		assertEquals(CDXStatistics.extractMimetype(entry), "text/html");
+		assertEquals(CDXStatistics.extractJob(entry), CDXStatistics.UNKNOWN_KEY);
+		assertEquals(CDXStatistics.extractYear(entry), CDXStatistics.UNKNOWN_KEY);
+
+		entry.url = null;
+		entry.urlNorm = "kb.dk/robots.txt";
+		entry.date = -1L;
+		assertEquals(CDXStatistics.extractHost(entry), "kb.dk");
+		assertEquals(CDXStatistics.extractYear(entry), "1969");
+	}
+
+	@Test
+	public void testMerging() throws Exception {
+		addDescription("Test that merging partial statistics gives the same as counting all the entries at once.");
+		List<CDXEntry> entries = readEntries();
+		CDXStatistics all = new CDXStatistics();
+		CDXStatistics first = new CDXStatistics();
+		CDXStatistics second = new CDXStatistics();
+		for(int i = 0; i < entries.size(); i++) {
+			all.handleEntry(entries.get(i));
+			(i < 10 ? first : second).handleEntry(entries.get(i));
+		}
+
+		first.merge(second);
+		assertEquals(first.getTotalCount(), all.getTotalCount());
+		for(Dimension dimension : Dimension.values()) {
+			assertEquals(first.getCounts(dimension), all.getCounts(dimension));
+			assertEquals(first.getSizes(dimension), all.getSizes(dimension));
+		}
+		assertEquals(second.getTotalCount(), 18L, "The merged statistics must not be changed");
+	}
+
+	@Test
+	public void testWritingToDirectory() throws Exception {
+		addDescription("Test writing the statistics as a CSV file for each dimension.");
+		CDXStatistics statistics = new CDXStatistics();
+		for(CDXEntry entry : readEntries()) {
+			statistics.handleEntry(entry);
+		}
+		File outputDir = new File(dirPath, "statistics");
+		statistics.writeToDirectory(outputDir);
+
+		for(Dimension dimension : Dimension.values()) {
+			File csvFile = new File(outputDir, dimension.name().toLowerCase() + ".csv");
+			assertTrue(csvFile.isFile(), csvFile.getName());
+			assertEquals(TestFileUtils.countNumberOfLines(csvFile), statistics.getCounts(dimension).size() + 1);
+		}
+		List<String> lines = new ArrayList<String>(TestFileUtils.readFile(new File(outputDir, "status.csv")));
+		assertEquals(lines.get(0), "status;count;size");
+		assertEquals(lines.get(1), "200;21;0");
+		assertEquals(lines.get(3), "302;2;0");
+	}
+}
@@ -0,0 +1,115 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.utils.DateUtils;
+
+public class CDXTimelineTest extends ExtendedTestCase {
+
+	Character[] format = new Character[]{'A', 'b', 'a', 'm', 's', 'k', 'r', 'V', 'g'};
+	CDXLineParser parser = new CDXLineParser(format);
+
+	CDXEntry entry(String date, String filename) {
+		return parser.parse("example.com/ " + date + " http://example.com/ text/html 200 DIGEST - 1 " + filename);
+	}
+
+	Date date(String waybackDate) throws Exception {
+		return DateUtils.waybackDateToDate(waybackDate);
+	}
+
+	@Test
+	public void testClosestToDate() throws Exception {
+		addDescription("Test finding the entry closest to a date in an unsorted timeline.");
+		List<CDXEntry> entries = Arrays.asList(entry("20150101000000", "b"), entry("20140101000000", "a"),
+				entry("20160101000000", "c"));
+		CDXTimeline timeline = new CDXTimeline(entries);
+		assertEquals(timeline.size(), 3);
+		assertEquals(timeline.getDate(0), date("20140101000000").getTime());
+		assertEquals(timeline.getEntry(2).getFilename(), "c");
+
+		assertEquals(timeline.findClosest(date("20000101000000")).getFilename(), "a");
+		assertEquals(timeline.findClosest(date("20140601000000")).getFilename(), "a");
+		assertEquals(timeline.findClosest(date("20141001000000")).getFilename(), "b");
+		assertEquals(timeline.findClosest(date("20150101000000")).getFilename(), "b");
+		assertEquals(timeline.findClosest(date("20300101000000")).getFilename(), "c");
+		assertNull(timeline.findClosest(null));
+
+		addStep("Find the closest in the middle of two entries", "Should give the earliest");
+		assertEquals(timeline.findClosest(date("20140101000010")).getFilename(), "a");
+		CDXTimeline even = new CDXTimeline(Arrays.asList(entry("20140101000000", "a"), entry("20140101000020", "b")));
+		assertEquals(even.findClosest(date("20140101000010")).getFilename(), "a");
+	}
+
+	@Test
+	public void testSameDates() throws Exception {
+		addDescription("Test that the first of several entries with the same date is found.");
+		List<CDXEntry> entries = Arrays.asList(entry("20140101000000", "a"), entry("20150101000000", "b1"),
+				entry("20150101000000", "b2"), entry("20150101000000", "b3"), entry("20160101000000", "c"));
+		CDXTimeline timeline = new CDXTimeline(entries);
+		assertEquals(timeline.findClosest(date("20150101000000")).getFilename(), "b1");
+		assertEquals(timeline.findClosest(date("20150201000000")).getFilename(), "b1");
+		assertEquals(timeline.findClosest(date("20141201000000")).getFilename(), "b1");
+	}
+
+	@Test
+	public void testInterval() throws Exception {
+		addDescription("Test finding the entries within an interval, where both dates are inclusive.");
+		List<CDXEntry> entries = new ArrayList<CDXEntry>();
+		for(int year = 2016; year >= 2010; year--) {
+			entries.add(entry(year + "0101000000", "f" + year));
+		}
+		CDXTimeline timeline = new CDXTimeline(entries);
+		List<CDXEntry> res = timeline.findInterval(date("20120101000000"), date("20140101000000"));
+		assertEquals(res.size(), 3);
+		assertEquals(res.get(0).getFilename(), "f2012");
+		assertEquals(res.get(2).getFilename(), "f2014");
+
+		assertEquals(timeline.findInterval(null, date("20110601000000")).size(), 2);
+		assertEquals(timeline.findInterval(date("20110601000000"), null).size(), 5);
+		assertEquals(timeline.findInterval(null, null).size(), 7);
+		assertTrue(timeline.findInterval(date("20200101000000"), null).isEmpty());
+		assertTrue(timeline.findInterval(date("20140101000000"), date("20120101000000")).isEmpty());
+	}
+
+	@Test
+	public void testFilename() throws Exception {
+		addDescription("Test finding the entry with a filename, regardless of case.");
+		CDXTimeline timeline = new CDXTimeline(Arrays.asList(entry("20150101000000", "b.warc"),
+				entry("20140101000000", "a.warc")));
+		assertEquals(timeline.findFilename("A.WARC").getFilename(), "a.warc");
+		assertNull(timeline.findFilename("c.warc"));
+		assertNull(timeline.findFilename(null));
+	}
+
+	@Test
+	public void testPackedEntriesAndNulls() throws Exception {
+		addDescription("Test a timeline of packed entries with null entries, and of a collection without random access.");
+		PackedCDXEntries packed = new PackedCDXEntries();
+		packed.add(entry("20140101000000", "a"));
+		packed.add(null);
+		packed.add(entry("20150101000000", "b"));
+		CDXTimeline timeline = new CDXTimeline(packed);
+		assertEquals(timeline.size(), 2);
+		assertTrue(timeline.isTimelineOf(packed));
+		assertEquals(timeline.findClosest(date("20141201000000")).getFilename(), "b");
+
+		LinkedHashSet<CDXEntry> set = new LinkedHashSet<CDXEntry>(Arrays.asList(entry("20150101000000", "b"),
+				entry("20140101000000", "a")));
+		CDXTimeline setTimeline = new CDXTimeline(set);
+		assertTrue(setTimeline.isTimelineOf(set));
+		assertEquals(setTimeline.findInterval(null, null).get(0).getFilename(), "a");
+
+		assertNull(new CDXTimeline(new ArrayList<CDXEntry>()).findClosest(date("20141201000000")));
+	}
+}
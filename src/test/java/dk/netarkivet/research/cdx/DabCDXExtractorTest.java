@@ -1,23 +1,35 @@
 package dk.netarkivet.research.cdx;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
 
 import org.jaccept.structure.ExtendedTestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import dk.netarkivet.research.cdx.cache.LruCDXCache;
 import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.http.ResponseLineHandler;
 import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.testutils.ProcessTestingUtils;
 import dk.netarkivet.research.utils.DateUtils;
 import dk.netarkivet.research.wid.WID;
@@ -51,7 +63,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WPID wpid = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
 		CDXEntry entry = extractor.retrieveCDX(wpid);
@@ -66,7 +78,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WPID wpid = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn("");
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, "");
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
 		CDXEntry entry = extractor.retrieveCDX(wpid);
@@ -79,7 +91,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		String extractURL = "http://example.com/";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
 		Collection<CDXEntry> entries = extractor.retrieveAllCDX(extractURL);
@@ -87,6 +99,71 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		assertEquals(entries.size(), 13);
 	}
 	
+	@Test
+	public void testMockedCDXExtractionIsCached() throws Exception {
+		addDescription("Test that the CDX entries for a URL are only retrieved once from the server.");
+		String extractURL = "http://example.com/";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
+		
+		LruCDXCache cache = new LruCDXCache();
+		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever, cache);
+		assertEquals(extractor.retrieveAllCDX(extractURL).size(), 13);
+		assertEquals(extractor.retrieveAllCDX(extractURL).size(), 13);
+		verify(retriever, times(1)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+		assertEquals(cache.getHitCount(), 1L);
+		assertEquals(cache.getMissCount(), 1L);
+	}
+	
+	@Test
+	public void testMockedCDXExtractionIsCachedForUrlVariants() throws Exception {
+		addDescription("Test that URLs, which only differ in scheme, www or case, share the cached CDX entries, "
+				+ "since the CDX server gets the same query for them, and that other variants are requested.");
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
+		
+		LruCDXCache cache = new LruCDXCache();
+		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever, cache);
+		addStep("Retrieve URLs, which give the same query", "Should only be requested once");
+		assertEquals(extractor.retrieveAllCDX("http://example.com/?a=1&b=2").size(), 13);
+		assertEquals(extractor.retrieveAllCDX("https://www.EXAMPLE.com/?a=1&b=2").size(), 13);
+		verify(retriever, times(1)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+		
+		addStep("Retrieve URLs with another port or query order", "Should be requested, since the CDX server "
+				+ "does not canonize them");
+		assertEquals(extractor.retrieveAllCDX("http://example.com:8080/?a=1&b=2").size(), 13);
+		assertEquals(extractor.retrieveAllCDX("http://example.com/?b=2&a=1").size(), 13);
+		verify(retriever, times(3)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+		assertEquals(cache.getHitCount(), 1L);
+		assertEquals(cache.getMissCount(), 3L);
+	}
+	
+	@Test
+	public void testMockedQueryCDXForHost() throws Exception {
+		addDescription("Test that a host query is sent to the server as a key prefix without the ending space.");
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
+
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
+		int count = 0;
+		try (CDXQueryIterator iterator = extractor.queryCDX("http://www.netarkivet.dk/about", CDXMatchType.HOST)) {
+			while(iterator.hasNext()) {
+				iterator.next();
+				count++;
+			}
+		}
+		assertEquals(count, 13);
+		verify(retriever).retrieveLinesFromUrl(eq(serverUrl + "?q=netarkivet.dk/"), any(ResponseLineHandler.class));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testMockedQueryCDXForDomain() throws Exception {
+		addDescription("Test that domain queries are rejected, since the keys of the DAB server are not SURTs.");
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, mock(HttpRetriever.class));
+		extractor.queryCDX("netarkivet.dk", CDXMatchType.DOMAIN);
+	}
+
 	@Test
 	public void testMockedCDXExtractionForWaybackWidWithFilename() throws Exception {
 		addDescription("Test extraction of a CDX entry on the filename. And validate, that it has that file-name");
@@ -96,7 +173,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WaybackWID wid = WaybackWID.createNarkWaybackWID(extractFilename, extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
 		CDXEntry entry = extractor.retrieveCDX(wid);
@@ -113,7 +190,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		WaybackWID wid = WaybackWID.createNarkWaybackWID(extractFilename, extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
 		CDXEntry entry = extractor.retrieveCDX(wid);
@@ -131,7 +208,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		WaybackWID wid1 = WaybackWID.createNarkWaybackWID(extractFilename, extractURL, DateUtils.waybackDateToDate(extractDate));
 		WPID wid2 = WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate(extractDate));
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
 		Collection<CDXEntry> entry = extractor.retrieveCDXentries(Arrays.asList((WID) wid1, (WID) wid2));
@@ -140,6 +217,85 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 		assertEquals(entry.size(), 2);
 	}
 
+	@Test
+	public void testMockedConcurrentCDXExtractionForWIDs() throws Exception {
+		addDescription("Test that the WIDs resolved concurrently are returned in the order of the WIDs.");
+		Date date = DateUtils.waybackDateToDate("20140127171200");
+		List<WID> wids = new ArrayList<WID>();
+		for(int i = 0; i < 50; i++) {
+			wids.add(WPID.createNarkWPid("http://example.com/page" + i, date));
+		}
+		wids.add(mock(WID.class));
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		when(retriever.retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class))).thenAnswer(
+				new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				String requestUrl = (String) invocation.getArguments()[0];
+				String url = requestUrl.substring(requestUrl.indexOf("?q=") + 3, requestUrl.length() - 3);
+				Thread.sleep(new Random().nextInt(5));
+				return HttpRetrieverTestUtils.deliverLines(
+						url + " 20140127171200 http://" + url + " text/html 200 DIGEST - 1 file.warc\n", 
+						(ResponseLineHandler) invocation.getArguments()[1]);
+			}
+		});
+		
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
+		extractor.setConcurrency(8, 12);
+		List<CDXEntry> entries = new ArrayList<CDXEntry>(extractor.retrieveCDXentries(wids));
+		assertEquals(entries.size(), wids.size());
+		for(int i = 0; i < 50; i++) {
+			assertEquals(entries.get(i).getUrl(), "http://example.com/page" + i);
+		}
+		assertNull(entries.get(50));
+	}
+
+	@Test
+	public void testMockedConcurrentCDXExtractionSharesRequests() throws Exception {
+		addDescription("Test that the CDX entries for a URL are only retrieved once, when many WIDs for few URLs are "
+				+ "resolved concurrently.");
+		List<WID> wids = new ArrayList<WID>();
+		for(int i = 0; i < 60; i++) {
+			wids.add(WPID.createNarkWPid("http://example.com/page" + (i % 3), 
+					DateUtils.waybackDateToDate("2014012717120" + (i % 10))));
+		}
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		when(retriever.retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class))).thenAnswer(
+				new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(20);
+				return HttpRetrieverTestUtils.deliverLines(dabResultString, 
+						(ResponseLineHandler) invocation.getArguments()[1]);
+			}
+		});
+		
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
+		extractor.setConcurrency(8, 12);
+		Collection<CDXEntry> entries = extractor.retrieveCDXentries(wids);
+		assertEquals(entries.size(), wids.size());
+		for(CDXEntry entry : entries) {
+			assertNotNull(entry);
+		}
+		verify(retriever, times(3)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testMockedConcurrentCDXExtractionFailure() throws Exception {
+		addDescription("Test that a failure while resolving the WIDs concurrently is thrown to the caller.");
+		Date date = DateUtils.waybackDateToDate("20140127171200");
+		List<WID> wids = new ArrayList<WID>();
+		for(int i = 0; i < 10; i++) {
+			wids.add(WPID.createNarkWPid("http://example.com/page" + i, date));
+		}
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		when(retriever.retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class))).thenThrow(new RuntimeException("Connection refused"));
+		
+		DabCDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
+		extractor.setConcurrency(4, 4);
+		extractor.retrieveCDXentries(wids);
+	}
+
 	@Test
 	public void testMockedCDXExtractionOfURLInterval() throws Exception {
 		addDescription("Test extraction of CDX entries for a URL interval.");
@@ -149,7 +305,7 @@ public class DabCDXExtractorTest extends ExtendedTestCase {
 
 		UrlInterval urlInterval = new UrlInterval(extractURL, extractEarliestDate, extractLatestDate); 
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(dabResultString);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, dabResultString);
 		
 		CDXExtractor extractor = new DabCDXExtractor(serverUrl, retriever);
 		Collection<CDXEntry> entry = extractor.retrieveCDXForInterval(urlInterval);
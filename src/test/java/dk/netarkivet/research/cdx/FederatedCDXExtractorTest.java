@@ -0,0 +1,187 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.cache.LruCDXCache;
+import dk.netarkivet.research.cdx.server.LocalCDXServer;
+import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
+
+public class FederatedCDXExtractorTest extends ExtendedTestCase {
+
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+
+	@Test
+	public void testLookupsGiveTheResultsOfTheReplicas() throws Exception {
+		addDescription("Test that the federated lookups give the same results as a single replica.");
+		try (LocalCDXExtractor first = new LocalCDXExtractor(Arrays.asList(sortedCdxFile, validCdxFile));
+				LocalCDXExtractor second = new LocalCDXExtractor(Arrays.asList(sortedCdxFile, validCdxFile))) {
+			Map<String, CDXExtractor> replicas = new LinkedHashMap<String, CDXExtractor>();
+			replicas.put("first", first);
+			replicas.put("second", second);
+			try (FederatedCDXExtractor extractor = new FederatedCDXExtractor(replicas)) {
+				addStep("Look up the CDX entries", "Should be the same as from the replica");
+				assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 31);
+				WPID wpid = WPID.createNarkWPid("http://netarkivet.dk/", DateUtils.waybackDateToDate("20150101000000"));
+				assertNotNull(extractor.retrieveCDX(wpid));
+				assertEquals(extractor.retrieveCDX(wpid).getDateAsLong(), first.retrieveCDX(wpid).getDateAsLong());
+				assertNull(extractor.retrieveCDX(WPID.createNarkWPid("http://example.com/",
+						DateUtils.waybackDateToDate("20150101000000"))));
+
+				addStep("Check the statistics", "Should only have sent the lookups to the first replica");
+				assertEquals(extractor.getStatistics().get("first").getLookupCount(), 4L);
+				assertEquals(extractor.getStatistics().get("second").getLookupCount(), 0L);
+				assertEquals(extractor.getHedgeCount(), 0L);
+			}
+		}
+	}
+
+	@Test
+	public void testHedgingAroundSlowReplica() throws Exception {
+		addDescription("Test that lookups are hedged to another replica, when a replica is slow, and that the "
+				+ "traffic is moved to the fastest replica.");
+		final CountDownLatch release = new CountDownLatch(1);
+		try (LocalCDXExtractor slow = new LocalCDXExtractor(Arrays.asList(sortedCdxFile)) {
+					@Override
+					public Collection<CDXEntry> retrieveAllCDX(String url) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return super.retrieveAllCDX(url);
+					}
+				};
+				LocalCDXExtractor fast = new LocalCDXExtractor(Arrays.asList(sortedCdxFile))) {
+			Map<String, CDXExtractor> replicas = new LinkedHashMap<String, CDXExtractor>();
+			replicas.put("slow", slow);
+			replicas.put("fast", fast);
+			try (FederatedCDXExtractor extractor = new FederatedCDXExtractor(replicas)) {
+				extractor.setHedgeDelays(50L, 10L);
+				addStep("Make lookups, while the slow replica is blocked", "Should be hedged to the fast replica");
+				for(int i = 0; i < FederatedCDXExtractor.MIN_SAMPLES; i++) {
+					assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt?v=" + i).size(), 0);
+				}
+				assertEquals(extractor.getHedgeCount(), (long) FederatedCDXExtractor.MIN_SAMPLES);
+				assertEquals(extractor.getHedgeWinCount(), (long) FederatedCDXExtractor.MIN_SAMPLES);
+				assertEquals(extractor.getStatistics().get("slow").getSampleCount(), 0);
+
+				addStep("Release the slow replica", "Should rank the fast replica first");
+				release.countDown();
+				waitForSamples(extractor.getStatistics().get("slow"), FederatedCDXExtractor.MIN_SAMPLES);
+				assertTrue(extractor.getStatistics().get("slow").getPercentile(0.5) >= 50L);
+				assertEquals(extractor.rankReplicas().get(0).name, "fast");
+				assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 3);
+				assertEquals(extractor.getStatistics().get("fast").getLookupCount(),
+						FederatedCDXExtractor.MIN_SAMPLES + 1L);
+			}
+		}
+	}
+
+	@Test
+	public void testFailover() throws Exception {
+		addDescription("Test that a failed lookup is sent on to the next replica at once.");
+		try (LocalCDXExtractor failing = new LocalCDXExtractor(Arrays.asList(sortedCdxFile)) {
+					@Override
+					public Collection<CDXEntry> retrieveAllCDX(String url) {
+						throw new IllegalStateException("The replica is down");
+					}
+				};
+				LocalCDXExtractor working = new LocalCDXExtractor(Arrays.asList(sortedCdxFile)) {
+					@Override
+					public Collection<CDXEntry> retrieveAllCDX(String url) {
+						return url.contains("missing") ? null : super.retrieveAllCDX(url);
+					}
+				}) {
+			Map<String, CDXExtractor> replicas = new LinkedHashMap<String, CDXExtractor>();
+			replicas.put("failing", failing);
+			replicas.put("working", working);
+			try (FederatedCDXExtractor extractor = new FederatedCDXExtractor(replicas)) {
+				extractor.setHedgeDelays(10000L, 10000L);
+				addStep("Look up the CDX entries", "Should be answered by the working replica without hedging");
+				long start = System.currentTimeMillis();
+				assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 3);
+				assertTrue(System.currentTimeMillis() - start < 5000L);
+				assertEquals(extractor.getHedgeCount(), 0L);
+				assertEquals(extractor.getStatistics().get("failing").getFailureCount(), 1L);
+				assertEquals(extractor.getStatistics().get("failing").getPercentile(0.5),
+						CDXLatencyStatistics.FAILURE_LATENCY);
+
+				addStep("Look up the CDX entries, which all the replicas fail to retrieve", "Should fail");
+				try {
+					extractor.retrieveAllCDX("http://www.kb.dk/missing");
+					throw new AssertionError("Should have failed");
+				} catch (IllegalStateException e) {
+					// expected
+				}
+				assertEquals(extractor.getStatistics().get("working").getFailureCount(), 1L);
+			}
+		}
+	}
+
+	@Test
+	public void testFailoverFromFailingDabServer() throws Exception {
+		addDescription("Test that the lookups are sent on from a DAB CDX server, which answers with errors, and that "
+				+ "the failing server is ranked last.");
+		try (LocalCDXExtractor localExtractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile));
+				LocalCDXServer failingServer = new LocalCDXServer(localExtractor, 0).start();
+				LocalCDXServer workingServer = new LocalCDXServer(localExtractor, 0).start()) {
+			failingServer.setErrorRate(1.0);
+			try (FederatedCDXExtractor extractor = FederatedCDXExtractor.createForDabServers(
+					Arrays.asList(failingServer.getDabUrl(), workingServer.getDabUrl()), new HttpRetriever(),
+					new LruCDXCache())) {
+				extractor.setHedgeDelays(10000L, 10000L);
+				addStep("Look up the CDX entries", "Should be answered by the working server");
+				for(int i = 0; i < FederatedCDXExtractor.MIN_SAMPLES; i++) {
+					assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 3);
+				}
+				assertEquals(extractor.getHedgeCount(), 0L);
+				assertEquals(failingServer.getInjectedErrorCount(), (long) FederatedCDXExtractor.MIN_SAMPLES);
+				assertEquals(extractor.getStatistics().get(failingServer.getDabUrl()).getFailureCount(),
+						(long) FederatedCDXExtractor.MIN_SAMPLES);
+
+				addStep("Rank the servers", "Should rank the failing server last, even though it answers fast");
+				assertEquals(extractor.rankReplicas().get(0).name, workingServer.getDabUrl());
+				assertEquals(extractor.rankReplicas().get(1).name, failingServer.getDabUrl());
+
+				addStep("Look up single CDX entries", "Should be found, and not be sent to the failing server");
+				long failedRequests = failingServer.getRequestCount();
+				WPID wpid = WPID.createNarkWPid("http://www.kb.dk/robots.txt",
+						DateUtils.waybackDateToDate("20150101000000"));
+				assertNotNull(extractor.retrieveCDX(wpid));
+				WaybackWID wid = WaybackWID.createNarkWaybackWID("unknown.warc", "http://www.kb.dk/robots.txt",
+						DateUtils.waybackDateToDate("20150101000000"));
+				assertNotNull(extractor.retrieveCDX(wid));
+				assertEquals(failingServer.getRequestCount(), failedRequests);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the lookups, which are still running against a replica, to be recorded in its statistics.
+	 * @param statistics The statistics of the replica.
+	 * @param samples The number of samples to wait for.
+	 */
+	protected void waitForSamples(CDXLatencyStatistics statistics, int samples) throws InterruptedException {
+		for(int i = 0; i < 1000 && statistics.getSampleCount() < samples; i++) {
+			Thread.sleep(10L);
+		}
+		assertEquals(statistics.getSampleCount(), samples);
+	}
+}
@@ -0,0 +1,233 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.CDXUtils;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.wid.WPID;
+
+public class IncrementalCDXExtractorTest extends ExtendedTestCase {
+
+	File dir = new File("tempDir");
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		TestFileUtils.removeFile(dir);
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		TestFileUtils.removeFile(dir);
+	}
+
+	int countDistinctLines(Collection<File> files, String url) {
+		List<String> res = new ArrayList<String>();
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(files)) {
+			for(CDXEntry entry : extractor.retrieveAllCDX(url)) {
+				String line = entry.getUrlNorm() + " " + entry.getDateAsLong() + " " + entry.getFilename() + " " 
+						+ entry.getOffset();
+				if(!res.contains(line)) {
+					res.add(line);
+				}
+			}
+		}
+		return res.size();
+	}
+
+	void assertOrderedByDate(Collection<CDXEntry> entries) {
+		long previous = Long.MIN_VALUE;
+		for(CDXEntry entry : entries) {
+			assertTrue(entry.getDateAsLong() >= previous);
+			previous = entry.getDateAsLong();
+		}
+	}
+
+	@Test
+	public void testIngestingBatches() throws Exception {
+		addDescription("Test that ingested batches are found by the lookups, and merged across the segments.");
+		int expected = countDistinctLines(Arrays.asList(sortedCdxFile, validCdxFile), "http://www.kb.dk/robots.txt");
+		try (IncrementalCDXExtractor store = new IncrementalCDXExtractor(new File(dir, "store"), 8, 600L)) {
+			addStep("Lookup in the empty store", "Should find nothing");
+			assertTrue(store.retrieveAllCDX("http://www.kb.dk/robots.txt").isEmpty());
+
+			addStep("Ingest a batch", "Should be found in a new segment");
+			assertEquals(store.ingest(Arrays.asList(sortedCdxFile)), 10L);
+			assertEquals(store.getSegmentFiles().size(), 1);
+			assertEquals(store.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 3);
+
+			addStep("Ingest another batch, and the first batch again", "Should only find the distinct lines");
+			store.ingest(Arrays.asList(validCdxFile));
+			store.ingest(Arrays.asList(sortedCdxFile));
+			assertEquals(store.getSegmentFiles().size(), 3);
+			Collection<CDXEntry> entries = store.retrieveAllCDX("https://kb.dk/robots.txt");
+			assertEquals(entries.size(), expected);
+			assertOrderedByDate(entries);
+
+			addStep("Lookup through the CDX extractor methods", "Should use the merged segments");
+			CDXEntry closest = store.retrieveCDX(WPID.createNarkWPid("http://netarkivet.dk/", 
+					DateUtils.waybackDateToDate("20150101000000")));
+			assertEquals(DateUtils.dateToWaybackDate(closest.getDateAsDate()), "20140623134425");
+			assertTrue(store.retrieveAllCDX("http://www.example.com/").isEmpty());
+			int hostEntries = 0;
+			try (CDXQueryIterator iterator = store.queryCDX("http://netarkivet.dk/", CDXMatchType.HOST)) {
+				while(iterator.hasNext()) {
+					iterator.next();
+					hostEntries++;
+				}
+			}
+			assertTrue(hostEntries >= 3);
+		}
+	}
+
+	@Test
+	public void testCompactingSegments() throws Exception {
+		addDescription("Test that the segments are merged, when there are too many, and that the store can be "
+				+ "reopened from its directory.");
+		File storeDir = new File(dir, "store");
+		int expected = countDistinctLines(Arrays.asList(sortedCdxFile, validCdxFile), "http://www.kb.dk/robots.txt");
+		try (IncrementalCDXExtractor store = new IncrementalCDXExtractor(storeDir, 2, 
+				CDXFileSorter.DEFAULT_MEMORY_BUDGET)) {
+			store.ingest(Arrays.asList(sortedCdxFile));
+			store.ingest(Arrays.asList(validCdxFile));
+			store.ingest(Arrays.asList(sortedCdxFile));
+			store.ingest(Arrays.asList(validCdxFile));
+			addStep("Merge the segments", "Should leave at most the maximum number of segments");
+			store.compact();
+			assertTrue(store.getSegmentFiles().size() <= 2, store.getSegmentFiles().toString());
+			assertEquals(store.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), expected);
+		}
+
+		addStep("Reopen the store", "Should only have the merged segments in the directory");
+		try (IncrementalCDXExtractor store = new IncrementalCDXExtractor(storeDir, 2, 
+				CDXFileSorter.DEFAULT_MEMORY_BUDGET)) {
+			List<File> segments = store.getSegmentFiles();
+			assertTrue(segments.size() <= 2);
+			assertEquals(storeDir.list().length, segments.size());
+			assertEquals(store.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), expected);
+
+			addStep("Ingest a batch and merge all the segments", "Should give a single segment with the same entries");
+			store.ingest(Arrays.asList(sortedCdxFile));
+			segments = store.getSegmentFiles();
+			assertTrue(segments.size() >= 2);
+			store.compactAll();
+			assertEquals(store.getSegmentFiles().size(), 1);
+			for(File segment : segments) {
+				assertFalse(segment.exists(), segment.getName());
+			}
+			Collection<CDXEntry> entries = store.retrieveAllCDX("http://www.kb.dk/robots.txt");
+			assertEquals(entries.size(), expected);
+			assertOrderedByDate(entries);
+		}
+	}
+
+	Set<String> scanDistinctCaptures(String digest, Long jobId) throws Exception {
+		Set<String> res = new HashSet<String>();
+		for(File file : Arrays.asList(sortedCdxFile, validCdxFile)) {
+			for(CDXEntry entry : new CDXFileReader().extractCDXFromFile(file)) {
+				boolean match = digest != null ? digest.equals(entry.getDigest()) 
+						: entry.getFilename().startsWith(jobId + "-");
+				if(match) {
+					res.add(captureOf(entry));
+				}
+			}
+		}
+		return res;
+	}
+
+	String captureOf(CDXEntry entry) {
+		return entry.getUrl() + " " + entry.getDateAsLong() + " " + entry.getFilename() + " " + entry.getOffset();
+	}
+
+	@Test
+	public void testSecondaryIndexes() throws Exception {
+		addDescription("Test finding the captures by their digest and by their harvest job through the indexes.");
+		File storeDir = new File(dir, "store");
+		String digest = "KLLVMTGA2AYGQYWFQS5YBZB5K5ZS355D";
+		Set<String> digestCaptures = scanDistinctCaptures(digest, null);
+		Set<String> jobCaptures = scanDistinctCaptures(null, 2439L);
+		try (IncrementalCDXExtractor store = new IncrementalCDXExtractor(storeDir)) {
+			store.ingest(Arrays.asList(sortedCdxFile));
+			addStep("Lookup by digest in a store without indexes", "Should fail");
+			try {
+				store.retrieveCDXForDigest(digest);
+				throw new AssertionError("Should have failed");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+
+		addStep("Reopen the store with indexes, and ingest another batch", "Should make the missing indexes");
+		try (IncrementalCDXExtractor store = new IncrementalCDXExtractor(storeDir, 
+				IncrementalCDXExtractor.DEFAULT_MAX_SEGMENTS, CDXFileSorter.DEFAULT_MEMORY_BUDGET, true)) {
+			store.ingest(Arrays.asList(validCdxFile));
+			store.ingest(Arrays.asList(sortedCdxFile));
+			assertEquals(store.getSegmentFiles().size(), 3);
+
+			Collection<CDXEntry> entries = store.retrieveCDXForDigest(digest);
+			Set<String> found = new HashSet<String>();
+			for(CDXEntry entry : entries) {
+				assertEquals(entry.getDigest(), digest);
+				found.add(captureOf(entry));
+			}
+			assertEquals(entries.size(), digestCaptures.size());
+			assertEquals(found, digestCaptures);
+			assertTrue(store.retrieveCDXForDigest("UNKNOWNDIGEST").isEmpty());
+
+			found.clear();
+			try (CDXQueryIterator iterator = store.queryCDXForJob(2439L)) {
+				while(iterator.hasNext()) {
+					found.add(captureOf(iterator.next()));
+				}
+			}
+			assertEquals(found, jobCaptures);
+
+			addStep("Merge the segments", "Should merge the indexes, and find the same captures");
+			store.compactAll();
+			assertEquals(store.getSegmentFiles().size(), 1);
+			assertEquals(storeDir.list().length, 3);
+			assertEquals(store.retrieveCDXForDigest(digest).size(), digestCaptures.size());
+			int jobEntries = 0;
+			try (CDXQueryIterator iterator = store.queryCDXForJob(2439L)) {
+				while(iterator.hasNext()) {
+					assertEquals(CDXUtils.extractJobID(iterator.next()), Long.valueOf(2439L));
+					jobEntries++;
+				}
+			}
+			assertEquals(jobEntries, jobCaptures.size());
+		}
+	}
+
+	@Test
+	public void testIncompleteSegmentIsDeleted() throws Exception {
+		addDescription("Test that a segment, which was not completed, is deleted when the store is opened.");
+		File storeDir = new File(dir, "store");
+		storeDir.mkdirs();
+		File incomplete = TestFileUtils.createTestFile(storeDir, "segment-7.tmp", "kb.dk/ 2011");
+		try (IncrementalCDXExtractor store = new IncrementalCDXExtractor(storeDir)) {
+			assertFalse(incomplete.exists());
+			assertTrue(store.getSegmentFiles().isEmpty());
+			assertTrue(store.retrieveCDXForInterval(new UrlInterval(
+					"http://www.kb.dk/", null, new Date())).isEmpty());
+		}
+	}
+}
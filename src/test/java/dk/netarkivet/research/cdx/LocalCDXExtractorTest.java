@@ -0,0 +1,205 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.wid.WID;
+import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
+
+public class LocalCDXExtractorTest extends ExtendedTestCase {
+
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+	File surtCdxFile = new File("src/test/resources/cdx/surt/sorted.cdx");
+
+	@Test
+	public void testRetrieveAllCDX() throws Exception {
+		addDescription("Test retrieving all the CDX entries for URLs from a local CDX file.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile))) {
+			addStep("Retrieve with different protocols and www", "Should be canonized to the same key");
+			assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 3);
+			assertEquals(extractor.retrieveAllCDX("https://kb.dk/robots.txt").size(), 3);
+			assertEquals(extractor.retrieveAllCDX("http://netarkivet.dk/").size(), 3);
+			
+			addStep("Retrieve an unknown URL", "Should give an empty collection");
+			assertTrue(extractor.retrieveAllCDX("http://www.example.com/").isEmpty());
+		}
+	}
+
+	@Test
+	public void testRetrieveAllCDXWithSurtKeys() throws Exception {
+		addDescription("Test retrieving the CDX entries for URLs from a local CDX file, which has SURTs as keys.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(surtCdxFile, sortedCdxFile))) {
+			addStep("Retrieve with different protocols and www", "Should find the entries in both files");
+			assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 6);
+			assertEquals(extractor.retrieveAllCDX("https://kb.dk/robots.txt").size(), 6);
+			assertEquals(extractor.retrieveAllCDX("http://netarkivet.dk/").size(), 6);
+		}
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(surtCdxFile))) {
+			addStep("Retrieve with default ports and fragments", "Should be canonized to the same SURT");
+			assertEquals(extractor.retrieveAllCDX("https://kb.dk:443/robots.txt#top").size(), 3);
+			assertEquals(extractor.retrieveAllCDX("http://www.netarkivet.dk:80").size(), 3);
+		}
+	}
+
+	@Test
+	public void testRetrieveAllCDXFromSeveralFiles() throws Exception {
+		addDescription("Test retrieving the CDX entries for a URL, which is in several local CDX files.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile, validCdxFile))) {
+			assertEquals(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt").size(), 31);
+		}
+	}
+
+	@Test
+	public void testRetrieveCDXForWIDs() throws Exception {
+		addDescription("Test retrieving the CDX entries for WPIDs and WaybackWIDs.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile))) {
+			WPID wpid = WPID.createNarkWPid("http://netarkivet.dk/", DateUtils.waybackDateToDate("20150101000000"));
+			CDXEntry entry = extractor.retrieveCDX(wpid);
+			assertNotNull(entry);
+			assertEquals(DateUtils.dateToWaybackDate(entry.getDateAsDate()), "20140623134425");
+			
+			String filename = "239240-135-20150910100037-00000-kb-prod-har-024.kb.dk.warc";
+			WaybackWID wid = WaybackWID.createNarkWaybackWID(filename, "http://netarkivet.dk/", null);
+			entry = extractor.retrieveCDX(wid);
+			assertNotNull(entry);
+			assertEquals(entry.getFilename(), filename);
+			
+			WPID unknown = WPID.createNarkWPid("http://example.com/", new Date());
+			assertNull(extractor.retrieveCDX(unknown));
+			
+			Collection<CDXEntry> entries = extractor.retrieveCDXentries(Arrays.asList((WID) wpid, wid, unknown));
+			assertEquals(entries.size(), 3);
+		}
+	}
+
+	@Test
+	public void testRetrieveCDXForInterval() throws Exception {
+		addDescription("Test retrieving the CDX entries within an interval.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(validCdxFile))) {
+			UrlInterval interval = new UrlInterval("http://www.kb.dk/robots.txt", 
+					DateUtils.waybackDateToDate("20130101000000"), DateUtils.waybackDateToDate("20140101000000"));
+			assertEquals(extractor.retrieveCDXForInterval(interval).size(), 5);
+		}
+	}
+
+	int countEntries(CDXQueryIterator iterator, String keyPrefix) {
+		int res = 0;
+		try {
+			while(iterator.hasNext()) {
+				CDXEntry entry = iterator.next();
+				assertTrue(entry.getUrlNorm().startsWith(keyPrefix), entry.getUrlNorm());
+				res++;
+			}
+			assertTrue(iterator.isComplete());
+		} finally {
+			iterator.close();
+		}
+		return res;
+	}
+
+	@Test
+	public void testQueryCDX() throws Exception {
+		addDescription("Test prefix and host queries on a local CDX file.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile))) {
+			addStep("Query for a prefix", "Should give the entries of all the URLs with the prefix");
+			assertEquals(countEntries(extractor.queryCDX("http://www.kb.dk/robots.txt", CDXMatchType.PREFIX), 
+					"kb.dk/robots.txt"), 4);
+			
+			addStep("Query for a host", "Should give the entries of all the URLs on the host");
+			assertEquals(countEntries(extractor.queryCDX("http://kb.dk/robots.txt", CDXMatchType.HOST), 
+					"kb.dk/"), 6);
+			assertEquals(countEntries(extractor.queryCDX("netarkivet.dk", CDXMatchType.HOST), 
+					"netarkivet.dk/"), 4);
+			
+			addStep("Query for an exact URL", "Should give the same as retrieving all the CDX entries");
+			assertEquals(countEntries(extractor.queryCDX("http://netarkivet.dk/", CDXMatchType.EXACT), 
+					"netarkivet.dk/"), 3);
+			
+			addStep("Query for an unknown host", "Should give no entries");
+			assertEquals(countEntries(extractor.queryCDX("http://kb.com/", CDXMatchType.HOST), ""), 0);
+		}
+	}
+
+	@Test
+	public void testProjectedQueries() throws Exception {
+		addDescription("Test that projected queries only decode the needed fields, besides the URL and the date.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile))) {
+			addStep("Query a host for the digests", "Should give the entries without the other fields");
+			int count = 0;
+			try (CDXQueryIterator iterator = extractor.queryCDX("netarkivet.dk", CDXMatchType.HOST, 
+					Arrays.asList(CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM))) {
+				while(iterator.hasNext()) {
+					CDXEntry entry = iterator.next();
+					assertNotNull(entry.getUrl());
+					assertNotNull(entry.getDateAsDate());
+					assertNotNull(entry.getDigest());
+					assertNull(entry.getFilename());
+					assertNull(entry.getContentType());
+					count++;
+				}
+			}
+			assertEquals(count, 4);
+			
+			addStep("Look up a WID for only the date", "Should find the closest capture, without the other fields");
+			WaybackWID wid = WaybackWID.createNarkWaybackWID(null, "http://netarkivet.dk/", 
+					DateUtils.waybackDateToDate("20150101000000"));
+			CDXEntry entry = extractor.retrieveCDX(wid, Arrays.asList(CDXConstants.CDX_CHAR_DATE));
+			assertNotNull(entry);
+			assertEquals(DateUtils.dateToWaybackDate(entry.getDateAsDate()), "20140623134425");
+			assertNull(entry.getDigest());
+			
+			addStep("Look up a WID with a filename", "Should also decode the filename");
+			String filename = "239240-135-20150910100037-00000-kb-prod-har-024.kb.dk.warc";
+			wid = WaybackWID.createNarkWaybackWID(filename, "http://netarkivet.dk/", null);
+			entry = extractor.retrieveCDX(wid, Arrays.asList(CDXConstants.CDX_CHAR_DATE));
+			assertNotNull(entry);
+			assertEquals(entry.getFilename(), filename);
+		}
+	}
+
+	@Test
+	public void testQueryCDXForDomainWithSurtKeys() throws Exception {
+		addDescription("Test domain queries on a local CDX file, which has SURTs as keys.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(surtCdxFile))) {
+			assertEquals(countEntries(extractor.queryCDX("kb.dk", CDXMatchType.DOMAIN), "dk,kb"), 6);
+			assertEquals(countEntries(extractor.queryCDX("dk", CDXMatchType.DOMAIN), "dk,"), 10);
+			assertEquals(countEntries(extractor.queryCDX("b.dk", CDXMatchType.DOMAIN), ""), 0);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testQueryCDXForDomainWithoutSurtKeys() throws Exception {
+		addDescription("Test that domain queries are rejected for local CDX files, which do not have SURTs as keys.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile))) {
+			extractor.queryCDX("kb.dk", CDXMatchType.DOMAIN);
+		}
+	}
+
+	@Test
+	public void testCreateFromDirectory() throws Exception {
+		addDescription("Test creating the extractor from a directory of CDX files.");
+		try (LocalCDXExtractor extractor = LocalCDXExtractor.createFromPath(sortedCdxFile.getParentFile())) {
+			assertEquals(extractor.cdxFiles.size(), 3);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testCreateFromDirectoryWithoutCDXFiles() throws Exception {
+		addDescription("Test creating the extractor from a directory without any CDX files.");
+		LocalCDXExtractor.createFromPath(new File("src/test/resources/diff"));
+	}
+}
@@ -0,0 +1,71 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class MappedCDXFileTest extends ExtendedTestCase {
+	
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+
+	@Test
+	public void testExtractingFormat() throws Exception {
+		addDescription("Test that the CDX format is extracted from the first line of the mapped file.");
+		try (MappedCDXFile cdxFile = new MappedCDXFile(sortedCdxFile)) {
+			Character[] format = cdxFile.getCDXFormat();
+			assertEquals(format.length, 9);
+			assertEquals(format[0], Character.valueOf(CDXConstants.CDX_CHAR_CANONIZED_URL));
+		}
+	}
+
+	@Test
+	public void testFindingLines() throws Exception {
+		addDescription("Test finding the lines for the keys in a sorted CDX file.");
+		try (MappedCDXFile cdxFile = new MappedCDXFile(sortedCdxFile)) {
+			addStep("Find the first, a middle and the last key", "Should find all the lines for each key");
+			assertEquals(cdxFile.findLines("kb.dk/").size(), 2);
+			assertEquals(cdxFile.findLines("kb.dk/robots.txt").size(), 3);
+			assertEquals(cdxFile.findLines("kb.dk/robots.txt2").size(), 1);
+			assertEquals(cdxFile.findLines("netarkivet.dk/about").size(), 1);
+			
+			addStep("Find keys, which are not in the file", "Should not find any lines");
+			assertTrue(cdxFile.findLines("kb.dk").isEmpty());
+			assertTrue(cdxFile.findLines("aaa.dk/").isEmpty());
+			assertTrue(cdxFile.findLines("kb.dk/robots").isEmpty());
+			assertTrue(cdxFile.findLines("zzz.dk/").isEmpty());
+		}
+	}
+
+	@Test
+	public void testFindingLinesAcrossSegments() throws Exception {
+		addDescription("Test finding lines, when the file is mapped in many small segments.");
+		try (MappedCDXFile cdxFile = new MappedCDXFile(sortedCdxFile, 7)) {
+			List<String> lines = cdxFile.findLines("netarkivet.dk/");
+			assertEquals(lines.size(), 3);
+			assertTrue(lines.get(0).startsWith("netarkivet.dk/ 20140623134425 "));
+			assertTrue(lines.get(2).endsWith(".warc"));
+		}
+	}
+
+	@Test
+	public void testFindingAllLinesWithSameKey() throws Exception {
+		addDescription("Test finding the lines in a file, where all the lines have the same key.");
+		try (MappedCDXFile cdxFile = new MappedCDXFile(validCdxFile)) {
+			assertEquals(cdxFile.findLines("kb.dk/robots.txt").size(), 28);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testFindingLinesAfterClose() throws Exception {
+		addDescription("Test that a closed file cannot be searched.");
+		MappedCDXFile cdxFile = new MappedCDXFile(sortedCdxFile);
+		cdxFile.close();
+		cdxFile.findLines("kb.dk/");
+	}
+}
@@ -0,0 +1,100 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+public class PackedCDXEntriesTest extends ExtendedTestCase {
+
+	Character[] format = new Character[]{'A', 'b', 'a', 'm', 's', 'k', 'r', 'V', 'g'};
+
+	@Test
+	public void testSameValuesAsEntries() throws Exception {
+		addDescription("Test that the packed entries have the same values as the original entries.");
+		Collection<CDXEntry> entries = new CDXFileReader().extractCDXFromFile(new File("src/test/resources/cdx/valid.cdx"));
+		PackedCDXEntries packed = new PackedCDXEntries(entries);
+		assertEquals(packed.size(), entries.size());
+
+		Iterator<CDXEntry> it = packed.iterator();
+		int index = 0;
+		for(CDXEntry expected : entries) {
+			CDXEntry entry = it.next();
+			assertEquals(entry.getUrlNorm(), expected.getUrlNorm());
+			assertEquals(entry.getDateAsLong(), expected.getDateAsLong());
+			assertEquals(entry.getDateAsDate(), expected.getDateAsDate());
+			assertEquals(entry.getUrl(), expected.getUrl());
+			assertEquals(entry.getContentType(), expected.getContentType());
+			assertEquals(entry.getStatusCode(), expected.getStatusCode());
+			assertEquals(entry.getDigest(), expected.getDigest());
+			assertEquals(entry.getOffset(), expected.getOffset());
+			assertEquals(entry.getLength(), expected.getLength());
+			assertEquals(entry.getFilename(), expected.getFilename());
+			assertEquals(entry.getRedirect(), expected.getRedirect());
+			assertEquals(entry.toString(), expected.toString());
+			assertEquals(packed.getDate(index++), expected.getDateAsLong().longValue());
+		}
+		assertTrue(packed.getNumberOfDistinctStrings() < entries.size() * 5);
+	}
+
+	@Test
+	public void testMissingValues() throws Exception {
+		addDescription("Test that missing values are kept as missing, and null entries are kept.");
+		PackedCDXEntries packed = new PackedCDXEntries();
+		packed.add(new CDXLineParser(format).parse("- - - - - - - - -"));
+		packed.add(null);
+		packed.trimToSize();
+
+		assertEquals(packed.size(), 2);
+		CDXEntry entry = packed.get(0);
+		assertNull(entry.getUrlNorm());
+		assertNull(entry.getDateAsDate());
+		assertEquals(entry.getStatusCode(), Integer.valueOf(200));
+		assertEquals(entry.getOffset(), Long.valueOf(0L));
+		assertEquals(entry.toStandaloneEntry().statusCode, null);
+		assertNull(packed.get(1));
+	}
+
+	@Test
+	public void testViews() throws Exception {
+		addDescription("Test that the views of the same row are equal, and can be made standalone.");
+		PackedCDXEntries packed = new PackedCDXEntries(new CDXFileReader().extractCDXFromFile(
+				new File("src/test/resources/cdx/sorted.cdx")));
+		assertEquals(packed.get(1), packed.get(1));
+		assertEquals(packed.get(1).hashCode(), packed.get(1).hashCode());
+		assertFalse(packed.get(1).equals(packed.get(2)));
+
+		CDXEntry standalone = packed.get(1).toStandaloneEntry();
+		assertNotSame(standalone.getClass(), packed.get(1).getClass());
+		assertEquals(standalone.filename, packed.get(1).getFilename());
+
+		List<CDXEntry> copy = new ArrayList<CDXEntry>(packed);
+		PackedCDXEntries repacked = new PackedCDXEntries(copy);
+		assertEquals(repacked.get(3).toString(), packed.get(3).toString());
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void testOnlyAppend() throws Exception {
+		addDescription("Test that entries can only be appended.");
+		PackedCDXEntries packed = new PackedCDXEntries();
+		packed.add(0, null);
+		packed.add(0, null);
+	}
+
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void testIndexOutOfBounds() throws Exception {
+		addDescription("Test retrieving an entry outside the list.");
+		assertNotNull(new PackedCDXEntries().get(0));
+	}
+}
@@ -0,0 +1,177 @@
+package dk.netarkivet.research.cdx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
+
+public class PooledAsyncCDXExtractorTest extends ExtendedTestCase {
+
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	File validCdxFile = new File("src/test/resources/cdx/valid.cdx");
+
+	@Test
+	public void testAsyncLookups() throws Exception {
+		addDescription("Test that the asynchronous lookups give the same results as the blocking lookups.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile, validCdxFile));
+				PooledAsyncCDXExtractor asyncExtractor = new PooledAsyncCDXExtractor(extractor, 2)) {
+			addStep("Queue the lookups", "Should deliver the results of the blocking extractor");
+			CDXFuture<Collection<CDXEntry>> all = asyncExtractor.retrieveAllCDXAsync("http://www.kb.dk/robots.txt");
+			UrlInterval interval = new UrlInterval("http://www.kb.dk/robots.txt", 
+					DateUtils.waybackDateToDate("20130101000000"), DateUtils.waybackDateToDate("20140101000000"));
+			CDXFuture<Collection<CDXEntry>> inInterval = asyncExtractor.retrieveCDXForIntervalAsync(interval);
+			WPID wpid = WPID.createNarkWPid("http://netarkivet.dk/", DateUtils.waybackDateToDate("20150101000000"));
+			CDXFuture<CDXEntry> closest = asyncExtractor.retrieveCDXAsync(wpid);
+			String filename = "239240-135-20150910100037-00000-kb-prod-har-024.kb.dk.warc";
+			WaybackWID wid = WaybackWID.createNarkWaybackWID(filename, "http://netarkivet.dk/", null);
+			CDXFuture<CDXEntry> withFile = asyncExtractor.retrieveCDXAsync(wid);
+			CDXFuture<CDXEntry> unknown = asyncExtractor.retrieveCDXAsync(
+					WPID.createNarkWPid("http://example.com/", new Date()));
+			
+			assertEquals(all.join().size(), 31);
+			assertEquals(inInterval.join().size(), extractor.retrieveCDXForInterval(interval).size());
+			assertNotNull(closest.join());
+			assertEquals(closest.join().getDateAsLong(), extractor.retrieveCDX(wpid).getDateAsLong());
+			assertEquals(withFile.join().getFilename(), filename);
+			assertNull(unknown.join());
+		}
+	}
+
+	@Test
+	public void testComposingWithCallbacks() throws Exception {
+		addDescription("Test composing the lookups for many URLs through the callbacks of the futures.");
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile));
+				PooledAsyncCDXExtractor asyncExtractor = new PooledAsyncCDXExtractor(extractor, 2)) {
+			int lookups = 200;
+			final AtomicInteger entries = new AtomicInteger();
+			final CountDownLatch completed = new CountDownLatch(lookups);
+			for(int i = 0; i < lookups; i++) {
+				String url = (i % 2 == 0 ? "http://www.kb.dk/robots.txt?v=" : "http://example.com/?v=") + i;
+				asyncExtractor.retrieveAllCDXAsync(url).addCallback(new CDXCallback<Collection<CDXEntry>>() {
+					@Override
+					public void onSuccess(Collection<CDXEntry> result) {
+						entries.addAndGet(result.size());
+						completed.countDown();
+					}
+					
+					@Override
+					public void onFailure(Throwable failure) {
+						completed.countDown();
+					}
+				});
+			}
+			addStep("Wait for the callbacks", "Should all be called, without blocking a thread per lookup");
+			assertTrue(completed.await(30, TimeUnit.SECONDS));
+			assertEquals(entries.get(), 0);
+			
+			addStep("Add a callback to a completed lookup", "Should be called right away");
+			CDXFuture<Collection<CDXEntry>> lookup = asyncExtractor.retrieveAllCDXAsync("http://www.kb.dk/robots.txt");
+			lookup.join();
+			final List<Collection<CDXEntry>> results = new ArrayList<Collection<CDXEntry>>();
+			lookup.addCallback(new CDXCallback<Collection<CDXEntry>>() {
+				@Override
+				public void onSuccess(Collection<CDXEntry> result) {
+					results.add(result);
+				}
+				
+				@Override
+				public void onFailure(Throwable failure) {}
+			});
+			assertEquals(results.size(), 1);
+			assertEquals(results.get(0).size(), 3);
+		}
+	}
+
+	@Test
+	public void testSharingPendingLookups() throws Exception {
+		addDescription("Test that pending lookups of all the CDX entries for the same URL key share the lookup.");
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger requests = new AtomicInteger();
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile)) {
+					@Override
+					public Collection<CDXEntry> retrieveAllCDX(String url) {
+						requests.incrementAndGet();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new IllegalStateException(e);
+						}
+						return super.retrieveAllCDX(url);
+					}
+				};
+				PooledAsyncCDXExtractor asyncExtractor = new PooledAsyncCDXExtractor(extractor, 4)) {
+			CDXFuture<Collection<CDXEntry>> first = asyncExtractor.retrieveAllCDXAsync("http://www.kb.dk/robots.txt");
+			CDXFuture<Collection<CDXEntry>> second = asyncExtractor.retrieveAllCDXAsync("https://kb.dk/robots.txt");
+			assertSame(second, first);
+			release.countDown();
+			assertEquals(first.join().size(), 3);
+			assertEquals(requests.get(), 1);
+			
+			addStep("Look up the URL again after the lookup completed", "Should make a new lookup");
+			assertEquals(asyncExtractor.retrieveAllCDXAsync("http://www.kb.dk/robots.txt").join().size(), 3);
+			assertEquals(requests.get(), 2);
+		}
+	}
+
+	@Test
+	public void testClosingCancelsPendingLookups() throws Exception {
+		addDescription("Test that closing the extractor cancels the lookups, which are still queued.");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (LocalCDXExtractor extractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile)) {
+					@Override
+					public Collection<CDXEntry> retrieveAllCDX(String url) {
+						started.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return super.retrieveAllCDX(url);
+					}
+				}) {
+			PooledAsyncCDXExtractor asyncExtractor = new PooledAsyncCDXExtractor(extractor, 1);
+			CDXFuture<Collection<CDXEntry>> running = asyncExtractor.retrieveAllCDXAsync("http://www.kb.dk/");
+			CDXFuture<Collection<CDXEntry>> queued = asyncExtractor.retrieveAllCDXAsync("http://netarkivet.dk/");
+			assertTrue(started.await(30, TimeUnit.SECONDS));
+			asyncExtractor.close();
+			release.countDown();
+			
+			assertTrue(queued.isCancelled());
+			try {
+				queued.join();
+				throw new AssertionError("Should have failed");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			running.get(30, TimeUnit.SECONDS);
+			
+			addStep("Make a lookup after closing", "Should fail");
+			try {
+				asyncExtractor.retrieveAllCDXAsync("http://www.kb.dk/robots.txt");
+				throw new AssertionError("Should have failed");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+}
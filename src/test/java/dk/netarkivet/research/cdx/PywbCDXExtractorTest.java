@@ -1,7 +1,11 @@
 package dk.netarkivet.research.cdx;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
@@ -9,14 +13,25 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.jaccept.structure.ExtendedTestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
+import dk.netarkivet.research.cdx.cache.LruCDXCache;
 import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.http.ResponseLineHandler;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.testutils.HttpRetrieverTestUtils;
 import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.wid.WID;
 import dk.netarkivet.research.wid.WPID;
+import dk.netarkivet.research.wid.WaybackWID;
 
 public class PywbCDXExtractorTest extends ExtendedTestCase {
 
@@ -63,7 +78,7 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 				+ extractURL + " 20150127171200 filename2 321 html 200 0fac8bab025fac54495109c9d44b287b\n";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(resultString);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, resultString);
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
 		Collection<CDXEntry> entries = extractor.retrieveAllCDX(extractURL);
@@ -75,13 +90,80 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 		}
 	}
 	
+	@Test
+    public void testAllCDXExtractionWithCache() throws Exception {
+		addDescription("Test that the CDX entries for a URL are cached, when a cache is given.");
+		String extractURL = "http://example.com/";
+		String resultString = extractURL + " 20140127171200 filename 123 html 200 0fac8bab025fac54495109c9d44b287b\n";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, resultString);
+		
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever, new LruCDXCache());
+		assertEquals(extractor.retrieveAllCDX(extractURL).size(), 1);
+		assertEquals(extractor.retrieveAllCDX(extractURL).size(), 1);
+		verify(retriever, times(1)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+	}
+	
+	@Test
+	public void testQueryCDXForDomain() throws Exception {
+		addDescription("Test that a domain query is sent to the server with the match type, and streamed back.");
+		String resultString = "http://example.com/ 20140127171200 filename 123 html 200 0fac8bab025fac54495109c9d44b287b\n"
+				+ "http://sub.example.com/ 20150127171200 filename2 321 html 200 0fac8bab025fac54495109c9d44b287b\n";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, resultString);
+		
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		int count = 0;
+		try (CDXQueryIterator iterator = extractor.queryCDX("example.com", CDXMatchType.DOMAIN)) {
+			while(iterator.hasNext()) {
+				assertTrue(iterator.next().url.contains("example.com"));
+				count++;
+			}
+			assertTrue(iterator.isComplete());
+		}
+		assertEquals(count, 2);
+		String requestUrl = extractor.createRequestUrlForQuery("example.com", CDXMatchType.DOMAIN);
+		assertTrue(requestUrl.endsWith("&matchType=domain"), requestUrl);
+		verify(retriever).retrieveLinesFromUrl(eq(requestUrl), any(ResponseLineHandler.class));
+	}
+	
+	@Test
+	public void testProjectedQuery() throws Exception {
+		addDescription("Test that a projected query only requests and parses the needed fields.");
+		String resultString = "http://example.com/ 20140127171200 0fac8bab025fac54495109c9d44b287b\n"
+				+ "http://example.com/a 20150127171200 0fac8bab025fac54495109c9d44b287b\n";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, resultString);
+		
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		int count = 0;
+		try (CDXQueryIterator iterator = extractor.queryCDX("example.com", CDXMatchType.PREFIX, 
+				Arrays.asList(CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM))) {
+			while(iterator.hasNext()) {
+				CDXEntry entry = iterator.next();
+				assertEquals(entry.getDigest(), "0fac8bab025fac54495109c9d44b287b");
+				assertNull(entry.getFilename());
+				count++;
+			}
+		}
+		assertEquals(count, 2);
+		String requestUrl = extractor.createRequestUrlForQuery("example.com", CDXMatchType.PREFIX, 
+				Arrays.asList(CDXConstants.CDX_CHAR_ORIGINAL_URL, CDXConstants.CDX_CHAR_DATE, 
+						CDXConstants.CDX_CHAR_NEW_STYLE_CHECKSUM));
+		assertTrue(requestUrl.contains("&fl=url,timestamp,digest&"), requestUrl);
+		verify(retriever).retrieveLinesFromUrl(eq(requestUrl), any(ResponseLineHandler.class));
+	}
+	
 	@Test
     public void testAllCDXExtractionFailure() throws Exception {
 		addDescription("Test extraction of a element.");
 		String extractURL = "http://example.com/";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(null);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, null);
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
 		Collection<CDXEntry> entries = extractor.retrieveAllCDX(extractURL);
@@ -94,11 +176,149 @@ public class PywbCDXExtractorTest extends ExtendedTestCase {
 		String extractURL = "http://example.com/";
 
 		HttpRetriever retriever = mock(HttpRetriever.class);
-		when(retriever.retrieveFromUrl(anyString())).thenReturn(" ");
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, " ");
 		
 		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
 		Collection<CDXEntry> entries = extractor.retrieveAllCDX(extractURL);
 		assertNotNull(entries);
 		assertTrue(entries.isEmpty());
 	}
+	
+	@Test
+    public void testStreamAllCDXWithoutCache() throws Exception {
+		addDescription("Test that the CDX entries are delivered to the handler, when streamed without a cache.");
+		String extractURL = "http://example.com/";
+		String resultString = extractURL + " 20140127171200 filename 123 html 200 0fac8bab025fac54495109c9d44b287b\n"
+				+ "not a cdx line\n"
+				+ extractURL + " 20150127171200 filename2 321 html 200 0fac8bab025fac54495109c9d44b287b\n";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, resultString);
+		
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		final List<String> filenames = new ArrayList<String>();
+		assertTrue(extractor.streamAllCDX(extractURL, new CDXEntryHandler() {
+			@Override
+			public void handleEntry(CDXEntry entry) {
+				filenames.add(entry.getFilename());
+			}
+		}));
+		assertEquals(filenames, Arrays.asList("filename", "filename2"));
+		
+		addStep("Retrieve the interval containing only the latest entry", "Should only give the latest entry");
+		Collection<CDXEntry> entries = extractor.retrieveCDXForInterval(new UrlInterval(extractURL, 
+				DateUtils.waybackDateToDate("20150101000000"), null));
+		assertEquals(entries.size(), 1);
+		assertEquals(entries.iterator().next().getFilename(), "filename2");
+	}
+	
+	@Test
+    public void testCDXExtractionOfURLIntervalUsesDates() throws Exception {
+		addDescription("Test that the dates of the interval are given to the CDX server.");
+		String extractURL = "http://example.com/";
+		final String resultString = extractURL + " 20150127171200 filename 123 html 200 0fac8bab025fac54495109c9d44b287b\n";
+		final List<String> requestUrls = new ArrayList<String>();
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		when(retriever.retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class))).thenAnswer(
+				new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				requestUrls.add((String) invocation.getArguments()[0]);
+				return HttpRetrieverTestUtils.deliverLines(resultString, 
+						(ResponseLineHandler) invocation.getArguments()[1]);
+			}
+		});
+		
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		Collection<CDXEntry> entries = extractor.retrieveCDXForInterval(new UrlInterval(extractURL, 
+				DateUtils.waybackDateToDate("20150101000000"), DateUtils.waybackDateToDate("20160101000000")));
+		assertEquals(entries.size(), 1);
+		assertEquals(requestUrls.size(), 1);
+		assertTrue(requestUrls.get(0).contains("&from=20150101000000"));
+		assertTrue(requestUrls.get(0).contains("&to=20160101000000"));
+		
+		addStep("Retrieve an interval with only the earliest date", "Should not have the 'to' argument");
+		extractor.retrieveCDXForInterval(new UrlInterval(extractURL, DateUtils.waybackDateToDate("20150101000000"), 
+				null));
+		assertTrue(requestUrls.get(1).contains("&from=20150101000000"));
+		assertFalse(requestUrls.get(1).contains("&to="));
+	}
+	
+	@Test
+    public void testPagedCDXExtraction() throws Exception {
+		addDescription("Test that the pages are retrieved and combined in the order of the pages.");
+		final String extractURL = "http://example.com/";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn("{\"blocks\": 7, \"pages\": 3, \"pageSize\": 3}");
+		when(retriever.retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class))).thenAnswer(
+				new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				String requestUrl = (String) invocation.getArguments()[0];
+				String page = requestUrl.substring(requestUrl.indexOf("&page=") + 6);
+				return HttpRetrieverTestUtils.deliverLines(
+						extractURL + " 2014012717120" + page + " filename" + page + " 123 html 200 DIGEST\n", 
+						(ResponseLineHandler) invocation.getArguments()[1]);
+			}
+		});
+		
+		try (PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever)) {
+			extractor.setPageConcurrency(2);
+			List<CDXEntry> entries = new ArrayList<CDXEntry>(extractor.retrieveAllCDX(extractURL));
+			assertEquals(entries.size(), 3);
+			for(int i = 0; i < entries.size(); i++) {
+				assertEquals(entries.get(i).getFilename(), "filename" + i);
+			}
+		}
+		verify(retriever, times(3)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+	}
+	
+	@Test
+    public void testPagedCDXExtractionNotSupported() throws Exception {
+		addDescription("Test that the response is used, when the CDX server ignores the request for the pages.");
+		String extractURL = "http://example.com/";
+		String resultString = extractURL + " 20140127171200 filename 123 html 200 0fac8bab025fac54495109c9d44b287b\n"
+				+ extractURL + " 20150127171200 filename2 321 html 200 0fac8bab025fac54495109c9d44b287b\n";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn(resultString);
+		
+		try (PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever)) {
+			extractor.setPageConcurrency(2);
+			assertEquals(extractor.retrieveAllCDX(extractURL).size(), 2);
+		}
+		verify(retriever, times(0)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+	}
+	
+	@Test
+    public void testWIDsForSameURLAreRetrievedOnce() throws Exception {
+		addDescription("Test that the CDX entries for the WIDs of the same URL are only retrieved once.");
+		String extractURL = "http://example.com/";
+		String resultString = extractURL + " 20140127171200 filename 123 html 200 0fac8bab025fac54495109c9d44b287b\n"
+				+ extractURL + " 20150127171200 filename2 321 html 200 0fac8bab025fac54495109c9d44b287b\n";
+
+		HttpRetriever retriever = mock(HttpRetriever.class);
+		HttpRetrieverTestUtils.mockLinesResponse(retriever, resultString);
+		when(retriever.retrieveFromUrl(anyString())).thenReturn(
+				"http://other.com/ 20140127171200 other 123 html 200 0fac8bab025fac54495109c9d44b287b");
+		
+		List<WID> wids = Arrays.asList(
+				(WID) WPID.createNarkWPid(extractURL, DateUtils.waybackDateToDate("20140101000000")),
+				(WID) WPID.createNarkWPid("http://other.com/", DateUtils.waybackDateToDate("20140101000000")),
+				(WID) WPID.createNarkWPid("https://www.example.com/", DateUtils.waybackDateToDate("20150101000000")),
+				(WID) WaybackWID.createNarkWaybackWID("filename", extractURL, 
+						DateUtils.waybackDateToDate("20150101000000")));
+		
+		PywbCDXExtractor extractor = new PywbCDXExtractor(serverUrl, retriever);
+		List<CDXEntry> entries = new ArrayList<CDXEntry>(extractor.retrieveCDXentries(wids));
+		assertEquals(entries.size(), 4);
+		assertEquals(entries.get(0).getFilename(), "filename");
+		assertEquals(entries.get(1).getFilename(), "other");
+		assertEquals(entries.get(2).getFilename(), "filename2");
+		assertEquals(entries.get(3).getFilename(), "filename");
+		verify(retriever, times(1)).retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class));
+		verify(retriever, times(1)).retrieveFromUrl(anyString());
+	}
 }
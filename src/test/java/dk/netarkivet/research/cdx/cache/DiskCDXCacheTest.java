@@ -0,0 +1,178 @@
+package dk.netarkivet.research.cdx.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXConstants;
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXFileReader;
+import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.LocalCDXExtractor;
+import dk.netarkivet.research.cdx.server.LocalCDXServer;
+import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.testutils.TestFileUtils;
+
+public class DiskCDXCacheTest extends ExtendedTestCase {
+
+	File dir = new File("tempDir");
+	List<CDXEntry> entries;
+
+	@BeforeClass
+	public void setupEntries() throws Exception {
+		entries = new ArrayList<CDXEntry>(
+				new CDXFileReader().extractCDXFromFile(new File("src/test/resources/cdx/valid.cdx")));
+	}
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		TestFileUtils.removeFile(dir);
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		TestFileUtils.removeFile(dir);
+	}
+
+	@Test
+	public void testPutAndGet() throws Exception {
+		addDescription("Test that the cached CDX entries are returned with all their values.");
+		try (DiskCDXCache cache = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+			assertNull(cache.get("url"));
+			cache.put("url", entries);
+			List<CDXEntry> cached = cache.get("url");
+			assertNotNull(cached);
+			assertEquals(cached.size(), entries.size());
+			for(int i = 0; i < entries.size(); i++) {
+				assertEquals(cached.get(i).extractCDXAsLine(CDXConstants.getNasDefaultCDXFormat()),
+						entries.get(i).extractCDXAsLine(CDXConstants.getNasDefaultCDXFormat()));
+			}
+			assertEquals(cache.getHitCount(), 1L);
+			assertEquals(cache.getMissCount(), 1L);
+
+			addStep("Cache an empty list", "Should be a hit with no entries");
+			cache.put("empty", new ArrayList<CDXEntry>());
+			assertTrue(cache.get("empty").isEmpty());
+		}
+	}
+
+	@Test
+	public void testSurvivesReopening() throws Exception {
+		addDescription("Test that the cached CDX entries are still there, when the cache is opened again.");
+		try (DiskCDXCache cache = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+			cache.put("a", entries);
+			cache.put("b", entries.subList(0, 1));
+		}
+		try (DiskCDXCache cache = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+			assertEquals(cache.size(), 2);
+			assertEquals(cache.get("a").size(), entries.size());
+			assertEquals(cache.get("b").size(), 1);
+		}
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		addDescription("Test that the cached CDX entries expire after the time-to-live.");
+		final long[] now = new long[]{1000L};
+		try (DiskCDXCache cache = new DiskCDXCache(dir, 100L) {
+			@Override
+			protected long currentTimeMillis() {
+				return now[0];
+			}
+		}) {
+			cache.put("url", entries);
+			now[0] += 100L;
+			assertNotNull(cache.get("url"));
+			now[0] += 1L;
+			assertNull(cache.get("url"));
+			assertEquals(cache.getEvictionCount(), 1L);
+			assertEquals(cache.size(), 0);
+
+			addStep("Put the entries again", "Should be fresh again");
+			cache.put("url", entries);
+			assertNotNull(cache.get("url"));
+		}
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		addDescription("Test that compacting removes the replaced blocks, but keeps the current ones.");
+		try (DiskCDXCache cache = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+			for(int i = 0; i < 5; i++) {
+				cache.put("url", entries);
+			}
+			long size = cache.getDataFileSize();
+			cache.compact();
+			assertTrue(cache.getDataFileSize() * 5 <= size);
+			assertEquals(cache.get("url").size(), entries.size());
+		}
+		try (DiskCDXCache cache = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+			assertEquals(cache.get("url").size(), entries.size());
+		}
+	}
+
+	@Test
+	public void testTieredCache() throws Exception {
+		addDescription("Test that entries from the disk tier are put into the memory tier.");
+		try (DiskCDXCache disk = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+			disk.put("url", entries);
+			LruCDXCache memory = new LruCDXCache();
+			TieredCDXCache cache = new TieredCDXCache(memory, disk);
+			assertNotNull(cache.get("url"));
+			assertNotNull(cache.get("url"));
+			assertEquals(disk.getHitCount(), 1L);
+			assertEquals(memory.getHitCount(), 1L);
+			assertNull(cache.get("other"));
+			assertEquals(cache.getMissCount(), 1L);
+		}
+	}
+
+	@Test
+	public void testFailedLookupIsNotCached() throws Exception {
+		addDescription("Test that a failed lookup is not cached, so it is retried after the cache is reopened.");
+		LocalCDXExtractor localExtractor = new LocalCDXExtractor(
+				Arrays.asList(new File("src/test/resources/cdx/sorted.cdx")));
+		try (LocalCDXServer server = new LocalCDXServer(localExtractor, 0).start()) {
+			server.setErrorRate(1.0);
+			addStep("Look up a URL, while the CDX server fails", "Should fail, and not cache anything");
+			try (DiskCDXCache disk = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+				TieredCDXCache cache = new TieredCDXCache(new LruCDXCache(), disk);
+				DabCDXExtractor extractor = new DabCDXExtractor(server.getDabUrl(), new HttpRetriever(), cache);
+				assertNull(extractor.retrieveAllCDX("http://www.kb.dk/robots.txt"));
+				assertEquals(cache.size(), 0);
+				assertEquals(server.getInjectedErrorCount(), 1L);
+
+				cache.put("failed", null);
+				assertNull(cache.get("failed"));
+			}
+
+			server.setErrorRate(0.0);
+			addStep("Reopen the cache, and look up the URL again", "Should retry the lookup against the server");
+			try (DiskCDXCache disk = new DiskCDXCache(dir, DiskCDXCache.NO_EXPIRY)) {
+				assertEquals(disk.size(), 0);
+				TieredCDXCache cache = new TieredCDXCache(new LruCDXCache(), disk);
+				DabCDXExtractor extractor = new DabCDXExtractor(server.getDabUrl(), new HttpRetriever(), cache);
+				Collection<CDXEntry> found = extractor.retrieveAllCDX("http://www.kb.dk/robots.txt");
+				assertNotNull(found);
+				assertEquals(found.size(), 3);
+				assertEquals(server.getRequestCount(), 2L);
+				assertEquals(disk.size(), 1);
+			}
+		} finally {
+			localExtractor.close();
+		}
+	}
+}
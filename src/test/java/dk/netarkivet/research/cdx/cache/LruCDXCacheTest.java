@@ -0,0 +1,90 @@
+package dk.netarkivet.research.cdx.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXFileReader;
+import dk.netarkivet.research.cdx.PackedCDXEntries;
+
+public class LruCDXCacheTest extends ExtendedTestCase {
+
+	List<CDXEntry> entries;
+
+	@BeforeClass
+	public void setupEntries() throws Exception {
+		entries = new ArrayList<CDXEntry>(
+				new CDXFileReader().extractCDXFromFile(new File("src/test/resources/cdx/valid.cdx")));
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		addDescription("Test that the cache counts the hits and misses.");
+		LruCDXCache cache = new LruCDXCache();
+		assertNull(cache.get("url"));
+		cache.put("url", entries);
+		assertEquals(cache.get("url"), entries);
+		assertEquals(cache.getHitCount(), 1L);
+		assertEquals(cache.getMissCount(), 1L);
+		assertEquals(cache.size(), 1);
+		assertTrue(cache.getEstimatedBytes() > 0);
+
+		cache.clear();
+		assertEquals(cache.size(), 0);
+		assertEquals(cache.getEstimatedBytes(), 0L);
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsedKey() throws Exception {
+		addDescription("Test that the least recently used key is evicted, when there are too many keys.");
+		LruCDXCache cache = new LruCDXCache(2, LruCDXCache.DEFAULT_MAX_BYTES);
+		cache.put("a", entries);
+		cache.put("b", entries);
+		assertNotNull(cache.get("a"));
+		cache.put("c", entries);
+
+		assertEquals(cache.size(), 2);
+		assertEquals(cache.getEvictionCount(), 1L);
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+	}
+
+	@Test
+	public void testEvictOnBytes() throws Exception {
+		addDescription("Test that the cache stays within the bound on the estimated number of bytes.");
+		PackedCDXEntries packed = new PackedCDXEntries(entries);
+		long size = LruCDXCache.estimateMemoryUsage(packed);
+		assertTrue(size < LruCDXCache.estimateMemoryUsage(entries));
+
+		LruCDXCache cache = new LruCDXCache(100, size * 3);
+		for(int i = 0; i < 10; i++) {
+			cache.put("url" + i, packed);
+		}
+		assertEquals(cache.size(), 2);
+		assertTrue(cache.getEstimatedBytes() <= size * 3);
+		assertEquals(cache.getEvictionCount(), 8L);
+	}
+
+	@Test
+	public void testTooLargeToCache() throws Exception {
+		addDescription("Test that entries larger than the whole cache are not cached.");
+		LruCDXCache cache = new LruCDXCache(100, 1000L);
+		cache.put("small", Arrays.asList((CDXEntry) null));
+		cache.put("large", entries);
+		assertNotNull(cache.get("small"));
+		assertNull(cache.get("large"));
+		assertEquals(cache.getEvictionCount(), 0L);
+	}
+}
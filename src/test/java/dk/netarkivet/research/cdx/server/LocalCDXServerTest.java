@@ -0,0 +1,214 @@
+package dk.netarkivet.research.cdx.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import dk.netarkivet.research.cdx.CDXEntry;
+import dk.netarkivet.research.cdx.CDXFuture;
+import dk.netarkivet.research.cdx.CDXMatchType;
+import dk.netarkivet.research.cdx.CDXQueryIterator;
+import dk.netarkivet.research.cdx.CDXSampling;
+import dk.netarkivet.research.cdx.DabCDXExtractor;
+import dk.netarkivet.research.cdx.LocalCDXExtractor;
+import dk.netarkivet.research.cdx.PooledAsyncCDXExtractor;
+import dk.netarkivet.research.cdx.PywbCDXExtractor;
+import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.interval.UrlInterval;
+import dk.netarkivet.research.testutils.TestFileUtils;
+import dk.netarkivet.research.utils.DateUtils;
+import dk.netarkivet.research.wid.WPID;
+
+public class LocalCDXServerTest extends ExtendedTestCase {
+
+	File sortedCdxFile = new File("src/test/resources/cdx/sorted.cdx");
+	LocalCDXExtractor localExtractor;
+	LocalCDXServer server;
+
+	@BeforeClass
+	public void startServer() {
+		localExtractor = new LocalCDXExtractor(Arrays.asList(sortedCdxFile));
+		server = new LocalCDXServer(localExtractor, 0).start();
+	}
+
+	@AfterClass
+	public void stopServer() {
+		server.close();
+		localExtractor.close();
+	}
+
+	@Test
+	public void testDabProtocol() throws Exception {
+		addDescription("Test the DabCDXExtractor against the DAB protocol of the local CDX server.");
+		DabCDXExtractor extractor = new DabCDXExtractor(server.getDabUrl(), new HttpRetriever());
+		addStep("Retrieve all the CDX entries for a URL", "Should be the same as from the local CDX file");
+		Collection<CDXEntry> entries = extractor.retrieveAllCDX("http://www.kb.dk/robots.txt");
+		assertEquals(entries.size(), 3);
+		for(CDXEntry entry : entries) {
+			assertTrue(entry.getUrl().endsWith("kb.dk/robots.txt"), entry.getUrl());
+		}
+
+		addStep("Make a host query", "Should give all the CDX entries for the host");
+		int count = 0;
+		try (CDXQueryIterator iterator = extractor.queryCDX("http://kb.dk/", CDXMatchType.HOST)) {
+			while(iterator.hasNext()) {
+				iterator.next();
+				count++;
+			}
+		}
+		assertEquals(count, 6);
+
+		addStep("Retrieve an unknown URL", "Should give no CDX entries");
+		assertTrue(extractor.retrieveAllCDX("http://www.example.com/").isEmpty());
+	}
+
+	@Test
+	public void testAsyncLookupsWithPooledConnections() throws Exception {
+		addDescription("Test asynchronous lookups against the local CDX server through a pool of connections.");
+		long before = server.getRequestCount();
+		try (HttpRetriever httpRetriever = new HttpRetriever(2);
+				PooledAsyncCDXExtractor asyncExtractor = new PooledAsyncCDXExtractor(
+						new PywbCDXExtractor(server.getPywbUrl(), httpRetriever), 2)) {
+			List<CDXFuture<Collection<CDXEntry>>> lookups = new ArrayList<CDXFuture<Collection<CDXEntry>>>();
+			for(int i = 0; i < 20; i++) {
+				lookups.add(asyncExtractor.retrieveAllCDXAsync(i % 2 == 0 ? "http://netarkivet.dk/" 
+						: "http://www.kb.dk/robots.txt"));
+			}
+			addStep("Wait for the lookups", "Should all be resolved through the two pooled connections");
+			for(int i = 0; i < lookups.size(); i++) {
+				assertEquals(lookups.get(i).join().size(), 3);
+			}
+		}
+		assertTrue(server.getRequestCount() > before);
+	}
+
+	@Test
+	public void testPywbProtocol() throws Exception {
+		addDescription("Test the PywbCDXExtractor against the pywb protocol of the local CDX server.");
+		PywbCDXExtractor extractor = new PywbCDXExtractor(server.getPywbUrl(), new HttpRetriever());
+		addStep("Retrieve all the CDX entries for a URL", "Should be the same as from the local CDX file");
+		assertEquals(extractor.retrieveAllCDX("http://netarkivet.dk/").size(), 3);
+
+		addStep("Retrieve the CDX entry closest to a date", "Should find the closest entry");
+		CDXEntry entry = extractor.retrieveCDX(WPID.createNarkWPid("http://netarkivet.dk/", 
+				DateUtils.waybackDateToDate("20150901000000")));
+		assertNotNull(entry);
+		assertEquals(DateUtils.dateToWaybackDate(entry.getDateAsDate()), "20150910100240");
+
+		addStep("Retrieve the CDX entries within an interval", "Should only give the entries within the interval");
+		assertEquals(extractor.retrieveCDXForInterval(new UrlInterval("http://kb.dk/robots.txt", 
+				DateUtils.waybackDateToDate("20100101000000"), null)).size(), 2);
+
+		addStep("Retrieve with the paged API", "Should give all the CDX entries from the pages");
+		server.setPageSize(1);
+		try {
+			extractor.setPageConcurrency(2);
+			assertEquals(extractor.retrieveAllCDX("http://kb.dk/robots.txt").size(), 3);
+		} finally {
+			server.setPageSize(LocalCDXServer.DEFAULT_PAGE_SIZE);
+			extractor.close();
+		}
+	}
+
+	@Test
+	public void testSampledQueries() throws Exception {
+		addDescription("Test that the sampling is done by the server, so only the sample is transferred.");
+		File dir = new File("tempDir");
+		TestFileUtils.removeFile(dir);
+		dir.mkdirs();
+		StringBuilder cdx = new StringBuilder(" CDX A b a m s k r V g\n");
+		for(int day = 1; day <= 3; day++) {
+			for(int hour = 10; hour < 14; hour++) {
+				cdx.append("kb.dk/sample 2015010" + day + hour + "0000 http://www.kb.dk/sample text/html 200 "
+						+ "AB66XB3DFYS3M2OYQ4EWR54X4NA45HTI - 1000 sample.warc\n");
+			}
+		}
+		File cdxFile = TestFileUtils.createTestFile(dir, "sample.cdx", cdx.toString());
+		try (LocalCDXExtractor sampleExtractor = new LocalCDXExtractor(Arrays.asList(cdxFile));
+				LocalCDXServer sampleServer = new LocalCDXServer(sampleExtractor, 0).start()) {
+			addStep("Request the first capture of each day", "Should only transfer one line per day");
+			HttpRetriever retriever = new HttpRetriever();
+			String response = retriever.retrieveFromUrl(sampleServer.getPywbUrl() 
+					+ "?url=kb.dk/sample&collapse=timestamp:8");
+			assertEquals(response.trim().split("\n").length, 3);
+			
+			addStep("Retrieve a sampled interval with the pywb extractor", "Should give the first capture of the days");
+			PywbCDXExtractor extractor = new PywbCDXExtractor(sampleServer.getPywbUrl(), retriever);
+			UrlInterval interval = new UrlInterval("http://kb.dk/sample", 
+					DateUtils.waybackDateToDate("20150101110000"), null, CDXSampling.DAY);
+			List<CDXEntry> entries = new ArrayList<CDXEntry>(extractor.retrieveCDXForInterval(interval));
+			assertEquals(entries.size(), 3);
+			assertEquals(DateUtils.dateToWaybackDate(entries.get(0).getDateAsDate()), "20150101110000");
+			int index = 0;
+			for(CDXEntry local : sampleExtractor.retrieveCDXForInterval(interval)) {
+				assertEquals(entries.get(index++).getDateAsLong(), local.getDateAsLong());
+			}
+			assertEquals(index, 3);
+			
+			addStep("Query a sampled interval with a prefix", "Should give the first capture of the hours");
+			long count = 0;
+			try (CDXQueryIterator iterator = extractor.queryCDXForInterval(new UrlInterval("http://kb.dk/", null, 
+					null, CDXSampling.HOUR), CDXMatchType.PREFIX)) {
+				while(iterator.hasNext()) {
+					iterator.next();
+					count++;
+				}
+			}
+			assertEquals(count, 12L);
+		} finally {
+			TestFileUtils.removeFile(dir);
+		}
+	}
+
+	@Test
+	public void testInjectedErrors() throws Exception {
+		addDescription("Test that the local CDX server can answer requests with errors and latency.");
+		LocalCDXServer failingServer = new LocalCDXServer(localExtractor, 0);
+		failingServer.setErrorRate(1.0);
+		failingServer.setLatency(10L, 20L);
+		failingServer.start();
+		try {
+			HttpRetriever retriever = new HttpRetriever();
+			long start = System.currentTimeMillis();
+			assertNull(retriever.retrieveFromUrl(failingServer.getPywbUrl() + "?url=netarkivet.dk/"));
+			assertTrue(System.currentTimeMillis() - start >= 10L);
+			DabCDXExtractor extractor = new DabCDXExtractor(failingServer.getDabUrl(), retriever);
+			assertNull(extractor.retrieveAllCDX("http://netarkivet.dk/"), "A failed lookup must not look like no captures");
+			assertEquals(failingServer.getRequestCount(), 2L);
+			assertEquals(failingServer.getInjectedErrorCount(), 2L);
+		} finally {
+			failingServer.close();
+		}
+	}
+
+	@Test
+	public void testInvalidRequests() throws Exception {
+		addDescription("Test that invalid requests are answered with an error.");
+		HttpRetriever retriever = new HttpRetriever();
+		assertNull(retriever.retrieveFromUrl(server.getPywbUrl() + "?fl=url"));
+		assertNull(retriever.retrieveFromUrl(server.getPywbUrl() + "?url=kb.dk/&fl=unknown"));
+		assertNull(retriever.retrieveFromUrl(server.getDabUrl()));
+		assertEquals(retriever.retrieveFromUrl(server.getPywbUrl() + "?url=kb.dk/&fl=url,status"), 
+				"http://www.kb.dk/ 200\nhttp://www.kb.dk/ 200\n");
+	}
+
+	@Test
+	public void testParseArgumentsWithUnencodedUrl() {
+		addDescription("Test that an unencoded URL with its own arguments is kept together.");
+		assertEquals(LocalCDXServer.parseArguments("url=http://a.dk/?x=1&y=2&fl=url,timestamp&limit=1", 
+				LocalCDXServer.PYWB_ARGUMENTS).get("url"), "http://a.dk/?x=1&y=2");
+		assertEquals(LocalCDXServer.parseArguments("q=a.dk/c++%20", Arrays.asList("q")).get("q"), "a.dk/c++ ");
+	}
+}
@@ -1,6 +1,6 @@
 package dk.netarkivet.research.duplicates;
 
-import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -12,6 +12,7 @@ import static org.testng.Assert.assertNull;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.annotations.Test;
@@ -19,6 +20,7 @@ import org.testng.annotations.Test;
 import dk.netarkivet.research.cdx.CDXConstants;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
+import dk.netarkivet.research.cdx.IndexedCDXExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobExtractor;
 import dk.netarkivet.research.harvestdb.HarvestJobInfo;
 import dk.netarkivet.research.interval.UrlInterval;
@@ -43,14 +45,15 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 		
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(testEntries);
+		UrlInterval interval = new UrlInterval(testUrl, null, null);
+		when(extractor.retrieveCDXForInterval(eq(interval))).thenReturn(testEntries);
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
-		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, null, null));
+		DuplicateMap map = finder.makeDuplicateMap(interval);
 		
 		assertEquals(map.getDateToChecksumMap().size(), testEntries.size());
 		
-		verify(extractor).retrieveAllCDX(eq(testUrl));
+		verify(extractor).retrieveCDXForInterval(eq(interval));
 		verifyZeroInteractions(jobExtractor);
 	}
 	
@@ -133,7 +136,7 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(new ArrayList<CDXEntry>());
+		when(extractor.retrieveCDXForInterval(any(UrlInterval.class))).thenReturn(new ArrayList<CDXEntry>());
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
 		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, null, null));
@@ -147,10 +150,14 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(testEntries);
+		UrlInterval interval = new UrlInterval(testUrl, DateUtils.waybackDateToDate("20120101000000"), 
+				DateUtils.waybackDateToDate("20140101000000"));
+		// The extractor limits the entries to the interval.
+		when(extractor.retrieveCDXForInterval(eq(interval))).thenReturn(testEntries.subList(1, 3));
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
-		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, DateUtils.waybackDateToDate("20120101000000"), DateUtils.waybackDateToDate("20140101000000")));
+		DuplicateMap map = finder.makeDuplicateMap(interval);
+		verify(extractor).retrieveCDXForInterval(eq(interval));
 		
 		assertEquals(map.getDateToChecksumMap().size(), 2);
 		assertEquals(map.getChecksumToDateListMap().size(), 1);
@@ -163,10 +170,14 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(testEntries);
+		UrlInterval interval = new UrlInterval(testUrl, DateUtils.waybackDateToDate("20120101000000"), 
+				null);
+		// The extractor limits the entries to the interval.
+		when(extractor.retrieveCDXForInterval(eq(interval))).thenReturn(testEntries.subList(1, 6));
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
-		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, DateUtils.waybackDateToDate("20120101000000"), null));
+		DuplicateMap map = finder.makeDuplicateMap(interval);
+		verify(extractor).retrieveCDXForInterval(eq(interval));
 		
 		assertEquals(map.getDateToChecksumMap().size(), 5);
 		assertEquals(map.getChecksumToDateListMap().size(), 2);
@@ -180,14 +191,45 @@ public class DuplicateExtractorTest extends ExtendedTestCase {
 		CDXExtractor extractor = mock(CDXExtractor.class);
 		HarvestJobExtractor jobExtractor = mock(HarvestJobExtractor.class);
 
-		when(extractor.retrieveAllCDX(anyString())).thenReturn(testEntries);
+		UrlInterval interval = new UrlInterval(testUrl, null, 
+				DateUtils.waybackDateToDate("20140101000000"));
+		// The extractor limits the entries to the interval.
+		when(extractor.retrieveCDXForInterval(eq(interval))).thenReturn(testEntries.subList(0, 3));
 		
 		DuplicateExtractor finder = new DuplicateExtractor(extractor, jobExtractor);
-		DuplicateMap map = finder.makeDuplicateMap(new UrlInterval(testUrl, null, DateUtils.waybackDateToDate("20140101000000")));
+		DuplicateMap map = finder.makeDuplicateMap(interval);
+		verify(extractor).retrieveCDXForInterval(eq(interval));
 		
 		assertEquals(map.getDateToChecksumMap().size(), 3);
 		assertEquals(map.getChecksumToDateListMap().size(), 1);
 		assertEquals(map.getChecksumToDateListMap().get("VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM").size(), 3);
 	}
-}
 
+	@Test
+	public void testDigestDuplicates() throws Exception {
+		addDescription("Test finding the duplicates of a digest across URLs through the digest index.");
+		IndexedCDXExtractor extractor = mock(IndexedCDXExtractor.class);
+		String digest = "VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM";
+		Character[] format = new Character[] {'a', 'b', 'k'};
+		when(extractor.retrieveCDXForDigest(eq(digest))).thenReturn(Arrays.asList(
+				CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk/", "20110101010101", digest}, format),
+				CDXEntry.createCDXEntry(new String[] {"https://www.netarkivet.dk/", "20120202020202", digest}, format),
+				CDXEntry.createCDXEntry(new String[] {"http://kb.dk/logo.png", "20130303030303", digest}, format)));
+
+		DuplicateExtractor finder = new DuplicateExtractor(extractor, null);
+		Map<String, DuplicateMap> maps = finder.makeDigestDuplicateMaps(digest);
+		
+		addStep("Check the duplicate maps", "Should have a map for each SURT with the captures of the digest");
+		assertEquals(maps.size(), 2);
+		assertEquals(maps.get("http://netarkivet.dk/").getDateToChecksumMap().size(), 2);
+		assertEquals(maps.get("http://kb.dk/logo.png").getDateToChecksumMap().size(), 1);
+		verify(extractor).retrieveCDXForDigest(eq(digest));
+	}
+	
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testDigestDuplicatesWithoutIndex() throws Exception {
+		addDescription("Test that the duplicates of a digest cannot be found without a digest index.");
+		CDXExtractor extractor = mock(CDXExtractor.class);
+		new DuplicateExtractor(extractor, null).makeDigestDuplicateMaps("VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM");
+	}
+}
@@ -1,15 +1,19 @@
 package dk.netarkivet.research.interval;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import dk.netarkivet.research.cdx.CDXSampling;
 import dk.netarkivet.research.testutils.TestFileUtils;
 import dk.netarkivet.research.utils.FileUtils;
 
@@ -45,5 +49,20 @@ public class CsvUrlIntervalReaderTest extends ExtendedTestCase {
 		TestFileUtils.removeFile(testFile);
 		reader.extractAllUrlIntervals();
 	}
+	
+	@Test
+	public void testExtractionWithSampling() throws Exception {
+		addDescription("Test extracting URL intervals with the optional sampling.");
+		File testFile = TestFileUtils.createTestFile(testDir, "W;http://www.kb.dk/;2005-06-22T20:37:27Z;;day\n"
+				+ "W;http://www.kb.dk/;;2015-06-22T20:37:27Z;month\n"
+				+ "W;http://www.kb.dk/;;;week\n"
+				+ "W;http://www.kb.dk/\n");
+		List<UrlInterval> urlIntervals = new ArrayList<UrlInterval>(
+				new CsvUrlIntervalReader(testFile).extractAllUrlIntervals());
+		
+		assertEquals(urlIntervals.size(), 3);
+		assertEquals(urlIntervals.get(0).getSampling(), CDXSampling.DAY);
+		assertEquals(urlIntervals.get(1).getSampling(), CDXSampling.MONTH);
+		assertNull(urlIntervals.get(2).getSampling());
+	}
 }
-
@@ -1,7 +1,10 @@
 package dk.netarkivet.research.links;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
@@ -21,6 +24,7 @@ import org.jwat.warc.WarcRecord;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import dk.netarkivet.research.cdx.CDXBloomFilter;
 import dk.netarkivet.research.cdx.CDXEntry;
 import dk.netarkivet.research.cdx.CDXExtractor;
 import dk.netarkivet.research.utils.DateUtils;
@@ -59,7 +63,7 @@ public class CDXLinkLocatorTest extends ExtendedTestCase {
 		when(linkExtractor.extractLinks(any(InputStream.class), any(URL.class))).thenReturn(Arrays.asList(link));
 		
 		CDXExtractor cdxExtractor = mock(CDXExtractor.class);
-		when(cdxExtractor.retrieveCDX(any(WaybackWID.class))).thenReturn(cdxEntry);
+		when(cdxExtractor.retrieveCDX(any(WaybackWID.class), anyCollectionOf(Character.class))).thenReturn(cdxEntry);
 		
 		LinksLocator ll = new CDXLinksLocator(linkExtractor, cdxExtractor);
 		Collection<LinkStatus> res = ll.locateLinks(record);
@@ -71,4 +75,36 @@ public class CDXLinkLocatorTest extends ExtendedTestCase {
 			assertEquals(ls.linkDate.getTime(), DateUtils.waybackDateToDate(waybackDate).getTime());
 		}
 	}
+
+	@Test
+	public void testBloomFilterSkipsLookups() throws Exception {
+		addDescription("Test that links, which are not in the bloom filter, are not looked up in the CDX server");
+		assertNotNull(record);
+		
+		String archivedLink = "http://netarkivet.dk/link";
+		String missingLink = "http://netarkivet.dk/missing";
+		CDXEntry cdxEntry = CDXEntry.createCDXEntry(new String[]{archivedLink, "20140710050626"}, 
+				new Character[]{'a', 'b'});
+		
+		LinkExtractor linkExtractor = mock(LinkExtractor.class); 
+		when(linkExtractor.supportedMimetype()).thenReturn("text/html");
+		when(linkExtractor.extractLinks(any(InputStream.class), any(URL.class)))
+				.thenReturn(Arrays.asList(archivedLink, missingLink));
+		
+		CDXExtractor cdxExtractor = mock(CDXExtractor.class);
+		when(cdxExtractor.retrieveCDX(any(WaybackWID.class), anyCollectionOf(Character.class))).thenReturn(cdxEntry);
+		
+		CDXBloomFilter bloomFilter = new CDXBloomFilter(10, 0.0001);
+		bloomFilter.add(archivedLink);
+		
+		CDXLinksLocator ll = new CDXLinksLocator(linkExtractor, cdxExtractor, bloomFilter);
+		Collection<LinkStatus> res = ll.locateLinks(record);
+		assertEquals(res.size(), 2);
+		for(LinkStatus ls : res) {
+			assertEquals(ls.found, ls.linkUrl.equals(archivedLink));
+		}
+		verify(cdxExtractor, times(1)).retrieveCDX(any(WaybackWID.class), anyCollectionOf(Character.class));
+		assertEquals(ll.getLookups(), 1L);
+		assertEquals(ll.getFilteredLookups(), 1L);
+	}
 }
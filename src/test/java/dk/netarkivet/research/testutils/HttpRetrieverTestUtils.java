@@ -0,0 +1,60 @@
+package dk.netarkivet.research.testutils;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import dk.netarkivet.research.http.HttpRetriever;
+import dk.netarkivet.research.http.ResponseLineHandler;
+
+public class HttpRetrieverTestUtils {
+
+	/**
+	 * Mocks the streamed response of the retriever, so the lines of the response are delivered to the handler.
+	 * @param retriever The mocked retriever.
+	 * @param response The response. If null, then the retrieval fails.
+	 */
+	public static void mockLinesResponse(HttpRetriever retriever, String response) {
+		when(retriever.retrieveLinesFromUrl(anyString(), any(ResponseLineHandler.class)))
+				.thenAnswer(answerLines(response));
+	}
+
+	/**
+	 * Creates an answer, which delivers the lines of the response to the handler in the same way as reading
+	 * them from the HTTP response.
+	 * @param response The response. If null, then the retrieval fails.
+	 * @return The answer.
+	 */
+	public static Answer<Boolean> answerLines(final String response) {
+		return new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				return deliverLines(response, (ResponseLineHandler) invocation.getArguments()[1]);
+			}
+		};
+	}
+
+	/**
+	 * Delivers the lines of the response to the handler, like reading them with a BufferedReader.
+	 * @param response The response. If null, then nothing is delivered.
+	 * @param handler The handler of the lines.
+	 * @return Whether there was a response.
+	 */
+	public static boolean deliverLines(String response, ResponseLineHandler handler) {
+		if(response == null) {
+			return false;
+		}
+		if(response.isEmpty()) {
+			return true;
+		}
+		String[] lines = response.split("\n", -1);
+		int count = response.endsWith("\n") ? lines.length - 1 : lines.length;
+		for(int i = 0; i < count; i++) {
+			handler.handleLine(lines[i]);
+		}
+		return true;
+	}
+}
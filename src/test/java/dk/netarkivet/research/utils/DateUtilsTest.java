@@ -5,6 +5,7 @@ import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertEquals;
 
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.util.Date;
 import java.util.Locale;
 
@@ -72,4 +73,49 @@ public class DateUtilsTest extends ExtendedTestCase {
 		assertNotNull(d);
 		assertEquals(d.getTime(), 1457522216000L);
 	}
+	
+	@Test
+	public void testWaybackDateToMillis() throws Exception {
+		addDescription("Test that the integer arithmetic gives the same dates as the date format.");
+		for(String date : new String[]{"19700101000000", "20130321174128", "20000229235959", "19991231235959",
+				"21000301120000", "16000229000000"}) {
+			String line = "prefix " + date + " suffix";
+			assertEquals(DateUtils.waybackDateToMillis(line, 7, 21), DateUtils.waybackDateToDate(date).getTime(),
+					date);
+		}
+	}
+	
+	@Test
+	public void testWaybackDateToMillisFallback() throws Exception {
+		addDescription("Test that dates outside the 14 digit Gregorian form are delegated to the date format.");
+		String date = "15000101000000";
+		assertEquals(DateUtils.waybackDateToMillis(date, 0, date.length()), 
+				DateUtils.waybackDateToDate(date).getTime());
+	}
+	
+	@Test(expectedExceptions = ParseException.class)
+	public void testWaybackDateToMillisInvalidDay() throws Exception {
+		addDescription("Test that an invalid date is rejected.");
+		String date = "20130229000000";
+		DateUtils.waybackDateToMillis(date, 0, date.length());
+	}
+	
+	@Test(expectedExceptions = ParseException.class)
+	public void testWaybackDateToMillisGarbage() throws Exception {
+		addDescription("Test that a date with non-digits is rejected.");
+		String date = "2013X321174128";
+		DateUtils.waybackDateToMillis(date, 0, date.length());
+	}
+	
+	@Test
+	public void testMonthsSinceEpoch() throws Exception {
+		addDescription("Test that the months since epoch follow the months of the formatted dates.");
+		for(String date : new String[]{"19700101000000", "19700131235959", "20000229235959", "20000301000000",
+				"19991231235959", "21000301120000", "16000229000000", "19691231235959", "20161021124237"}) {
+			long millis = DateUtils.waybackDateToDate(date).getTime();
+			int year = Integer.parseInt(date.substring(0, 4));
+			int month = Integer.parseInt(date.substring(4, 6));
+			assertEquals(DateUtils.monthsSinceEpoch(millis), (year - 1970) * 12L + month - 1, date);
+		}
+	}
 }
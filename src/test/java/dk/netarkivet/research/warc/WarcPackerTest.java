@@ -78,4 +78,19 @@ public class WarcPackerTest extends ExtendedTestCase {
 		
 		assertEquals(outputDir.list().length, 1);
 	}
+	
+	@Test
+	public void testWarcPackerSuccessExtractFromIterator() throws Exception {
+		addDescription("Test extraction from an iterator of CDX entries.");
+		
+		ArchiveExtractor ae = mock(ArchiveExtractor.class);
+		when(ae.extractWarcRecord(any(CDXEntry.class))).thenReturn(contentFile);
+
+		CDXEntry cdxEntry = CDXEntry.createCDXEntry(new String[] {"http://netarkivet.dk", "20110101010101", "VJ3CKK3ZH2FR7V2KM5TSI3TENA7ZSWKM"}, new Character[] {'A', 'b', 'k'});
+		
+		WarcPacker wp = new WarcPacker(ae);
+		wp.extractToWarc(Arrays.asList(cdxEntry).iterator(), outputDir);
+		
+		assertEquals(outputDir.list().length, 1);
+	}
 }